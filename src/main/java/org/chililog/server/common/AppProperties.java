@@ -24,8 +24,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import org.apache.commons.lang.StringUtils;
@@ -500,6 +503,141 @@ public class AppProperties {
         return loadString(properties, MQ_DEAD_LETTER_ADDRESS, null);
     }
 
+    // *****************************************************************************************************************
+    // *****************************************************************************************************************
+    // Repository Storage
+    // *****************************************************************************************************************
+    // *****************************************************************************************************************
+
+    /**
+     * Returns Flag to indicate if repository storage queues are to be consumed asynchronously. If true, messages are
+     * pushed to a message handler and processed by a shared pool of threads. If false, each storage worker has its own
+     * thread that polls the storage queue.
+     */
+    public boolean getStorageAsyncEnabled() {
+        return _storageAsyncEnabled;
+    }
+
+    static final String STORAGE_ASYNC_ENABLED = "storage.async.enabled";
+
+    private boolean _storageAsyncEnabled = false;
+
+    static boolean loadStorageAsyncEnabled(Properties properties) {
+        return loadBoolean(properties, STORAGE_ASYNC_ENABLED, false);
+    }
+
+    /**
+     * Returns the number of threads shared by all repositories for processing storage queues when asynchronous
+     * consumption is enabled. Defaults to 2 threads per CPU core.
+     */
+    public int getStorageAsyncThreadPoolSize() {
+        return _storageAsyncThreadPoolSize;
+    }
+
+    static final String STORAGE_ASYNC_THREAD_POOL_SIZE = "storage.async.thread_pool.size";
+
+    private int _storageAsyncThreadPoolSize = 0;
+
+    static int loadStorageAsyncThreadPoolSize(Properties properties) {
+        return loadInt(properties, STORAGE_ASYNC_THREAD_POOL_SIZE, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Returns the number of seconds between samples of storage queue backlogs when autoscaling storage workers. 0 to
+     * turn off autoscaling. Defaults to 10 seconds.
+     */
+    public int getStorageAutoscaleIntervalSeconds() {
+        return _storageAutoscaleIntervalSeconds;
+    }
+
+    static final String STORAGE_AUTOSCALE_INTERVAL_SECONDS = "storage.autoscale.interval_seconds";
+
+    private int _storageAutoscaleIntervalSeconds = 0;
+
+    static int loadStorageAutoscaleIntervalSeconds(Properties properties) {
+        return loadInt(properties, STORAGE_AUTOSCALE_INTERVAL_SECONDS, 10);
+    }
+
+    /**
+     * Returns the number of messages waiting in a storage queue above which more storage workers may be started.
+     * Defaults to 1000.
+     */
+    public long getStorageAutoscaleBacklogThreshold() {
+        return _storageAutoscaleBacklogThreshold;
+    }
+
+    static final String STORAGE_AUTOSCALE_BACKLOG_THRESHOLD = "storage.autoscale.backlog_threshold";
+
+    private long _storageAutoscaleBacklogThreshold = 0;
+
+    static long loadStorageAutoscaleBacklogThreshold(Properties properties) {
+        return loadLong(properties, STORAGE_AUTOSCALE_BACKLOG_THRESHOLD, 1000);
+    }
+
+    /**
+     * Returns the number of minutes between runs of the retention service that removes expired repository entries. 0
+     * to turn off. Defaults to 60 minutes.
+     */
+    public int getStorageRetentionIntervalMinutes() {
+        return _storageRetentionIntervalMinutes;
+    }
+
+    static final String STORAGE_RETENTION_INTERVAL_MINUTES = "storage.retention.interval_minutes";
+
+    private int _storageRetentionIntervalMinutes = 0;
+
+    static int loadStorageRetentionIntervalMinutes(Properties properties) {
+        return loadInt(properties, STORAGE_RETENTION_INTERVAL_MINUTES, 60);
+    }
+
+    /**
+     * Returns the maximum number of expired repository entries to remove in one delete. Defaults to 1000.
+     */
+    public int getStorageRetentionBatchSize() {
+        return _storageRetentionBatchSize;
+    }
+
+    static final String STORAGE_RETENTION_BATCH_SIZE = "storage.retention.batch_size";
+
+    private int _storageRetentionBatchSize = 0;
+
+    static int loadStorageRetentionBatchSize(Properties properties) {
+        return loadInt(properties, STORAGE_RETENTION_BATCH_SIZE, 1000);
+    }
+
+    /**
+     * Returns the maximum number of expired repository entries to remove per second so that purging does not compete
+     * with the storage of new entries. 0 for no limit. Defaults to 5000.
+     */
+    public int getStorageRetentionMaxDeletesPerSecond() {
+        return _storageRetentionMaxDeletesPerSecond;
+    }
+
+    static final String STORAGE_RETENTION_MAX_DELETES_PER_SECOND = "storage.retention.max_deletes_per_second";
+
+    private int _storageRetentionMaxDeletesPerSecond = 0;
+
+    static int loadStorageRetentionMaxDeletesPerSecond(Properties properties) {
+        return loadInt(properties, STORAGE_RETENTION_MAX_DELETES_PER_SECOND, 5000);
+    }
+
+    /**
+     * Returns the maximum number of milliseconds a regular expression in a parser may run against a log entry before
+     * the entry is moved to the dead letter queue. Used by parsers that do not set their own timeout. 0 for no limit.
+     * Defaults to 1000 milliseconds.
+     */
+    public long getStorageRegexTimeoutMilliseconds() {
+        return _storageRegexTimeoutMilliseconds;
+    }
+
+    static final String STORAGE_REGEX_TIMEOUT_MILLISECONDS = "storage.regex_timeout_milliseconds";
+
+    private long _storageRegexTimeoutMilliseconds = 0;
+
+    static long loadStorageRegexTimeoutMilliseconds(Properties properties) {
+        return loadLong(properties, STORAGE_REGEX_TIMEOUT_MILLISECONDS, 1000);
+    }
+
     // *****************************************************************************************************************
     // *****************************************************************************************************************
     // PUB SUB
@@ -712,6 +850,324 @@ public class AppProperties {
         return loadString(properties, PUB_SUB_JSON_HTTP_TRUST_STORE_PASSWORD, null);
     }
 
+    /**
+     * Returns Flag to indicate if the raw TCP protocol is to be enabled for publishing log entries
+     */
+    public boolean getPubSubTcpEnabled() {
+        return _pubSubTcpEnabled;
+    }
+
+    static final String PUB_SUB_TCP_ENABLED = "pubsub.tcp.enabled";
+
+    private boolean _pubSubTcpEnabled = false;
+
+    static boolean loadPubSubTcpEnabled(Properties properties) {
+        return loadBoolean(properties, PUB_SUB_TCP_ENABLED, false);
+    }
+
+    /**
+     * Returns the IP address to use for binding our TCP server
+     */
+    public String getPubSubTcpHost() {
+        return _pubSubTcpHost;
+    }
+
+    static final String PUB_SUB_TCP_HOST = "pubsub.tcp.host";
+
+    private String _pubSubTcpHost = null;
+
+    static String loadPubSubTcpHost(Properties properties) {
+        return loadString(properties, PUB_SUB_TCP_HOST);
+    }
+
+    /**
+     * Returns the IP port to use for binding our TCP server
+     */
+    public int getPubSubTcpPort() {
+        return _pubSubTcpPort;
+    }
+
+    static final String PUB_SUB_TCP_PORT = "pubsub.tcp.port";
+
+    private int _pubSubTcpPort = 0;
+
+    static int loadPubSubTcpPort(Properties properties) {
+        return loadInt(properties, PUB_SUB_TCP_PORT, 61616);
+    }
+
+    /**
+     * Returns the maximum number of active threads used by netty to read from sockets. 0 for the netty default.
+     */
+    public int getPubSubTcpNettyWorkerThreadPoolSize() {
+        return _pubSubTcpNettyWorkerThreadPoolSize;
+    }
+
+    static final String PUB_SUB_TCP_NETTY_WORKER_THREAD_POOL_SIZE = "pubsub.tcp.netty_worker_thread_pool.size";
+
+    private int _pubSubTcpNettyWorkerThreadPoolSize = 0;
+
+    static int loadPubSubTcpNettyWorkerThreadPoolSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_TCP_NETTY_WORKER_THREAD_POOL_SIZE, 0);
+    }
+
+    /**
+     * Returns the maximum number of active threads used by netty to execute our handler
+     */
+    public int getPubSubTcpNettyHandlerThreadPoolSize() {
+        return _pubSubTcpNettyHandlerThreadPoolSize;
+    }
+
+    static final String PUB_SUB_TCP_NETTY_HANDLER_THREAD_POOL_SIZE = "pubsub.tcp.netty_handler_thread_pool.size";
+
+    private int _pubSubTcpNettyHandlerThreadPoolSize = 0;
+
+    static int loadPubSubTcpNettyHandlerThreadPoolSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_TCP_NETTY_HANDLER_THREAD_POOL_SIZE, 16);
+    }
+
+    /**
+     * Returns maximum size of the queued lines for each connection. When reached, reading from the connection is
+     * suspended until the lines have been published. 0 to disable. Defaults to 1MB.
+     */
+    public long getPubSubTcpNettyHandlerThreadPoolMaxChannelMemorySize() {
+        return _pubSubTcpNettyHandlerThreadPoolMaxChannelMemorySize;
+    }
+
+    static final String PUB_SUB_TCP_NETTY_HANDLER_THREAD_POOL_MAX_CHANNEL_MEMORY_SIZE = "pubsub.tcp.netty_handler_thread_pool.max_channel_memory_size";
+
+    private long _pubSubTcpNettyHandlerThreadPoolMaxChannelMemorySize = 0;
+
+    static long loadPubSubTcpNettyHandlerThreadPoolMaxChannelMemorySize(Properties properties) {
+        return loadLong(properties, PUB_SUB_TCP_NETTY_HANDLER_THREAD_POOL_MAX_CHANNEL_MEMORY_SIZE, 1048576);
+    }
+
+    /**
+     * Returns maximum total size of the queued lines for all connections. 0 to disable. Defaults to 16MB.
+     */
+    public long getPubSubTcpNettyHandlerThreadPoolMaxTotalMemorySize() {
+        return _pubSubTcpNettyHandlerThreadPoolMaxTotalMemorySize;
+    }
+
+    static final String PUB_SUB_TCP_NETTY_HANDLER_THREAD_POOL_MAX_TOTAL_MEMORY_SIZE = "pubsub.tcp.netty_handler_thread_pool.max_total_memory_size";
+
+    private long _pubSubTcpNettyHandlerThreadPoolMaxTotalMemorySize = 0;
+
+    static long loadPubSubTcpNettyHandlerThreadPoolMaxTotalMemorySize(Properties properties) {
+        return loadLong(properties, PUB_SUB_TCP_NETTY_HANDLER_THREAD_POOL_MAX_TOTAL_MEMORY_SIZE, 16777216);
+    }
+
+    /**
+     * Returns the maximum number of bytes in a line. Longer lines are discarded. Defaults to 65536.
+     */
+    public int getPubSubTcpMaxLineLength() {
+        return _pubSubTcpMaxLineLength;
+    }
+
+    static final String PUB_SUB_TCP_MAX_LINE_LENGTH = "pubsub.tcp.max_line_length";
+
+    private int _pubSubTcpMaxLineLength = 0;
+
+    static int loadPubSubTcpMaxLineLength(Properties properties) {
+        return loadInt(properties, PUB_SUB_TCP_MAX_LINE_LENGTH, 65536);
+    }
+
+    /**
+     * Returns Flag to indicate if syslog messages are to be received over UDP and TCP
+     */
+    public boolean getPubSubSyslogEnabled() {
+        return _pubSubSyslogEnabled;
+    }
+
+    static final String PUB_SUB_SYSLOG_ENABLED = "pubsub.syslog.enabled";
+
+    private boolean _pubSubSyslogEnabled = false;
+
+    static boolean loadPubSubSyslogEnabled(Properties properties) {
+        return loadBoolean(properties, PUB_SUB_SYSLOG_ENABLED, false);
+    }
+
+    /**
+     * Returns the IP address to use for binding our syslog servers
+     */
+    public String getPubSubSyslogHost() {
+        return _pubSubSyslogHost;
+    }
+
+    static final String PUB_SUB_SYSLOG_HOST = "pubsub.syslog.host";
+
+    private String _pubSubSyslogHost = null;
+
+    static String loadPubSubSyslogHost(Properties properties) {
+        return loadString(properties, PUB_SUB_SYSLOG_HOST);
+    }
+
+    /**
+     * Returns the UDP port on which to receive syslog messages. 0 to disable UDP. Defaults to 514.
+     */
+    public int getPubSubSyslogUdpPort() {
+        return _pubSubSyslogUdpPort;
+    }
+
+    static final String PUB_SUB_SYSLOG_UDP_PORT = "pubsub.syslog.udp.port";
+
+    private int _pubSubSyslogUdpPort = 0;
+
+    static int loadPubSubSyslogUdpPort(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_UDP_PORT, 514);
+    }
+
+    /**
+     * Returns the size in bytes of the UDP socket receive buffer. A large buffer holds bursts of messages while they
+     * are being read. The operating system may limit the size; e.g. <code>net.core.rmem_max</code> on Linux.
+     * Defaults to 4MB.
+     */
+    public int getPubSubSyslogUdpReceiveBufferSize() {
+        return _pubSubSyslogUdpReceiveBufferSize;
+    }
+
+    static final String PUB_SUB_SYSLOG_UDP_RECEIVE_BUFFER_SIZE = "pubsub.syslog.udp.receive_buffer_size";
+
+    private int _pubSubSyslogUdpReceiveBufferSize = 0;
+
+    static int loadPubSubSyslogUdpReceiveBufferSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_UDP_RECEIVE_BUFFER_SIZE, 4194304);
+    }
+
+    /**
+     * Returns the TCP port on which to receive syslog messages. 0 to disable TCP. Defaults to 514.
+     */
+    public int getPubSubSyslogTcpPort() {
+        return _pubSubSyslogTcpPort;
+    }
+
+    static final String PUB_SUB_SYSLOG_TCP_PORT = "pubsub.syslog.tcp.port";
+
+    private int _pubSubSyslogTcpPort = 0;
+
+    static int loadPubSubSyslogTcpPort(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_TCP_PORT, 514);
+    }
+
+    /**
+     * Returns the maximum number of active threads used by netty to read from TCP sockets. 0 for the netty default.
+     */
+    public int getPubSubSyslogNettyWorkerThreadPoolSize() {
+        return _pubSubSyslogNettyWorkerThreadPoolSize;
+    }
+
+    static final String PUB_SUB_SYSLOG_NETTY_WORKER_THREAD_POOL_SIZE = "pubsub.syslog.netty_worker_thread_pool.size";
+
+    private int _pubSubSyslogNettyWorkerThreadPoolSize = 0;
+
+    static int loadPubSubSyslogNettyWorkerThreadPoolSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_NETTY_WORKER_THREAD_POOL_SIZE, 0);
+    }
+
+    /**
+     * Returns the maximum number of bytes in a syslog message. Longer TCP messages are discarded and longer UDP
+     * messages are truncated. Defaults to 65536.
+     */
+    public int getPubSubSyslogMaxMessageSize() {
+        return _pubSubSyslogMaxMessageSize;
+    }
+
+    static final String PUB_SUB_SYSLOG_MAX_MESSAGE_SIZE = "pubsub.syslog.max_message_size";
+
+    private int _pubSubSyslogMaxMessageSize = 0;
+
+    static int loadPubSubSyslogMaxMessageSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_MAX_MESSAGE_SIZE, 65536);
+    }
+
+    /**
+     * Returns the number of threads publishing syslog messages. Defaults to 2.
+     */
+    public int getPubSubSyslogPublisherThreadPoolSize() {
+        return _pubSubSyslogPublisherThreadPoolSize;
+    }
+
+    static final String PUB_SUB_SYSLOG_PUBLISHER_THREAD_POOL_SIZE = "pubsub.syslog.publisher_thread_pool.size";
+
+    private int _pubSubSyslogPublisherThreadPoolSize = 0;
+
+    static int loadPubSubSyslogPublisherThreadPoolSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_PUBLISHER_THREAD_POOL_SIZE, 2);
+    }
+
+    /**
+     * Returns the maximum number of syslog messages waiting to be published. When reached, UDP messages are dropped and
+     * reading from TCP connections is suspended. Defaults to 65536.
+     */
+    public int getPubSubSyslogPublisherQueueSize() {
+        return _pubSubSyslogPublisherQueueSize;
+    }
+
+    static final String PUB_SUB_SYSLOG_PUBLISHER_QUEUE_SIZE = "pubsub.syslog.publisher_queue.size";
+
+    private int _pubSubSyslogPublisherQueueSize = 0;
+
+    static int loadPubSubSyslogPublisherQueueSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_PUBLISHER_QUEUE_SIZE, 65536);
+    }
+
+    /**
+     * Returns the maximum number of syslog messages published at a time with one pooled producer. Defaults to 500.
+     */
+    public int getPubSubSyslogPublisherBatchSize() {
+        return _pubSubSyslogPublisherBatchSize;
+    }
+
+    static final String PUB_SUB_SYSLOG_PUBLISHER_BATCH_SIZE = "pubsub.syslog.publisher_batch.size";
+
+    private int _pubSubSyslogPublisherBatchSize = 0;
+
+    static int loadPubSubSyslogPublisherBatchSize(Properties properties) {
+        return loadInt(properties, PUB_SUB_SYSLOG_PUBLISHER_BATCH_SIZE, 500);
+    }
+
+    /**
+     * Returns the repository to which syslog messages that do not match any route are published. <code>null</code> to
+     * drop them.
+     */
+    public String getPubSubSyslogDefaultRepository() {
+        return _pubSubSyslogDefaultRepository;
+    }
+
+    static final String PUB_SUB_SYSLOG_DEFAULT_REPOSITORY = "pubsub.syslog.default_repository";
+
+    private String _pubSubSyslogDefaultRepository = null;
+
+    static String loadPubSubSyslogDefaultRepository(Properties properties) {
+        return loadString(properties, PUB_SUB_SYSLOG_DEFAULT_REPOSITORY, null);
+    }
+
+    /**
+     * Returns the rules for routing syslog messages to repositories in the order they are checked. Each rule is set
+     * with a numbered property; e.g. <code>pubsub.syslog.route.1=web_logs app ^nginx$</code>. See
+     * {@link org.chililog.server.pubsub.syslog.SyslogRouter}.
+     */
+    public List<String> getPubSubSyslogRoutes() {
+        return _pubSubSyslogRoutes;
+    }
+
+    static final String PUB_SUB_SYSLOG_ROUTES = "pubsub.syslog.route.";
+
+    private List<String> _pubSubSyslogRoutes = null;
+
+    static List<String> loadPubSubSyslogRoutes(Properties properties) {
+        TreeMap<Integer, String> routes = new TreeMap<Integer, String>();
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith(PUB_SUB_SYSLOG_ROUTES)) {
+                continue;
+            }
+            String s = loadString(properties, name, null);
+            if (s != null) {
+                routes.put(Integer.parseInt(name.substring(PUB_SUB_SYSLOG_ROUTES.length())), s.trim());
+            }
+        }
+        return new ArrayList<String>(routes.values());
+    }
+
     // *****************************************************************************************************************
     // *****************************************************************************************************************
     // WORKBENCH
@@ -0,0 +1,177 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.common;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Parses timestamps in our standard ISO-8601 format <code>yyyy-MM-dd'T'HH:mm:ss.SSS'Z'</code>; for example,
+ * "2011-09-24T12:34:43.123Z".
+ * </p>
+ * <p>
+ * The characters are checked and converted to milliseconds since the epoch directly. No regular expression,
+ * {@link SimpleDateFormat} or {@link java.util.Calendar} is used so parsing is many times faster than
+ * {@link SimpleDateFormat#parse(String)}.
+ * </p>
+ * <p>
+ * Values that have the right shape but are outside the normal range of a field (e.g. month 13) or are before the
+ * Gregorian cutover in 1582 are passed on to a lenient {@link SimpleDateFormat} so that results are always the same as
+ * before.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class Iso8601DateParser {
+
+    /**
+     * Length of a timestamp; e.g. "2011-09-24T12:34:43.123Z"
+     */
+    public static final int LENGTH = 24;
+
+    /**
+     * Returned by {@link #parseMillis(String)} if the string cannot be parsed on the fast path
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final int[] DAYS_IN_MONTH = new int[] { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private static final ThreadLocal<SimpleDateFormat> SLOW_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            sf.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return sf;
+        }
+    };
+
+    private Iso8601DateParser() {
+        return;
+    }
+
+    /**
+     * Checks if a string has the shape of a timestamp. This is the same as matching
+     * <code>^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}\.[0-9]{3}Z$</code>.
+     *
+     * @param s
+     *            String to check
+     * @return true if <code>s</code> looks like a timestamp
+     */
+    public static boolean matches(String s) {
+        if (s == null || s.length() != LENGTH) {
+            return false;
+        }
+        return isDigits(s, 0, 4) && s.charAt(4) == '-' && isDigits(s, 5, 7) && s.charAt(7) == '-'
+                && isDigits(s, 8, 10) && s.charAt(10) == 'T' && isDigits(s, 11, 13) && s.charAt(13) == ':'
+                && isDigits(s, 14, 16) && s.charAt(16) == ':' && isDigits(s, 17, 19) && s.charAt(19) == '.'
+                && isDigits(s, 20, 23) && s.charAt(23) == 'Z';
+    }
+
+    /**
+     * Parses a timestamp without allocating any objects
+     *
+     * @param s
+     *            String to parse
+     * @return Milliseconds since 1970-01-01T00:00:00.000Z or {@link #INVALID} if <code>s</code> is not a timestamp or
+     *         has fields outside their normal range.
+     */
+    public static long parseMillis(String s) {
+        if (!matches(s)) {
+            return INVALID;
+        }
+
+        int year = toInt(s, 0, 4);
+        int month = toInt(s, 5, 7);
+        int day = toInt(s, 8, 10);
+        int hour = toInt(s, 11, 13);
+        int minute = toInt(s, 14, 16);
+        int second = toInt(s, 17, 19);
+        int millisecond = toInt(s, 20, 23);
+
+        if (year < 1583 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23
+                || minute > 59 || second > 59) {
+            return INVALID;
+        }
+
+        return ((((daysSinceEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60 + second) * 1000)
+                + millisecond;
+    }
+
+    /**
+     * Parses a timestamp
+     *
+     * @param s
+     *            String to parse
+     * @return Date
+     * @throws ParseException
+     *             if <code>s</code> is not a timestamp
+     */
+    public static Date parse(String s) throws ParseException {
+        long millis = parseMillis(s);
+        if (millis != INVALID) {
+            return new Date(millis);
+        }
+        if (s == null) {
+            throw new ParseException("Unparseable date: null", 0);
+        }
+        return SLOW_FORMAT.get().parse(s);
+    }
+
+    /**
+     * Returns the number of days between 1970-01-01 and the specified date in the proleptic Gregorian calendar
+     */
+    static long daysSinceEpoch(int year, int month, int day) {
+        // Count years from March so that the leap day is at the end of the year
+        long y = (month <= 2) ? year - 1 : year;
+        long era = y / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    private static boolean isDigits(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toInt(String s, int start, int end) {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            n = n * 10 + (s.charAt(i) - '0');
+        }
+        return n;
+    }
+}
@@ -19,12 +19,11 @@
 package org.chililog.server.common;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.TermAttribute;
@@ -32,6 +31,17 @@ import org.apache.lucene.util.Version;
 
 public class TextTokenizer {
 
+    /**
+     * Analyzer, reader and duplicate lookup for the current thread. These are reused for every message tokenized by
+     * the thread so that we do not have to create them each time.
+     */
+    private ThreadLocal<Context> _context = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
     /**
      * Returns the singleton instance for this class
      */
@@ -76,6 +86,10 @@ public class TextTokenizer {
      * We have not used regular expression because it is slow. We have implemented this as a singleton so that in the
      * future we can allow user customization.
      * </p>
+     * <p>
+     * Each thread reuses its own analyzer and token stream. Terms are checked for duplicates as slices of the term
+     * buffer so that a string is only created for each keyword returned.
+     * </p>
      * 
      * @param text
      *            Text to extract keywords
@@ -91,11 +105,12 @@ public class TextTokenizer {
             return tokens;
         }
 
-        Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_30);
-        HashMap<String, String> lookup = new HashMap<String, String>();
-        TokenStream stream = analyzer.tokenStream("field", new StringReader(text));
+        Context context = _context.get();
+        context.reader.reset(text);
+        context.lookup.clear();
+        TokenStream stream = context.analyzer.reusableTokenStream("field", context.reader);
+        stream.reset();
 
-        StringBuilder sb = new StringBuilder();
         TermAttribute termAttribute = stream.getAttribute(TermAttribute.class);
         while (stream.incrementToken()) {
             char[] termBuffer = termAttribute.termBuffer();
@@ -117,26 +132,24 @@ public class TextTokenizer {
             }
 
             if (doSplit) {
-                sb.setLength(0);
+                int start = 0;
                 for (int i = 0; i < length; i++) {
                     char c = termBuffer[i];
                     if (c == '.' || c == '@') {
-                        if (!addToken(tokens, lookup, sb.toString(), maxKeywords)) {
+                        if (!addToken(tokens, context.lookup, termBuffer, start, i - start, maxKeywords)) {
                             return tokens;
                         }
-                        sb.setLength(0);
-                    } else {
-                        sb.append(c);
+                        start = i + 1;
                     }
                 }
 
                 // Add last part
-                if (!addToken(tokens, lookup, sb.toString(), maxKeywords)) {
+                if (!addToken(tokens, context.lookup, termBuffer, start, length - start, maxKeywords)) {
                     return tokens;
                 }
             } else {
                 // No splitting, just add term
-                if (!addToken(tokens, lookup, termAttribute.term(), maxKeywords)) {
+                if (!addToken(tokens, context.lookup, termBuffer, 0, length, maxKeywords)) {
                     return tokens;
                 }
             }
@@ -151,17 +164,25 @@ public class TextTokenizer {
      * @param tokens
      *            collection of tokens
      * @param lookup
-     *            lookup hashmap for duplicates
-     * @param token
-     *            token or term to add to the collection
+     *            lookup for duplicates
+     * @param buffer
+     *            buffer containing the token or term to add to the collection
+     * @param offset
+     *            start of the token in the buffer
+     * @param length
+     *            length of the token
      * @param maxKeywords
      *            maximum number of keywords
      * @return True if it is OK to keep adding tokens, False if no more tokens should be added
      */
-    private boolean addToken(ArrayList<String> tokens, HashMap<String, String> lookup, String token, long maxKeywords) {
-        if (!StringUtils.isBlank(token) && !lookup.containsKey(token)) {
-            tokens.add(token);
-            lookup.put(token, null);
+    private boolean addToken(ArrayList<String> tokens,
+                             KeywordSet lookup,
+                             char[] buffer,
+                             int offset,
+                             int length,
+                             long maxKeywords) {
+        if (!isBlank(buffer, offset, length) && lookup.add(buffer, offset, length)) {
+            tokens.add(new String(buffer, offset, length));
             if (maxKeywords > 0 && tokens.size() >= maxKeywords) {
                 return false;
             }
@@ -169,4 +190,171 @@ public class TextTokenizer {
         return true;
     }
 
+    private static boolean isBlank(char[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (!Character.isWhitespace(buffer[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Objects reused by a thread for tokenizing
+     */
+    private static class Context {
+        StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_30);
+        ReusableStringReader reader = new ReusableStringReader();
+        KeywordSet lookup = new KeywordSet();
+    }
+
+    /**
+     * A <code>StringReader</code> that can be pointed at a new string rather than having to create a new reader
+     */
+    static class ReusableStringReader extends Reader {
+        private String _s;
+        private int _pos;
+
+        void reset(String s) {
+            _s = s;
+            _pos = 0;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int remaining = _s.length() - _pos;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = Math.min(remaining, length);
+            _s.getChars(_pos, _pos + count, buffer, offset);
+            _pos += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            _s = null;
+        }
+    }
+
+    /**
+     * <p>
+     * Set of keywords used to find duplicates. Keywords are copied into one character buffer and looked up in an open
+     * addressing hash table so that checking a term does not create any objects.
+     * </p>
+     * <p>
+     * The set is cleared for each message. It grows as required and keeps its capacity for the next message.
+     * </p>
+     */
+    static class KeywordSet {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private char[] _chars = new char[1024];
+        private int _charCount = 0;
+
+        // Per keyword: start in _chars, length and hash
+        private int[] _starts = new int[INITIAL_CAPACITY / 2];
+        private int[] _lengths = new int[INITIAL_CAPACITY / 2];
+        private int[] _hashes = new int[INITIAL_CAPACITY / 2];
+        private int _size = 0;
+
+        // Index of keyword + 1 in each slot. 0 means the slot is empty.
+        private int[] _slots = new int[INITIAL_CAPACITY];
+
+        /**
+         * Removes all keywords
+         */
+        void clear() {
+            if (_size > 0) {
+                Arrays.fill(_slots, 0);
+            }
+            _size = 0;
+            _charCount = 0;
+        }
+
+        /**
+         * Returns the number of keywords in the set
+         */
+        int size() {
+            return _size;
+        }
+
+        /**
+         * Adds a keyword if it is not already in the set
+         * 
+         * @param buffer
+         *            buffer containing the keyword
+         * @param offset
+         *            start of the keyword in the buffer
+         * @param length
+         *            length of the keyword
+         * @return true if the keyword was added, false if it is a duplicate
+         */
+        boolean add(char[] buffer, int offset, int length) {
+            int hash = 0;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+
+            int mask = _slots.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (_slots[slot] != 0) {
+                int index = _slots[slot] - 1;
+                if (_hashes[index] == hash && equals(index, buffer, offset, length)) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // Keep the table at most half full
+            if (_size >= _slots.length / 2) {
+                grow();
+                return add(buffer, offset, length);
+            }
+
+            if (_charCount + length > _chars.length) {
+                _chars = Arrays.copyOf(_chars, Math.max(_chars.length * 2, _charCount + length));
+            }
+            System.arraycopy(buffer, offset, _chars, _charCount, length);
+            _starts[_size] = _charCount;
+            _lengths[_size] = length;
+            _hashes[_size] = hash;
+            _charCount += length;
+            _size++;
+            _slots[slot] = _size;
+            return true;
+        }
+
+        private boolean equals(int index, char[] buffer, int offset, int length) {
+            if (_lengths[index] != length) {
+                return false;
+            }
+            int start = _starts[index];
+            for (int i = 0; i < length; i++) {
+                if (_chars[start + i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            int capacity = _slots.length * 2;
+            _starts = Arrays.copyOf(_starts, capacity / 2);
+            _lengths = Arrays.copyOf(_lengths, capacity / 2);
+            _hashes = Arrays.copyOf(_hashes, capacity / 2);
+            _slots = new int[capacity];
+
+            int mask = capacity - 1;
+            for (int index = 0; index < _size; index++) {
+                int hash = _hashes[index];
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (_slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                _slots[slot] = index + 1;
+            }
+        }
+    }
 }
@@ -48,6 +48,17 @@ public abstract class Controller {
      */
     protected abstract String getDBCollectionName();
 
+    /**
+     * Returns the name of the mongoDB collection in which the specified business object is stored. By default, all
+     * business objects are stored in {@link #getDBCollectionName()}. However, it can be overridden.
+     * 
+     * @param businessObject
+     *            Business object to save or remove
+     */
+    protected String getDBCollectionName(BO businessObject) {
+        return getDBCollectionName();
+    }
+
     /**
      * Returns the mongoDB write strategy used in saving. By default, it is set to <code>SAFE</code>. This means
      * exceptions are raised for network issues, and server errors; waits on a server for the write operation. However,
@@ -77,7 +88,7 @@ public abstract class Controller {
 
         try {
             DBObject obj = businessObject.toDBObject();
-            DBCollection coll = db.getCollection(this.getDBCollectionName());
+            DBCollection coll = db.getCollection(this.getDBCollectionName(businessObject));
             if (businessObject.isExistingRecord()) {
                 long recordVersion = businessObject.getDocumentVersion();
                 obj.put(BO.DOCUMENT_VERSION_FIELD_NAME, recordVersion + 1);
@@ -89,7 +100,7 @@ public abstract class Controller {
                 coll.update(query, obj, false, false, this.getDBWriteConern());
             } else {
                 obj.put(BO.DOCUMENT_VERSION_FIELD_NAME, (long) 1);
-                coll.insert(obj);
+                coll.insert(obj, this.getDBWriteConern());
             }
         } catch (MongoException ex) {
             throw new ChiliLogException(ex, Strings.MONGODB_SAVE_ERROR, ex.getMessage());
@@ -115,7 +126,7 @@ public abstract class Controller {
         }
 
         try {
-            DBCollection coll = db.getCollection(this.getDBCollectionName());
+            DBCollection coll = db.getCollection(this.getDBCollectionName(businessObject));
             if (businessObject.isExistingRecord()) {
                 DBObject obj = new BasicDBObject();
                 obj.put(BO.DOCUMENT_ID_FIELD_NAME, businessObject.getDocumentID());
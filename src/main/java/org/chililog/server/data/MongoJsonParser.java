@@ -25,6 +25,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.bson.BSONCallback;
+import org.chililog.server.common.Iso8601DateParser;
 
 import com.mongodb.util.JSONCallback;
 
@@ -44,12 +45,27 @@ import com.mongodb.util.JSONCallback;
  * <li>Long - Number >10 digits or string of digits with L at the end "123412341234L"</li>
  * <li>Date - Format is as per specified on the constructor.</li>
  * </p>
+ * <p>
+ * A parser can be reused for many strings by calling {@link #reset(CharSequence)} before each {@link #parse()}. The
+ * callback, string buffer and pattern matchers are kept between parses so that there is no per string set up. Because
+ * of this, instances are not thread safe.
+ * </p>
+ * 
+ * <pre>
+ * MongoJsonParser parser = new MongoJsonParser(datePattern, dateFormat, longNumberPattern);
+ * DBObject o1 = (DBObject) parser.reset(json1).parse();
+ * DBObject o2 = (DBObject) parser.reset(json2).parse();
+ * </pre>
  */
 public class MongoJsonParser {
 
     private Pattern _datePattern = null;
     private Pattern _longNumberPattern = null;
     private SimpleDateFormat _dateFormat = null;
+    private boolean _isIso8601DatePattern = false;
+    private Matcher _dateMatcher = null;
+    private Matcher _longNumberMatcher = null;
+    private StringBuilder _stringBuffer = new StringBuilder();
 
     String s;
     int pos = 0;
@@ -85,6 +101,34 @@ public class MongoJsonParser {
         _datePattern = datePattern;
         _dateFormat = StringUtils.isBlank(dateFormat) ? null : new SimpleDateFormat(dateFormat);
         _longNumberPattern = longNumberPattern;
+
+        // Our standard timestamp pattern can be checked without using regular expressions
+        _isIso8601DatePattern = (datePattern == RepositoryEntryListCriteria.DATE_PATTERN);
+
+        // Matchers are reset for each string value rather than created
+        if (_datePattern != null) {
+            _dateMatcher = _datePattern.matcher("");
+        }
+        if (_longNumberPattern != null) {
+            _longNumberMatcher = _longNumberPattern.matcher("");
+        }
+    }
+
+    /**
+     * Create a new parser without a string to parse. Call {@link #reset(CharSequence)} to set the string before
+     * parsing.
+     * 
+     * @param datePattern
+     *            Regular expression to use to test if a string is a date. Group #1 in the pattern is used. If null, no
+     *            date checking is performed.
+     * @param dateFormat
+     *            {@link SimpleDateFormat} pattern to use to parse the date. If null, no date parsing is performed.
+     * @param longNumberPattern
+     *            Regular expression to use to test if a string is a long number. Group #1 in the pattern is used. If
+     *            null, no long number matching is performed.
+     */
+    public MongoJsonParser(Pattern datePattern, String dateFormat, Pattern longNumberPattern) {
+        this("", datePattern, dateFormat, longNumberPattern);
     }
 
     /**
@@ -95,6 +139,21 @@ public class MongoJsonParser {
         _callback = (callback == null) ? new JSONCallback() : callback;
     }
 
+    /**
+     * Sets a new string to parse and clears the state left from the previous parse. This includes state left by a
+     * parse that failed part way through.
+     * 
+     * @param s
+     *            String to parse. If null, an empty string is used.
+     * @return This parser so that {@link #parse()} can be chained
+     */
+    public MongoJsonParser reset(CharSequence s) {
+        this.s = (s == null) ? "" : s.toString();
+        this.pos = 0;
+        _callback.reset();
+        return this;
+    }
+
     /**
      * Parse an unknown type.
      * 
@@ -151,8 +210,8 @@ public class MongoJsonParser {
                 // Check for long
                 value = stringValue;
                 if (!StringUtils.isBlank(stringValue)) {
-                    if (_longNumberPattern != null) {
-                        Matcher m = _longNumberPattern.matcher(stringValue);
+                    if (_longNumberMatcher != null) {
+                        Matcher m = _longNumberMatcher.reset(stringValue);
                         if (m.matches()) {
                             try {
                                 value = Long.parseLong(m.group(1));
@@ -161,8 +220,18 @@ public class MongoJsonParser {
                             }
                         }
                     }
-                    if (_dateFormat != null && _datePattern != null) {
-                        Matcher m = _datePattern.matcher(stringValue);
+                    if (_dateFormat != null && _isIso8601DatePattern) {
+                        if (Iso8601DateParser.matches(stringValue)) {
+                            long millis = Iso8601DateParser.parseMillis(stringValue);
+                            try {
+                                value = (millis != Iso8601DateParser.INVALID) ? new Date(millis) : _dateFormat
+                                        .parse(stringValue.substring(0, stringValue.length() - 1) + "GMT");
+                            } catch (Exception ex) {
+                                throw new JSONParseException(ex, s, pos);
+                            }
+                        }
+                    } else if (_dateFormat != null && _dateMatcher != null) {
+                        Matcher m = _dateMatcher.reset(stringValue);
                         if (m.matches()) {
                             try {
                                 String dateString = m.group(1);
@@ -363,7 +432,8 @@ public class MongoJsonParser {
         char current;
 
         read(quot);
-        StringBuilder buf = new StringBuilder();
+        StringBuilder buf = _stringBuffer;
+        buf.setLength(0);
         int start = pos;
         while (pos < s.length() && (current = s.charAt(pos)) != quot) {
             if (current == '\\') {
@@ -376,7 +446,7 @@ public class MongoJsonParser {
                 switch (x) {
 
                     case 'u': { // decode unicode
-                        buf.append(s.substring(start, pos - 1));
+                        buf.append(s, start, pos - 1);
                         pos++;
                         int tempPos = pos;
 
@@ -411,7 +481,7 @@ public class MongoJsonParser {
                         break;
                 }
 
-                buf.append(s.substring(start, pos - 1));
+                buf.append(s, start, pos - 1);
                 if (special != 0) {
                     pos++;
                     buf.append(special);
@@ -423,7 +493,7 @@ public class MongoJsonParser {
         }
         read(quot);
 
-        buf.append(s.substring(start, pos - 1));
+        buf.append(s, start, pos - 1);
         return buf.toString();
     }
 
@@ -19,10 +19,15 @@
 package org.chililog.server.data;
 
 import java.io.Serializable;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.TimeZone;
 import java.util.regex.Pattern;
 
 import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
 
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
@@ -78,6 +83,17 @@ public class RepositoryConfigBO extends BO implements Serializable {
     private boolean _storeEntriesIndicator = false;
     private boolean _storageQueueDurableIndicator = false;
     private long _storageQueueWorkerCount = 1;
+    private long _storageQueueMaxWorkerCount = 0;
+    private long _storageQueueBatchSize = 1;
+    private long _storageQueueBatchLinger = 0;
+    private boolean _storagePipelineIndicator = false;
+    private boolean _storageTemplateIndicator = false;
+    private boolean _parseOnPublishIndicator = false;
+    private long _storageQueueWeight = 1;
+    private WriteDurability _storageWriteDurability = WriteDurability.SAFE;
+    private Partitioning _storagePartitioning = Partitioning.NONE;
+    private long _storageRetentionDays = 0;
+    private Hashtable<String, String> _storageRetentionDaysBySeverity = new Hashtable<String, String>();
     private long _storageMaxKeywords = UNLIMITED_MAX_KEYWORDS;
 
     private long _maxMemory = 1024 * 1024 * 20; // 20 MB
@@ -95,6 +111,17 @@ public class RepositoryConfigBO extends BO implements Serializable {
     static final String STORE_ENTRIES_INDICATOR_FIELD_NAME = "store_entries_indicator";
     static final String STORAGE_QUEUE_DURABLE_INDICATOR_FIELD_NAME = "storage_queue_durable_indicator";
     static final String STORAGE_QUEUE_WORKER_COUNT_FIELD_NAME = "storage_queue_worker_count";
+    static final String STORAGE_QUEUE_MAX_WORKER_COUNT_FIELD_NAME = "storage_queue_max_worker_count";
+    static final String STORAGE_QUEUE_BATCH_SIZE_FIELD_NAME = "storage_queue_batch_size";
+    static final String STORAGE_QUEUE_BATCH_LINGER_FIELD_NAME = "storage_queue_batch_linger";
+    static final String STORAGE_PIPELINE_INDICATOR_FIELD_NAME = "storage_pipeline_indicator";
+    static final String STORAGE_TEMPLATE_INDICATOR_FIELD_NAME = "storage_template_indicator";
+    static final String PARSE_ON_PUBLISH_INDICATOR_FIELD_NAME = "parse_on_publish_indicator";
+    static final String STORAGE_QUEUE_WEIGHT_FIELD_NAME = "storage_queue_weight";
+    static final String STORAGE_WRITE_DURABILITY_FIELD_NAME = "storage_write_durability";
+    static final String STORAGE_PARTITIONING_FIELD_NAME = "storage_partitioning";
+    static final String STORAGE_RETENTION_DAYS_FIELD_NAME = "storage_retention_days";
+    static final String STORAGE_RETENTION_DAYS_BY_SEVERITY_FIELD_NAME = "storage_retention_days_by_severity";
     static final String STROAGE_MAX_KEYWORDS = "storage_max_keywords";
     public static final long UNLIMITED_MAX_KEYWORDS = -1;
 
@@ -139,6 +166,31 @@ public class RepositoryConfigBO extends BO implements Serializable {
         _storageQueueDurableIndicator = MongoUtils.getBoolean(dbObject, STORAGE_QUEUE_DURABLE_INDICATOR_FIELD_NAME,
                 true);
         _storageQueueWorkerCount = MongoUtils.getLong(dbObject, STORAGE_QUEUE_WORKER_COUNT_FIELD_NAME, true);
+        Long maxWorkerCount = MongoUtils.getLong(dbObject, STORAGE_QUEUE_MAX_WORKER_COUNT_FIELD_NAME, false);
+        _storageQueueMaxWorkerCount = (maxWorkerCount == null ? 0 : maxWorkerCount);
+
+        // Batching settings were added later so they are optional to support existing repositories
+        Long batchSize = MongoUtils.getLong(dbObject, STORAGE_QUEUE_BATCH_SIZE_FIELD_NAME, false);
+        _storageQueueBatchSize = (batchSize == null ? 1 : batchSize);
+        Long batchLinger = MongoUtils.getLong(dbObject, STORAGE_QUEUE_BATCH_LINGER_FIELD_NAME, false);
+        _storageQueueBatchLinger = (batchLinger == null ? 0 : batchLinger);
+        Boolean pipeline = MongoUtils.getBoolean(dbObject, STORAGE_PIPELINE_INDICATOR_FIELD_NAME, false);
+        _storagePipelineIndicator = (pipeline == null ? false : pipeline);
+        Boolean template = MongoUtils.getBoolean(dbObject, STORAGE_TEMPLATE_INDICATOR_FIELD_NAME, false);
+        _storageTemplateIndicator = (template == null ? false : template);
+        Boolean parseOnPublish = MongoUtils.getBoolean(dbObject, PARSE_ON_PUBLISH_INDICATOR_FIELD_NAME, false);
+        _parseOnPublishIndicator = (parseOnPublish == null ? false : parseOnPublish);
+        Long weight = MongoUtils.getLong(dbObject, STORAGE_QUEUE_WEIGHT_FIELD_NAME, false);
+        _storageQueueWeight = (weight == null ? 1 : weight);
+        String durability = MongoUtils.getString(dbObject, STORAGE_WRITE_DURABILITY_FIELD_NAME, false);
+        _storageWriteDurability = (durability == null ? WriteDurability.SAFE : WriteDurability.valueOf(durability));
+        String partitioning = MongoUtils.getString(dbObject, STORAGE_PARTITIONING_FIELD_NAME, false);
+        _storagePartitioning = (partitioning == null ? Partitioning.NONE : Partitioning.valueOf(partitioning));
+        Long retentionDays = MongoUtils.getLong(dbObject, STORAGE_RETENTION_DAYS_FIELD_NAME, false);
+        _storageRetentionDays = (retentionDays == null ? 0 : retentionDays);
+        _storageRetentionDaysBySeverity = MongoUtils.getKeyValuePairs(dbObject,
+                STORAGE_RETENTION_DAYS_BY_SEVERITY_FIELD_NAME, false);
+
         _storageMaxKeywords = MongoUtils.getLong(dbObject, STROAGE_MAX_KEYWORDS, true);
 
         // Parser
@@ -192,6 +244,18 @@ public class RepositoryConfigBO extends BO implements Serializable {
         MongoUtils
                 .setBoolean(dbObject, STORAGE_QUEUE_DURABLE_INDICATOR_FIELD_NAME, _storageQueueDurableIndicator, true);
         MongoUtils.setLong(dbObject, STORAGE_QUEUE_WORKER_COUNT_FIELD_NAME, _storageQueueWorkerCount, true);
+        MongoUtils.setLong(dbObject, STORAGE_QUEUE_MAX_WORKER_COUNT_FIELD_NAME, _storageQueueMaxWorkerCount, true);
+        MongoUtils.setLong(dbObject, STORAGE_QUEUE_BATCH_SIZE_FIELD_NAME, _storageQueueBatchSize, true);
+        MongoUtils.setLong(dbObject, STORAGE_QUEUE_BATCH_LINGER_FIELD_NAME, _storageQueueBatchLinger, true);
+        MongoUtils.setBoolean(dbObject, STORAGE_PIPELINE_INDICATOR_FIELD_NAME, _storagePipelineIndicator, true);
+        MongoUtils.setBoolean(dbObject, STORAGE_TEMPLATE_INDICATOR_FIELD_NAME, _storageTemplateIndicator, true);
+        MongoUtils.setBoolean(dbObject, PARSE_ON_PUBLISH_INDICATOR_FIELD_NAME, _parseOnPublishIndicator, true);
+        MongoUtils.setLong(dbObject, STORAGE_QUEUE_WEIGHT_FIELD_NAME, _storageQueueWeight, true);
+        MongoUtils.setString(dbObject, STORAGE_WRITE_DURABILITY_FIELD_NAME, _storageWriteDurability.toString(), true);
+        MongoUtils.setString(dbObject, STORAGE_PARTITIONING_FIELD_NAME, _storagePartitioning.toString(), true);
+        MongoUtils.setLong(dbObject, STORAGE_RETENTION_DAYS_FIELD_NAME, _storageRetentionDays, true);
+        MongoUtils.setKeyValuePairs(dbObject, STORAGE_RETENTION_DAYS_BY_SEVERITY_FIELD_NAME,
+                _storageRetentionDaysBySeverity, false);
         MongoUtils.setLong(dbObject, STROAGE_MAX_KEYWORDS, _storageMaxKeywords, true);
 
         // Parsers
@@ -222,12 +286,39 @@ public class RepositoryConfigBO extends BO implements Serializable {
     }
 
     /**
-     * Returns the name of the collection in mongoDB where repository entries will be stored.
+     * Returns the name of the collection in mongoDB where repository entries will be stored. If entries are
+     * partitioned, this is the prefix of the partition collection names.
      */
     public String getMongoDBCollectionName() {
         return String.format("repo_%s", _name);
     }
 
+    /**
+     * Returns the name of the collection in mongoDB where the message templates of this repository and their entry
+     * counts are stored. For example, <code>repo_name_templates</code>.
+     */
+    public String getMongoDBTemplateCollectionName() {
+        return String.format("repo_%s_templates", _name);
+    }
+
+    /**
+     * Returns the name of the collection in mongoDB where a repository entry with the specified timestamp will be
+     * stored. If entries are partitioned by day, the UTC date is appended to the collection name; for example,
+     * <code>repo_name_20110131</code>. If partitioned by hour, the UTC hour is also appended; for example,
+     * <code>repo_name_2011013123</code>.
+     * 
+     * @param timestamp
+     *            Timestamp of the repository entry. If null, the current time is used.
+     */
+    public String getMongoDBCollectionName(Date timestamp) {
+        if (_storagePartitioning == Partitioning.NONE) {
+            return getMongoDBCollectionName();
+        }
+        SimpleDateFormat sf = new SimpleDateFormat(_storagePartitioning.getDateFormat());
+        sf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return String.format("repo_%s_%s", _name, sf.format(timestamp == null ? new Date() : timestamp));
+    }
+
     /**
      * Returns user friendly display name for this repository
      */
@@ -371,6 +462,233 @@ public class RepositoryConfigBO extends BO implements Serializable {
         _storageQueueWorkerCount = writeWorkerCount;
     }
 
+    /**
+     * <p>
+     * Returns the maximum number of storage workers that may be started when there is a backlog in the storage queue.
+     * If this is greater than {@link #getStorageQueueWorkerCount()}, workers are added when the backlog builds up and
+     * removed when the storage queue is idle. The number of workers never drops below
+     * {@link #getStorageQueueWorkerCount()}.
+     * </p>
+     * <p>
+     * The default is 0; i.e. the number of workers is fixed at {@link #getStorageQueueWorkerCount()}.
+     * </p>
+     */
+    public long getStorageQueueMaxWorkerCount() {
+        return _storageQueueMaxWorkerCount;
+    }
+
+    public void setStorageQueueMaxWorkerCount(long storageQueueMaxWorkerCount) {
+        _storageQueueMaxWorkerCount = storageQueueMaxWorkerCount;
+    }
+
+    /**
+     * <p>
+     * Returns the maximum number of queued log entries that a storage worker will parse and write to the database in
+     * one go. Entries in a batch are inserted with a single database call and removed from the storage queue with a
+     * single commit.
+     * </p>
+     * <p>
+     * The default is 1; i.e. no batching.
+     * </p>
+     */
+    public long getStorageQueueBatchSize() {
+        return _storageQueueBatchSize;
+    }
+
+    public void setStorageQueueBatchSize(long storageQueueBatchSize) {
+        _storageQueueBatchSize = storageQueueBatchSize;
+    }
+
+    /**
+     * <p>
+     * Returns the number of milliseconds that a storage worker will wait for more log entries to arrive before writing
+     * a batch that is not full.
+     * </p>
+     * <p>
+     * The default is 0; i.e. only entries that are already waiting in the storage queue are added to the batch.
+     * </p>
+     */
+    public long getStorageQueueBatchLinger() {
+        return _storageQueueBatchLinger;
+    }
+
+    public void setStorageQueueBatchLinger(long storageQueueBatchLinger) {
+        _storageQueueBatchLinger = storageQueueBatchLinger;
+    }
+
+    /**
+     * <p>
+     * Returns a flag indicating if storage workers hand off parsing and database writes to a staged pipeline. If so,
+     * parsing is performed by a pool of threads sized to the number of CPU cores and writing by a pool of threads sized
+     * to the mongoDB connection pool. Storage workers just receive and commit messages.
+     * </p>
+     * <p>
+     * The default is false; i.e. each storage worker parses and writes its own messages.
+     * </p>
+     */
+    public boolean getStoragePipelineIndicator() {
+        return _storagePipelineIndicator;
+    }
+
+    public void setStoragePipelineIndicator(boolean storagePipelineIndicator) {
+        _storagePipelineIndicator = storagePipelineIndicator;
+    }
+
+    /**
+     * <p>
+     * Returns a flag indicating if log messages are grouped into templates as they are stored. Messages that only
+     * differ in their variable parts (numbers, identifiers, etc) share a template. Each entry is tagged with the id of
+     * its template. A count of entries for each template is kept in {@link #getMongoDBTemplateCollectionName()}.
+     * </p>
+     * <p>
+     * Templates are versioned; a template gets a new version each time one of its tokens becomes a variable. Where the
+     * message can be rebuilt exactly, an entry is stored with the template version and the variable tokens instead of
+     * its message. Keywords of the template's constant tokens are stored once with the template version rather than
+     * with every entry. Keyword searches match these entries through their template id. Messages are rebuilt when
+     * entries are read, but conditions, distinct and group queries on the message field do not see the message of
+     * these entries.
+     * </p>
+     * <p>
+     * The default is false.
+     * </p>
+     */
+    public boolean getStorageTemplateIndicator() {
+        return _storageTemplateIndicator;
+    }
+
+    public void setStorageTemplateIndicator(boolean storageTemplateIndicator) {
+        _storageTemplateIndicator = storageTemplateIndicator;
+    }
+
+    /**
+     * <p>
+     * Returns a flag indicating if log entries are parsed once when they are published rather than when they are
+     * stored. The parsed entry is sent with the message so that storage workers do not have to parse it again and
+     * subscribers receive the parsed fields.
+     * </p>
+     * <p>
+     * Only entries published via the JSON HTTP interface while the repository is online are parsed on publication.
+     * Other entries are still parsed by the storage workers. The default is false.
+     * </p>
+     */
+    public boolean getParseOnPublishIndicator() {
+        return _parseOnPublishIndicator;
+    }
+
+    public void setParseOnPublishIndicator(boolean parseOnPublishIndicator) {
+        _parseOnPublishIndicator = parseOnPublishIndicator;
+    }
+
+    /**
+     * <p>
+     * Returns the share of the storage scheduler's threads that this repository receives relative to other
+     * repositories when storage queues are consumed asynchronously. Each time it is this repository's turn, up to this
+     * number of batches are handed to the scheduler's threads before moving on to the next repository.
+     * </p>
+     * <p>
+     * The default is 1; i.e. all repositories get an equal share.
+     * </p>
+     */
+    public long getStorageQueueWeight() {
+        return _storageQueueWeight;
+    }
+
+    public void setStorageQueueWeight(long storageQueueWeight) {
+        _storageQueueWeight = storageQueueWeight;
+    }
+
+    /**
+     * <p>
+     * Returns the guarantee that must hold before a log entry written to the database is removed from the storage
+     * queue. Weaker guarantees give higher throughput but entries may be lost if mongoDB fails.
+     * </p>
+     * <p>
+     * The default is SAFE.
+     * </p>
+     */
+    public WriteDurability getStorageWriteDurability() {
+        return _storageWriteDurability;
+    }
+
+    public void setStorageWriteDurability(WriteDurability storageWriteDurability) {
+        _storageWriteDurability = storageWriteDurability;
+    }
+
+    /**
+     * <p>
+     * Returns how repository entries are split between mongoDB collections by timestamp. Partitioning keeps indexes
+     * small and allows old entries to be removed by dropping whole collections.
+     * </p>
+     * <p>
+     * The default is NONE; i.e. all entries are stored in one collection.
+     * </p>
+     */
+    public Partitioning getStoragePartitioning() {
+        return _storagePartitioning;
+    }
+
+    public void setStoragePartitioning(Partitioning storagePartitioning) {
+        _storagePartitioning = storagePartitioning;
+    }
+
+    /**
+     * <p>
+     * Returns the number of days for which repository entries are kept before they are removed by the retention
+     * service. Applies to entries with a severity that does not have its own retention period in
+     * {@link #getStorageRetentionDaysBySeverity()}.
+     * </p>
+     * <p>
+     * The default is 0; i.e. entries are kept forever.
+     * </p>
+     */
+    public long getStorageRetentionDays() {
+        return _storageRetentionDays;
+    }
+
+    public void setStorageRetentionDays(long storageRetentionDays) {
+        _storageRetentionDays = storageRetentionDays;
+    }
+
+    /**
+     * <p>
+     * Returns the number of days for which entries of a specific severity are kept. The key is the name of the
+     * severity (e.g. <code>Debug</code>) and the value is the number of days. 0 means entries are kept forever.
+     * </p>
+     * <p>
+     * For example, keep debug entries for 2 days and errors for 90 days.
+     * </p>
+     */
+    public Hashtable<String, String> getStorageRetentionDaysBySeverity() {
+        return _storageRetentionDaysBySeverity;
+    }
+
+    /**
+     * Returns the number of days for which entries of the specified severity are kept. 0 means entries are kept
+     * forever.
+     * 
+     * @param severity
+     *            Severity of the entries
+     */
+    public long getStorageRetentionDays(Severity severity) {
+        String days = _storageRetentionDaysBySeverity.get(severity.toString());
+        if (days == null) {
+            return _storageRetentionDays;
+        }
+        return Long.parseLong(days.trim());
+    }
+
+    /**
+     * Sets the number of days for which entries of the specified severity are kept
+     * 
+     * @param severity
+     *            Severity of the entries
+     * @param days
+     *            Number of days. 0 means entries are kept forever.
+     */
+    public void setStorageRetentionDays(Severity severity, long days) {
+        _storageRetentionDaysBySeverity.put(severity.toString(), Long.toString(days));
+    }
+
     /**
      * The maximum amount of memory (in bytes) that will be used by the storage queue. <code>-1</code> means no limit.
      */
@@ -474,4 +792,80 @@ public class RepositoryConfigBO extends BO implements Serializable {
         BLOCK
     }
 
+    /**
+     * Guarantee that must hold for log entries written to the database before they are removed from the storage
+     * queue
+     * 
+     * @author vibul
+     * 
+     */
+    public enum WriteDurability {
+        /**
+         * Entries are handed to the mongoDB driver. No errors are reported, not even network errors. Entries may be
+         * lost without us knowing.
+         */
+        NONE,
+
+        /**
+         * Entries are sent to the mongoDB server. Network errors are reported but server errors are not. The storage
+         * queue is rolled back if the connection to the server is lost.
+         */
+        NORMAL,
+
+        /**
+         * Wait for the mongoDB server to acknowledge the write. Network and server errors are reported.
+         */
+        SAFE,
+
+        /**
+         * Wait for the mongoDB server to flush the write to disk before acknowledging it.
+         */
+        JOURNAL_SAFE
+    }
+
+    /**
+     * How repository entries are split between mongoDB collections
+     * 
+     * @author vibul
+     * 
+     */
+    public enum Partitioning {
+        /**
+         * All entries are stored in one collection
+         */
+        NONE(null, 0),
+
+        /**
+         * Entries are stored in one collection per UTC day
+         */
+        DAILY("yyyyMMdd", 24L * 60 * 60 * 1000),
+
+        /**
+         * Entries are stored in one collection per UTC hour
+         */
+        HOURLY("yyyyMMddHH", 60L * 60 * 1000);
+
+        private String _dateFormat;
+        private long _duration;
+
+        private Partitioning(String dateFormat, long duration) {
+            _dateFormat = dateFormat;
+            _duration = duration;
+        }
+
+        /**
+         * Returns the format of the date appended to the collection name
+         */
+        public String getDateFormat() {
+            return _dateFormat;
+        }
+
+        /**
+         * Returns the number of milliseconds covered by a partition
+         */
+        public long getDuration() {
+            return _duration;
+        }
+    }
+
 }
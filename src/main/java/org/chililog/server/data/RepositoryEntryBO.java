@@ -49,6 +49,9 @@ public class RepositoryEntryBO extends BO implements Serializable {
     private Severity _severity;
     private String _message;
     private ArrayList<String> _keywords = new ArrayList<String>();
+    private Long _templateId = null;
+    private Long _templateVersion = null;
+    private ArrayList<String> _templateVariables = null;
 
     public static final String TIMESTAMP_FIELD_NAME = "ts";
     public static final String SAVED_TIMESTAMP_FIELD_NAME = "saved_ts";
@@ -57,6 +60,9 @@ public class RepositoryEntryBO extends BO implements Serializable {
     public static final String SEVERITY_FIELD_NAME = "severity";
     public static final String MESSAGE_FIELD_NAME = "message";
     public static final String KEYWORDS_FIELD_NAME = "keywords";
+    public static final String TEMPLATE_ID_FIELD_NAME = "template_id";
+    public static final String TEMPLATE_VERSION_FIELD_NAME = "template_ver";
+    public static final String TEMPLATE_VARIABLES_FIELD_NAME = "template_vars";
 
     /**
      * Basic constructor
@@ -80,7 +86,14 @@ public class RepositoryEntryBO extends BO implements Serializable {
         _host = MongoUtils.getString(dbObject, HOST_FIELD_NAME, true);
         _severity = Severity.fromCode(MongoUtils.getLong(dbObject, SEVERITY_FIELD_NAME, true));
         _keywords = MongoUtils.getStringArrayList(dbObject, KEYWORDS_FIELD_NAME, false);
-        _message = MongoUtils.getString(dbObject, MESSAGE_FIELD_NAME, true);
+        _templateId = MongoUtils.getLong(dbObject, TEMPLATE_ID_FIELD_NAME, false);
+        if (_templateId != null && dbObject.containsField(TEMPLATE_VARIABLES_FIELD_NAME)) {
+            _templateVersion = MongoUtils.getLong(dbObject, TEMPLATE_VERSION_FIELD_NAME, true);
+            _templateVariables = MongoUtils.getStringArrayList(dbObject, TEMPLATE_VARIABLES_FIELD_NAME, true);
+        }
+
+        // Message of entries stored as template variables is rebuilt by RepositoryEntryController when read
+        _message = MongoUtils.getString(dbObject, MESSAGE_FIELD_NAME, _templateVariables == null);
         return;
     }
 
@@ -136,7 +149,18 @@ public class RepositoryEntryBO extends BO implements Serializable {
         MongoUtils.setString(dbObject, HOST_FIELD_NAME, _host, true);
         MongoUtils.setLong(dbObject, SEVERITY_FIELD_NAME, _severity.toCode(), true);
         MongoUtils.setStringArrayList(dbObject, KEYWORDS_FIELD_NAME, _keywords, false);
-        MongoUtils.setString(dbObject, MESSAGE_FIELD_NAME, _message, true);
+
+        // Only stored if the repository groups messages into templates. If there are variables, they are stored
+        // instead of the message.
+        if (_templateId != null) {
+            MongoUtils.setLong(dbObject, TEMPLATE_ID_FIELD_NAME, _templateId, true);
+        }
+        if (_templateId != null && _templateVariables != null) {
+            MongoUtils.setLong(dbObject, TEMPLATE_VERSION_FIELD_NAME, _templateVersion, true);
+            MongoUtils.setStringArrayList(dbObject, TEMPLATE_VARIABLES_FIELD_NAME, _templateVariables, false);
+        } else {
+            MongoUtils.setString(dbObject, MESSAGE_FIELD_NAME, _message, true);
+        }
         return;
     }
 
@@ -219,6 +243,42 @@ public class RepositoryEntryBO extends BO implements Serializable {
         _keywords = keywords;
     }
 
+    /**
+     * Returns the id of the template to which the message belongs. Null if the repository does not group messages
+     * into templates.
+     */
+    public Long getTemplateId() {
+        return _templateId;
+    }
+
+    public void setTemplateId(Long templateId) {
+        _templateId = templateId;
+    }
+
+    /**
+     * Returns the version of the template against which the message was mined. Null if the message is not stored as
+     * template variables.
+     */
+    public Long getTemplateVersion() {
+        return _templateVersion;
+    }
+
+    public void setTemplateVersion(Long templateVersion) {
+        _templateVersion = templateVersion;
+    }
+
+    /**
+     * Returns the parts of the message that match the wildcards of the template version; in the order in which they
+     * appear in the message. If set, these are stored instead of the message. Null if the message is stored as is.
+     */
+    public ArrayList<String> getTemplateVariables() {
+        return _templateVariables;
+    }
+
+    public void setTemplateVariables(ArrayList<String> templateVariables) {
+        _templateVariables = templateVariables;
+    }
+
     /**
      * Severity codes taken from syslog format. See http://tools.ietf.org/html/rfc5424.
      */
@@ -283,6 +343,19 @@ public class RepositoryEntryBO extends BO implements Serializable {
             return code;
         }
 
+        /**
+         * Returns the severity for a code
+         * 
+         * @param code
+         *            Code 0-7. For example, the lower 3 bits of a syslog priority.
+         * @return Severity
+         * @throws ArrayIndexOutOfBoundsException
+         *             if the code is not 0-7
+         */
+        public static Severity fromCode(int code) {
+            return lookup[code];
+        }
+
         public static Severity fromString(String s) {
             return Enum.valueOf(Severity.class, s);
         }
@@ -18,32 +18,72 @@
 
 package org.chililog.server.data;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.NullArgumentException;
+import org.apache.commons.lang.StringUtils;
 import org.bson.types.ObjectId;
 import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.data.RepositoryConfigBO.Partitioning;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
 
 /**
  * <p>
  * Controller to read and write repository entries
  * </p>
+ * <p>
+ * If the repository is partitioned, entries are written to a collection per day or hour based on the entry's
+ * timestamp. Queries are only run against the partitions that overlap the <code>from</code> and <code>to</code> range
+ * of the criteria. Results from multiple partitions are merged. An unpartitioned collection holding entries written
+ * before partitioning was turned on is always queried.
+ * </p>
  * 
  * @author vibul
  * 
  */
 public class RepositoryEntryController extends Controller {
 
+    private static ConcurrentHashMap<String, Boolean> _indexedPartitions = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Names of the collections of each partitioned repository keyed by repository collection name. Loaded on first use
+     * and cleared when a partition is created or dropped so that we do not have to list the database's collections for
+     * every query.
+     */
+    private static ConcurrentHashMap<String, List<String>> _collectionNames =
+            new ConcurrentHashMap<String, List<String>>();
+
     private RepositoryConfigBO _repoInfo = null;
     private String _mongoDBCollectionName = null;
+    private RepositoryTemplateController _templateController = null;
+
+    /**
+     * Fields needed to rebuild the message of entries stored as template variables
+     */
+    private static final String[] TEMPLATE_FIELD_NAMES = new String[] { RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME,
+            RepositoryEntryBO.TEMPLATE_VERSION_FIELD_NAME, RepositoryEntryBO.TEMPLATE_VARIABLES_FIELD_NAME };
 
     /**
      * Returns an instance of the repository entry controller to use.
@@ -66,6 +106,9 @@ public class RepositoryEntryController extends Controller {
     RepositoryEntryController(RepositoryConfigBO repoInfo) {
         _repoInfo = repoInfo;
         _mongoDBCollectionName = repoInfo.getMongoDBCollectionName();
+        if (repoInfo.getStorageTemplateIndicator()) {
+            _templateController = RepositoryTemplateController.getInstance(repoInfo);
+        }
     }
 
     /**
@@ -83,6 +126,226 @@ public class RepositoryEntryController extends Controller {
         return _repoInfo;
     }
 
+    /**
+     * Returns the mongoDB write strategy matching the repository's write durability. Our version of the mongoDB driver
+     * does not support waiting on the journal so <code>JOURNAL_SAFE</code> waits for the write to be flushed to disk
+     * instead.
+     */
+    @Override
+    protected WriteConcern getDBWriteConern() {
+        switch (_repoInfo.getStorageWriteDurability()) {
+            case NONE:
+                return WriteConcern.NONE;
+            case NORMAL:
+                return WriteConcern.NORMAL;
+            case JOURNAL_SAFE:
+                return WriteConcern.FSYNC_SAFE;
+            default:
+                return WriteConcern.SAFE;
+        }
+    }
+
+    /**
+     * Returns the name of the collection in which the entry is stored
+     */
+    @Override
+    protected String getDBCollectionName(BO businessObject) {
+        return _repoInfo.getMongoDBCollectionName(((RepositoryEntryBO) businessObject).getTimestamp());
+    }
+
+    /**
+     * Returns the collection into which an entry is to be written. If the repository is partitioned, indexes are
+     * created the first time we write to a partition.
+     */
+    private DBCollection getDBCollectionForWrite(DB db, RepositoryEntryBO entry) {
+        String name = _repoInfo.getMongoDBCollectionName(entry.getTimestamp());
+        DBCollection coll = db.getCollection(name);
+        if (_repoInfo.getStoragePartitioning() != Partitioning.NONE && !_indexedPartitions.containsKey(name)) {
+            for (Map.Entry<String, DBObject> index : getIndexes().entrySet()) {
+                ensureIndex(coll, index.getKey(), index.getValue());
+            }
+            _indexedPartitions.put(name, Boolean.TRUE);
+            _collectionNames.remove(_mongoDBCollectionName);
+        }
+        return coll;
+    }
+
+    /**
+     * <p>
+     * Returns the indexes required on the repository's collections, keyed by index name. These support the conditions
+     * built by {@link RepositoryEntryListCriteria#getConditionsDbObject()}:
+     * </p>
+     * <ul>
+     * <li><code>ts_index</code> - time range queries</li>
+     * <li><code>ts_severity_index</code> - time range and severity queries</li>
+     * <li><code>keyword_ts_index</code> - keyword searches</li>
+     * <li><code>template_id_ts_index</code> - template and keyword searches if the repository groups messages into
+     * templates</li>
+     * <li><code>fld_&lt;name&gt;_ts_index</code> - for each parsed field with
+     * {@link RepositoryFieldConfigBO#getIndexIndicator()} set</li>
+     * </ul>
+     */
+    public LinkedHashMap<String, DBObject> getIndexes() {
+        LinkedHashMap<String, DBObject> indexes = new LinkedHashMap<String, DBObject>();
+
+        BasicDBObject keys = new BasicDBObject();
+        keys.put(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, 1);
+        indexes.put("ts_index", keys);
+
+        keys = new BasicDBObject();
+        keys.put(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, 1);
+        keys.put(RepositoryEntryBO.SEVERITY_FIELD_NAME, 1);
+        indexes.put("ts_severity_index", keys);
+
+        keys = new BasicDBObject();
+        keys.put(RepositoryEntryBO.KEYWORDS_FIELD_NAME, 1);
+        keys.put(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, 1);
+        indexes.put("keyword_ts_index", keys);
+
+        if (_repoInfo.getStorageTemplateIndicator()) {
+            keys = new BasicDBObject();
+            keys.put(RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME, 1);
+            keys.put(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, 1);
+            indexes.put("template_id_ts_index", keys);
+        }
+
+        for (RepositoryParserConfigBO parser : _repoInfo.getParsers()) {
+            for (RepositoryFieldConfigBO field : parser.getFields()) {
+                String name = field.getDbObjectName() + "_ts_index";
+                if (field.getIndexIndicator() && !indexes.containsKey(name)) {
+                    keys = new BasicDBObject();
+                    keys.put(field.getDbObjectName(), 1);
+                    keys.put(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, 1);
+                    indexes.put(name, keys);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Creates an index in the background if it does not already exist. Reads and writes to the collection can continue
+     * while the index is being built.
+     * 
+     * @param coll
+     *            Collection to index
+     * @param name
+     *            Name of the index
+     * @param keys
+     *            Fields to index
+     */
+    public void ensureIndex(DBCollection coll, String name, DBObject keys) {
+        BasicDBObject options = new BasicDBObject();
+        options.put("name", name);
+        options.put("background", true);
+        coll.ensureIndex(keys, options);
+    }
+
+    /**
+     * <p>
+     * Returns the collections holding entries with timestamps between <code>from</code> and <code>to</code>.
+     * </p>
+     * <p>
+     * If the repository is not partitioned, only the repository collection is returned. Otherwise, existing partitions
+     * that overlap the range are returned in chronological order. If there is an unpartitioned collection, it is
+     * returned first. If no partition overlaps the range, the list is empty.
+     * </p>
+     * 
+     * @param db
+     *            Database connection
+     * @param from
+     *            Earliest timestamp. Null if there is no lower limit.
+     * @param to
+     *            Latest timestamp. Null if there is no upper limit.
+     * @return List of collections
+     */
+    public List<DBCollection> getDBCollections(DB db, Date from, Date to) {
+        ArrayList<DBCollection> list = new ArrayList<DBCollection>();
+        Partitioning partitioning = _repoInfo.getStoragePartitioning();
+        if (partitioning == Partitioning.NONE) {
+            list.add(db.getCollection(_mongoDBCollectionName));
+            return list;
+        }
+
+        // Names of partitions sort in chronological order
+        ArrayList<String> names = new ArrayList<String>();
+        boolean hasUnpartitioned = false;
+        for (String name : getCollectionNames(db)) {
+            if (name.equals(_mongoDBCollectionName)) {
+                hasUnpartitioned = true;
+                continue;
+            }
+            Date start = getPartitionStart(name);
+            if (start == null) {
+                continue;
+            }
+            Date end = new Date(start.getTime() + partitioning.getDuration());
+            if ((from == null || end.after(from)) && (to == null || !start.after(to))) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+
+        if (hasUnpartitioned) {
+            list.add(db.getCollection(_mongoDBCollectionName));
+        }
+        for (String name : names) {
+            list.add(db.getCollection(name));
+        }
+        return list;
+    }
+
+    /**
+     * Returns the names of the repository collection and of the collections that may be its partitions
+     */
+    private List<String> getCollectionNames(DB db) {
+        List<String> names = _collectionNames.get(_mongoDBCollectionName);
+        if (names == null) {
+            String prefix = _mongoDBCollectionName + "_";
+            ArrayList<String> list = new ArrayList<String>();
+            for (String name : db.getCollectionNames()) {
+                if (name.equals(_mongoDBCollectionName) || name.startsWith(prefix)) {
+                    list.add(name);
+                }
+            }
+            names = Collections.unmodifiableList(list);
+            _collectionNames.put(_mongoDBCollectionName, names);
+        }
+        return names;
+    }
+
+    /**
+     * Returns the time from which a partition holds entries
+     * 
+     * @param collectionName
+     *            Name of the partition collection
+     * @return Start time of the partition or null if the collection is not a partition of this repository
+     */
+    public Date getPartitionStart(String collectionName) {
+        Partitioning partitioning = _repoInfo.getStoragePartitioning();
+        String prefix = _mongoDBCollectionName + "_";
+        if (partitioning == Partitioning.NONE || !collectionName.startsWith(prefix)
+                || collectionName.length() != prefix.length() + partitioning.getDateFormat().length()) {
+            return null;
+        }
+
+        String suffix = collectionName.substring(prefix.length());
+        for (int i = 0; i < suffix.length(); i++) {
+            if (!Character.isDigit(suffix.charAt(i))) {
+                return null;
+            }
+        }
+
+        try {
+            SimpleDateFormat sf = new SimpleDateFormat(partitioning.getDateFormat());
+            sf.setTimeZone(TimeZone.getTimeZone("UTC"));
+            sf.setLenient(false);
+            return sf.parse(suffix);
+        } catch (ParseException ex) {
+            return null;
+        }
+    }
+
     /**
      * Retrieves the specified entry by the id
      * 
@@ -122,14 +385,21 @@ public class RepositoryEntryController extends Controller {
                 throw new IllegalArgumentException("id cannot be null");
             }
 
-            DBCollection coll = db.getCollection(this.getDBCollectionName());
             BasicDBObject condition = new BasicDBObject();
             condition.put(BO.DOCUMENT_ID_FIELD_NAME, id);
-            DBObject dbo = coll.findOne(condition);
-            if (dbo == null) {
-                return null;
+
+            // Most lookups are for recent entries so start with the latest partition
+            List<DBCollection> colls = getDBCollections(db, null, null);
+            for (int i = colls.size() - 1; i >= 0; i--) {
+                DBObject dbo = colls.get(i).findOne(condition);
+                if (dbo != null) {
+                    ArrayList<DBObject> list = new ArrayList<DBObject>();
+                    list.add(dbo);
+                    buildMessages(db, list);
+                    return new RepositoryEntryBO(dbo);
+                }
             }
-            return new RepositoryEntryBO(dbo);
+            return null;
         } catch (MongoException ex) {
             throw new ChiliLogException(ex, Strings.MONGODB_QUERY_ERROR, ex.getMessage());
         }
@@ -174,24 +444,57 @@ public class RepositoryEntryController extends Controller {
                 throw new NullArgumentException("criteria");
             }
 
-            DBCollection coll = db.getCollection(this.getDBCollectionName());
+            List<DBCollection> colls = getDBCollections(db, criteria.getFrom(), criteria.getTo());
             int recordsPerPage = criteria.getRecordsPerPage();
             int skipDocumentCount = (criteria.getStartPage() - 1) * recordsPerPage;
 
             DBObject fields = criteria.getFieldsDbObject();
-            DBObject conditions = criteria.getConditionsDbObject();
+            DBObject conditions = getConditions(db, criteria);
             DBObject orderBy = criteria.getOrderByDbObject();
 
-            DBCursor cur = coll.find(conditions, fields).skip(skipDocumentCount).limit(recordsPerPage).sort(orderBy);
-            ArrayList<DBObject> list = new ArrayList<DBObject>();
-            while (cur.hasNext()) {
-                DBObject dbo = cur.next();
-                list.add(dbo);
+            // Messages stored as template variables are rebuilt so we need the template fields
+            ArrayList<String> addedFields = new ArrayList<String>();
+            if (_templateController != null && fields != null && isInclusion(fields)
+                    && fields.containsField(RepositoryEntryBO.MESSAGE_FIELD_NAME)) {
+                fields = new BasicDBObject(fields.toMap());
+                for (String key : TEMPLATE_FIELD_NAMES) {
+                    if (!fields.containsField(key)) {
+                        fields.put(key, 1);
+                        addedFields.add(key);
+                    }
+                }
+            }
+
+            ArrayList<DBObject> list;
+            if (colls.isEmpty()) {
+                list = new ArrayList<DBObject>();
+            } else if (colls.size() == 1) {
+                list = new ArrayList<DBObject>();
+                DBCursor cur = colls.get(0).find(conditions, fields).skip(skipDocumentCount).limit(recordsPerPage)
+                        .sort(orderBy);
+                while (cur.hasNext()) {
+                    DBObject dbo = cur.next();
+                    list.add(dbo);
+                }
+            } else if (isPartitionOrder(colls, orderBy)) {
+                list = findInPartitionOrder(colls, fields, conditions, orderBy, skipDocumentCount, recordsPerPage);
+            } else {
+                list = findAndMerge(colls, fields, conditions, orderBy, skipDocumentCount, recordsPerPage);
+            }
+
+            buildMessages(db, list);
+            for (DBObject dbo : list) {
+                for (String key : addedFields) {
+                    dbo.removeField(key);
+                }
             }
 
             // Do page count by executing query again
             if (criteria.getDoPageCount()) {
-                int documentCount = coll.find(conditions).count();
+                int documentCount = 0;
+                for (DBCollection coll : colls) {
+                    documentCount += coll.find(conditions).count();
+                }
                 criteria.calculatePageCount(documentCount);
             }
 
@@ -201,6 +504,176 @@ public class RepositoryEntryController extends Controller {
         }
     }
 
+    /**
+     * Returns the query conditions. If the repository groups messages into templates, keywords are also looked up in
+     * the constant parts of templates because these keywords are not stored with each entry.
+     */
+    private DBObject getConditions(DB db, RepositoryEntryListCriteria criteria) throws Exception {
+        if (_templateController == null) {
+            return criteria.getConditionsDbObject();
+        }
+        ArrayList<String> keywords = criteria.getKeywordsList();
+        return criteria.getConditionsDbObject(_templateController.getKeywordConditions(db, keywords));
+    }
+
+    /**
+     * Rebuilds the message of entries that are stored as template variables. Entries are left without a message if
+     * their template version cannot be found.
+     */
+    private void buildMessages(DB db, List<DBObject> list) throws ChiliLogException {
+        if (_templateController == null) {
+            return;
+        }
+
+        HashSet<Long> ids = new HashSet<Long>();
+        for (DBObject dbo : list) {
+            if (dbo.containsField(RepositoryEntryBO.TEMPLATE_VARIABLES_FIELD_NAME)
+                    && !dbo.containsField(RepositoryEntryBO.MESSAGE_FIELD_NAME)) {
+                ids.add(((Number) dbo.get(RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME)).longValue());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        HashMap<Long, HashMap<Long, String>> templates = _templateController.getVersions(db, ids);
+        for (DBObject dbo : list) {
+            if (!dbo.containsField(RepositoryEntryBO.TEMPLATE_VARIABLES_FIELD_NAME)
+                    || dbo.containsField(RepositoryEntryBO.MESSAGE_FIELD_NAME)) {
+                continue;
+            }
+            HashMap<Long, String> versions = templates.get(((Number) dbo
+                    .get(RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME)).longValue());
+            Object version = dbo.get(RepositoryEntryBO.TEMPLATE_VERSION_FIELD_NAME);
+            String template = (versions == null || !(version instanceof Number)) ? null : versions
+                    .get(((Number) version).longValue());
+            if (template == null) {
+                continue;
+            }
+            String message = RepositoryTemplateController.buildMessage(template,
+                    MongoUtils.getStringArrayList(dbo, RepositoryEntryBO.TEMPLATE_VARIABLES_FIELD_NAME, false));
+            if (message != null) {
+                dbo.put(RepositoryEntryBO.MESSAGE_FIELD_NAME, message);
+            }
+        }
+    }
+
+    /**
+     * Returns true if results can be read one partition after another. This is the case if there is no order by or the
+     * results are ordered by timestamp first, and there is no unpartitioned collection whose timestamps may overlap
+     * with the partitions.
+     */
+    private boolean isPartitionOrder(List<DBCollection> colls, DBObject orderBy) {
+        if (colls.get(0).getName().equals(_mongoDBCollectionName)) {
+            return false;
+        }
+        if (orderBy == null || orderBy.keySet().isEmpty()) {
+            return true;
+        }
+        return orderBy.keySet().iterator().next().equals(RepositoryEntryBO.TIMESTAMP_FIELD_NAME);
+    }
+
+    /**
+     * Reads a page of results one partition after another. Partitions that fall entirely before the requested page are
+     * skipped by counting rather than reading their entries.
+     */
+    private ArrayList<DBObject> findInPartitionOrder(List<DBCollection> colls,
+                                                     DBObject fields,
+                                                     DBObject conditions,
+                                                     DBObject orderBy,
+                                                     int skipDocumentCount,
+                                                     int recordsPerPage) {
+        ArrayList<DBCollection> ordered = new ArrayList<DBCollection>(colls);
+        if (orderBy != null && !orderBy.keySet().isEmpty()) {
+            Object direction = orderBy.get(RepositoryEntryBO.TIMESTAMP_FIELD_NAME);
+            if (direction instanceof Number && ((Number) direction).intValue() < 0) {
+                Collections.reverse(ordered);
+            }
+        }
+
+        ArrayList<DBObject> list = new ArrayList<DBObject>();
+        int skip = skipDocumentCount;
+        for (DBCollection coll : ordered) {
+            if (list.size() >= recordsPerPage) {
+                break;
+            }
+            if (skip > 0) {
+                int count = coll.find(conditions).count();
+                if (count <= skip) {
+                    skip -= count;
+                    continue;
+                }
+            }
+
+            DBCursor cur = coll.find(conditions, fields).skip(skip).limit(recordsPerPage - list.size()).sort(orderBy);
+            while (cur.hasNext()) {
+                list.add(cur.next());
+            }
+            skip = 0;
+        }
+        return list;
+    }
+
+    /**
+     * Reads enough results from each collection to fill the requested page, then sorts and pages them in memory
+     */
+    private ArrayList<DBObject> findAndMerge(List<DBCollection> colls,
+                                             DBObject fields,
+                                             DBObject conditions,
+                                             DBObject orderBy,
+                                             int skipDocumentCount,
+                                             int recordsPerPage) {
+        int limit = (int) Math.min((long) skipDocumentCount + recordsPerPage, Integer.MAX_VALUE);
+
+        // Make sure that we get the fields that we have to sort on
+        ArrayList<String> addedFields = new ArrayList<String>();
+        if (orderBy != null && fields != null && !fields.keySet().isEmpty() && isInclusion(fields)) {
+            fields = new BasicDBObject(fields.toMap());
+            for (String key : orderBy.keySet()) {
+                if (!fields.containsField(key)) {
+                    fields.put(key, 1);
+                    addedFields.add(key);
+                }
+            }
+        }
+
+        ArrayList<DBObject> all = new ArrayList<DBObject>();
+        for (DBCollection coll : colls) {
+            DBCursor cur = coll.find(conditions, fields).limit(limit).sort(orderBy);
+            while (cur.hasNext()) {
+                all.add(cur.next());
+            }
+        }
+        if (orderBy != null) {
+            Collections.sort(all, new OrderByComparator(orderBy));
+        }
+
+        ArrayList<DBObject> list = new ArrayList<DBObject>();
+        for (int i = skipDocumentCount; i < all.size() && list.size() < recordsPerPage; i++) {
+            DBObject dbo = all.get(i);
+            for (String key : addedFields) {
+                dbo.removeField(key);
+            }
+            list.add(dbo);
+        }
+        return list;
+    }
+
+    /**
+     * Returns true if the fields object lists the fields to return rather than the fields to leave out
+     */
+    private static boolean isInclusion(DBObject fields) {
+        for (String key : fields.keySet()) {
+            if (key.equals(BO.DOCUMENT_ID_FIELD_NAME)) {
+                continue;
+            }
+            Object value = fields.get(key);
+            return !(value instanceof Number && ((Number) value).intValue() == 0)
+                    && !(value instanceof Boolean && !((Boolean) value));
+        }
+        return false;
+    }
+
     /**
      * Count of number of entries that matches the condition
      * 
@@ -219,11 +692,14 @@ public class RepositoryEntryController extends Controller {
                 throw new NullArgumentException("criteria");
             }
 
-            DBCollection coll = db.getCollection(this.getDBCollectionName());
+            DBObject conditions = getConditions(db, criteria);
 
-            DBObject conditions = criteria.getConditionsDbObject();
-
-            return coll.find(conditions).count();
+            // No partitions in the time range means no entries
+            int count = 0;
+            for (DBCollection coll : getDBCollections(db, criteria.getFrom(), criteria.getTo())) {
+                count += coll.find(conditions).count();
+            }
+            return count;
         } catch (Exception ex) {
             throw new ChiliLogException(ex, Strings.MONGODB_QUERY_ERROR, ex.getMessage());
         }
@@ -248,8 +724,6 @@ public class RepositoryEntryController extends Controller {
                 throw new NullArgumentException("criteria");
             }
 
-            DBCollection coll = db.getCollection(this.getDBCollectionName());
-
             DBObject fields = criteria.getFieldsDbObject();
             if (fields == null || fields.keySet().isEmpty()) {
                 throw new IllegalArgumentException("Field is required for a 'distinct' query.");
@@ -261,9 +735,22 @@ public class RepositoryEntryController extends Controller {
                 break;
             }
 
-            DBObject conditions = criteria.getConditionsDbObject();
+            DBObject conditions = getConditions(db, criteria);
 
-            return coll.distinct(fieldName, conditions);
+            List<DBCollection> colls = getDBCollections(db, criteria.getFrom(), criteria.getTo());
+            if (colls.isEmpty()) {
+                return new ArrayList<Object>();
+            }
+            if (colls.size() == 1) {
+                return colls.get(0).distinct(fieldName, conditions);
+            }
+            LinkedHashSet<Object> values = new LinkedHashSet<Object>();
+            for (DBCollection coll : colls) {
+                for (Object value : (List<?>) coll.distinct(fieldName, conditions)) {
+                    values.add(value);
+                }
+            }
+            return new ArrayList<Object>(values);
         } catch (Exception ex) {
             throw new ChiliLogException(ex, Strings.MONGODB_QUERY_ERROR, ex.getMessage());
         }
@@ -275,8 +762,8 @@ public class RepositoryEntryController extends Controller {
      * @param db
      *            Database connection
      * @param criteria
-     *            Criteria to filter resultset. Fields, Conditions, Initial, ReduceFunction and FinalizeFunction are
-     *            used.
+     *            Criteria to filter resultset. Fields, Conditions, Initial, ReduceFunction, FinalizeFunction and
+     *            AdditiveReduce are used.
      * @return Specified fields and aggregation counter.
      */
     public DBObject executeGroupQuery(DB db, RepositoryEntryListCriteria criteria) throws ChiliLogException {
@@ -288,19 +775,76 @@ public class RepositoryEntryController extends Controller {
                 throw new NullArgumentException("criteria");
             }
 
-            DBCollection coll = db.getCollection(this.getDBCollectionName());
-
             DBObject fields = criteria.getFieldsDbObject();
-            DBObject conditions = criteria.getConditionsDbObject();
+            DBObject conditions = getConditions(db, criteria);
             DBObject initial = criteria.getIntialDbObject();
 
-            return coll
-                    .group(fields, conditions, initial, criteria.getReduceFunction(), criteria.getFinalizeFunction());
+            List<DBCollection> colls = getDBCollections(db, criteria.getFrom(), criteria.getTo());
+            if (colls.isEmpty()) {
+                return new BasicDBList();
+            }
+            if (colls.size() == 1) {
+                return colls.get(0).group(fields, conditions, initial, criteria.getReduceFunction(),
+                        criteria.getFinalizeFunction());
+            }
+
+            // We can only combine the results of each partition if the aggregates can be added together
+            if (!criteria.getAdditiveReduce()) {
+                throw new ChiliLogException(Strings.REPO_ENTRY_PARTITIONED_GROUP_ERROR, _repoInfo.getName());
+            }
+            if (!StringUtils.isBlank(criteria.getFinalizeFunction())) {
+                throw new ChiliLogException(Strings.REPO_ENTRY_PARTITIONED_FINALIZE_ERROR, _repoInfo.getName());
+            }
+            LinkedHashMap<Map<String, Object>, DBObject> groups = new LinkedHashMap<Map<String, Object>, DBObject>();
+            for (DBCollection coll : colls) {
+                DBObject result = coll.group(fields, conditions, initial, criteria.getReduceFunction(), null);
+                for (Object o : (List<?>) result) {
+                    mergeGroup(groups, fields, (DBObject) o);
+                }
+            }
+            BasicDBList list = new BasicDBList();
+            list.addAll(groups.values());
+            return list;
+        } catch (ChiliLogException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new ChiliLogException(ex, Strings.MONGODB_QUERY_ERROR, ex.getMessage());
         }
     }
 
+    /**
+     * Adds the aggregates of a group from one partition to the same group from other partitions. Numeric aggregates
+     * are summed so this is only correct for additive reduce functions.
+     */
+    private static void mergeGroup(LinkedHashMap<Map<String, Object>, DBObject> groups,
+                                   DBObject keyFields,
+                                   DBObject row) {
+        LinkedHashMap<String, Object> key = new LinkedHashMap<String, Object>();
+        for (String name : keyFields.keySet()) {
+            key.put(name, row.get(name));
+        }
+
+        DBObject existing = groups.get(key);
+        if (existing == null) {
+            groups.put(key, row);
+            return;
+        }
+        for (String name : row.keySet()) {
+            if (key.containsKey(name)) {
+                continue;
+            }
+            Object a = existing.get(name);
+            Object b = row.get(name);
+            if (a instanceof Number && b instanceof Number) {
+                if (a instanceof Double || b instanceof Double || a instanceof Float || b instanceof Float) {
+                    existing.put(name, ((Number) a).doubleValue() + ((Number) b).doubleValue());
+                } else {
+                    existing.put(name, ((Number) a).longValue() + ((Number) b).longValue());
+                }
+            }
+        }
+    }
+
     /**
      * Saves the repository entry into mongoDB
      * 
@@ -316,6 +860,113 @@ public class RepositoryEntryController extends Controller {
         super.save(db, entry);
     }
 
+    /**
+     * <p>
+     * Inserts new repository entries into mongoDB using a single database call.
+     * </p>
+     * <p>
+     * Document ids are allocated before the insert is sent. This means that if the insert fails part way through,
+     * entries can be safely written again one at a time using {@link #upsert(DB, RepositoryEntryBO)} without creating
+     * duplicates.
+     * </p>
+     * <p>
+     * Returns once the repository's write durability guarantee holds for all entries. Errors are only reported if
+     * the write durability is strong enough to detect them.
+     * </p>
+     * 
+     * @param db
+     *            MongoDb connection
+     * @param entries
+     *            New entries to insert
+     * @throws ChiliLogException
+     *             if there are errors
+     */
+    public void insert(DB db, List<RepositoryEntryBO> entries) throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+        if (entries == null) {
+            throw new NullArgumentException("entries");
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (_repoInfo.getStoragePartitioning() == Partitioning.NONE) {
+                ArrayList<DBObject> list = new ArrayList<DBObject>(entries.size());
+                for (RepositoryEntryBO entry : entries) {
+                    list.add(toNewDBObject(entry));
+                }
+                DBCollection coll = db.getCollection(this.getDBCollectionName());
+                coll.insert(list, this.getDBWriteConern());
+                return;
+            }
+
+            // Entries in a batch usually fall in the same partition but may straddle a boundary
+            LinkedHashMap<DBCollection, ArrayList<DBObject>> partitions =
+                    new LinkedHashMap<DBCollection, ArrayList<DBObject>>();
+            for (RepositoryEntryBO entry : entries) {
+                DBCollection coll = getDBCollectionForWrite(db, entry);
+                ArrayList<DBObject> list = partitions.get(coll);
+                if (list == null) {
+                    list = new ArrayList<DBObject>(entries.size());
+                    partitions.put(coll, list);
+                }
+                list.add(toNewDBObject(entry));
+            }
+            for (Map.Entry<DBCollection, ArrayList<DBObject>> partition : partitions.entrySet()) {
+                partition.getKey().insert(partition.getValue(), this.getDBWriteConern());
+            }
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_SAVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes a new repository entry into mongoDB. If a document with the same id already exists (because it was written
+     * by a batch insert that subsequently failed), it is overwritten.
+     * 
+     * @param db
+     *            MongoDb connection
+     * @param entry
+     *            Entry to write
+     * @throws ChiliLogException
+     *             if there are errors
+     */
+    public void upsert(DB db, RepositoryEntryBO entry) throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+        if (entry == null) {
+            throw new NullArgumentException("entry");
+        }
+
+        try {
+            DBCollection coll = getDBCollectionForWrite(db, entry);
+            coll.save(toNewDBObject(entry), this.getDBWriteConern());
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_SAVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Converts a new entry into a mongoDB object, allocating a document id if one has not already been allocated
+     * 
+     * @param entry
+     *            Entry to convert
+     * @return mongoDB object ready for inserting
+     * @throws ChiliLogException
+     */
+    private DBObject toNewDBObject(RepositoryEntryBO entry) throws ChiliLogException {
+        DBObject obj = entry.toDBObject();
+        if (obj.get(BO.DOCUMENT_ID_FIELD_NAME) == null) {
+            obj.put(BO.DOCUMENT_ID_FIELD_NAME, new ObjectId());
+        }
+        obj.put(BO.DOCUMENT_VERSION_FIELD_NAME, (long) 1);
+        return obj;
+    }
+
     /**
      * Removes the specified repository entry from mongoDB
      * 
@@ -329,4 +980,139 @@ public class RepositoryEntryController extends Controller {
     public void remove(DB db, RepositoryEntryBO entry) throws ChiliLogException {
         super.remove(db, entry);
     }
+
+    /**
+     * <p>
+     * Removes the oldest entries in a collection that were logged before the specified time.
+     * </p>
+     * <p>
+     * At most <code>batchSize</code> entries are removed so that the delete is short and does not hold up the storage
+     * of new entries. Call this method repeatedly until it returns less than <code>batchSize</code>.
+     * </p>
+     * <p>
+     * The oldest entries are found using the timestamp index. Call {@link #ensureTimestampIndex(DBCollection)} once
+     * before removing entries from a collection.
+     * </p>
+     * 
+     * @param coll
+     *            Collection from which entries are to be removed. See {@link #getDBCollections(DB, Date, Date)}.
+     * @param before
+     *            Entries with a timestamp before this time are removed
+     * @param severities
+     *            Severities of the entries to remove
+     * @param batchSize
+     *            Maximum number of entries to remove
+     * @return Number of entries removed
+     * @throws ChiliLogException
+     *             if there are errors
+     */
+    public int removeBefore(DBCollection coll, Date before, List<Severity> severities, int batchSize)
+            throws ChiliLogException {
+        try {
+            BasicDBObject condition = new BasicDBObject();
+            condition.put(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, new BasicDBObject("$lt", before));
+            if (severities.size() < Severity.values().length) {
+                BasicDBList codes = new BasicDBList();
+                for (Severity severity : severities) {
+                    codes.add(severity.toCode());
+                }
+                condition.put(RepositoryEntryBO.SEVERITY_FIELD_NAME, new BasicDBObject("$in", codes));
+            }
+
+            // Walk the timestamp index to find the oldest entries then remove them by id
+            BasicDBList ids = new BasicDBList();
+            DBCursor cur = coll.find(condition, new BasicDBObject(BO.DOCUMENT_ID_FIELD_NAME, 1))
+                    .sort(new BasicDBObject(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, 1)).limit(batchSize);
+            while (cur.hasNext()) {
+                ids.add(cur.next().get(BO.DOCUMENT_ID_FIELD_NAME));
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+
+            coll.remove(new BasicDBObject(BO.DOCUMENT_ID_FIELD_NAME, new BasicDBObject("$in", ids)),
+                    this.getDBWriteConern());
+            return ids.size();
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_REMOVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Creates the timestamp index used by {@link #removeBefore(DBCollection, Date, List, int)} if it does not already
+     * exist
+     * 
+     * @param coll
+     *            Collection from which entries are to be removed
+     * @throws ChiliLogException
+     *             if there are errors
+     */
+    public void ensureTimestampIndex(DBCollection coll) throws ChiliLogException {
+        try {
+            ensureIndex(coll, "ts_index", new BasicDBObject(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, 1));
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_REMOVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Drops a partition of this repository
+     * 
+     * @param coll
+     *            Partition to drop. See {@link #getDBCollections(DB, Date, Date)}.
+     * @return Number of entries in the partition
+     * @throws ChiliLogException
+     *             if there are errors
+     */
+    public long dropPartition(DBCollection coll) throws ChiliLogException {
+        if (getPartitionStart(coll.getName()) == null) {
+            throw new IllegalArgumentException(coll.getName() + " is not a partition of " + _mongoDBCollectionName);
+        }
+        try {
+            long count = coll.count();
+            coll.drop();
+            _indexedPartitions.remove(coll.getName());
+            _collectionNames.remove(_mongoDBCollectionName);
+            return count;
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_REMOVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Compares documents using a mongoDB order by specification; e.g. <code>{ "ts" : -1, "host" : 1 }</code>. Like
+     * mongoDB, missing values come first and values of different types are ordered by type.
+     */
+    static class OrderByComparator implements Comparator<DBObject> {
+        private DBObject _orderBy;
+
+        OrderByComparator(DBObject orderBy) {
+            _orderBy = orderBy;
+        }
+
+        public int compare(DBObject a, DBObject b) {
+            for (String key : _orderBy.keySet()) {
+                int c = compareValues(a.get(key), b.get(key));
+                if (c != 0) {
+                    Object direction = _orderBy.get(key);
+                    return (direction instanceof Number && ((Number) direction).intValue() < 0) ? -c : c;
+                }
+            }
+            return 0;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static int compareValues(Object a, Object b) {
+            if (a == null || b == null) {
+                return (a == null ? (b == null ? 0 : -1) : 1);
+            }
+            if (a instanceof Number && b instanceof Number) {
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            }
+            if (a.getClass() == b.getClass() && a instanceof Comparable) {
+                return ((Comparable) a).compareTo(b);
+            }
+            return a.getClass().getName().compareTo(b.getClass().getName());
+        }
+    }
 }
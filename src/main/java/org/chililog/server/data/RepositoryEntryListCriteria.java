@@ -23,13 +23,17 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.chililog.server.common.TextTokenizer;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 
 /**
  * Criteria for selecting repository log entries
@@ -47,11 +51,13 @@ public class RepositoryEntryListCriteria extends ListCriteria {
     private String _severity = null;
     private String _host = null;
     private String _source = null;
+    private Long _templateId = null;
     private KeywordUsage _keywordUsage = KeywordUsage.All;
     private String _orderBy = null;
     private String _initial = null;
     private String _reduceFunction = null;
     private String _finalizeFunction = null;
+    private boolean _additiveReduce = false;
 
     public static final Pattern DATE_PATTERN = Pattern
             .compile("^([0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}\\.[0-9]{3}Z)$");
@@ -230,12 +236,50 @@ public class RepositoryEntryListCriteria extends ListCriteria {
         _source = source;
     }
 
+    /**
+     * Matching template id. Only repositories that group messages into templates store the template id of entries.
+     */
+    public Long getTemplateId() {
+        return _templateId;
+    }
+
+    public void setTemplateId(Long templateId) {
+        _templateId = templateId;
+    }
+
     /**
      * Returns the conditions as DBObject
      * 
      * @throws IOException
      */
     public BasicDBObject getConditionsDbObject() throws IOException {
+        return getConditionsDbObject(null);
+    }
+
+    /**
+     * Returns the keywords to search for as they are stored; i.e. tokenized
+     * 
+     * @throws IOException
+     */
+    public ArrayList<String> getKeywordsList() throws IOException {
+        if (StringUtils.isBlank(_keywords)) {
+            return new ArrayList<String>();
+        }
+        return TextTokenizer.getInstance().tokenize(_keywords, 200);
+    }
+
+    /**
+     * Returns the conditions as DBObject
+     * 
+     * @param templateKeywordConditions
+     *            If the repository groups messages into templates, the keywords of the constant parts of templates are
+     *            not stored with each entry. This maps keywords to conditions matching the entries of templates that
+     *            have the keyword. See {@link RepositoryTemplateController#getKeywordConditions}. Null if the
+     *            repository does not use templates.
+     * @throws IOException
+     */
+    public BasicDBObject getConditionsDbObject(Map<String, ? extends List<DBObject>> templateKeywordConditions)
+            throws IOException {
         BasicDBObject o = null;
 
         // Other conditions
@@ -258,6 +302,11 @@ public class RepositoryEntryListCriteria extends ListCriteria {
             o.put(RepositoryEntryBO.TIMESTAMP_FIELD_NAME, ts);
         }
 
+        // Template
+        if (_templateId != null) {
+            o.put(RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME, _templateId);
+        }
+
         // Severity - need range query so we miss out on index lookup. If debug, leave out criteria because
         // we want everything returned. Hopefully this speed things up because mongo wont have to scan resultset
         // to check if severity is valid 
@@ -266,11 +315,7 @@ public class RepositoryEntryListCriteria extends ListCriteria {
         }
 
         // Keywords
-        ArrayList<String> keywordsList = new ArrayList<String>();
-        if (!StringUtils.isBlank(_keywords)) {
-            ArrayList<String> l = TextTokenizer.getInstance().tokenize(_keywords, 200);
-            keywordsList.addAll(l);
-        }
+        ArrayList<String> keywordsList = getKeywordsList();
 
         // EntryParser.parseKeywords() puts source, severity and host into the keywords so that they are indexed
         ArrayList<String> shList = new ArrayList<String>();
@@ -281,6 +326,12 @@ public class RepositoryEntryListCriteria extends ListCriteria {
             shList.add("h=" + _host);
         }
 
+        // Keywords that are also in the constant parts of templates
+        if (templateKeywordConditions != null && !templateKeywordConditions.isEmpty()) {
+            addTemplateKeywordConditions(o, keywordsList, shList, templateKeywordConditions);
+            return o;
+        }
+
         // Keywords
         if (_keywordUsage == KeywordUsage.All) {
             keywordsList.addAll(shList);
@@ -301,6 +352,52 @@ public class RepositoryEntryListCriteria extends ListCriteria {
         return o;
     }
 
+    /**
+     * Adds keyword conditions where an entry has a keyword if it is in the entry's keywords or in the constant part of
+     * the entry's template
+     */
+    private void addTemplateKeywordConditions(BasicDBObject o,
+                                              ArrayList<String> keywordsList,
+                                              ArrayList<String> shList,
+                                              Map<String, ? extends List<DBObject>> templateKeywordConditions) {
+        ArrayList<String> plainKeywords = new ArrayList<String>(shList);
+        BasicDBList and = new BasicDBList();
+        if (_keywordUsage == KeywordUsage.All) {
+            for (String keyword : keywordsList) {
+                List<DBObject> conditions = templateKeywordConditions.get(keyword);
+                if (conditions == null) {
+                    plainKeywords.add(keyword);
+                    continue;
+                }
+                BasicDBList or = new BasicDBList();
+                or.add(new BasicDBObject(RepositoryEntryBO.KEYWORDS_FIELD_NAME, keyword));
+                or.addAll(conditions);
+                and.add(new BasicDBObject("$or", or));
+            }
+        } else {
+            BasicDBList or = new BasicDBList();
+            or.add(new BasicDBObject(RepositoryEntryBO.KEYWORDS_FIELD_NAME, new BasicDBObject("$in", keywordsList)));
+            for (String keyword : keywordsList) {
+                List<DBObject> conditions = templateKeywordConditions.get(keyword);
+                if (conditions != null) {
+                    or.addAll(conditions);
+                }
+            }
+            and.add(new BasicDBObject("$or", or));
+        }
+
+        if (!plainKeywords.isEmpty()) {
+            o.put(RepositoryEntryBO.KEYWORDS_FIELD_NAME, new BasicDBObject("$all", plainKeywords));
+        }
+
+        // $and so that we do not clash with an $or in the other conditions
+        Object existing = o.get("$and");
+        if (existing instanceof List) {
+            and.addAll(0, (List<?>) existing);
+        }
+        o.put("$and", and);
+    }
+
     /**
      * <p>
      * Field to use to sort the result set.
@@ -425,6 +522,25 @@ public class RepositoryEntryListCriteria extends ListCriteria {
         _finalizeFunction = finalize;
     }
 
+    /**
+     * <p>
+     * Flag to indicate if the reduce function only adds to the numeric fields of the aggregation counter; e.g. counts
+     * and totals. If so, group queries that span more than one partition are run on each partition and the numeric
+     * fields of matching groups are added together.
+     * </p>
+     * <p>
+     * Other aggregates like maximums, minimums and averages cannot be combined this way. Group queries that span more
+     * than one partition are rejected unless this is set.
+     * </p>
+     */
+    public boolean getAdditiveReduce() {
+        return _additiveReduce;
+    }
+
+    public void setAdditiveReduce(boolean additiveReduce) {
+        _additiveReduce = additiveReduce;
+    }
+
     /**
      * The type of query that can be performed
      */
@@ -508,10 +624,29 @@ public class RepositoryEntryListCriteria extends ListCriteria {
          * <dd>An optional function to be run on each item in the result set just before the item is returned. Can
          * either modify the item (e.g., add an average field given a count and a total) or return a replacement object
          * (returning a new object with just _id and average fields).</dd>
+         * 
+         * <dt>Additive</dt>
+         * <dd>Set to true if the reduce function only sums or counts. Required if more than one partition is
+         * queried.</dd>
+         * </dl>
+         * </p>
+         */
+        GROUP,
+
+        /**
+         * <p>
+         * Returns the message templates with the most entries first. Only available if the repository groups messages
+         * into templates. The counts are kept as entries are written so this does not query the entries.
+         * </p>
+         * <p>
+         * The following parameter will be used.
+         * <dl>
+         * <dt>RecordsPerPage</dt>
+         * <dd>Maximum number of templates to return.</dd>
          * </dl>
          * </p>
          */
-        GROUP
+        TEMPLATES
     }
 
     /**
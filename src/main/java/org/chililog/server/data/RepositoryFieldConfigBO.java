@@ -44,12 +44,14 @@ public class RepositoryFieldConfigBO extends BO implements Serializable {
     private String _displayName;
     private String _description;
     private DataType _dataType;
+    private boolean _indexIndicator = false;
     private Hashtable<String, String> _properties = new Hashtable<String, String>();
 
     static final String NAME_FIELD_NAME = "name";
     static final String DISPLAY_NAME_FIELD_NAME = "display_name";
     static final String DESCRIPTION_FIELD_NAME = "description";
     static final String DATA_TYPE_FIELD_NAME = "data_type";
+    static final String INDEX_INDICATOR_FIELD_NAME = "index_indicator";
     static final String PROPERTIES_FIELD_NAME = "properties";
 
     /**
@@ -116,6 +118,8 @@ public class RepositoryFieldConfigBO extends BO implements Serializable {
         _displayName = MongoUtils.getString(dbObject, DISPLAY_NAME_FIELD_NAME, false);
         _description = MongoUtils.getString(dbObject, DESCRIPTION_FIELD_NAME, false);
         _dataType = DataType.valueOf(MongoUtils.getString(dbObject, DATA_TYPE_FIELD_NAME, true));
+        Boolean indexIndicator = MongoUtils.getBoolean(dbObject, INDEX_INDICATOR_FIELD_NAME, false);
+        _indexIndicator = (indexIndicator == null ? false : indexIndicator);
         _properties = MongoUtils.getKeyValuePairs(dbObject, PROPERTIES_FIELD_NAME, false);
 
         return;
@@ -133,6 +137,7 @@ public class RepositoryFieldConfigBO extends BO implements Serializable {
         MongoUtils.setString(dbObject, DISPLAY_NAME_FIELD_NAME, _displayName, false);
         MongoUtils.setString(dbObject, DESCRIPTION_FIELD_NAME, _description, false);
         MongoUtils.setString(dbObject, DATA_TYPE_FIELD_NAME, _dataType.toString(), true);
+        MongoUtils.setBoolean(dbObject, INDEX_INDICATOR_FIELD_NAME, _indexIndicator, true);
         MongoUtils.setKeyValuePairs(dbObject, PROPERTIES_FIELD_NAME, _properties, false);
     }
 
@@ -188,6 +193,18 @@ public class RepositoryFieldConfigBO extends BO implements Serializable {
         _dataType = dataType;
     }
 
+    /**
+     * Returns a flag to indicate if repository entries are to be indexed by this field and timestamp. Indexes are
+     * created when the repository is brought online.
+     */
+    public boolean getIndexIndicator() {
+        return _indexIndicator;
+    }
+
+    public void setIndexIndicator(boolean indexIndicator) {
+        _indexIndicator = indexIndicator;
+    }
+
     /**
      * Returns a list of parser specific properties for this repository field
      */
@@ -47,6 +47,7 @@ public class RepositoryParserConfigBO extends BO implements Serializable {
     private String _appliesToHostFilter;
     private String _className;
     private long _maxKeywords = -2;
+    private long _regexTimeoutMilliseconds = -1;
     private ParseFieldErrorHandling _parseFieldErrorHandling = ParseFieldErrorHandling.SkipField;
     private ArrayList<RepositoryFieldConfigBO> _fields = new ArrayList<RepositoryFieldConfigBO>();
     private Hashtable<String, String> _properties = new Hashtable<String, String>();
@@ -57,6 +58,7 @@ public class RepositoryParserConfigBO extends BO implements Serializable {
     static final String APPLIES_TO_HOST_FILTER_FIELD_NAME = "applies_to_host_filter";
     static final String CLASS_NAME_FIELD_NAME = "class_name";
     static final String MAX_KEYWORDS = "max_keywords";
+    static final String REGEX_TIMEOUT_MILLISECONDS_FIELD_NAME = "regex_timeout_milliseconds";
     static final String PARSE_FIELD_ERROR_HANDLING_FIELD_NAME = "parse_field_error_handling";
     static final String FIELDS_FIELD_NAME = "fields";
     static final String PROPERTIES_FIELD_NAME = "properties";
@@ -64,6 +66,9 @@ public class RepositoryParserConfigBO extends BO implements Serializable {
     public static final long MAX_KEYWORDS_UNLIMITED = -1;
     public static final long MAX_KEYWORDS_INHERITED = -2;
 
+    public static final long REGEX_TIMEOUT_UNLIMITED = 0;
+    public static final long REGEX_TIMEOUT_INHERITED = -1;
+
     /**
      * Basic constructor
      */
@@ -90,6 +95,10 @@ public class RepositoryParserConfigBO extends BO implements Serializable {
 
         _maxKeywords = MongoUtils.getLong(dbObject, MAX_KEYWORDS, true);
 
+        // Added later so it is optional to support existing repositories
+        Long regexTimeout = MongoUtils.getLong(dbObject, REGEX_TIMEOUT_MILLISECONDS_FIELD_NAME, false);
+        _regexTimeoutMilliseconds = (regexTimeout == null ? REGEX_TIMEOUT_INHERITED : regexTimeout);
+
         _parseFieldErrorHandling = ParseFieldErrorHandling.valueOf(MongoUtils.getString(dbObject,
                 PARSE_FIELD_ERROR_HANDLING_FIELD_NAME, true));
 
@@ -126,6 +135,7 @@ public class RepositoryParserConfigBO extends BO implements Serializable {
         MongoUtils.setString(dbObject, CLASS_NAME_FIELD_NAME, _className, true);
 
         MongoUtils.setLong(dbObject, MAX_KEYWORDS, _maxKeywords, true);
+        MongoUtils.setLong(dbObject, REGEX_TIMEOUT_MILLISECONDS_FIELD_NAME, _regexTimeoutMilliseconds, true);
 
         MongoUtils
                 .setString(dbObject, PARSE_FIELD_ERROR_HANDLING_FIELD_NAME, _parseFieldErrorHandling.toString(), true);
@@ -209,6 +219,19 @@ public class RepositoryParserConfigBO extends BO implements Serializable {
         _maxKeywords = maxKeywords;
     }
 
+    /**
+     * Maximum number of milliseconds that a regular expression in this parser may run against an entry. Entries that
+     * take longer are moved to the dead letter queue. {@link #REGEX_TIMEOUT_UNLIMITED} for no limit.
+     * {@link #REGEX_TIMEOUT_INHERITED} to use the <code>storage.regex_timeout_milliseconds</code> application property.
+     */
+    public long getRegexTimeoutMilliseconds() {
+        return _regexTimeoutMilliseconds;
+    }
+
+    public void setRegexTimeoutMilliseconds(long regexTimeoutMilliseconds) {
+        _regexTimeoutMilliseconds = regexTimeoutMilliseconds;
+    }
+
     /**
      * Returns a list fields that is to be parsed and stored in this repository
      */
@@ -0,0 +1,429 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.chililog.server.common.ChiliLogException;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * <p>
+ * Controller to read and write the message templates of a repository.
+ * </p>
+ * <p>
+ * If {@link RepositoryConfigBO#getStorageTemplateIndicator()} is set, messages are grouped into templates as they are
+ * stored. Each template is stored as a document in {@link RepositoryConfigBO#getMongoDBTemplateCollectionName()}:
+ * </p>
+ *
+ * <pre>
+ * { "_id": 12, "template": "User &lt;*&gt; logged in from &lt;*&gt;", "version": 2, "count": 12345,
+ *   "last_ts": ISODate(...), "versions": [
+ *     { "version": 1, "template": "User 12 logged in from &lt;*&gt;", "keywords": ["user", "12", "logged"] },
+ *     { "version": 2, "template": "User &lt;*&gt; logged in from &lt;*&gt;", "keywords": ["user", "logged"] } ] }
+ * </pre>
+ * <p>
+ * Templates only ever gain wildcards so every change is saved as a new version. Entries store the version of the
+ * template they were mined against together with the tokens matching its wildcards. Their message is rebuilt from that
+ * version when they are read.
+ * </p>
+ * <p>
+ * The keywords of each version are the keywords of its constant tokens. They are stored once here rather than with
+ * every entry. Entries only store the keywords of their variables.
+ * </p>
+ * <p>
+ * The count is incremented as entries are written so that the most common templates can be listed without having to
+ * group repository entries.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryTemplateController {
+
+    public static final String ID_FIELD_NAME = "_id";
+    public static final String TEMPLATE_FIELD_NAME = "template";
+    public static final String VERSION_FIELD_NAME = "version";
+    public static final String COUNT_FIELD_NAME = "count";
+    public static final String LAST_TIMESTAMP_FIELD_NAME = "last_ts";
+    public static final String VERSIONS_FIELD_NAME = "versions";
+    public static final String KEYWORDS_FIELD_NAME = "keywords";
+
+    /**
+     * Token that marks the variable parts of a template
+     */
+    public static final String WILDCARD = "<*>";
+
+    private String _mongoDBCollectionName = null;
+
+    /**
+     * Returns an instance of the repository template controller to use.
+     *
+     * @param repoInfo
+     *            Meta data for the repository to which we will be reading and writing
+     * @return RepositoryTemplateController
+     */
+    public static RepositoryTemplateController getInstance(RepositoryConfigBO repoInfo) {
+        return new RepositoryTemplateController(repoInfo);
+    }
+
+    /**
+     * Basic constructor
+     *
+     * @param repoInfo
+     *            Repository info
+     */
+    RepositoryTemplateController(RepositoryConfigBO repoInfo) {
+        _mongoDBCollectionName = repoInfo.getMongoDBTemplateCollectionName();
+    }
+
+    /**
+     * Makes sure that the index used to look up templates by keyword exists
+     *
+     * @param db
+     *            mongoDB connection
+     * @throws ChiliLogException
+     *             if there is a database error
+     */
+    public void ensureIndexes(DB db) throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+
+        try {
+            DBCollection coll = db.getCollection(_mongoDBCollectionName);
+            coll.ensureIndex(new BasicDBObject(VERSIONS_FIELD_NAME + "." + KEYWORDS_FIELD_NAME, 1),
+                    "versions_keywords_index");
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_SAVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns templates with the most entries first. Versions are not returned.
+     *
+     * @param db
+     *            mongoDB connection
+     * @param limit
+     *            Maximum number of templates to return. 0 to return all templates.
+     * @return List of template documents
+     * @throws ChiliLogException
+     *             if there is a database error
+     */
+    public ArrayList<DBObject> getTopTemplates(DB db, int limit) throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+
+        try {
+            DBCollection coll = db.getCollection(_mongoDBCollectionName);
+            DBCursor cur = coll.find(new BasicDBObject(), new BasicDBObject(VERSIONS_FIELD_NAME, 0))
+                    .sort(new BasicDBObject(COUNT_FIELD_NAME, -1)).limit(limit);
+            ArrayList<DBObject> list = new ArrayList<DBObject>();
+            while (cur.hasNext()) {
+                list.add(cur.next());
+            }
+            return list;
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_QUERY_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Saves a new version of a template. The template is created if it does not exist. Versions must be saved in
+     * order.
+     *
+     * @param db
+     *            mongoDB connection
+     * @param id
+     *            Id of the template
+     * @param version
+     *            Version number
+     * @param template
+     *            Text of the template at this version
+     * @param keywords
+     *            Keywords of the constant tokens of the template at this version
+     * @throws ChiliLogException
+     *             if there is a database error
+     */
+    public void saveVersion(DB db, long id, long version, String template, List<String> keywords)
+            throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+
+        try {
+            DBCollection coll = db.getCollection(_mongoDBCollectionName);
+
+            BasicDBList keywordList = new BasicDBList();
+            keywordList.addAll(keywords);
+            BasicDBObject versionObject = new BasicDBObject();
+            versionObject.put(VERSION_FIELD_NAME, version);
+            versionObject.put(TEMPLATE_FIELD_NAME, template);
+            versionObject.put(KEYWORDS_FIELD_NAME, keywordList);
+
+            BasicDBObject set = new BasicDBObject();
+            set.put(TEMPLATE_FIELD_NAME, template);
+            set.put(VERSION_FIELD_NAME, version);
+
+            // $addToSet so that saving the same version again does not add it twice
+            BasicDBObject update = new BasicDBObject();
+            update.put("$set", set);
+            update.put("$addToSet", new BasicDBObject(VERSIONS_FIELD_NAME, versionObject));
+
+            coll.update(new BasicDBObject(ID_FIELD_NAME, id), update, true, false);
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_SAVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Adds to the entry count of a template. The template is created if it does not exist.
+     *
+     * @param db
+     *            mongoDB connection
+     * @param id
+     *            Id of the template
+     * @param count
+     *            Number of entries to add to the count
+     * @param lastTimestamp
+     *            Time at which the last entry was written
+     * @throws ChiliLogException
+     *             if there is a database error
+     */
+    public void increment(DB db, long id, long count, Date lastTimestamp) throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+
+        try {
+            DBCollection coll = db.getCollection(_mongoDBCollectionName);
+
+            BasicDBObject update = new BasicDBObject();
+            update.put("$inc", new BasicDBObject(COUNT_FIELD_NAME, count));
+            update.put("$set", new BasicDBObject(LAST_TIMESTAMP_FIELD_NAME, lastTimestamp));
+
+            coll.update(new BasicDBObject(ID_FIELD_NAME, id), update, true, false);
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_SAVE_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the text of every version of the specified templates
+     *
+     * @param db
+     *            mongoDB connection
+     * @param ids
+     *            Ids of the templates
+     * @return Map of template id to a map of version number to template text
+     * @throws ChiliLogException
+     *             if there is a database error
+     */
+    public HashMap<Long, HashMap<Long, String>> getVersions(DB db, Collection<Long> ids) throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+
+        HashMap<Long, HashMap<Long, String>> templates = new HashMap<Long, HashMap<Long, String>>();
+        if (ids.isEmpty()) {
+            return templates;
+        }
+
+        try {
+            DBCollection coll = db.getCollection(_mongoDBCollectionName);
+            BasicDBObject query = new BasicDBObject(ID_FIELD_NAME, new BasicDBObject("$in", new ArrayList<Long>(ids)));
+            BasicDBObject fields = new BasicDBObject(VERSIONS_FIELD_NAME + "." + VERSION_FIELD_NAME, 1);
+            fields.put(VERSIONS_FIELD_NAME + "." + TEMPLATE_FIELD_NAME, 1);
+
+            DBCursor cur = coll.find(query, fields);
+            while (cur.hasNext()) {
+                DBObject o = cur.next();
+                HashMap<Long, String> versions = new HashMap<Long, String>();
+                for (DBObject v : getVersionList(o)) {
+                    versions.put(((Number) v.get(VERSION_FIELD_NAME)).longValue(), (String) v.get(TEMPLATE_FIELD_NAME));
+                }
+                templates.put(((Number) o.get(ID_FIELD_NAME)).longValue(), versions);
+            }
+            return templates;
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_QUERY_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the template versions that have a keyword in their constant tokens. A template keeps its constant tokens
+     * until they become wildcards, so if a keyword is in a version, it is in all earlier versions too.
+     *
+     * @param db
+     *            mongoDB connection
+     * @param keywords
+     *            Keywords to look up
+     * @return Map of keyword to the conditions matching entries of templates with the keyword. Keywords that are not
+     *         in any template are left out.
+     * @throws ChiliLogException
+     *             if there is a database error
+     */
+    public HashMap<String, ArrayList<DBObject>> getKeywordConditions(DB db, List<String> keywords)
+            throws ChiliLogException {
+        if (db == null) {
+            throw new NullArgumentException("db");
+        }
+
+        HashMap<String, ArrayList<Long>> allVersions = new HashMap<String, ArrayList<Long>>();
+        HashMap<String, ArrayList<DBObject>> conditions = new HashMap<String, ArrayList<DBObject>>();
+        if (keywords.isEmpty()) {
+            return conditions;
+        }
+
+        try {
+            DBCollection coll = db.getCollection(_mongoDBCollectionName);
+            BasicDBObject query = new BasicDBObject(VERSIONS_FIELD_NAME + "." + KEYWORDS_FIELD_NAME,
+                    new BasicDBObject("$in", keywords));
+            BasicDBObject fields = new BasicDBObject(VERSION_FIELD_NAME, 1);
+            fields.put(VERSIONS_FIELD_NAME + "." + VERSION_FIELD_NAME, 1);
+            fields.put(VERSIONS_FIELD_NAME + "." + KEYWORDS_FIELD_NAME, 1);
+
+            DBCursor cur = coll.find(query, fields);
+            while (cur.hasNext()) {
+                DBObject o = cur.next();
+                long id = ((Number) o.get(ID_FIELD_NAME)).longValue();
+                long currentVersion = ((Number) o.get(VERSION_FIELD_NAME)).longValue();
+
+                for (String keyword : keywords) {
+                    // Latest version with the keyword
+                    long lastVersion = 0;
+                    for (DBObject v : getVersionList(o)) {
+                        List<?> versionKeywords = (List<?>) v.get(KEYWORDS_FIELD_NAME);
+                        long version = ((Number) v.get(VERSION_FIELD_NAME)).longValue();
+                        if (version > lastVersion && versionKeywords != null && versionKeywords.contains(keyword)) {
+                            lastVersion = version;
+                        }
+                    }
+                    if (lastVersion == 0) {
+                        continue;
+                    }
+
+                    if (lastVersion >= currentVersion) {
+                        // Every entry of the template has the keyword
+                        ArrayList<Long> ids = allVersions.get(keyword);
+                        if (ids == null) {
+                            ids = new ArrayList<Long>();
+                            allVersions.put(keyword, ids);
+                        }
+                        ids.add(id);
+                    } else {
+                        BasicDBObject condition = new BasicDBObject(RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME, id);
+                        condition.put(RepositoryEntryBO.TEMPLATE_VERSION_FIELD_NAME, new BasicDBObject("$lte",
+                                lastVersion));
+                        getConditionList(conditions, keyword).add(condition);
+                    }
+                }
+            }
+
+            for (String keyword : allVersions.keySet()) {
+                getConditionList(conditions, keyword).add(
+                        new BasicDBObject(RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME, new BasicDBObject("$in",
+                                allVersions.get(keyword))));
+            }
+            return conditions;
+        } catch (MongoException ex) {
+            throw new ChiliLogException(ex, Strings.MONGODB_QUERY_ERROR, ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the list of conditions for a keyword, creating it if needed
+     */
+    private static ArrayList<DBObject> getConditionList(HashMap<String, ArrayList<DBObject>> conditions,
+                                                        String keyword) {
+        ArrayList<DBObject> list = conditions.get(keyword);
+        if (list == null) {
+            list = new ArrayList<DBObject>();
+            conditions.put(keyword, list);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the versions of a template document
+     */
+    private static ArrayList<DBObject> getVersionList(DBObject template) {
+        ArrayList<DBObject> list = new ArrayList<DBObject>();
+        Object versions = template.get(VERSIONS_FIELD_NAME);
+        if (versions instanceof List) {
+            for (Object v : (List<?>) versions) {
+                if (v instanceof DBObject) {
+                    list.add((DBObject) v);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Rebuilds a message by replacing the wildcards of a template with variables
+     *
+     * @param template
+     *            Text of the template. Tokens are separated by a single space.
+     * @param variables
+     *            Tokens matching the wildcards of the template in the order in which they appear
+     * @return Message. Null if the number of variables does not match the number of wildcards.
+     */
+    public static String buildMessage(String template, List<String> variables) {
+        if (template.length() == 0) {
+            return variables.isEmpty() ? template : null;
+        }
+
+        StringBuilder sb = new StringBuilder(template.length() + variables.size() * 8);
+        int variableIndex = 0;
+        int start = 0;
+        while (start <= template.length()) {
+            int end = template.indexOf(' ', start);
+            if (end < 0) {
+                end = template.length();
+            }
+            if (start > 0) {
+                sb.append(' ');
+            }
+            if (end - start == WILDCARD.length() && template.startsWith(WILDCARD, start)) {
+                if (variableIndex >= variables.size()) {
+                    return null;
+                }
+                sb.append(variables.get(variableIndex++));
+            } else {
+                sb.append(template, start, end);
+            }
+            start = end + 1;
+        }
+        return variableIndex == variables.size() ? sb.toString() : null;
+    }
+}
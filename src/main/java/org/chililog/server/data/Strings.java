@@ -51,4 +51,7 @@ public class Strings {
 
     public static final String REPO_NAME_NOT_SET_ERROR = PREFIX + "Repo.NameNotSetError";
 
+    public static final String REPO_ENTRY_PARTITIONED_FINALIZE_ERROR = PREFIX + "RepoEntry.PartitionedFinalizeError";
+    public static final String REPO_ENTRY_PARTITIONED_GROUP_ERROR = PREFIX + "RepoEntry.PartitionedGroupError";
+
 }
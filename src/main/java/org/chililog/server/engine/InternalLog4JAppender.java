@@ -19,12 +19,17 @@
 package org.chililog.server.engine;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.Layout;
 import org.apache.log4j.Level;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 import org.chililog.server.common.ChiliLogException;
 import org.chililog.server.common.TextTokenizer;
@@ -33,6 +38,7 @@ import org.chililog.server.data.MongoConnection;
 import org.chililog.server.data.MongoUtils;
 import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.engine.InternalLog4JBuffer.OverflowPolicy;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
@@ -44,18 +50,46 @@ import com.mongodb.DBObject;
  * Internal log4j appender that directory writes to mongoDB without going through the message queue
  * </p>
  * <p>
- * Should be used with the Log4J AsyncAppender.
+ * Events are added to a bounded buffer and the logging thread returns straight away. A background thread takes events
+ * from the buffer and writes them to mongoDB in batches. The logging thread never waits on mongoDB or on other logging
+ * threads, and exceptions are never thrown back to it.
  * </p>
+ * <p>
+ * If the buffer fills up (e.g. during an error storm or if mongoDB is slow), new events are dropped as per the
+ * overflow policy. Events in a batch that fails to be written are also dropped. The number of dropped events is
+ * written to the log as a warning with the next batch that is written.
+ * </p>
+ * <p>
+ * The following options can be set in the log4j configuration:
+ * </p>
+ * <ul>
+ * <li><code>BufferSize</code> - maximum number of events waiting to be written. Defaults to
+ * {@link #DEFAULT_BUFFER_SIZE}.</li>
+ * <li><code>BatchSize</code> - maximum number of events written in one insert. Defaults to {@link #DEFAULT_BATCH_SIZE}.
+ * </li>
+ * <li><code>FlushInterval</code> - milliseconds to wait for more events when the buffer is empty. Defaults to
+ * {@link #DEFAULT_FLUSH_INTERVAL}.</li>
+ * <li><code>OverflowPolicy</code> - <code>DropDebugFirst</code> (default) to start dropping debug events when the
+ * buffer is three quarters full, or <code>DropNewest</code> to only drop events when the buffer is full.</li>
+ * </ul>
  * 
  * @author vibul
  * 
  */
-public class InternalLog4JAppender extends AppenderSkeleton {
+public class InternalLog4JAppender extends AppenderSkeleton implements Runnable {
 
     private TextTokenizer _tokenizer;
     private String _host;
     private DB _db;
     private DBCollection _coll;
+    private InternalLog4JBuffer _buffer;
+    private int _batchSize = DEFAULT_BATCH_SIZE;
+    private long _flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long _reportedDroppedCount = 0;
+    private long _reportedDroppedDebugCount = 0;
+    private final ReentrantLock _writeLock = new ReentrantLock();
+    private volatile boolean _isRunning = true;
+    private Thread _thread;
 
     static final String REPOSITORY_NAME = "chililog";
     static final String MONGODB_COLLECTION_NAME = "repo_chililog";
@@ -64,6 +98,26 @@ public class InternalLog4JAppender extends AppenderSkeleton {
     static final String THREAD_FIELD_NAME = "fld_thread";
     static final String CATEGORY_FIELD_NAME = "fld_category";
 
+    /**
+     * Default maximum number of events waiting to be written
+     */
+    static final int DEFAULT_BUFFER_SIZE = 10000;
+
+    /**
+     * Default maximum number of events written in one insert
+     */
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Default milliseconds to wait for more events when the buffer is empty
+     */
+    static final long DEFAULT_FLUSH_INTERVAL = 200;
+
+    /**
+     * Milliseconds to wait for the background thread to finish when closing
+     */
+    private static final long CLOSE_TIMEOUT = 5000;
+
     /**
      * Basic Constructor
      * 
@@ -73,6 +127,7 @@ public class InternalLog4JAppender extends AppenderSkeleton {
         _tokenizer = TextTokenizer.getInstance();
         _db = MongoConnection.getInstance().getConnection();
         _coll = _db.getCollection(MONGODB_COLLECTION_NAME);
+        _buffer = new InternalLog4JBuffer(DEFAULT_BUFFER_SIZE, OverflowPolicy.DropDebugFirst);
 
         try {
             InetAddress addr = InetAddress.getLocalHost();
@@ -84,6 +139,9 @@ public class InternalLog4JAppender extends AppenderSkeleton {
             _host = "unknown";
         }
 
+        _thread = new Thread(this, "InternalLog4JAppender Writer");
+        _thread.setDaemon(true);
+        _thread.start();
         return;
     }
 
@@ -91,6 +149,33 @@ public class InternalLog4JAppender extends AppenderSkeleton {
         return false;
     }
 
+    /**
+     * Same as {@link AppenderSkeleton#doAppend(LoggingEvent)} but not synchronized so that logging threads do not wait
+     * on each other
+     */
+    @Override
+    public void doAppend(LoggingEvent event) {
+        if (closed || !isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+
+        Filter f = getFirstFilter();
+        while (f != null) {
+            int decision = f.decide(event);
+            if (decision == Filter.DENY) {
+                return;
+            } else if (decision == Filter.ACCEPT) {
+                break;
+            }
+            f = f.getNext();
+        }
+
+        append(event);
+    }
+
+    /**
+     * Adds the event to the buffer to be written by the background thread
+     */
     @Override
     protected void append(LoggingEvent event) {
         try {
@@ -99,61 +184,231 @@ public class InternalLog4JAppender extends AppenderSkeleton {
                 return;
             }
 
-            DBObject dbObject = new BasicDBObject();
-
-            // Custom Fields
-            MongoUtils.setString(dbObject, THREAD_FIELD_NAME, event.getThreadName(), true);
-            MongoUtils.setString(dbObject, CATEGORY_FIELD_NAME, event.getLoggerName(), true);
-
-            // Message Field
-            StringBuilder sb = new StringBuilder(event.getMessage().toString());
-            String[] s = event.getThrowableStrRep();
-            if (s != null) {
-                int len = s.length;
-                for (int i = 0; i < len; i++) {
-                    sb.append(s[i]);
-                    sb.append(Layout.LINE_SEP);
-                }
-            }
+            // The thread name, rendered message and stack trace are looked up the first time they are asked for. This
+            // must be done on the logging thread because the message arguments may change after we return.
+            event.getThreadName();
+            event.getRenderedMessage();
+            event.getThrowableStrRep();
 
-            // Severity
-            Severity severity = Severity.Information;
-            Level level = event.getLevel();
-            if (level == Level.DEBUG || level == Level.TRACE) {
-                severity = Severity.Debug;
-            } else if (level == Level.WARN) {
-                severity = Severity.Warning;
-            } else if (level == Level.ERROR) {
-                severity = Severity.Error;
-            } else if (level == Level.FATAL) {
-                severity = Severity.Emergency;
+            if (_buffer.offer(event) && _buffer.size() >= _batchSize) {
+                LockSupport.unpark(_thread);
             }
+            return;
+        } catch (Exception ex) {
+            // ignore it and print to standard error
+            ex.printStackTrace();
+        }
+    }
 
-            MongoUtils.setDate(dbObject, RepositoryEntryBO.TIMESTAMP_FIELD_NAME, new Date(event.getTimeStamp()), true);
-            MongoUtils.setDate(dbObject, RepositoryEntryBO.SAVED_TIMESTAMP_FIELD_NAME, new Date(), true);
-            MongoUtils.setString(dbObject, RepositoryEntryBO.SOURCE_FIELD_NAME, "ChiliLogServer", true);
-            MongoUtils.setString(dbObject, RepositoryEntryBO.HOST_FIELD_NAME, _host, true);
-            MongoUtils.setLong(dbObject, RepositoryEntryBO.SEVERITY_FIELD_NAME, severity.toCode(), true);
-
-            String msg = sb.toString();
-            MongoUtils.setStringArrayList(dbObject, RepositoryEntryBO.KEYWORDS_FIELD_NAME,
-                    _tokenizer.tokenize(msg, 20), true);
-            MongoUtils.setString(dbObject, RepositoryEntryBO.MESSAGE_FIELD_NAME, msg, true);
+    /**
+     * Writes buffered events to mongoDB until the appender is closed
+     */
+    public void run() {
+        ArrayList<LoggingEvent> events = new ArrayList<LoggingEvent>();
+        while (_isRunning) {
+            if (write(events) <= 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(_flushInterval));
+            }
+        }
+    }
 
-            MongoUtils.setLong(dbObject, BO.DOCUMENT_VERSION_FIELD_NAME, (long) 1, true);
+    /**
+     * Writes a batch of events from the buffer
+     * 
+     * @param events
+     *            List to use for holding the batch
+     * @return Number of events written. -1 if there was an error.
+     */
+    private int write(ArrayList<LoggingEvent> events) {
+        _writeLock.lock();
+        long reportedDroppedCount = _reportedDroppedCount;
+        long reportedDroppedDebugCount = _reportedDroppedDebugCount;
+        try {
+            events.clear();
+            _buffer.drainTo(events, _batchSize);
 
-            _coll.insert(dbObject);
+            ArrayList<DBObject> list = new ArrayList<DBObject>(events.size() + 1);
+            for (LoggingEvent event : events) {
+                list.add(toDBObject(event));
+            }
+            DBObject dropped = getDroppedEventsDBObject();
+            if (dropped != null) {
+                list.add(dropped);
+            }
 
-            return;
+            if (!list.isEmpty()) {
+                _coll.insert(list);
+            }
+            return events.size();
         } catch (Exception ex) {
-            // ignore it and print to standard error
+            // ignore it and print to standard error. The events are counted as dropped and the warning about earlier
+            // dropped events is reported again with the next batch.
             ex.printStackTrace();
+            _buffer.drop(events);
+            _reportedDroppedCount = reportedDroppedCount;
+            _reportedDroppedDebugCount = reportedDroppedDebugCount;
+            return -1;
+        } finally {
+            events.clear();
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all buffered events before returning
+     */
+    void flush() {
+        ArrayList<LoggingEvent> events = new ArrayList<LoggingEvent>();
+        while (write(events) > 0) {
+            continue;
         }
     }
 
+    /**
+     * Converts an event into a repository entry
+     */
+    private DBObject toDBObject(LoggingEvent event) throws Exception {
+        // Message Field
+        StringBuilder sb = new StringBuilder(event.getRenderedMessage());
+        String[] s = event.getThrowableStrRep();
+        if (s != null) {
+            int len = s.length;
+            for (int i = 0; i < len; i++) {
+                sb.append(s[i]);
+                sb.append(Layout.LINE_SEP);
+            }
+        }
+
+        // Severity
+        Severity severity = Severity.Information;
+        Level level = event.getLevel();
+        if (level == Level.DEBUG || level == Level.TRACE) {
+            severity = Severity.Debug;
+        } else if (level == Level.WARN) {
+            severity = Severity.Warning;
+        } else if (level == Level.ERROR) {
+            severity = Severity.Error;
+        } else if (level == Level.FATAL) {
+            severity = Severity.Emergency;
+        }
+
+        return newDBObject(new Date(event.getTimeStamp()), event.getThreadName(), event.getLoggerName(), severity,
+                sb.toString());
+    }
+
+    /**
+     * Returns a warning entry if events have been dropped since the last warning. Null if no events have been dropped.
+     */
+    private DBObject getDroppedEventsDBObject() throws Exception {
+        long droppedCount = _buffer.getDroppedCount();
+        long droppedDebugCount = _buffer.getDroppedDebugCount();
+        if (droppedCount == _reportedDroppedCount) {
+            return null;
+        }
+
+        String msg = String.format("%s log events (%s debug) were dropped because the internal log buffer was full"
+                + " or they could not be written.", droppedCount - _reportedDroppedCount, droppedDebugCount
+                - _reportedDroppedDebugCount);
+        _reportedDroppedCount = droppedCount;
+        _reportedDroppedDebugCount = droppedDebugCount;
+        return newDBObject(new Date(), Thread.currentThread().getName(), InternalLog4JAppender.class.getName(),
+                Severity.Warning, msg);
+    }
+
+    /**
+     * Creates a repository entry
+     */
+    private DBObject newDBObject(Date timestamp, String thread, String category, Severity severity, String msg)
+            throws Exception {
+        DBObject dbObject = new BasicDBObject();
+
+        // Custom Fields
+        MongoUtils.setString(dbObject, THREAD_FIELD_NAME, thread, true);
+        MongoUtils.setString(dbObject, CATEGORY_FIELD_NAME, category, true);
+
+        MongoUtils.setDate(dbObject, RepositoryEntryBO.TIMESTAMP_FIELD_NAME, timestamp, true);
+        MongoUtils.setDate(dbObject, RepositoryEntryBO.SAVED_TIMESTAMP_FIELD_NAME, new Date(), true);
+        MongoUtils.setString(dbObject, RepositoryEntryBO.SOURCE_FIELD_NAME, "ChiliLogServer", true);
+        MongoUtils.setString(dbObject, RepositoryEntryBO.HOST_FIELD_NAME, _host, true);
+        MongoUtils.setLong(dbObject, RepositoryEntryBO.SEVERITY_FIELD_NAME, severity.toCode(), true);
+
+        MongoUtils.setStringArrayList(dbObject, RepositoryEntryBO.KEYWORDS_FIELD_NAME, _tokenizer.tokenize(msg, 20),
+                true);
+        MongoUtils.setString(dbObject, RepositoryEntryBO.MESSAGE_FIELD_NAME, msg, true);
+
+        MongoUtils.setLong(dbObject, BO.DOCUMENT_VERSION_FIELD_NAME, (long) 1, true);
+        return dbObject;
+    }
+
+    /**
+     * Stops the background thread and writes any remaining events
+     */
     public void close() {
-        // TODO Auto-generated method stub
+        if (closed) {
+            return;
+        }
+        closed = true;
 
+        _isRunning = false;
+        LockSupport.unpark(_thread);
+        try {
+            _thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Returns the maximum number of events waiting to be written
+     */
+    public int getBufferSize() {
+        return _buffer.getCapacity();
+    }
+
+    public void setBufferSize(int bufferSize) {
+        _buffer.setCapacity(bufferSize);
+    }
+
+    /**
+     * Returns the maximum number of events written in one insert
+     */
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        _batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Returns the number of milliseconds to wait for more events when the buffer is empty
+     */
+    public long getFlushInterval() {
+        return _flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        _flushInterval = Math.max(1, flushInterval);
+    }
+
+    /**
+     * Returns which events are dropped when the buffer fills up: <code>DropDebugFirst</code> or
+     * <code>DropNewest</code>
+     */
+    public String getOverflowPolicy() {
+        return _buffer.getOverflowPolicy().toString();
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+        _buffer.setOverflowPolicy(OverflowPolicy.valueOf(overflowPolicy));
+    }
+
+    /**
+     * Returns the total number of events dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return _buffer.getDroppedCount();
     }
 
 }
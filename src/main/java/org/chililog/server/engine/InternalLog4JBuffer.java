@@ -0,0 +1,197 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p>
+ * Bounded buffer of log events waiting to be written by {@link InternalLog4JAppender}.
+ * </p>
+ * <p>
+ * Adding and removing events is lock free so that logging threads never wait on each other or on the thread writing
+ * to mongoDB. When the buffer is full, new events are dropped and counted rather than blocking the logging thread.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+class InternalLog4JBuffer {
+
+    private final ConcurrentLinkedQueue<LoggingEvent> _queue = new ConcurrentLinkedQueue<LoggingEvent>();
+    private final AtomicInteger _size = new AtomicInteger(0);
+    private final AtomicLong _droppedCount = new AtomicLong(0);
+    private final AtomicLong _droppedDebugCount = new AtomicLong(0);
+    private volatile int _capacity;
+    private volatile OverflowPolicy _overflowPolicy;
+
+    /**
+     * Constructor
+     *
+     * @param capacity
+     *            Maximum number of events in the buffer
+     * @param overflowPolicy
+     *            Which events to drop as the buffer fills up
+     */
+    InternalLog4JBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        setCapacity(capacity);
+        setOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * Adds an event to the buffer. Never blocks.
+     *
+     * @param event
+     *            Event to add
+     * @return true if the event was added; false if it was dropped because the buffer is full
+     */
+    boolean offer(LoggingEvent event) {
+        boolean isDebug = !event.getLevel().isGreaterOrEqual(Level.INFO);
+        int limit = _capacity;
+        if (isDebug && _overflowPolicy == OverflowPolicy.DropDebugFirst) {
+            limit = limit - limit / 4;
+        }
+
+        while (true) {
+            int size = _size.get();
+            if (size >= limit) {
+                _droppedCount.incrementAndGet();
+                if (isDebug) {
+                    _droppedDebugCount.incrementAndGet();
+                }
+                return false;
+            }
+            if (_size.compareAndSet(size, size + 1)) {
+                break;
+            }
+        }
+
+        _queue.offer(event);
+        return true;
+    }
+
+    /**
+     * Removes events from the buffer
+     *
+     * @param list
+     *            List to which the removed events are added
+     * @param max
+     *            Maximum number of events to remove
+     * @return Number of events removed
+     */
+    int drainTo(List<LoggingEvent> list, int max) {
+        int count = 0;
+        while (count < max) {
+            LoggingEvent event = _queue.poll();
+            if (event == null) {
+                break;
+            }
+            _size.decrementAndGet();
+            list.add(event);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Counts events that were taken from the buffer but could not be written as dropped
+     *
+     * @param list
+     *            Events that could not be written
+     */
+    void drop(List<LoggingEvent> list) {
+        for (LoggingEvent event : list) {
+            _droppedCount.incrementAndGet();
+            if (!event.getLevel().isGreaterOrEqual(Level.INFO)) {
+                _droppedDebugCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events in the buffer
+     */
+    int size() {
+        return _size.get();
+    }
+
+    /**
+     * Returns the maximum number of events in the buffer
+     */
+    int getCapacity() {
+        return _capacity;
+    }
+
+    void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        _capacity = capacity;
+    }
+
+    /**
+     * Returns which events are dropped as the buffer fills up
+     */
+    OverflowPolicy getOverflowPolicy() {
+        return _overflowPolicy;
+    }
+
+    void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy cannot be null");
+        }
+        _overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Returns the total number of events dropped because the buffer was full or they could not be written
+     */
+    long getDroppedCount() {
+        return _droppedCount.get();
+    }
+
+    /**
+     * Returns the number of debug and trace events dropped because the buffer was full or they could not be written
+     */
+    long getDroppedDebugCount() {
+        return _droppedDebugCount.get();
+    }
+
+    /**
+     * Which events to drop as the buffer fills up
+     */
+    static enum OverflowPolicy {
+        /**
+         * Debug and trace events are dropped once the buffer is three quarters full. This leaves room for more
+         * important events. Other events are dropped when the buffer is full.
+         */
+        DropDebugFirst,
+
+        /**
+         * All events are dropped when the buffer is full
+         */
+        DropNewest
+    }
+}
@@ -24,10 +24,12 @@ import org.apache.commons.lang.NullArgumentException;
 import org.chililog.server.common.AppProperties;
 import org.chililog.server.common.ChiliLogException;
 import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.MongoConnection;
 import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.RepositoryEntryController;
 import org.chililog.server.data.RepositoryConfigBO;
 import org.chililog.server.data.RepositoryConfigBO.Status;
+import org.chililog.server.engine.parsers.EntryParserRouter;
 
 /**
  * <p>
@@ -49,6 +51,15 @@ import org.chililog.server.data.RepositoryConfigBO.Status;
  * <li>The worker threads, {@link RepositoryStorageWorker}, reads the queued log entries and writes them to mongoDB
  * using {@link RepositoryEntryController} classes. The exact type of controller is specified as part of the repository
  * definition in {@link RepositoryConfigBO}.</li>
+ * <li>If asynchronous storage is enabled in <code>app.properties</code>, {@link RepositoryStorageConsumer}s are used
+ * instead of worker threads. Queued log entries are pushed to them and processed using threads shared by all
+ * repositories.</li>
+ * <li>If a maximum number of storage workers is configured, {@link RepositoryStorageAutoscaler} adds and removes
+ * storage workers depending on the storage queue backlog.</li>
+ * <li>If templates are turned on, {@link RepositoryTemplateMiner} groups messages into templates as they are
+ * stored.</li>
+ * <li>If parsing on publication is turned on, entries are parsed by the publisher using
+ * {@link #getPublicationParsers()} and storage workers store the parsed entry as is.</li>
  * </ul>
  * 
  * @author vibul
@@ -59,9 +70,20 @@ public class Repository {
     static Log4JLogger _logger = Log4JLogger.getLogger(Repository.class);
     private RepositoryConfigBO _repoConfig;
     private ArrayList<RepositoryStorageWorker> _storageWorkers = new ArrayList<RepositoryStorageWorker>();
+    private ArrayList<RepositoryStorageConsumer> _storageConsumers = new ArrayList<RepositoryStorageConsumer>();
+    private RepositoryStoragePipeline _storagePipeline = null;
+    private RepositoryTemplateMiner _templateMiner = null;
+    private RepositoryIndexBuilder _indexBuilder = null;
+    private volatile ThreadLocal<EntryParserRouter> _publicationParsers = null;
+    private int _storageWorkerSequence = 0;
     private Status _status;
     private boolean _hasStarted = false;
 
+    /**
+     * Milliseconds to wait for a storage worker to finish its batch when stopping
+     */
+    private static final long STOP_STORAGE_WORKER_TIMEOUT = 30000;
+
     /**
      * Constructor specifying the information needed to create a repository
      * 
@@ -154,6 +176,15 @@ public class Repository {
                 startStorageWorkers();
             }
 
+            // Parse entries once as they are published rather than in each storage worker and subscriber
+            if (_repoConfig.getParseOnPublishIndicator()) {
+                startPublicationParsers();
+            }
+
+            // Make sure that queries do not have to scan the whole collection
+            _indexBuilder = new RepositoryIndexBuilder(_repoConfig);
+            _indexBuilder.start();
+
             // Finish
             _status = Status.ONLINE;
             _logger.info("Repository '%s' now online.", _repoConfig.getName());
@@ -165,6 +196,28 @@ public class Repository {
         }
     }
 
+    /**
+     * Sets up parsers for entries that are parsed as they are published
+     * 
+     * @throws ChiliLogException
+     *             if the repository parsers cannot be created
+     */
+    private void startPublicationParsers() throws ChiliLogException {
+        // Check that parsers can be created now rather than when the first entry is published.
+        // Parsers are not thread safe so each publishing thread creates its own copy.
+        new EntryParserRouter(_repoConfig);
+        _publicationParsers = new ThreadLocal<EntryParserRouter>() {
+            @Override
+            protected EntryParserRouter initialValue() {
+                try {
+                    return new EntryParserRouter(_repoConfig);
+                } catch (ChiliLogException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+    }
+
     /**
      * Start storage worker threads
      * 
@@ -173,19 +226,99 @@ public class Repository {
     void startStorageWorkers() throws ChiliLogException {
         // Make sure existing worker threads are stopped
         stopStorageWorkers();
+        _storageWorkerSequence = 0;
 
         // Add workers to list
         try {
+            if (_repoConfig.getStoragePipelineIndicator()) {
+                _storagePipeline = new RepositoryStoragePipeline(_repoConfig);
+            }
+            if (_repoConfig.getStorageTemplateIndicator()) {
+                _templateMiner = new RepositoryTemplateMiner(_repoConfig);
+                _templateMiner.load(MongoConnection.getInstance().getConnection());
+            }
+
             for (int i = 1; i <= _repoConfig.getStorageQueueWorkerCount(); i++) {
-                String name = String.format("%s StorageWorker #%s", _repoConfig.getName(), i);
-                RepositoryStorageWorker worker = new RepositoryStorageWorker(name, this);
-                worker.start();
-                _storageWorkers.add(worker);
+                startStorageWorker();
             }
         } catch (Exception ex) {
             throw new ChiliLogException(ex, Strings.START_REPOSITORY_STORAGE_WORKER_ERROR, _repoConfig.getName(),
                     ex.getMessage());
         }
+
+        if (_repoConfig.getStorageQueueMaxWorkerCount() > _repoConfig.getStorageQueueWorkerCount()) {
+            RepositoryStorageAutoscaler.getInstance().register(this);
+        }
+    }
+
+    /**
+     * Starts one more storage worker. A {@link RepositoryStorageConsumer} is used if asynchronous storage is enabled;
+     * otherwise, a {@link RepositoryStorageWorker} thread is used.
+     * 
+     * @throws Exception
+     */
+    private void startStorageWorker() throws Exception {
+        _storageWorkerSequence++;
+        if (AppProperties.getInstance().getStorageAsyncEnabled()) {
+            String name = String.format("%s StorageConsumer #%s", _repoConfig.getName(), _storageWorkerSequence);
+            RepositoryStorageConsumer consumer = new RepositoryStorageConsumer(name, this);
+            consumer.start();
+            _storageConsumers.add(consumer);
+        } else {
+            String name = String.format("%s StorageWorker #%s", _repoConfig.getName(), _storageWorkerSequence);
+            RepositoryStorageWorker worker = new RepositoryStorageWorker(name, this);
+            worker.start();
+            _storageWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Adds a storage worker if this repository is online and has fewer than
+     * {@link RepositoryConfigBO#getStorageQueueMaxWorkerCount()} workers. Called by
+     * {@link RepositoryStorageAutoscaler} when a backlog builds up.
+     * 
+     * @return true if a worker was added, false if not
+     * @throws ChiliLogException
+     */
+    synchronized boolean addStorageWorker() throws ChiliLogException {
+        if (_status != Status.ONLINE || !_repoConfig.getStoreEntriesIndicator()
+                || getStorageWorkerCount() >= _repoConfig.getStorageQueueMaxWorkerCount()) {
+            return false;
+        }
+
+        try {
+            startStorageWorker();
+            return true;
+        } catch (Exception ex) {
+            throw new ChiliLogException(ex, Strings.START_REPOSITORY_STORAGE_WORKER_ERROR, _repoConfig.getName(),
+                    ex.getMessage());
+        }
+    }
+
+    /**
+     * Removes a storage worker if this repository is online and has more than
+     * {@link RepositoryConfigBO#getStorageQueueWorkerCount()} workers. Called by {@link RepositoryStorageAutoscaler}
+     * when the storage queue is idle.
+     * 
+     * @return true if a worker was removed, false if not
+     * @throws ChiliLogException
+     */
+    synchronized boolean removeStorageWorker() throws ChiliLogException {
+        if (_status != Status.ONLINE || getStorageWorkerCount() <= _repoConfig.getStorageQueueWorkerCount()) {
+            return false;
+        }
+
+        try {
+            if (_storageConsumers.size() > 0) {
+                _storageConsumers.remove(_storageConsumers.size() - 1).stop();
+            } else {
+                _storageWorkers.remove(_storageWorkers.size() - 1).stopRunning();
+            }
+            return true;
+        } catch (Exception ex) {
+            throw new ChiliLogException(ex, Strings.STOP_REPOSITORY_STORAGE_WORKER_ERROR, _repoConfig.getName(),
+                    ex.getMessage());
+        }
     }
 
     /**
@@ -204,6 +337,7 @@ public class Repository {
 
             // Stop workers
             stopStorageWorkers();
+            _publicationParsers = null;
 
             // Disconnect remote clients
 
@@ -233,6 +367,10 @@ public class Repository {
 
             // Stop workers
             stopStorageWorkers();
+            if (_indexBuilder != null) {
+                _indexBuilder.cancel();
+            }
+            _publicationParsers = null;
 
             // Disconnect remote clients
 
@@ -247,14 +385,36 @@ public class Repository {
     }
 
     /**
-     * Start writer threads
+     * Stop writer threads. Waits for workers to finish the batch they are processing so that the template counts of
+     * every stored entry are saved.
      */
     void stopStorageWorkers() throws ChiliLogException {
+        RepositoryStorageAutoscaler.getInstance().unregister(this);
         try {
-            while (_storageWorkers.size() > 0) {
-                RepositoryStorageWorker worker = _storageWorkers.get(0);
+            // Ask all workers to stop first so that they finish off their batches at the same time
+            for (RepositoryStorageWorker worker : _storageWorkers) {
                 worker.stopRunning();
-                _storageWorkers.remove(0);
+            }
+            while (_storageWorkers.size() > 0) {
+                RepositoryStorageWorker worker = _storageWorkers.remove(0);
+                joinStorageWorker(worker);
+            }
+            while (_storageConsumers.size() > 0) {
+                RepositoryStorageConsumer consumer = _storageConsumers.get(0);
+                consumer.stop();
+                _storageConsumers.remove(0);
+            }
+
+            // No batches are in the pipeline because workers and consumers wait for their batches to be processed
+            if (_storagePipeline != null) {
+                _storagePipeline.shutdown();
+                _storagePipeline = null;
+            }
+
+            // Save counts of entries written since the last flush
+            if (_templateMiner != null) {
+                _templateMiner.flush(MongoConnection.getInstance().getConnection(), true);
+                _templateMiner = null;
             }
         } catch (Exception ex) {
             throw new ChiliLogException(ex, Strings.STOP_REPOSITORY_STORAGE_WORKER_ERROR, _repoConfig.getName(),
@@ -262,6 +422,24 @@ public class Repository {
         }
     }
 
+    /**
+     * Waits for a storage worker that has been asked to stop to finish processing its batch
+     * 
+     * @param worker
+     *            Worker to wait for
+     */
+    private void joinStorageWorker(RepositoryStorageWorker worker) {
+        try {
+            worker.join(STOP_STORAGE_WORKER_TIMEOUT);
+            if (worker.isAlive()) {
+                _logger.warn("RepositoryStorageWorker '%s' did not stop within %s milliseconds.", worker.getName(),
+                        STOP_STORAGE_WORKER_TIMEOUT);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Returns flag to indicate if this repository has started or not
      */
@@ -269,6 +447,45 @@ public class Repository {
         return _status;
     }
 
+    /**
+     * Returns the number of storage workers or consumers currently processing the storage queue
+     */
+    public int getStorageWorkerCount() {
+        return _storageWorkers.size() + _storageConsumers.size();
+    }
+
+    /**
+     * Returns the pipeline used by storage workers to parse and write entries. Null if the repository is not storing
+     * entries or if storage workers parse and write entries themselves.
+     */
+    public RepositoryStoragePipeline getStoragePipeline() {
+        return _storagePipeline;
+    }
+
+    /**
+     * Returns the miner that groups messages into templates as they are stored. Null if the repository is not storing
+     * entries or does not use templates.
+     */
+    public RepositoryTemplateMiner getTemplateMiner() {
+        return _templateMiner;
+    }
+
+    /**
+     * Returns the parsers to use for parsing entries as they are published. The parsers are confined to the calling
+     * thread. Null if the repository is not online or entries are not parsed on publication.
+     */
+    public EntryParserRouter getPublicationParsers() {
+        ThreadLocal<EntryParserRouter> parsers = _publicationParsers;
+        return parsers == null ? null : parsers.get();
+    }
+
+    /**
+     * Returns the builder of this repository's indexes. Null if the repository has not been brought online.
+     */
+    public RepositoryIndexBuilder getIndexBuilder() {
+        return _indexBuilder;
+    }
+
     /**
      * Returns the array of storage worker threads. This method should only be used for our unit testing!
      */
@@ -276,6 +493,14 @@ public class Repository {
         return _storageWorkers;
     }
 
+    /**
+     * Returns the array of storage consumers used when asynchronous consumption is enabled. This method should only be
+     * used for our unit testing!
+     */
+    ArrayList<RepositoryStorageConsumer> getStorageConsumers() {
+        return _storageConsumers;
+    }
+
     /**
      * Make sure we stop
      */
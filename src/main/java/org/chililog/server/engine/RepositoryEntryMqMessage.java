@@ -19,11 +19,20 @@
 package org.chililog.server.engine;
 
 import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.TimeZone;
 import java.util.regex.Pattern;
 
+import org.bson.BSON;
+import org.bson.BSONDecoder;
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.RepositoryEntryListCriteria;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.hornetq.api.core.client.ClientMessage;
+
+import com.mongodb.DBCallback;
+import com.mongodb.DBObject;
 
 /**
  * Contains the specification for a log entry HornetQ message
@@ -64,6 +73,29 @@ public class RepositoryEntryMqMessage {
      */
     public static final String FIELDS = "Fields";
 
+    /**
+     * <p>
+     * HornetQ boolean property flagging that the log entry has already been parsed. The parsed entry is written to the
+     * message body as a BSON document after the message text. See {@link #writeParsedEntry(ClientMessage,
+     * RepositoryEntryBO)}.
+     * </p>
+     * <p>
+     * Consumers that only need the message text can ignore this property because the message text is still the first
+     * item in the body.
+     * </p>
+     */
+    public static final String PARSED = "Parsed";
+
+    /**
+     * BSON decoders are not thread safe so each thread reading parsed entries gets its own
+     */
+    private static final ThreadLocal<BSONDecoder> BSON_DECODER = new ThreadLocal<BSONDecoder>() {
+        @Override
+        protected BSONDecoder initialValue() {
+            return new BSONDecoder();
+        }
+    };
+
     /**
      * Time stamp format for use with {@link SimpleDateFormat} containing a flexible timezone. The format is
      * "yyyy-MM-dd'T'HH:mm:ss.SSSZ".
@@ -101,4 +133,80 @@ public class RepositoryEntryMqMessage {
         return RepositoryEntryListCriteria.LONG_NUMBER_PATTERN;
     }
 
+    /**
+     * <p>
+     * Writes a parsed entry to the body of a message and flags the message with {@link #PARSED}. The message text must
+     * have already been written to the body.
+     * </p>
+     * <p>
+     * The message text is not repeated in the parsed document to keep the message small.
+     * </p>
+     * 
+     * @param message
+     *            Message to write to
+     * @param entry
+     *            Parsed entry
+     * @throws ChiliLogException
+     *             if the entry cannot be converted into a document
+     */
+    public static void writeParsedEntry(ClientMessage message, RepositoryEntryBO entry) throws ChiliLogException {
+        DBObject dbObject = entry.toDBObject();
+        Object text = dbObject.removeField(RepositoryEntryBO.MESSAGE_FIELD_NAME);
+        byte[] bytes = BSON.encode(dbObject);
+        dbObject.put(RepositoryEntryBO.MESSAGE_FIELD_NAME, text);
+
+        message.putBooleanProperty(PARSED, true);
+        message.getBodyBuffer().writeInt(bytes.length);
+        message.getBodyBuffer().writeBytes(bytes);
+    }
+
+    /**
+     * Returns true if the message carries a parsed entry
+     * 
+     * @param message
+     *            Message to check
+     */
+    public static boolean isParsed(ClientMessage message) {
+        return message.containsProperty(PARSED) && message.getBooleanProperty(PARSED);
+    }
+
+    /**
+     * Reads the document written by {@link #writeParsedEntry(ClientMessage, RepositoryEntryBO)}. The message text
+     * must have already been read from the body.
+     * 
+     * @param message
+     *            Message to read from
+     * @param text
+     *            Message text read from the body
+     * @return Document containing the fields of the parsed entry, including the message text
+     */
+    public static DBObject readParsedDocument(ClientMessage message, String text) {
+        byte[] bytes = new byte[message.getBodyBuffer().readInt()];
+        message.getBodyBuffer().readBytes(bytes);
+
+        DBCallback callback = new DBCallback(null);
+        BSON_DECODER.get().decode(bytes, callback);
+        DBObject dbObject = (DBObject) callback.get();
+        dbObject.put(RepositoryEntryBO.MESSAGE_FIELD_NAME, text);
+        return dbObject;
+    }
+
+    /**
+     * Reads the entry written by {@link #writeParsedEntry(ClientMessage, RepositoryEntryBO)}. The message text must
+     * have already been read from the body. The saved timestamp is set to now.
+     * 
+     * @param message
+     *            Message to read from
+     * @param text
+     *            Message text read from the body
+     * @return Parsed entry ready to be saved
+     * @throws ChiliLogException
+     *             if the document is not a valid entry
+     */
+    public static RepositoryEntryBO readParsedEntry(ClientMessage message, String text) throws ChiliLogException {
+        RepositoryEntryBO entry = new RepositoryEntryBO(readParsedDocument(message, text));
+        entry.setSavedTimestamp(new Date());
+        return entry;
+    }
+
 }
@@ -0,0 +1,294 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.MongoConnection;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryController;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * Creates the indexes required on a repository's collections in a background thread so that bringing a repository
+ * online is not held up by index builds on large collections.
+ * </p>
+ * <p>
+ * The indexes to create are specified by {@link RepositoryEntryController#getIndexes()}. Indexes are matched on their
+ * keys, not their names, so indexes that already exist are skipped even if they were created under another name. If
+ * an index cannot be built, the error is recorded and we carry on with the rest.
+ * </p>
+ * <p>
+ * mongoDB returns as soon as a background index build has been requested. To report accurate progress, we watch
+ * mongoDB's current operations and wait for each build to finish before requesting the next one.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryIndexBuilder implements Runnable {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryIndexBuilder.class);
+
+    /**
+     * Milliseconds between checks for the end of an index build
+     */
+    private static final long POLL_MILLISECONDS = 1000;
+
+    private RepositoryConfigBO _repoConfig;
+    private Thread _thread = null;
+    private volatile boolean _cancelled = false;
+    private volatile BuildStatus _status = BuildStatus.PENDING;
+    private volatile int _indexCount = 0;
+    private volatile int _indexesBuilt = 0;
+    private volatile int _indexesFailed = 0;
+    private volatile String _errorMessage = null;
+
+    /**
+     * Constructor
+     *
+     * @param repoConfig
+     *            Repository to index
+     */
+    RepositoryIndexBuilder(RepositoryConfigBO repoConfig) {
+        _repoConfig = repoConfig;
+    }
+
+    /**
+     * Starts building indexes in a background thread
+     */
+    synchronized void start() {
+        if (_thread != null) {
+            return;
+        }
+        _thread = new Thread(this, "IndexBuilder " + _repoConfig.getName());
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Stops requesting index builds. mongoDB carries on with the index currently being built.
+     */
+    void cancel() {
+        _cancelled = true;
+    }
+
+    /**
+     * Builds the indexes
+     */
+    public void run() {
+        try {
+            _status = BuildStatus.BUILDING;
+            DB db = MongoConnection.getInstance().getConnection();
+            RepositoryEntryController controller = RepositoryEntryController.getInstance(_repoConfig);
+            List<DBCollection> colls = controller.getDBCollections(db, null, null);
+            LinkedHashMap<String, DBObject> indexes = controller.getIndexes();
+            _indexCount = colls.size() * indexes.size();
+
+            StringBuilder errors = new StringBuilder();
+            for (DBCollection coll : colls) {
+                for (Map.Entry<String, DBObject> index : indexes.entrySet()) {
+                    if (_cancelled) {
+                        _status = BuildStatus.CANCELLED;
+                        return;
+                    }
+                    try {
+                        if (!hasIndex(coll, index.getValue())) {
+                            _logger.info("Repository '%s' building index '%s' on '%s'.", _repoConfig.getName(),
+                                    index.getKey(), coll.getName());
+                            controller.ensureIndex(coll, index.getKey(), index.getValue());
+                            while (isBuildInProgress(db, coll, index.getKey())) {
+                                if (_cancelled) {
+                                    _status = BuildStatus.CANCELLED;
+                                    return;
+                                }
+                                Thread.sleep(POLL_MILLISECONDS);
+                            }
+                            if (!hasIndex(coll, index.getValue())) {
+                                throw new IllegalStateException("mongoDB did not create the index.");
+                            }
+                            _logger.info("Repository '%s' built index '%s' on '%s'.", _repoConfig.getName(),
+                                    index.getKey(), coll.getName());
+                        }
+                        _indexesBuilt++;
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        _indexesFailed++;
+                        errors.append(errors.length() == 0 ? "" : " ").append(
+                                String.format("Index '%s' on '%s': %s", index.getKey(), coll.getName(),
+                                        ex.getMessage()));
+                        _logger.error(ex, "Error building index '%s' on '%s' for repository '%s'. %s",
+                                index.getKey(), coll.getName(), _repoConfig.getName(), ex.getMessage());
+                    }
+                }
+            }
+
+            if (_indexesFailed > 0) {
+                _errorMessage = errors.toString();
+                _status = BuildStatus.FAILED;
+                _logger.error("Repository '%s' built %s of %s indexes. %s failed.", _repoConfig.getName(),
+                        _indexesBuilt, _indexCount, _indexesFailed);
+            } else {
+                _status = BuildStatus.COMPLETE;
+                _logger.info("Repository '%s' indexes ready.", _repoConfig.getName());
+            }
+        } catch (Exception ex) {
+            _errorMessage = ex.getMessage();
+            _status = BuildStatus.FAILED;
+            _logger.error(ex, "Error building indexes for repository '%s'. %s", _repoConfig.getName(),
+                    ex.getMessage());
+        }
+    }
+
+    /**
+     * Checks mongoDB's current operations for a build of the specified index. The index specification is in the
+     * <code>insert</code> or <code>query</code> field of the operation depending on the server version.
+     */
+    private static boolean isBuildInProgress(DB db, DBCollection coll, String indexName) {
+        DBObject result = db.getCollection("$cmd.sys.inprog").findOne();
+        Object inprog = (result == null ? null : result.get("inprog"));
+        if (!(inprog instanceof List)) {
+            return false;
+        }
+        for (Object o : (List<?>) inprog) {
+            DBObject op = (DBObject) o;
+            for (String field : new String[] { "insert", "query" }) {
+                Object spec = op.get(field);
+                if (spec instanceof DBObject && indexName.equals(((DBObject) spec).get("name"))
+                        && coll.getFullName().equals(((DBObject) spec).get("ns"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the collection has an index on the specified keys, whatever its name
+     */
+    private static boolean hasIndex(DBCollection coll, DBObject keys) {
+        for (DBObject index : coll.getIndexInfo()) {
+            Object indexKeys = index.get("key");
+            if (indexKeys instanceof DBObject && isSameKeys((DBObject) indexKeys, keys)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if two index key specifications have the same fields in the same order and directions. Directions
+     * read back from mongoDB may be doubles so numbers are compared by value.
+     */
+    static boolean isSameKeys(DBObject a, DBObject b) {
+        ArrayList<String> aNames = new ArrayList<String>(a.keySet());
+        ArrayList<String> bNames = new ArrayList<String>(b.keySet());
+        if (!aNames.equals(bNames)) {
+            return false;
+        }
+        for (String name : aNames) {
+            Object x = a.get(name);
+            Object y = b.get(name);
+            if (x instanceof Number && y instanceof Number) {
+                if (((Number) x).doubleValue() != ((Number) y).doubleValue()) {
+                    return false;
+                }
+            } else if (x == null ? y != null : !x.equals(y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the progress of the index build
+     */
+    public BuildStatus getStatus() {
+        return _status;
+    }
+
+    /**
+     * Returns the number of indexes to build over all of the repository's collections
+     */
+    public int getIndexCount() {
+        return _indexCount;
+    }
+
+    /**
+     * Returns the number of indexes that have finished building or already existed
+     */
+    public int getIndexesBuilt() {
+        return _indexesBuilt;
+    }
+
+    /**
+     * Returns the number of indexes that could not be built
+     */
+    public int getIndexesFailed() {
+        return _indexesFailed;
+    }
+
+    /**
+     * Returns the reason why the index build failed; including the indexes that could not be built. Null if it did
+     * not fail.
+     */
+    public String getErrorMessage() {
+        return _errorMessage;
+    }
+
+    /**
+     * Progress of an index build
+     */
+    public static enum BuildStatus {
+        /**
+         * Build has not started
+         */
+        PENDING,
+
+        /**
+         * Indexes are being built
+         */
+        BUILDING,
+
+        /**
+         * All indexes have been built
+         */
+        COMPLETE,
+
+        /**
+         * Build was stopped because the repository was taken offline. mongoDB may still be building the last index
+         * requested.
+         */
+        CANCELLED,
+
+        /**
+         * Build finished but one or more indexes could not be built, or the build stopped because of an error
+         */
+        FAILED
+    }
+}
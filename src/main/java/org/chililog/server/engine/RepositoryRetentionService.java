@@ -0,0 +1,339 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.MongoConnection;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryConfigBO.Partitioning;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.data.RepositoryEntryController;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+
+/**
+ * <p>
+ * Periodically removes repository entries that are older than the retention period of their repository.
+ * </p>
+ * <p>
+ * Each repository has a default retention period ({@link RepositoryConfigBO#getStorageRetentionDays()}) that can be
+ * overridden by severity; e.g. keep debug entries for 2 days and errors for 90 days.
+ * </p>
+ * <p>
+ * Expired entries are removed in batches of <code>storage.retention.batch_size</code>, oldest first, at no more than
+ * <code>storage.retention.max_deletes_per_second</code> so that purging does not compete with the storage of new
+ * entries. If a repository is partitioned, partitions in which every entry has expired are dropped instead.
+ * </p>
+ *
+ * <pre>
+ * // Start removing expired entries every storage.retention.interval_minutes
+ * RepositoryRetentionService.getInstance().start();
+ *
+ * // Remove expired entries now
+ * RepositoryRetentionService.getInstance().purgeAll();
+ *
+ * // Stop
+ * RepositoryRetentionService.getInstance().stop();
+ * </pre>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryRetentionService {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryRetentionService.class);
+
+    private static final long MILLISECONDS_PER_DAY = 86400000L;
+
+    private Timer _timer = null;
+    private volatile boolean _stopped = false;
+
+    /**
+     * Returns the singleton instance for this class
+     */
+    public static RepositoryRetentionService getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * SingletonHolder is loaded on the first execution of Singleton.getInstance() or the first access to
+     * SingletonHolder.INSTANCE, not before.
+     *
+     * @see http://en.wikipedia.org/wiki/Singleton_pattern
+     */
+    private static class SingletonHolder {
+
+        public static final RepositoryRetentionService INSTANCE = new RepositoryRetentionService();
+    }
+
+    /**
+     * <p>
+     * Singleton constructor
+     * </p>
+     */
+    private RepositoryRetentionService() {
+        return;
+    }
+
+    /**
+     * Starts removing expired entries every <code>storage.retention.interval_minutes</code>
+     */
+    public synchronized void start() {
+        int intervalMinutes = AppProperties.getInstance().getStorageRetentionIntervalMinutes();
+        if (intervalMinutes <= 0 || _timer != null) {
+            return;
+        }
+
+        _stopped = false;
+        _timer = new Timer("RepositoryRetention", true);
+        _timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    purgeAll();
+                } catch (Exception ex) {
+                    _logger.error(ex, "Error removing expired repository entries. %s", ex.getMessage());
+                }
+            }
+        }, intervalMinutes * 60000L, intervalMinutes * 60000L);
+        _logger.info("Repository retention service started. Removing expired entries every %s minutes.",
+                intervalMinutes);
+    }
+
+    /**
+     * Stops removing expired entries. A purge in progress is stopped after its current batch.
+     */
+    public synchronized void stop() {
+        _stopped = true;
+        if (_timer != null) {
+            _timer.cancel();
+            _timer = null;
+            _logger.info("Repository retention service stopped.");
+        }
+    }
+
+    /**
+     * Removes expired entries from all repositories
+     *
+     * @return Amount removed from all repositories
+     * @throws ChiliLogException
+     *             if the list of repositories cannot be loaded
+     */
+    public PurgeResult purgeAll() throws ChiliLogException {
+        long startTime = System.currentTimeMillis();
+        PurgeResult total = new PurgeResult();
+        DB db = MongoConnection.getInstance().getConnection();
+        for (Repository repo : RepositoryService.getInstance().getRepositories()) {
+            if (_stopped) {
+                break;
+            }
+            RepositoryConfigBO repoConfig = repo.getRepoConfig();
+            try {
+                PurgeResult result = purge(db, repoConfig);
+                total.add(result);
+                if (result.getEntriesRemoved() > 0) {
+                    _logger.info("Repository '%s' retention removed %s entries and dropped %s partitions.",
+                            repoConfig.getName(), result.getEntriesRemoved(), result.getPartitionsDropped());
+                }
+            } catch (Exception ex) {
+                _logger.error(ex, "Error removing expired entries from repository '%s'. %s", repoConfig.getName(),
+                        ex.getMessage());
+            }
+        }
+
+        _logger.info("Repository retention run removed %s entries and dropped %s partitions in %s ms.",
+                total.getEntriesRemoved(), total.getPartitionsDropped(), System.currentTimeMillis() - startTime);
+        return total;
+    }
+
+    /**
+     * Removes expired entries from a repository
+     *
+     * @param db
+     *            Database connection
+     * @param repoConfig
+     *            Repository from which entries are to be removed
+     * @return Amount removed
+     * @throws ChiliLogException
+     *             if there are database errors
+     */
+    public PurgeResult purge(DB db, RepositoryConfigBO repoConfig) throws ChiliLogException {
+        PurgeResult result = new PurgeResult();
+        TreeMap<Long, ArrayList<Severity>> rules = getRetentionRules(repoConfig);
+        if (rules.isEmpty()) {
+            return result;
+        }
+
+        long now = System.currentTimeMillis();
+        RepositoryEntryController controller = RepositoryEntryController.getInstance(repoConfig);
+
+        // Drop partitions in which entries of every severity have expired
+        Partitioning partitioning = repoConfig.getStoragePartitioning();
+        if (partitioning != Partitioning.NONE && rules.get(0L) == null) {
+            Date cutoff = new Date(now - rules.lastKey() * MILLISECONDS_PER_DAY);
+            for (DBCollection coll : controller.getDBCollections(db, null, cutoff)) {
+                Date start = controller.getPartitionStart(coll.getName());
+                if (start != null && start.getTime() + partitioning.getDuration() <= cutoff.getTime()) {
+                    result._entriesRemoved += controller.dropPartition(coll);
+                    result._partitionsDropped++;
+                }
+            }
+        }
+
+        // Delete entries from the remaining collections
+        int batchSize = Math.max(1, AppProperties.getInstance().getStorageRetentionBatchSize());
+        RateLimiter rateLimiter = new RateLimiter(AppProperties.getInstance().getStorageRetentionMaxDeletesPerSecond());
+        HashSet<String> indexedCollections = new HashSet<String>();
+        for (Map.Entry<Long, ArrayList<Severity>> rule : rules.entrySet()) {
+            if (rule.getKey() == 0) {
+                continue;
+            }
+            Date cutoff = new Date(now - rule.getKey() * MILLISECONDS_PER_DAY);
+            for (DBCollection coll : controller.getDBCollections(db, null, cutoff)) {
+                if (indexedCollections.add(coll.getName())) {
+                    controller.ensureTimestampIndex(coll);
+                }
+                while (!_stopped) {
+                    int removed = controller.removeBefore(coll, cutoff, rule.getValue(), batchSize);
+                    result._entriesRemoved += removed;
+                    if (removed > 0) {
+                        rateLimiter.acquire(removed);
+                    }
+                    if (removed < batchSize) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Groups severities by the number of days for which their entries are kept
+     *
+     * @param repoConfig
+     *            Repository configuration
+     * @return Severities keyed by retention period in days. A key of 0 means kept forever. Empty if all entries are
+     *         kept forever.
+     */
+    static TreeMap<Long, ArrayList<Severity>> getRetentionRules(RepositoryConfigBO repoConfig) {
+        TreeMap<Long, ArrayList<Severity>> rules = new TreeMap<Long, ArrayList<Severity>>();
+        boolean expires = false;
+        for (Severity severity : Severity.values()) {
+            long days = Math.max(0, repoConfig.getStorageRetentionDays(severity));
+            ArrayList<Severity> list = rules.get(days);
+            if (list == null) {
+                list = new ArrayList<Severity>();
+                rules.put(days, list);
+            }
+            list.add(severity);
+            expires = expires || days > 0;
+        }
+        if (!expires) {
+            rules.clear();
+        }
+        return rules;
+    }
+
+    /**
+     * Amount of data removed by a purge
+     */
+    public static class PurgeResult {
+        private long _entriesRemoved = 0;
+        private long _partitionsDropped = 0;
+
+        void add(PurgeResult result) {
+            _entriesRemoved += result._entriesRemoved;
+            _partitionsDropped += result._partitionsDropped;
+        }
+
+        /**
+         * Returns the number of entries removed, including those in dropped partitions
+         */
+        public long getEntriesRemoved() {
+            return _entriesRemoved;
+        }
+
+        /**
+         * Returns the number of partitions dropped
+         */
+        public long getPartitionsDropped() {
+            return _partitionsDropped;
+        }
+    }
+
+    /**
+     * Spaces out deletes so that no more than the specified number of entries are removed per second
+     */
+    static class RateLimiter {
+        private long _maxPerSecond;
+        private long _startTime = System.currentTimeMillis();
+        private long _count = 0;
+
+        /**
+         * @param maxPerSecond
+         *            Maximum number of entries per second. 0 or less for no limit.
+         */
+        RateLimiter(long maxPerSecond) {
+            _maxPerSecond = maxPerSecond;
+        }
+
+        /**
+         * Records that entries have been removed and waits if we are ahead of the allowed rate
+         *
+         * @param count
+         *            Number of entries removed
+         * @return Number of milliseconds waited
+         */
+        long acquire(long count) {
+            if (_maxPerSecond <= 0) {
+                return 0;
+            }
+            _count += count;
+            long wait = getWait(System.currentTimeMillis());
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return wait;
+        }
+
+        /**
+         * Returns the number of milliseconds to wait before the next delete
+         */
+        long getWait(long now) {
+            long due = _startTime + (_count * 1000L) / _maxPerSecond;
+            return Math.max(0, due - now);
+        }
+    }
+}
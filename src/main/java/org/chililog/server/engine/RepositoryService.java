@@ -89,7 +89,8 @@ public class RepositoryService {
 
     /**
      * <p>
-     * Starts this service by starting all repositories where the startup status is ONLINE
+     * Starts this service by starting all repositories where the startup status is ONLINE. The
+     * {@link RepositoryRetentionService} is also started to remove expired entries.
      * </p>
      * <p>
      * Should be called once at the start of the application
@@ -104,6 +105,7 @@ public class RepositoryService {
                 makeRepositoryReadOnly(repoConfig);
             }
         }
+        RepositoryRetentionService.getInstance().start();
         return;
     }
 
@@ -113,7 +115,10 @@ public class RepositoryService {
      * @throws Exception
      */
     public synchronized void stop() throws Exception {
+        RepositoryRetentionService.getInstance().stop();
         takeAllRepositoriesOffline();
+        RepositoryStorageAutoscaler.getInstance().stop();
+        RepositoryStorageScheduler.getInstance().stop();
         return;
     }
 
@@ -339,6 +344,23 @@ public class RepositoryService {
         return repoConfig == null ? null : new Repository(repoConfig);
     }
 
+    /**
+     * Returns an online or read only repository
+     * 
+     * @param repositoryName
+     *            Name of the repository to find
+     * @return Matching repository. <code>null</code> if the repository is offline or does not exist.
+     */
+    public synchronized Repository getActiveRepository(String repositoryName) {
+        for (Repository repo : _activeRepositories) {
+            if (repo.getRepoConfig().getName().equals(repositoryName)) {
+                return repo;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Returns the latest runtime information for all repositories
      * 
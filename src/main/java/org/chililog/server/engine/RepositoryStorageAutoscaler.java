@@ -0,0 +1,256 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.hornetq.api.core.management.QueueControl;
+
+/**
+ * <p>
+ * Periodically samples the storage queue of each repository and adds or removes storage workers so that backlogs drain
+ * during traffic spikes and idle repositories release threads and database connections.
+ * </p>
+ * <p>
+ * A repository takes part if {@link RepositoryConfigBO#getStorageQueueMaxWorkerCount()} is greater than
+ * {@link RepositoryConfigBO#getStorageQueueWorkerCount()}. The number of workers will then be kept between these two
+ * values.
+ * </p>
+ * <ul>
+ * <li>A worker is added if the backlog is larger than <code>storage.autoscale.backlog_threshold</code> and, at the
+ * current rate of consumption, will not be cleared within {@link #DRAIN_SAMPLES} sampling intervals.</li>
+ * <li>A worker is removed if the storage queue has been empty for {@link #IDLE_SAMPLES} sampling intervals in a
+ * row.</li>
+ * </ul>
+ * <p>
+ * Only one worker is added or removed per repository per sampling interval so that we do not overreact to short
+ * bursts.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryStorageAutoscaler {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryStorageAutoscaler.class);
+
+    /**
+     * Number of sampling intervals within which a backlog is expected to be cleared
+     */
+    static final int DRAIN_SAMPLES = 3;
+
+    /**
+     * Number of consecutive sampling intervals for which a storage queue must be empty before a worker is removed
+     */
+    static final int IDLE_SAMPLES = 3;
+
+    private ConcurrentHashMap<Repository, Sample> _repositories = new ConcurrentHashMap<Repository, Sample>();
+    private Timer _timer = null;
+
+    /**
+     * Returns the singleton instance for this class
+     */
+    public static RepositoryStorageAutoscaler getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * SingletonHolder is loaded on the first execution of Singleton.getInstance() or the first access to
+     * SingletonHolder.INSTANCE, not before.
+     *
+     * @see http://en.wikipedia.org/wiki/Singleton_pattern
+     */
+    private static class SingletonHolder {
+
+        public static final RepositoryStorageAutoscaler INSTANCE = new RepositoryStorageAutoscaler();
+    }
+
+    /**
+     * <p>
+     * Singleton constructor
+     * </p>
+     */
+    private RepositoryStorageAutoscaler() {
+        return;
+    }
+
+    /**
+     * Start sampling the storage queue of a repository. The sampling timer is started if it is not already running.
+     *
+     * @param repo
+     *            Repository to autoscale
+     */
+    synchronized void register(Repository repo) {
+        int intervalSeconds = AppProperties.getInstance().getStorageAutoscaleIntervalSeconds();
+        if (intervalSeconds <= 0) {
+            return;
+        }
+
+        _repositories.put(repo, new Sample());
+        if (_timer == null) {
+            _timer = new Timer("StorageAutoscaler", true);
+            _timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    sampleAll();
+                }
+            }, intervalSeconds * 1000L, intervalSeconds * 1000L);
+            _logger.info("Repository storage autoscaler started. Sampling every %s seconds.", intervalSeconds);
+        }
+    }
+
+    /**
+     * Stop sampling the storage queue of a repository
+     *
+     * @param repo
+     *            Repository to stop autoscaling
+     */
+    void unregister(Repository repo) {
+        _repositories.remove(repo);
+    }
+
+    /**
+     * Stops sampling all repositories
+     */
+    public synchronized void stop() {
+        _repositories.clear();
+        if (_timer != null) {
+            _timer.cancel();
+            _timer = null;
+            _logger.info("Repository storage autoscaler stopped.");
+        }
+    }
+
+    /**
+     * Timer task
+     */
+    private void sampleAll() {
+        long threshold = AppProperties.getInstance().getStorageAutoscaleBacklogThreshold();
+        for (Repository repo : _repositories.keySet()) {
+            try {
+                sample(repo, threshold);
+            } catch (Exception ex) {
+                _logger.error(ex, "Error autoscaling storage workers of repository '%s'. %s", repo.getRepoConfig()
+                        .getName(), ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Samples the storage queue of a repository and adds or removes a worker if required
+     */
+    private void sample(Repository repo, long threshold) throws Exception {
+        Sample sample = _repositories.get(repo);
+        if (sample == null) {
+            return;
+        }
+
+        RepositoryConfigBO repoConfig = repo.getRepoConfig();
+        QueueControl qc = MqService.getInstance().getQueueControl(repoConfig.getPubSubAddress(),
+                repoConfig.getStorageQueueName());
+        if (qc == null) {
+            return;
+        }
+
+        int decision = sample.update(qc.getMessageCount(), qc.getMessagesAdded(), System.currentTimeMillis(),
+                threshold);
+        if (decision > 0 && repo.addStorageWorker()) {
+            _logger.info("Repository '%s' storage queue backlog of %s messages. Increased storage workers to %s.",
+                    repoConfig.getName(), sample.getMessageCount(), repo.getStorageWorkerCount());
+        } else if (decision < 0 && repo.removeStorageWorker()) {
+            _logger.info("Repository '%s' storage queue idle. Decreased storage workers to %s.", repoConfig.getName(),
+                    repo.getStorageWorkerCount());
+        }
+    }
+
+    /**
+     * Previous reading of a storage queue's statistics
+     */
+    static class Sample {
+        private boolean _hasSample = false;
+        private long _messageCount;
+        private long _messagesAdded;
+        private long _timestamp;
+        private int _idleCount = 0;
+
+        /**
+         * Records a new reading and decides if the number of workers needs to change
+         *
+         * @param messageCount
+         *            Number of messages currently in the queue
+         * @param messagesAdded
+         *            Number of messages added to the queue since it was created
+         * @param timestamp
+         *            Time of the reading in milliseconds
+         * @param threshold
+         *            Backlog above which we consider adding a worker
+         * @return 1 to add a worker, -1 to remove a worker or 0 to leave things as they are
+         */
+        int update(long messageCount, long messagesAdded, long timestamp, long threshold) {
+            try {
+                if (!_hasSample) {
+                    return 0;
+                }
+
+                if (messageCount == 0) {
+                    _idleCount++;
+                    if (_idleCount >= IDLE_SAMPLES) {
+                        _idleCount = 0;
+                        return -1;
+                    }
+                    return 0;
+                }
+                _idleCount = 0;
+
+                if (messageCount <= threshold) {
+                    return 0;
+                }
+
+                // Work out how long it will take to clear the backlog. The number of messages consumed is the number
+                // added less the growth in the backlog.
+                long elapsed = Math.max(1, timestamp - _timestamp);
+                long consumed = (messagesAdded - _messagesAdded) - (messageCount - _messageCount);
+                long drained = _messageCount - messageCount;
+                if (consumed <= 0 || drained <= 0) {
+                    // Not consuming or backlog not shrinking
+                    return 1;
+                }
+                long timeToDrain = messageCount * elapsed / drained;
+                return timeToDrain > elapsed * DRAIN_SAMPLES ? 1 : 0;
+            } finally {
+                _hasSample = true;
+                _messageCount = messageCount;
+                _messagesAdded = messagesAdded;
+                _timestamp = timestamp;
+            }
+        }
+
+        /**
+         * Returns the number of messages in the queue at the last reading
+         */
+        long getMessageCount() {
+            return _messageCount;
+        }
+    }
+}
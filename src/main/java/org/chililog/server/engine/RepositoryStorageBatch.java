@@ -0,0 +1,315 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.RepositoryEntryBO;
+import org.chililog.server.data.RepositoryEntryController;
+import org.chililog.server.engine.parsers.EntryParser;
+import org.chililog.server.engine.parsers.EntryParserRouter;
+import org.chililog.server.engine.parsers.RegexTimeoutException;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.api.core.client.ClientMessage;
+
+import com.mongodb.DB;
+import com.mongodb.MongoException;
+
+/**
+ * <p>
+ * A batch of messages received from a repository's storage queue together with the result of parsing and saving each
+ * message.
+ * </p>
+ * <p>
+ * Parsing and saving is separated so that it can be performed by different threads. However, each item must only be
+ * accessed by one thread at a time.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+class RepositoryStorageBatch {
+
+    /**
+     * The entry could not be parsed
+     */
+    static final String DEAD_LETTER_REASON_PARSE_ERROR = "ParseError";
+
+    /**
+     * A regular expression of the parser took too long to run against the entry
+     */
+    static final String DEAD_LETTER_REASON_REGEX_TIMEOUT = "RegexTimeout";
+
+    /**
+     * The entry could not be written to the database
+     */
+    static final String DEAD_LETTER_REASON_WRITE_ERROR = "WriteError";
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryStorageBatch.class);
+    private String _name;
+    private ArrayList<Item> _items;
+    private RepositoryTemplateMiner _templateMiner = null;
+
+    /**
+     * Constructor
+     * 
+     * @param name
+     *            Name of the worker that received the messages. Used for logging.
+     * @param messages
+     *            Messages received from the storage queue
+     * @param templateMiner
+     *            Groups parsed messages into templates. Null if the repository does not use templates.
+     */
+    RepositoryStorageBatch(String name, List<ClientMessage> messages, RepositoryTemplateMiner templateMiner) {
+        _name = name;
+        _templateMiner = templateMiner;
+        _items = new ArrayList<Item>(messages.size());
+        for (ClientMessage message : messages) {
+            _items.add(new Item(message));
+        }
+    }
+
+    /**
+     * Returns the number of messages in this batch
+     */
+    int size() {
+        return _items.size();
+    }
+
+    /**
+     * Returns the messages in this batch and their outcomes
+     */
+    List<Item> getItems() {
+        return _items;
+    }
+
+    /**
+     * Parses all messages in this batch
+     * 
+     * @param parsers
+     *            Parsers to use
+     */
+    void parse(EntryParserRouter parsers) {
+        parse(parsers, 0, _items.size());
+    }
+
+    /**
+     * Parses a range of messages in this batch. Messages that were parsed when they were published are read as is.
+     * 
+     * @param parsers
+     *            Parsers to use. Must be confined to the calling thread.
+     * @param fromIndex
+     *            Index of the first message to parse (inclusive)
+     * @param toIndex
+     *            Index of the last message to parse (exclusive)
+     */
+    void parse(EntryParserRouter parsers, int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            Item item = _items.get(i);
+            ClientMessage messageReceived = item.getMessage();
+
+            String ts = messageReceived.getStringProperty(RepositoryEntryMqMessage.TIMESTAMP);
+            String source = messageReceived.getStringProperty(RepositoryEntryMqMessage.SOURCE);
+            String host = messageReceived.getStringProperty(RepositoryEntryMqMessage.HOST);
+            String severity = messageReceived.getStringProperty(RepositoryEntryMqMessage.SEVERITY);
+            String fields = messageReceived.getStringProperty(RepositoryEntryMqMessage.FIELDS);
+            SimpleString messageSimpleString = messageReceived.getBodyBuffer().readNullableSimpleString();
+            String message = "";
+            if (messageSimpleString != null) {
+                message = messageSimpleString.toString();
+            }
+            item._text = message;
+
+            if (RepositoryEntryMqMessage.isParsed(messageReceived)) {
+                // Already parsed when it was published
+                try {
+                    item._entry = RepositoryEntryMqMessage.readParsedEntry(messageReceived, message);
+                } catch (Exception ex) {
+                    item._error = ex;
+                    item._deadLetterReason = DEAD_LETTER_REASON_PARSE_ERROR;
+                    continue;
+                }
+            } else {
+                EntryParser entryParser;
+                try {
+                    entryParser = parsers.getParser(source, host);
+                } catch (RegexTimeoutException ex) {
+                    // Source or host filter took too long
+                    item._error = ex;
+                    item._deadLetterReason = DEAD_LETTER_REASON_REGEX_TIMEOUT;
+                    continue;
+                }
+                item._entry = entryParser.parse(ts, source, host, severity, fields, message);
+                if (item._entry == null) {
+                    item._error = entryParser.getLastParseError();
+                    item._deadLetterReason = RegexTimeoutException.isCause(item._error)
+                            ? DEAD_LETTER_REASON_REGEX_TIMEOUT : DEAD_LETTER_REASON_PARSE_ERROR;
+                    continue;
+                }
+            }
+
+            if (_templateMiner != null) {
+                _templateMiner.mine(item._entry);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Writes parsed entries to the database with a single insert.
+     * </p>
+     * <p>
+     * If the batch insert fails, we fall back to writing entries one at a time so that a bad entry does not stop the
+     * rest of the batch from being stored. Entries that cannot be written are flagged as failed so that they can be
+     * moved to the dead letter queue.
+     * </p>
+     * <p>
+     * If the repository uses templates, new template versions are saved first so that the messages of the entries can
+     * be rebuilt from them. Written entries are added to the counts of their templates.
+     * </p>
+     * 
+     * @param db
+     *            mongoDB connection
+     * @param controller
+     *            Controller used to write entries
+     * @throws ChiliLogException
+     *             if we cannot communicate with the database or save template versions. In this case, the whole batch
+     *             must be rolled back.
+     */
+    void write(DB db, RepositoryEntryController controller) throws ChiliLogException {
+        if (_templateMiner != null) {
+            _templateMiner.save(db);
+        }
+
+        ArrayList<RepositoryEntryBO> entries = new ArrayList<RepositoryEntryBO>(_items.size());
+        for (Item item : _items) {
+            if (item._entry != null) {
+                entries.add(item._entry);
+            }
+        }
+
+        try {
+            controller.insert(db, entries);
+        } catch (ChiliLogException ex) {
+            if (isNetworkError(ex)) {
+                throw ex;
+            }
+
+            _logger.error(ex, "RepositoryStorageWorker '%s' error inserting batch of %s entries. %s. "
+                    + "Saving entries one at a time.", _name, entries.size(), ex.getMessage());
+
+            for (Item item : _items) {
+                if (item._entry == null) {
+                    continue;
+                }
+                try {
+                    controller.upsert(db, item._entry);
+                } catch (ChiliLogException ex2) {
+                    if (isNetworkError(ex2)) {
+                        throw ex2;
+                    }
+                    item._entry = null;
+                    item._error = ex2;
+                    item._deadLetterReason = DEAD_LETTER_REASON_WRITE_ERROR;
+                }
+            }
+        }
+
+        // Only count entries that have been written
+        if (_templateMiner != null) {
+            entries.clear();
+            for (Item item : _items) {
+                if (item._entry != null) {
+                    entries.add(item._entry);
+                }
+            }
+            _templateMiner.count(entries);
+            _templateMiner.flush(db, false);
+        }
+    }
+
+    /**
+     * Returns true if the exception was caused by a problem communicating with mongoDB; false if it was caused by the
+     * document being written.
+     */
+    private static boolean isNetworkError(ChiliLogException ex) {
+        return ex.getCause() instanceof MongoException.Network;
+    }
+
+    /**
+     * A message in a batch together with the result of parsing and saving it
+     */
+    static class Item {
+        private ClientMessage _message;
+        private String _text;
+        private RepositoryEntryBO _entry;
+        private Exception _error;
+        private String _deadLetterReason;
+
+        Item(ClientMessage message) {
+            _message = message;
+        }
+
+        /**
+         * Returns the message received from the storage queue
+         */
+        ClientMessage getMessage() {
+            return _message;
+        }
+
+        /**
+         * Returns the text of the log entry
+         */
+        String getText() {
+            return _text;
+        }
+
+        /**
+         * Returns the parsed entry. Null if the entry could not be parsed or saved.
+         */
+        RepositoryEntryBO getEntry() {
+            return _entry;
+        }
+
+        /**
+         * Returns the reason why the entry could not be parsed or saved
+         */
+        Exception getError() {
+            return _error;
+        }
+
+        /**
+         * Returns a code for the reason why the entry could not be parsed or saved; e.g.
+         * {@link RepositoryStorageBatch#DEAD_LETTER_REASON_REGEX_TIMEOUT}
+         */
+        String getDeadLetterReason() {
+            return _deadLetterReason;
+        }
+
+        /**
+         * Returns true if the entry could not be parsed or saved and needs to be moved to the dead letter queue
+         */
+        boolean isFailed() {
+            return _entry == null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.hornetq.api.core.client.ClientMessage;
+import org.hornetq.api.core.client.MessageHandler;
+
+/**
+ * <p>
+ * The RepositoryStorageConsumer has messages pushed to it from a repository's storage queue. Unlike
+ * {@link RepositoryStorageWorker}, it does not have its own thread. Instead, it buffers delivered messages and asks
+ * the {@link RepositoryStorageScheduler} to parse and write them in batches using a thread from a pool shared by all
+ * repositories.
+ * </p>
+ * <p>
+ * Only one batch is processed at a time for each consumer because HornetQ sessions are not thread safe. If the buffer
+ * fills up, HornetQ's delivery thread is blocked until the buffer has been drained.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryStorageConsumer implements MessageHandler {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryStorageConsumer.class);
+    private String _name;
+    private Repository _repo;
+    private RepositoryStorageSession _storageSession;
+    private int _batchSize;
+    private long _batchLinger;
+
+    private ArrayBlockingQueue<ClientMessage> _pending;
+    private AtomicBoolean _isScheduled = new AtomicBoolean(false);
+    private volatile int _scheduledGeneration = 0;
+    private Object _processLock = new Object();
+    private volatile boolean _isRunning = false;
+
+    private Runnable _processTask = new Runnable() {
+        public void run() {
+            processPending();
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param name
+     *            Name of this consumer. Used for logging.
+     * @param repo
+     *            Repository that we are writing
+     * @throws Exception
+     *             if error
+     */
+    public RepositoryStorageConsumer(String name, Repository repo) throws Exception {
+        this(name, repo, new RepositoryStorageSession(name, repo));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param name
+     *            Name of this consumer. Used for logging.
+     * @param repo
+     *            Repository that we are writing
+     * @param storageSession
+     *            Session to use for processing batches
+     */
+    RepositoryStorageConsumer(String name, Repository repo, RepositoryStorageSession storageSession) {
+        if (repo == null) {
+            throw new NullArgumentException("repo");
+        }
+        _name = name;
+        _repo = repo;
+        _storageSession = storageSession;
+
+        RepositoryConfigBO repoConfig = repo.getRepoConfig();
+        _batchSize = (int) Math.max(1, repoConfig.getStorageQueueBatchSize());
+        _batchLinger = Math.max(0, repoConfig.getStorageQueueBatchLinger());
+        _pending = new ArrayBlockingQueue<ClientMessage>(Math.max(_batchSize * 2, 100));
+    }
+
+    /**
+     * Starts having messages pushed to us
+     *
+     * @throws Exception
+     */
+    public void start() throws Exception {
+        _isRunning = true;
+        _storageSession.open(this);
+        _logger.info("RepositoryStorageConsumer '%s' started", _name);
+    }
+
+    /**
+     * Stops messages being pushed to us and waits for the batch currently being processed to finish. Messages that
+     * have been delivered but not processed are returned to the storage queue.
+     */
+    public void stop() {
+        _isRunning = false;
+        try {
+            _storageSession.stop();
+        } catch (Exception ex) {
+            _logger.error(ex, "RepositoryStorageConsumer '%s' error stopping. %s", _name, ex.getMessage());
+        }
+
+        synchronized (_processLock) {
+            _pending.clear();
+            _storageSession.close();
+        }
+        _logger.info("RepositoryStorageConsumer '%s' stopped", _name);
+    }
+
+    /**
+     * Called by HornetQ when a message is delivered to us. Buffer it and make sure that it will be processed.
+     */
+    public void onMessage(ClientMessage message) {
+        try {
+            while (!_pending.offer(message, 100, TimeUnit.MILLISECONDS)) {
+                // The message will be redelivered if we are stopping or rolling back
+                if (!_isRunning || _storageSession.isStopped()) {
+                    return;
+                }
+            }
+            schedule();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Asks the scheduler to process pending messages if we have not already done so. If we do not have a full batch,
+     * we linger to give the batch a chance to fill up.
+     */
+    private void schedule() {
+        RepositoryStorageScheduler scheduler = RepositoryStorageScheduler.getInstance();
+
+        // Our task is discarded if the scheduler is stopped before it runs so schedule again if it has been restarted
+        if (_isScheduled.compareAndSet(false, true) || _scheduledGeneration != scheduler.getGeneration()) {
+            long delay = (_pending.size() >= _batchSize ? 0 : _batchLinger);
+            _scheduledGeneration = scheduler.schedule(_repo, _processTask, delay);
+        }
+    }
+
+    /**
+     * Process up to the repository's storage queue weight number of batches of pending messages. This is our turn
+     * with the scheduler. If there are more messages, reschedule so that other repositories get a turn.
+     */
+    private void processPending() {
+        try {
+            synchronized (_processLock) {
+                int weight = (int) Math.max(1, _repo.getRepoConfig().getStorageQueueWeight());
+                ArrayList<ClientMessage> batch = new ArrayList<ClientMessage>(_batchSize);
+                for (int i = 0; i < weight && _isRunning; i++) {
+                    batch.clear();
+                    _pending.drainTo(batch, _batchSize);
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    if (!_storageSession.processBatch(batch)) {
+                        // Session has been stopped and rolled back. Pending messages will be redelivered.
+                        _pending.clear();
+                        _storageSession.restart();
+                        break;
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            _logger.error(ex, "RepositoryStorageConsumer '%s' error. %s", _name, ex.getMessage());
+        } finally {
+            _isScheduled.set(false);
+        }
+
+        if (_isRunning && !_pending.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Returns the repository to which this consumer belongs
+     */
+    public Repository getRepository() {
+        return _repo;
+    }
+
+    /**
+     * Returns the name of this consumer
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns true if messages are being pushed to this consumer, false if not
+     */
+    public boolean isRunning() {
+        return _isRunning;
+    }
+}
@@ -0,0 +1,330 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.MongoConnection;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryController;
+import org.chililog.server.engine.parsers.EntryParserRouter;
+
+import com.mongodb.DB;
+
+/**
+ * <p>
+ * Splits the processing of a repository's storage queue into stages so that CPU bound parsing and I/O bound database
+ * writes do not hold each other up.
+ * </p>
+ * <ul>
+ * <li>{@link RepositoryStorageWorker} consumer threads receive batches of messages from the storage queue and submit
+ * them into the pipeline.</li>
+ * <li>The parse stage has one thread per CPU core. Large batches are split into chunks so that they can be parsed in
+ * parallel.</li>
+ * <li>The write stage has one thread per mongoDB connection in the connection pool.</li>
+ * </ul>
+ * <p>
+ * Each stage is fed by a bounded queue. When a queue is full, the submitting thread waits for space. This slows
+ * consumers down rather than letting received messages pile up in memory, and keeps blocking database writes on the
+ * write threads so that parse threads never wait on I/O and there are never more writers than database connections.
+ * </p>
+ * <p>
+ * Consumer threads wait for their batch to be written before acknowledging and committing it. This means that a
+ * message is only removed from the storage queue once its entry has been persisted.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class RepositoryStoragePipeline {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryStoragePipeline.class);
+
+    /**
+     * Smallest number of messages that will be parsed by a parse thread. Splitting batches into smaller chunks costs
+     * more in hand off than it saves.
+     */
+    private static final int MIN_PARSE_CHUNK_SIZE = 16;
+
+    private RepositoryConfigBO _repoConfig;
+    private DB _db;
+    private RepositoryEntryController _controller;
+    private ThreadLocal<EntryParserRouter> _parsers;
+    private Stage _parseStage;
+    private Stage _writeStage;
+
+    /**
+     * Constructor
+     * 
+     * @param repoConfig
+     *            Repository meta data
+     * @throws ChiliLogException
+     *             if the repository parsers cannot be created or the database cannot be connected to
+     */
+    public RepositoryStoragePipeline(RepositoryConfigBO repoConfig) throws ChiliLogException {
+        if (repoConfig == null) {
+            throw new NullArgumentException("repoConfig");
+        }
+        _repoConfig = repoConfig;
+
+        // Check that parsers can be created now rather than when the first message arrives.
+        // Parsers are not thread safe so each parse thread creates its own copy.
+        new EntryParserRouter(repoConfig);
+        _parsers = new ThreadLocal<EntryParserRouter>() {
+            @Override
+            protected EntryParserRouter initialValue() {
+                try {
+                    return new EntryParserRouter(_repoConfig);
+                } catch (ChiliLogException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+
+        _db = MongoConnection.getInstance().getConnection();
+        _controller = RepositoryEntryController.getInstance(repoConfig);
+
+        int parseThreadCount = Runtime.getRuntime().availableProcessors();
+        int writeThreadCount = Math.max(1, AppProperties.getInstance().getDbConnectionsPerHost());
+        _parseStage = new Stage(String.format("%s StorageParser", repoConfig.getName()), parseThreadCount);
+        _writeStage = new Stage(String.format("%s StorageWriter", repoConfig.getName()), writeThreadCount);
+
+        _logger.info("Repository '%s' storage pipeline started with %s parse threads and %s write threads.",
+                repoConfig.getName(), parseThreadCount, writeThreadCount);
+    }
+
+    /**
+     * Parses and writes a batch of messages. Returns once all entries in the batch have been persisted or flagged as
+     * failed.
+     * 
+     * @param batch
+     *            Batch to process
+     * @throws Exception
+     *             if the batch could not be parsed or written and must be rolled back
+     */
+    void process(RepositoryStorageBatch batch) throws Exception {
+        int size = batch.size();
+        int chunkSize = Math.max(MIN_PARSE_CHUNK_SIZE, (size + _parseStage.getThreadCount() - 1)
+                / _parseStage.getThreadCount());
+        int chunkCount = (size + chunkSize - 1) / chunkSize;
+
+        PipelineBatch pipelineBatch = new PipelineBatch(batch, chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int fromIndex = i * chunkSize;
+            int toIndex = Math.min(size, fromIndex + chunkSize);
+            _parseStage.execute(pipelineBatch.newParseTask(fromIndex, toIndex));
+        }
+
+        pipelineBatch.await();
+    }
+
+    /**
+     * Stops the pipeline threads once queued work has been completed. Batches submitted after the pipeline has been
+     * shut down are processed by the submitting thread.
+     */
+    void shutdown() {
+        _parseStage.shutdown();
+        _writeStage.shutdown();
+        _logger.info("Repository '%s' storage pipeline stopped.", _repoConfig.getName());
+    }
+
+    /**
+     * Returns the number of parse tasks waiting to be run
+     */
+    public int getParseQueueDepth() {
+        return _parseStage.getQueueDepth();
+    }
+
+    /**
+     * Returns the moving average number of milliseconds between a parse task being submitted and it being completed
+     */
+    public double getParseLatency() {
+        return _parseStage.getLatency();
+    }
+
+    /**
+     * Returns the number of write tasks waiting to be run
+     */
+    public int getWriteQueueDepth() {
+        return _writeStage.getQueueDepth();
+    }
+
+    /**
+     * Returns the moving average number of milliseconds between a write task being submitted and it being completed
+     */
+    public double getWriteLatency() {
+        return _writeStage.getLatency();
+    }
+
+    /**
+     * Tracks the progress of a batch through the pipeline
+     */
+    private class PipelineBatch {
+        private RepositoryStorageBatch _batch;
+        private AtomicInteger _pendingParseChunks;
+        private CountDownLatch _done = new CountDownLatch(1);
+        private volatile Exception _error = null;
+
+        PipelineBatch(RepositoryStorageBatch batch, int chunkCount) {
+            _batch = batch;
+            _pendingParseChunks = new AtomicInteger(chunkCount);
+        }
+
+        Runnable newParseTask(final int fromIndex, final int toIndex) {
+            return new Runnable() {
+                public void run() {
+                    try {
+                        _batch.parse(_parsers.get(), fromIndex, toIndex);
+                    } catch (Exception ex) {
+                        _error = ex;
+                    }
+
+                    // Last chunk to finish parsing hands the batch over to the write stage
+                    if (_pendingParseChunks.decrementAndGet() == 0) {
+                        if (_error != null) {
+                            _done.countDown();
+                            return;
+                        }
+                        try {
+                            _writeStage.execute(newWriteTask());
+                        } catch (RejectedExecutionException ex) {
+                            _error = ex;
+                            _done.countDown();
+                        }
+                    }
+                }
+            };
+        }
+
+        Runnable newWriteTask() {
+            return new Runnable() {
+                public void run() {
+                    try {
+                        _batch.write(_db, _controller);
+                    } catch (Exception ex) {
+                        _error = ex;
+                    } finally {
+                        _done.countDown();
+                    }
+                }
+            };
+        }
+
+        void await() throws Exception {
+            _done.await();
+            if (_error != null) {
+                throw _error;
+            }
+        }
+    }
+
+    /**
+     * A pool of threads fed by a bounded queue, with gauges for queue depth and latency
+     */
+    private static class Stage {
+        private static final double LATENCY_SMOOTHING = 0.2;
+
+        private ThreadPoolExecutor _executor;
+        private int _threadCount;
+        private double _latency = 0;
+
+        Stage(final String name, int threadCount) {
+            _threadCount = threadCount;
+            _executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threadCount * 4), new ThreadFactory() {
+                        private AtomicInteger _count = new AtomicInteger(0);
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, String.format("%s #%s", name, _count.incrementAndGet()));
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new RejectedExecutionHandler() {
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            // We are shutting down so run in the submitting thread
+                            if (executor.isShutdown()) {
+                                r.run();
+                                return;
+                            }
+
+                            // Queue is full so wait for space rather than doing the work in the submitting thread
+                            try {
+                                executor.getQueue().put(r);
+
+                                // If we were shut down while waiting, there may be no threads left to run the task
+                                if (executor.isShutdown() && executor.getQueue().remove(r)) {
+                                    r.run();
+                                }
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                                throw new RejectedExecutionException("Interrupted waiting to queue task", ex);
+                            }
+                        }
+                    });
+
+            // Release threads when the repository is idle
+            _executor.allowCoreThreadTimeOut(true);
+        }
+
+        void execute(final Runnable task) {
+            final long submittedAt = System.nanoTime();
+            _executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        recordLatency(System.nanoTime() - submittedAt);
+                    }
+                }
+            });
+        }
+
+        synchronized void recordLatency(long nanoseconds) {
+            double milliseconds = nanoseconds / 1000000.0;
+            _latency = (_latency == 0 ? milliseconds : _latency + LATENCY_SMOOTHING * (milliseconds - _latency));
+        }
+
+        synchronized double getLatency() {
+            return _latency;
+        }
+
+        int getQueueDepth() {
+            return _executor.getQueue().size();
+        }
+
+        int getThreadCount() {
+            return _threadCount;
+        }
+
+        void shutdown() {
+            _executor.shutdown();
+        }
+    }
+}
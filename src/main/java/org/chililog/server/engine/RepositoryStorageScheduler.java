@@ -0,0 +1,303 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.RepositoryConfigBO;
+
+/**
+ * <p>
+ * Pool of threads shared by all repositories for processing messages pushed to {@link RepositoryStorageConsumer}s.
+ * The number of threads is fixed by <code>storage.async.thread_pool.size</code> in <code>app.properties</code> and does
+ * not grow with the number of repositories or storage workers.
+ * </p>
+ *
+ * <pre>
+ * RepositoryStorageScheduler.getInstance().schedule(repo, task, 100);
+ * </pre>
+ *
+ * <p>
+ * Each repository has its own lane of tasks. Lanes that have tasks waiting are serviced in round robin order. Each time
+ * a lane reaches the head of the queue, one of its tasks is handed out and the lane goes to the back of the queue.
+ * This stops a busy repository from starving quiet ones, and means that a repository's share does not depend on how
+ * many storage consumers it has. A task is one turn: {@link RepositoryStorageConsumer} processes up to
+ * {@link RepositoryConfigBO#getStorageQueueWeight()} batches per task so that a repository's share of the threads
+ * follows its weight.
+ * </p>
+ * <p>
+ * There is no per repository thread budget. Any idle thread takes the next task from whichever lane is at the head of
+ * the queue, so a busy repository can use all threads when other repositories are quiet.
+ * </p>
+ * <p>
+ * The pool is started when the first task is scheduled.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryStorageScheduler {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryStorageScheduler.class);
+
+    private final Object _lock = new Object();
+    private HashMap<String, Lane> _lanes = new HashMap<String, Lane>();
+    private LinkedList<Lane> _readyLanes = new LinkedList<Lane>();
+    private ArrayList<Thread> _threads = null;
+    private ScheduledThreadPoolExecutor _timer = null;
+    private boolean _isRunning = false;
+    private int _generation = 0;
+    private int _threadCount = 0;
+
+    /**
+     * Returns the singleton instance for this class
+     */
+    public static RepositoryStorageScheduler getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * SingletonHolder is loaded on the first execution of Singleton.getInstance() or the first access to
+     * SingletonHolder.INSTANCE, not before.
+     *
+     * @see http://en.wikipedia.org/wiki/Singleton_pattern
+     */
+    private static class SingletonHolder {
+
+        public static final RepositoryStorageScheduler INSTANCE = new RepositoryStorageScheduler();
+    }
+
+    /**
+     * <p>
+     * Singleton constructor
+     * </p>
+     */
+    private RepositoryStorageScheduler() {
+        return;
+    }
+
+    /**
+     * Runs a task for a repository after the specified delay
+     *
+     * @param repo
+     *            Repository for which the task is to be run
+     * @param task
+     *            Task to run
+     * @param delayMilliseconds
+     *            Number of milliseconds to wait before queuing the task. 0 to queue the task immediately.
+     * @return Generation of the scheduler that will run the task. See {@link #getGeneration()}.
+     */
+    int schedule(final Repository repo, final Runnable task, long delayMilliseconds) {
+        synchronized (_lock) {
+            if (!_isRunning) {
+                start();
+            }
+            if (delayMilliseconds <= 0) {
+                enqueue(repo.getRepoConfig(), task);
+                return _generation;
+            }
+            _timer.schedule(new Runnable() {
+                public void run() {
+                    synchronized (_lock) {
+                        if (_isRunning) {
+                            enqueue(repo.getRepoConfig(), task);
+                        }
+                    }
+                }
+            }, delayMilliseconds, TimeUnit.MILLISECONDS);
+            return _generation;
+        }
+    }
+
+    /**
+     * Returns a number that changes each time the scheduler is started. Tasks that are waiting when the scheduler is
+     * stopped are discarded, so callers that only schedule a task when they do not already have one waiting can
+     * compare generations to find out if their task has been discarded.
+     * 
+     * @return Generation of the running scheduler. 0 if the scheduler is not running.
+     */
+    int getGeneration() {
+        synchronized (_lock) {
+            return _isRunning ? _generation : 0;
+        }
+    }
+
+    /**
+     * Sets the number of threads to use the next time the scheduler is started. For testing.
+     * 
+     * @param threadCount
+     *            Number of threads. 0 to use <code>storage.async.thread_pool.size</code>.
+     */
+    void setThreadCount(int threadCount) {
+        synchronized (_lock) {
+            _threadCount = threadCount;
+        }
+    }
+
+    /**
+     * Adds a task to the end of a repository's lane. Must be called while holding the lock.
+     */
+    private void enqueue(RepositoryConfigBO repoConfig, Runnable task) {
+        Lane lane = _lanes.get(repoConfig.getName());
+        if (lane == null) {
+            lane = new Lane();
+            _lanes.put(repoConfig.getName(), lane);
+        }
+        lane.tasks.addLast(task);
+
+        if (!lane.isReady) {
+            lane.isReady = true;
+            _readyLanes.addLast(lane);
+            _lock.notify();
+        }
+    }
+
+    /**
+     * Waits for and returns the next task to run. Returns null if the threads of this generation are to stop.
+     */
+    private Runnable dequeue(int generation) throws InterruptedException {
+        synchronized (_lock) {
+            while (_isRunning && _generation == generation && _readyLanes.isEmpty()) {
+                _lock.wait();
+            }
+            if (!_isRunning || _generation != generation) {
+                return null;
+            }
+
+            // One task per turn, then go to the back of the queue
+            Lane lane = _readyLanes.removeFirst();
+            Runnable task = lane.tasks.removeFirst();
+            if (lane.tasks.isEmpty()) {
+                lane.isReady = false;
+            } else {
+                _readyLanes.addLast(lane);
+            }
+
+            // Wake up another thread if there is more work
+            if (!_readyLanes.isEmpty()) {
+                _lock.notify();
+            }
+            return task;
+        }
+    }
+
+    /**
+     * Starts the threads. Must be called while holding the lock.
+     */
+    private void start() {
+        int threadCount = Math.max(1, _threadCount > 0 ? _threadCount : AppProperties.getInstance()
+                .getStorageAsyncThreadPoolSize());
+        final int generation = ++_generation;
+        _isRunning = true;
+
+        _timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StorageScheduler Timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        _threads = new ArrayList<Thread>(threadCount);
+        for (int i = 1; i <= threadCount; i++) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    runTasks(generation);
+                }
+            }, "StorageScheduler #" + i);
+            t.setDaemon(true);
+            t.start();
+            _threads.add(t);
+        }
+
+        _logger.info("Repository storage scheduler started with %s threads.", threadCount);
+    }
+
+    /**
+     * Thread loop
+     */
+    private void runTasks(int generation) {
+        while (true) {
+            Runnable task;
+            try {
+                task = dequeue(generation);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                _logger.error(ex, "Repository storage scheduler task error. %s", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting to be run
+     */
+    public int getQueuedTaskCount() {
+        synchronized (_lock) {
+            int count = 0;
+            for (Lane lane : _readyLanes) {
+                count += lane.tasks.size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Stops the pool after running tasks have completed. Tasks waiting to be run, including delayed tasks, are
+     * discarded. See {@link #getGeneration()}.
+     */
+    public void stop() {
+        synchronized (_lock) {
+            if (!_isRunning) {
+                return;
+            }
+            _isRunning = false;
+            _timer.shutdown();
+            _timer = null;
+            _readyLanes.clear();
+            _lanes.clear();
+            _threads = null;
+            _lock.notifyAll();
+        }
+        _logger.info("Repository storage scheduler stopped.");
+    }
+
+    /**
+     * Tasks waiting to be run for a repository
+     */
+    private static class Lane {
+        LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        boolean isReady = false;
+    }
+}
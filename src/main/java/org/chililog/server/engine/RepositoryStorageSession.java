@@ -0,0 +1,271 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.util.List;
+
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.MongoConnection;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryController;
+import org.chililog.server.engine.parsers.EntryParserRouter;
+import org.hornetq.api.core.Message;
+import org.hornetq.api.core.client.ClientConsumer;
+import org.hornetq.api.core.client.ClientMessage;
+import org.hornetq.api.core.client.ClientProducer;
+import org.hornetq.api.core.client.ClientSession;
+import org.hornetq.api.core.client.MessageHandler;
+
+import com.mongodb.DB;
+
+/**
+ * <p>
+ * A transactional session on a repository's storage queue. Batches of messages received from the queue are parsed,
+ * written to mongoDB and then committed.
+ * </p>
+ * <p>
+ * This is shared by {@link RepositoryStorageWorker}, which polls the storage queue in its own thread, and
+ * {@link RepositoryStorageConsumer}, which has messages pushed to it.
+ * </p>
+ * <p>
+ * Like HornetQ sessions, this class is NOT designed for multi-threaded use. Only one thread may process a batch at a
+ * time.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+class RepositoryStorageSession {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryStorageSession.class);
+    private String _name;
+    private Repository _repo;
+    private String _deadLetterAddress;
+    private EntryParserRouter _parsers;
+
+    private DB _db = null;
+    private RepositoryEntryController _controller = null;
+    private RepositoryStoragePipeline _pipeline = null;
+    private RepositoryTemplateMiner _templateMiner = null;
+    private ClientSession _session = null;
+    private ClientConsumer _consumer = null;
+    private ClientProducer _dlqProducer = null;
+    private volatile boolean _isStopped = false;
+
+    /**
+     * Constructor
+     * 
+     * @param name
+     *            Name of the worker or consumer that owns this session. Used for logging.
+     * @param repo
+     *            Repository that we are writing
+     * @throws Exception
+     *             if the repository parsers cannot be created
+     */
+    RepositoryStorageSession(String name, Repository repo) throws Exception {
+        _name = name;
+        _repo = repo;
+        _deadLetterAddress = AppProperties.getInstance().getMqDeadLetterAddress();
+        _parsers = new EntryParserRouter(repo.getRepoConfig());
+    }
+
+    /**
+     * Connects to mongoDB and opens a transactional session on the storage queue
+     * 
+     * @param handler
+     *            If not null, messages will be pushed to this handler. If null, messages have to be received from
+     *            {@link #getConsumer()}.
+     * @throws Exception
+     */
+    void open(MessageHandler handler) throws Exception {
+        RepositoryConfigBO repoConfig = _repo.getRepoConfig();
+        _db = MongoConnection.getInstance().getConnection();
+        _controller = RepositoryEntryController.getInstance(repoConfig);
+        _pipeline = _repo.getStoragePipeline();
+        _templateMiner = _repo.getTemplateMiner();
+
+        _session = MqService.getInstance().getTransactionalSystemClientSession();
+        _consumer = _session.createConsumer(repoConfig.getStorageQueueName());
+        if (handler != null) {
+            _consumer.setMessageHandler(handler);
+        }
+        _dlqProducer = (_deadLetterAddress == null ? null : _session.createProducer(_deadLetterAddress));
+        _session.start();
+    }
+
+    /**
+     * Returns the consumer of the storage queue
+     */
+    ClientConsumer getConsumer() {
+        return _consumer;
+    }
+
+    /**
+     * Returns true if the session has been stopped and messages delivered to the message handler are going to be
+     * redelivered.
+     */
+    boolean isStopped() {
+        return _isStopped;
+    }
+
+    /**
+     * <p>
+     * Parses a batch of messages and writes the resulting entries to the database in one go. The messages are then
+     * removed from the storage queue with a single commit. Entries that cannot be parsed or written are moved to the
+     * dead letter queue.
+     * </p>
+     * <p>
+     * The commit only happens after the write has returned; i.e. after the repository's write durability guarantee
+     * holds. With <code>SAFE</code> or <code>JOURNAL_SAFE</code>, messages stay on the queue until mongoDB has
+     * acknowledged the write. With <code>NONE</code> or <code>NORMAL</code>, messages are removed as soon as the
+     * entries have been sent.
+     * </p>
+     * <p>
+     * If we lose our database connection, the session is stopped and rolled back so that all delivered messages are
+     * delivered again. {@link #restart()} must be called to resume delivery.
+     * </p>
+     * 
+     * @param batch
+     *            Messages to process
+     * @return true if the batch was committed, false if it was rolled back
+     */
+    boolean processBatch(List<ClientMessage> batch) {
+        try {
+            // Parse and save entries
+            RepositoryStorageBatch storageBatch = new RepositoryStorageBatch(_name, batch, _templateMiner);
+            if (_pipeline != null) {
+                _pipeline.process(storageBatch);
+            } else {
+                storageBatch.parse(_parsers);
+                storageBatch.write(_db, _controller);
+            }
+
+            // Commit messages so that we remove them form the queue
+            for (ClientMessage messageReceived : batch) {
+                messageReceived.acknowledge();
+            }
+            _session.commit();
+            _logger.debug("RepositoryStorageWorker '%s' processed batch of %s messages", _name, batch.size());
+
+            // Messages that could not be parsed or saved are added to dead letter queue.
+            // Do it after session.commit() because adding to DLA requires another commit
+            // and we want to flag the original message as having been processed so it is not re-processed
+            boolean hasDeadLetters = false;
+            for (RepositoryStorageBatch.Item item : storageBatch.getItems()) {
+                if (item.isFailed()) {
+                    _logger.error("RepositoryStorageWorker '%s' error processing message id %s: '%s'. "
+                            + "Moved message to dead letter queue. Reason: %s.", _name,
+                            item.getMessage().getMessageID(), item.getText(), item.getDeadLetterReason());
+
+                    addToDeadLetterQueue(item.getText(), item.getDeadLetterReason(), item.getError());
+                    hasDeadLetters = true;
+                }
+            }
+            if (hasDeadLetters && _dlqProducer != null) {
+                _session.commit();
+            }
+            return true;
+        } catch (Exception ex) {
+            // This exception really should only be for mongoDB write errors
+
+            // Rollback and try delivery again (just in case we have bad DB connection or other)
+            // We want to ack the message so that we don't get in an endless try again loop
+            // Without ack, message delivery count does not get incremented!
+            try {
+                _isStopped = true;
+                _session.stop();
+                for (ClientMessage messageReceived : batch) {
+                    messageReceived.acknowledge();
+                }
+                _session.rollback();
+            } catch (Exception ex2) {
+                _logger.error(ex2, "RepositoryStorageWorker '%s' rollback error. %s", _name, ex2.getMessage());
+            }
+
+            String msg = null;
+            msg = "This is delivery attempt # " + batch.get(0).getDeliveryCount();
+            _logger.error(ex, "RepositoryStorageWorker '%s' processing error. %s. %s", _name, ex.getMessage(), msg);
+            return false;
+        }
+    }
+
+    /**
+     * Resumes delivery of messages after a batch has been rolled back
+     * 
+     * @throws Exception
+     */
+    void restart() throws Exception {
+        _session.start();
+        _isStopped = false;
+    }
+
+    /**
+     * Stops the delivery of messages. If a message handler is set, waits for it to finish.
+     * 
+     * @throws Exception
+     */
+    void stop() throws Exception {
+        _isStopped = true;
+        if (_session != null) {
+            _session.stop();
+        }
+    }
+
+    /**
+     * Closes the session. Messages that have been delivered but not committed are returned to the storage queue.
+     */
+    void close() {
+        MqService.getInstance().closeClientSession(_session);
+        _session = null;
+    }
+
+    /**
+     * Write a message to the dead letter queue. The caller is responsible for committing the session.
+     * 
+     * @param textEntry
+     * @param reason
+     *            Code for the reason the entry failed; e.g.
+     *            {@link RepositoryStorageBatch#DEAD_LETTER_REASON_REGEX_TIMEOUT}
+     * @param ex
+     */
+    private void addToDeadLetterQueue(String textEntry, String reason, Exception ex) {
+        try {
+            if (_dlqProducer == null) {
+                return;
+            }
+
+            ClientMessage message = _session.createMessage(Message.TEXT_TYPE, false);
+
+            // Special property to identify original address
+            // See http://docs.jboss.org/hornetq/2.2.2.Final/user-manual/en/html_single/index.html#d0e4430
+            message.putStringProperty("_HQ_ORIG_ADDRESS", _repo.getRepoConfig().getPubSubAddress());
+
+            message.putStringProperty("RepositoryStorageWorker", _name);
+            message.putStringProperty("DeadLetterReason", reason == null ? "" : reason);
+            message.putStringProperty("ParseException", ex == null ? "" : ex.toString());
+            message.getBodyBuffer().writeString(textEntry);
+            _dlqProducer.send(message);
+        } catch (Exception ex2) {
+            // Just log can continue
+            _logger.error(ex2, "RepositoryStorageWorker '%s' could not add message to dead letter queue error. %s",
+                    _name, ex2.getMessage());
+        }
+    }
+}
@@ -21,29 +21,29 @@ package org.chililog.server.engine;
 import java.util.ArrayList;
 
 import org.apache.commons.lang.NullArgumentException;
-import org.chililog.server.common.AppProperties;
 import org.chililog.server.common.Log4JLogger;
-import org.chililog.server.data.MongoConnection;
-import org.chililog.server.data.RepositoryEntryBO;
-import org.chililog.server.data.RepositoryEntryController;
-import org.chililog.server.data.RepositoryParserConfigBO;
-import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
-import org.chililog.server.engine.parsers.EntryParser;
-import org.chililog.server.engine.parsers.EntryParserFactory;
-import org.hornetq.api.core.Message;
-import org.hornetq.api.core.SimpleString;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.client.ClientConsumer;
 import org.hornetq.api.core.client.ClientMessage;
-import org.hornetq.api.core.client.ClientProducer;
-import org.hornetq.api.core.client.ClientSession;
-
-import com.mongodb.DB;
 
 /**
  * <p>
  * The RepositoryStorageWorker runs as a worker thread that reading entries off the message queue, parses them and
  * writes them to mongoDB.
  * </p>
+ * <p>
+ * Entries are processed in batches of up to {@link RepositoryConfigBO#getStorageQueueBatchSize()} messages. Each batch
+ * is written with a single mongoDB insert and removed from the queue with a single commit.
+ * </p>
+ * <p>
+ * If the repository has a {@link RepositoryStoragePipeline}, this thread only receives and commits messages. Parsing
+ * and writing is handed off to the pipeline's stages.
+ * </p>
+ * <p>
+ * Storage workers are only used when asynchronous consumption is disabled. Otherwise, see
+ * {@link RepositoryStorageConsumer}.
+ * </p>
  * 
  * @author vibul
  * 
@@ -52,12 +52,10 @@ public class RepositoryStorageWorker extends Thread {
 
     private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryStorageWorker.class);
     private Repository _repo = null;
-    private String _deadLetterAddress = null;
     private boolean _stopRunning = false;
     private boolean _isRunning = false;
 
-    private ArrayList<EntryParser> _filteredParsers = new ArrayList<EntryParser>();
-    private EntryParser _catchAllParser = null;
+    private RepositoryStorageSession _storageSession = null;
 
     /**
      * 
@@ -77,21 +75,7 @@ public class RepositoryStorageWorker extends Thread {
             throw new NullArgumentException("repo");
         }
         _repo = repo;
-        _deadLetterAddress = AppProperties.getInstance().getMqDeadLetterAddress();
-
-        // Load parsers
-        for (RepositoryParserConfigBO repoParserInfo : repo.getRepoConfig().getParsers()) {
-            if (repoParserInfo.getAppliesTo() == AppliesTo.All) {
-                _catchAllParser = EntryParserFactory.getParser(repo.getRepoConfig(), repoParserInfo);
-            } else if (repoParserInfo.getAppliesTo() != AppliesTo.None) {
-                _filteredParsers.add(EntryParserFactory.getParser(repo.getRepoConfig(), repoParserInfo));
-            }
-        }
-
-        // If there is no catch all, then set it to the default one (that does no parsing)
-        if (_catchAllParser == null) {
-            _catchAllParser = EntryParserFactory.getDefaultParser(repo.getRepoConfig());
-        }
+        _storageSession = new RepositoryStorageSession(name, repo);
 
         return;
     }
@@ -108,76 +92,23 @@ public class RepositoryStorageWorker extends Thread {
         _logger.info("RepositoryStorageWorker '%s' started", this.getName());
         _stopRunning = false;
         _isRunning = true;
-        DB db = null;
-        ClientSession session = null;
-        RepositoryEntryController controller = RepositoryEntryController.getInstance(_repo.getRepoConfig());
+        RepositoryConfigBO repoConfig = _repo.getRepoConfig();
 
         try {
-            db = MongoConnection.getInstance().getConnection();
+            _storageSession.open(null);
+            ClientConsumer messageConsumer = _storageSession.getConsumer();
 
-            session = MqService.getInstance().getTransactionalSystemClientSession();
-            ClientConsumer messageConsumer = session.createConsumer(_repo.getRepoConfig().getStorageQueueName());
-            session.start();
-
-            ClientProducer dlqProducer = (_deadLetterAddress == null ? null : session
-                    .createProducer(_deadLetterAddress));
+            int batchSize = (int) Math.max(1, repoConfig.getStorageQueueBatchSize());
+            long batchLinger = Math.max(0, repoConfig.getStorageQueueBatchLinger());
+            ArrayList<ClientMessage> batch = new ArrayList<ClientMessage>(batchSize);
 
             while (true) {
-                // Wait (sleep) 1/2 second for messages
-                ClientMessage messageReceived = messageConsumer.receive(500);
-                if (messageReceived != null) {
-                    try {
-                        String ts = messageReceived.getStringProperty(RepositoryEntryMqMessage.TIMESTAMP);
-                        String source = messageReceived.getStringProperty(RepositoryEntryMqMessage.SOURCE);
-                        String host = messageReceived.getStringProperty(RepositoryEntryMqMessage.HOST);
-                        String severity = messageReceived.getStringProperty(RepositoryEntryMqMessage.SEVERITY);
-                        String fields = messageReceived.getStringProperty(RepositoryEntryMqMessage.FIELDS);
-                        SimpleString messageSimpleString = messageReceived.getBodyBuffer().readNullableSimpleString();
-                        String message = "";
-                        if (messageSimpleString != null) {
-                            message = messageSimpleString.toString();
-                        }
-
-                        // Parse message
-                        EntryParser entryParser = getParser(source, host);
-                        RepositoryEntryBO repoEntry = entryParser.parse(ts, source, host, severity, fields, message);
-
-                        // Save message
-                        if (repoEntry != null) {
-                            controller.save(db, repoEntry);
-                            _logger.debug("RepositoryStorageWorker '%s' processed message id %s: %s", this.getName(),
-                                    messageReceived.getMessageID(), message);
-                        }
-
-                        // Commit message so that we remove it form the queue
-                        messageReceived.acknowledge();
-                        session.commit();
-
-                        // Message could not be parsed so add to dead letter queue
-                        // Do it after session.commit() because adding to DLA requires another commit
-                        // and we want to flag the original message as having been processed so it is not re-processed
-                        if (repoEntry == null) {
-                            // Cannot parse. Commit and add to Dead Letter Queue with the error
-                            _logger.error("RepositoryStorageWorker '%s' parse error processing message id %s: '%s'. "
-                                    + "Moved message to dead letter queue.", this.getName(),
-                                    messageReceived.getMessageID(), message);
-
-                            addToDeadLetterQueue(session, dlqProducer, message, entryParser.getLastParseError());
-                        }
-                    } catch (Exception ex) {
-                        // This exception really should only be for mongoDB write errors
-
-                        // Rollback and try delivery again (just in case we have bad DB connection or other)
-                        // We want to ack the message so that we don't get in an endless try again loop
-                        // Without ack, message delivery count does not get incremented!
-                        messageReceived.acknowledge();
-                        session.rollback();
-
-                        String msg = null;
-                        msg = "This is delivery attempt # " + messageReceived.getDeliveryCount();
-                        _logger.error(ex, "RepositoryStorageWorker '%s' processing error. %s. %s", this.getName(),
-                                ex.getMessage(), msg);
+                receiveBatch(messageConsumer, batch, batchSize, batchLinger);
+                if (!batch.isEmpty()) {
+                    if (!_storageSession.processBatch(batch)) {
+                        _storageSession.restart();
                     }
+                    batch.clear();
                 }
 
                 // See if we want to quit
@@ -198,58 +129,43 @@ public class RepositoryStorageWorker extends Thread {
             _logger.error(ex, "RepositoryStorageWorker '%s' error. %s", this.getName(), ex.getMessage());
         } finally {
             _isRunning = false;
-            MqService.getInstance().closeClientSession(session);
+            _storageSession.close();
         }
     }
 
     /**
-     * Figure out which parser to use
+     * Waits for messages to arrive and collects them into a batch. We wait (sleep) up to 1/2 second for the first
+     * message. Once the first message has arrived, we keep collecting messages until the batch is full or the linger
+     * time has passed.
      * 
-     * @param source
-     *            Application or service that created the log entry
-     * @param host
-     *            Device or machine name or IP address that the source is running on
-     * @return Entry parser to use. Null if no parser found.
+     * @param messageConsumer
+     *            Consumer of the storage queue
+     * @param batch
+     *            List into which received messages are to be placed
+     * @param batchSize
+     *            Maximum number of messages in a batch
+     * @param batchLinger
+     *            Number of milliseconds to wait for the batch to fill up
+     * @throws HornetQException
      */
-    private EntryParser getParser(String source, String host) {
-        for (EntryParser p : _filteredParsers) {
-            if (p.isApplicable(source, host)) {
-                return p;
-            }
+    private void receiveBatch(ClientConsumer messageConsumer,
+                              ArrayList<ClientMessage> batch,
+                              int batchSize,
+                              long batchLinger) throws HornetQException {
+        ClientMessage messageReceived = messageConsumer.receive(500);
+        if (messageReceived == null) {
+            return;
         }
+        batch.add(messageReceived);
 
-        return _catchAllParser;
-    }
-
-    /**
-     * Write a message to the dead letter queue
-     * 
-     * @param session
-     * @param dlqProducer
-     * @param textEntry
-     * @param ex
-     */
-    private void addToDeadLetterQueue(ClientSession session, ClientProducer dlqProducer, String textEntry, Exception ex) {
-        try {
-            if (dlqProducer == null) {
+        long lingerUntil = System.currentTimeMillis() + batchLinger;
+        while (batch.size() < batchSize) {
+            long wait = lingerUntil - System.currentTimeMillis();
+            messageReceived = (wait > 0 ? messageConsumer.receive(wait) : messageConsumer.receiveImmediate());
+            if (messageReceived == null) {
                 return;
             }
-
-            ClientMessage message = session.createMessage(Message.TEXT_TYPE, false);
-
-            // Special property to identify original address
-            // See http://docs.jboss.org/hornetq/2.2.2.Final/user-manual/en/html_single/index.html#d0e4430
-            message.putStringProperty("_HQ_ORIG_ADDRESS", _repo.getRepoConfig().getPubSubAddress());
-
-            message.putStringProperty("RepositoryStorageWorker", this.getName());
-            message.putStringProperty("ParseException", ex.toString());
-            message.getBodyBuffer().writeString(textEntry);
-            dlqProducer.send(message);
-            session.commit();
-        } catch (Exception ex2) {
-            // Just log can continue
-            _logger.error(ex2, "RepositoryStorageWorker '%s' could not add message to dead letter queue error. %s",
-                    this.getName(), ex2.getMessage());
+            batch.add(messageReceived);
         }
     }
 
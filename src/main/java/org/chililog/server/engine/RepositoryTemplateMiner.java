@@ -0,0 +1,676 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.common.TextTokenizer;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryBO;
+import org.chililog.server.data.RepositoryTemplateController;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * Groups log messages into templates as they are stored. Messages such as <code>User 12 logged in from 10.0.0.1</code>
+ * and <code>User 34 logged in from 10.0.0.2</code> share the template <code>User &lt;*&gt; logged in from
+ * &lt;*&gt;</code>. Each entry is tagged with the id of its template.
+ * </p>
+ * <p>
+ * Templates change as messages are mined; tokens become wildcards. Each change is a new version of the template.
+ * Entries are stored with the template version they were mined against and the tokens matching its wildcards instead
+ * of their message. The message is rebuilt from the template version when the entry is read. The keywords of the
+ * constant tokens are stored once with the template version rather than with every entry. Messages that cannot be
+ * rebuilt exactly (e.g. they have tabs or repeated spaces) are stored as is and only tagged with their template id.
+ * </p>
+ * <p>
+ * This is an online version of the Drain algorithm (He et al, "Drain: An Online Log Parsing Approach with Fixed Depth
+ * Tree", ICWS 2017):
+ * </p>
+ * <ol>
+ * <li>The message is split into tokens on whitespace.</li>
+ * <li>Templates are looked up in a tree. The first level is the number of tokens. The next {@link #PREFIX_DEPTH}
+ * levels are the leading tokens of the message. Tokens containing digits are likely to be variables so they are
+ * routed to a &lt;*&gt; branch.</li>
+ * <li>The message is compared with each template in the leaf. Similarity is the share of tokens that are equal to the
+ * template's constant tokens. The most similar template is used if its similarity is at least
+ * {@link #SIMILARITY_THRESHOLD}. Tokens that differ from the template become wildcards.</li>
+ * <li>If no template is similar enough, the message becomes a new template.</li>
+ * </ol>
+ * <p>
+ * Templates are shared by all storage threads of a repository. The tree is locked only while finding a leaf. Matching
+ * and updating templates locks the leaf so that messages with different lengths or leading tokens can be mined in
+ * parallel. New template versions are saved to {@link RepositoryConfigBO#getMongoDBTemplateCollectionName()} by
+ * {@link #save(DB)} before the entries that use them are written. A count of written entries is kept for each
+ * template and periodically added to the same collection. Templates are loaded from this collection when the
+ * repository is brought online so that template ids and versions stay the same across restarts.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryTemplateMiner {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RepositoryTemplateMiner.class);
+
+    /**
+     * Token that marks the variable parts of a template
+     */
+    public static final String WILDCARD = RepositoryTemplateController.WILDCARD;
+
+    /**
+     * Number of leading tokens used to look up templates in the tree
+     */
+    static final int PREFIX_DEPTH = 2;
+
+    /**
+     * Minimum share of tokens that must equal a template's constant tokens for a message to match the template
+     */
+    static final double SIMILARITY_THRESHOLD = 0.5;
+
+    /**
+     * Maximum number of branches of a tree node. Once reached, new tokens are routed to the &lt;*&gt; branch so that
+     * high cardinality tokens cannot blow up the tree.
+     */
+    static final int MAX_CHILDREN = 100;
+
+    /**
+     * Maximum number of templates. Once reached, messages that do not match an existing template are stored without a
+     * template.
+     */
+    static final int MAX_TEMPLATES = 10000;
+
+    /**
+     * Minimum number of milliseconds between writes of template counts to the database
+     */
+    static final long FLUSH_INTERVAL_MILLISECONDS = 1000;
+
+    private String _repoName;
+    private long _maxKeywords;
+    private RepositoryTemplateController _controller;
+    private TextTokenizer _tokenizer;
+    private HashMap<Integer, Node> _root = new HashMap<Integer, Node>();
+    private HashMap<Long, Template> _templates = new HashMap<Long, Template>();
+    private ArrayList<TemplateVersion> _unsavedVersions = new ArrayList<TemplateVersion>();
+    private final Object _saveLock = new Object();
+    private long _nextId = 1;
+    private long _lastFlush = 0;
+    private boolean _maxTemplatesLogged = false;
+
+    /**
+     * Constructor
+     *
+     * @param repoConfig
+     *            Repository meta data
+     */
+    public RepositoryTemplateMiner(RepositoryConfigBO repoConfig) {
+        if (repoConfig == null) {
+            throw new NullArgumentException("repoConfig");
+        }
+        _repoName = repoConfig.getName();
+        _maxKeywords = repoConfig.getStorageMaxKeywords();
+        _controller = RepositoryTemplateController.getInstance(repoConfig);
+        _tokenizer = TextTokenizer.getInstance();
+    }
+
+    /**
+     * Loads the templates previously stored for the repository
+     *
+     * @param db
+     *            mongoDB connection
+     * @throws ChiliLogException
+     *             if there is a database error
+     */
+    public void load(DB db) throws ChiliLogException {
+        _controller.ensureIndexes(db);
+        for (DBObject o : _controller.getTopTemplates(db, MAX_TEMPLATES)) {
+            long id = ((Number) o.get(RepositoryTemplateController.ID_FIELD_NAME)).longValue();
+            String text = (String) o.get(RepositoryTemplateController.TEMPLATE_FIELD_NAME);
+            Object version = o.get(RepositoryTemplateController.VERSION_FIELD_NAME);
+            if (text == null || !(version instanceof Number)) {
+                // Only counted; never saved
+                continue;
+            }
+            String[] tokens = tokenize(text).toArray(new String[] {});
+            Node leaf = getLeaf(Arrays.asList(tokens));
+            synchronized (leaf) {
+                Template template = new Template(id, tokens, leaf, ((Number) version).longValue());
+                leaf._templates.add(template);
+                synchronized (this) {
+                    _templates.put(id, template);
+                    _nextId = Math.max(_nextId, id + 1);
+                }
+            }
+        }
+        _logger.info("Repository '%s' loaded %s message templates.", _repoName, getTemplateCount());
+    }
+
+    /**
+     * <p>
+     * Finds or creates the template of an entry's message and sets the entry's template id. If the maximum number of
+     * templates has been reached and the message does not match an existing template, the entry is left without a
+     * template.
+     * </p>
+     * <p>
+     * If the message can be rebuilt from its tokens, the entry's template version and variables are also set. The
+     * entry's keywords are cut down to the keywords of the variables plus the source, host and severity keywords.
+     * </p>
+     *
+     * @param entry
+     *            Entry to update
+     */
+    public void mine(RepositoryEntryBO entry) {
+        String message = entry.getMessage();
+        ArrayList<String> tokens = tokenize(message);
+        ArrayList<String> variables = isNormalized(message) ? new ArrayList<String>() : null;
+        TemplateVersion version = mine(tokens, variables);
+        if (version == null) {
+            return;
+        }
+        entry.setTemplateId(version.getId());
+        if (variables == null) {
+            return;
+        }
+
+        try {
+            entry.setKeywords(getVariableKeywords(variables, entry.getKeywords()));
+        } catch (IOException ex) {
+            // Keep the message and all its keywords
+            return;
+        }
+        entry.setTemplateVersion(version.getVersion());
+        entry.setTemplateVariables(variables);
+    }
+
+    /**
+     * Finds or creates the template for a tokenized message
+     *
+     * @param tokens
+     *            Tokens of the message
+     * @param variables
+     *            If not null, filled with the tokens that match the wildcards of the template
+     * @return Version of the template against which the message was mined. Null if there is no template for the
+     *         message.
+     */
+    TemplateVersion mine(ArrayList<String> tokens, ArrayList<String> variables) {
+        // Lock order is leaf then miner
+        Node leaf = getLeaf(tokens);
+        synchronized (leaf) {
+            Template best = null;
+            double bestSimilarity = -1;
+            int bestWildcards = -1;
+            for (Template template : leaf._templates) {
+                double similarity = template.getSimilarity(tokens);
+                int wildcards = template.getWildcardCount();
+                if (similarity > bestSimilarity || (similarity == bestSimilarity && wildcards > bestWildcards)) {
+                    best = template;
+                    bestSimilarity = similarity;
+                    bestWildcards = wildcards;
+                }
+            }
+
+            if (best != null && bestSimilarity >= SIMILARITY_THRESHOLD) {
+                if (best.merge(tokens)) {
+                    synchronized (this) {
+                        _unsavedVersions.add(best.getCurrentVersion());
+                    }
+                }
+            } else {
+                synchronized (this) {
+                    if (_templates.size() >= MAX_TEMPLATES) {
+                        if (!_maxTemplatesLogged) {
+                            _logger.warn("Repository '%s' has reached the maximum of %s message templates. "
+                                    + "New messages will be stored without a template.", _repoName, MAX_TEMPLATES);
+                            _maxTemplatesLogged = true;
+                        }
+                        return null;
+                    }
+                    best = new Template(_nextId++, tokens.toArray(new String[] {}), leaf, 1);
+                    _templates.put(best.getId(), best);
+                    _unsavedVersions.add(best.getCurrentVersion());
+                }
+                leaf._templates.add(best);
+            }
+
+            if (variables != null) {
+                best.getVariables(tokens, variables);
+            }
+            return best.getCurrentVersion();
+        }
+    }
+
+    /**
+     * Returns the keywords to store with an entry whose message is stored as template variables
+     *
+     * @param variables
+     *            Variables of the message
+     * @param keywords
+     *            Keywords of the whole message. Source, host and severity keywords are kept.
+     * @return Keywords of the variables plus the source, host and severity keywords
+     * @throws IOException
+     */
+    private ArrayList<String> getVariableKeywords(ArrayList<String> variables, ArrayList<String> keywords)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String variable : variables) {
+            sb.append(variable).append(' ');
+        }
+        ArrayList<String> variableKeywords = _tokenizer.tokenize(sb.toString(), _maxKeywords);
+
+        // See EntryParser.parseKeywords()
+        if (keywords != null) {
+            for (String keyword : keywords) {
+                if (keyword.length() >= 2 && keyword.charAt(1) == '='
+                        && (keyword.charAt(0) == 's' || keyword.charAt(0) == 'h' || keyword.charAt(0) == 'v')) {
+                    variableKeywords.add(keyword);
+                }
+            }
+        }
+        return variableKeywords;
+    }
+
+    /**
+     * Saves new template versions to the database. Must be called before writing entries that use them; otherwise, the
+     * messages of the entries cannot be rebuilt.
+     *
+     * @param db
+     *            mongoDB connection
+     * @throws ChiliLogException
+     *             if a version could not be saved. Versions that have not been saved are saved on the next call.
+     */
+    public void save(DB db) throws ChiliLogException {
+        // Only one thread saves at a time so that another thread does not write entries while versions are being saved
+        synchronized (_saveLock) {
+            ArrayList<TemplateVersion> versions;
+            synchronized (this) {
+                if (_unsavedVersions.isEmpty()) {
+                    return;
+                }
+                versions = _unsavedVersions;
+                _unsavedVersions = new ArrayList<TemplateVersion>();
+            }
+
+            for (int i = 0; i < versions.size(); i++) {
+                TemplateVersion version = versions.get(i);
+                try {
+                    _controller.saveVersion(db, version.getId(), version.getVersion(), version.getText(),
+                            getConstantKeywords(version.getText()));
+                } catch (Exception ex) {
+                    // Versions must be saved in order
+                    synchronized (this) {
+                        _unsavedVersions.addAll(0, versions.subList(i, versions.size()));
+                    }
+                    throw new ChiliLogException(ex, Strings.SAVE_TEMPLATE_ERROR, version.getId(), _repoName,
+                            ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the keywords of the constant tokens of a template
+     */
+    private ArrayList<String> getConstantKeywords(String text) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String token : tokenize(text)) {
+            if (!token.equals(WILDCARD)) {
+                sb.append(token).append(' ');
+            }
+        }
+        return _tokenizer.tokenize(sb.toString(), _maxKeywords);
+    }
+
+    /**
+     * Adds written entries to the counts of their templates
+     *
+     * @param entries
+     *            Entries that have been written to the database
+     */
+    public synchronized void count(List<RepositoryEntryBO> entries) {
+        for (RepositoryEntryBO entry : entries) {
+            Long id = entry.getTemplateId();
+            if (id == null) {
+                continue;
+            }
+            Template template = _templates.get(id);
+            if (template != null) {
+                template._pendingCount++;
+            }
+        }
+    }
+
+    /**
+     * Writes template counts to the database. New template versions are saved by {@link #save(DB)}.
+     *
+     * @param db
+     *            mongoDB connection
+     * @param force
+     *            If false, counts are only written if {@link #FLUSH_INTERVAL_MILLISECONDS} has passed since the last
+     *            write. If true, counts are written immediately.
+     */
+    public void flush(DB db, boolean force) {
+        ArrayList<Template> dirty = new ArrayList<Template>();
+        ArrayList<Long> counts = new ArrayList<Long>();
+        Date now = new Date();
+
+        synchronized (this) {
+            if (!force && now.getTime() - _lastFlush < FLUSH_INTERVAL_MILLISECONDS) {
+                return;
+            }
+            _lastFlush = now.getTime();
+
+            for (Template template : _templates.values()) {
+                if (template._pendingCount > 0) {
+                    dirty.add(template);
+                    counts.add(template._pendingCount);
+                    template._pendingCount = 0;
+                }
+            }
+        }
+
+        for (int i = 0; i < dirty.size(); i++) {
+            Template template = dirty.get(i);
+            try {
+                _controller.increment(db, template.getId(), counts.get(i), now);
+            } catch (ChiliLogException ex) {
+                // Counts are not critical so keep them for the next flush rather than failing the batch
+                _logger.error(ex, "Repository '%s' error saving message template %s. %s", _repoName, template.getId(),
+                        ex.getMessage());
+                synchronized (this) {
+                    template._pendingCount += counts.get(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of templates
+     */
+    public synchronized int getTemplateCount() {
+        return _templates.size();
+    }
+
+    /**
+     * Returns the text of a template. Null if the template does not exist.
+     *
+     * @param id
+     *            Id of the template
+     */
+    public String getTemplate(long id) {
+        Template template;
+        synchronized (this) {
+            template = _templates.get(id);
+        }
+        if (template == null) {
+            return null;
+        }
+        synchronized (template._leaf) {
+            return template.getCurrentVersion().getText();
+        }
+    }
+
+    /**
+     * Returns the tree leaf for the tokens, creating the branches if needed. Lock the leaf before using its templates.
+     */
+    private synchronized Node getLeaf(List<String> tokens) {
+        Integer length = tokens.size();
+        Node node = _root.get(length);
+        if (node == null) {
+            node = new Node();
+            _root.put(length, node);
+        }
+
+        int depth = Math.min(PREFIX_DEPTH, tokens.size());
+        for (int i = 0; i < depth; i++) {
+            String token = tokens.get(i);
+            String key = hasDigit(token) ? WILDCARD : token;
+            Node child = node._children.get(key);
+            if (child == null) {
+                if (node._children.size() >= MAX_CHILDREN) {
+                    key = WILDCARD;
+                    child = node._children.get(key);
+                }
+                if (child == null) {
+                    child = new Node();
+                    node._children.put(key, child);
+                }
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * Splits a message into tokens on whitespace
+     *
+     * @param message
+     *            Message to split
+     * @return List of tokens
+     */
+    static ArrayList<String> tokenize(String message) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        if (message == null) {
+            return tokens;
+        }
+
+        int start = -1;
+        int length = message.length();
+        for (int i = 0; i < length; i++) {
+            if (Character.isWhitespace(message.charAt(i))) {
+                if (start >= 0) {
+                    tokens.add(message.substring(start, i));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            tokens.add(message.substring(start));
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns true if the message is the same as its tokens joined by single spaces so that it can be rebuilt from
+     * its template and variables
+     */
+    static boolean isNormalized(String message) {
+        if (message == null) {
+            return false;
+        }
+        int length = message.length();
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (Character.isWhitespace(c)
+                    && (c != ' ' || i == 0 || i == length - 1 || Character.isWhitespace(message.charAt(i + 1)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the token contains a digit
+     */
+    private static boolean hasDigit(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Node in the template tree. The branches are guarded by the miner and the templates of a leaf by the leaf.
+     */
+    private static class Node {
+        private HashMap<String, Node> _children = new HashMap<String, Node>();
+        private ArrayList<Template> _templates = new ArrayList<Template>();
+    }
+
+    /**
+     * A version of a template. Entries are stored with the version they were mined against.
+     */
+    static class TemplateVersion {
+        private final long _id;
+        private final long _version;
+        private final String _text;
+
+        TemplateVersion(long id, long version, String text) {
+            _id = id;
+            _version = version;
+            _text = text;
+        }
+
+        /**
+         * Returns the id of the template
+         */
+        long getId() {
+            return _id;
+        }
+
+        /**
+         * Returns the version number. Starts at 1 and goes up by 1 each time tokens of the template become wildcards.
+         */
+        long getVersion() {
+            return _version;
+        }
+
+        /**
+         * Returns the text of the template at this version
+         */
+        String getText() {
+            return _text;
+        }
+    }
+
+    /**
+     * A template and its count of entries that have not yet been written to the database. The tokens and current
+     * version are guarded by the leaf; the count by the miner.
+     */
+    private static class Template {
+        private long _id;
+        private Node _leaf;
+        private String[] _tokens;
+        private int _wildcardCount = 0;
+        private TemplateVersion _currentVersion;
+        private long _pendingCount = 0;
+
+        Template(long id, String[] tokens, Node leaf, long version) {
+            _id = id;
+            _leaf = leaf;
+            _tokens = tokens;
+
+            // Wildcards are compared by reference
+            for (int i = 0; i < tokens.length; i++) {
+                if (tokens[i].equals(WILDCARD)) {
+                    tokens[i] = WILDCARD;
+                    _wildcardCount++;
+                }
+            }
+            _currentVersion = new TemplateVersion(id, version, getText());
+        }
+
+        long getId() {
+            return _id;
+        }
+
+        int getWildcardCount() {
+            return _wildcardCount;
+        }
+
+        /**
+         * Returns the share of tokens that equal the constant tokens of this template
+         */
+        double getSimilarity(List<String> tokens) {
+            if (_tokens.length == 0) {
+                return 1;
+            }
+            int same = 0;
+            for (int i = 0; i < _tokens.length; i++) {
+                if (_tokens[i] != WILDCARD && _tokens[i].equals(tokens.get(i))) {
+                    same++;
+                }
+            }
+            return (double) same / _tokens.length;
+        }
+
+        /**
+         * Returns the current version of this template
+         */
+        TemplateVersion getCurrentVersion() {
+            return _currentVersion;
+        }
+
+        /**
+         * Turns tokens that differ from the message into wildcards. If the template changes, it gets a new version.
+         *
+         * @return true if the template has changed
+         */
+        boolean merge(List<String> tokens) {
+            boolean isChanged = false;
+            for (int i = 0; i < _tokens.length; i++) {
+                if (_tokens[i] != WILDCARD && !_tokens[i].equals(tokens.get(i))) {
+                    _tokens[i] = WILDCARD;
+                    _wildcardCount++;
+                    isChanged = true;
+                }
+            }
+            if (isChanged) {
+                _currentVersion = new TemplateVersion(_id, _currentVersion.getVersion() + 1, getText());
+            }
+            return isChanged;
+        }
+
+        /**
+         * Adds the message tokens that match wildcards to <code>variables</code>
+         */
+        void getVariables(List<String> tokens, List<String> variables) {
+            for (int i = 0; i < _tokens.length; i++) {
+                if (_tokens[i] == WILDCARD) {
+                    variables.add(tokens.get(i));
+                }
+            }
+        }
+
+        private String getText() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < _tokens.length; i++) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                sb.append(_tokens[i]);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -38,12 +38,16 @@ public class Strings {
     public static final String STOP_REPOSITORY_STORAGE_WORKER_ERROR = PREFIX + "StopRepositoryStorageWorkerError";
     public static final String LOAD_REPOSITORIES_ERROR = PREFIX + "LoadRepositoriesError";
     public static final String CLOSE_MQ_SESSION_ERROR = PREFIX + "CloseMqSessionError";
+    public static final String SAVE_TEMPLATE_ERROR = PREFIX + "SaveTemplateError";
 
     public static final String PARSER_FACTORY_ERROR = PREFIX + "Parser.FactoryError";
     public static final String PARSER_INITIALIZATION_ERROR = PREFIX + "Parser.IntializationError";
     public static final String PARSER_DELIMITER_NOT_SET_ERROR = PREFIX + "Parser.DelimiterNotSetError";
+    public static final String PARSER_DELIMITED_FIELD_NOT_FOUND_ERROR = PREFIX + "Parser.DelimitedFieldNotFoundError";
     public static final String PARSER_FIELD_ERROR_SKIP_FIELD = PREFIX + "Parser.FieldErrorSkipField";
     public static final String PARSER_FIELD_ERROR_SKIP_ENTRY = PREFIX + "Parser.FieldErrorSkipEntry";
     public static final String PARSER_JSON_ERROR_SKIP_ENTRY = PREFIX + "Parser.JsonErrorSkipEntry";
     public static final String PARSER_BLANK_ERROR = PREFIX + "Parser.BlankError";
+    public static final String PARSER_REGEX_TIMEOUT_ERROR = PREFIX + "Parser.RegexTimeoutError";
+    public static final String PARSER_FILTER_REGEX_TIMEOUT_ERROR = PREFIX + "Parser.FilterRegexTimeoutError";
 }
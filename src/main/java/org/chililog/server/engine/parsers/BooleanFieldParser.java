@@ -35,6 +35,7 @@ public class BooleanFieldParser extends FieldParser {
 
     private Boolean _defaultValue = null;
     private Pattern _truePattern = null;
+    private boolean _isDefaultTruePattern = false;
 
     /**
      * Constructor
@@ -51,6 +52,7 @@ public class BooleanFieldParser extends FieldParser {
         String s = properties.get(RepositoryFieldConfigBO.TRUE_PATTERN_PROPERTY_NAME);
         if (StringUtils.isBlank(s)) {
             s = "[Tt][Rr][Uu][Ee]";
+            _isDefaultTruePattern = true;
         }
         _truePattern = Pattern.compile(s);
 
@@ -68,6 +70,21 @@ public class BooleanFieldParser extends FieldParser {
         return parseBoolean(value);
     }
 
+    /**
+     * Parses a boolean from a character buffer. If the default true pattern is used, the characters are checked
+     * without creating a string.
+     */
+    @Override
+    public Object parse(char[] buffer, int offset, int length) throws ParseException {
+        if (_isDefaultTruePattern && !hasPreparsePattern()) {
+            return length == 4 && (buffer[offset] == 'T' || buffer[offset] == 't')
+                    && (buffer[offset + 1] == 'R' || buffer[offset + 1] == 'r')
+                    && (buffer[offset + 2] == 'U' || buffer[offset + 2] == 'u')
+                    && (buffer[offset + 3] == 'E' || buffer[offset + 3] == 'e');
+        }
+        return parse(new String(buffer, offset, length));
+    }
+
     /**
      * <p>
      * Parse a boolean.
@@ -25,6 +25,8 @@ import java.util.Hashtable;
 import java.util.TimeZone;
 
 import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.Iso8601DateParser;
+import org.chililog.server.data.RepositoryEntryListCriteria;
 import org.chililog.server.data.RepositoryFieldConfigBO;
 
 /**
@@ -38,6 +40,22 @@ public class DateFieldParser extends FieldParser {
     private Date _defaultValue = null;
     private String _dateFormat = null;
     private TimeZone _dateTimezone = null;
+    private boolean _isIso8601 = false;
+
+    /**
+     * SimpleDateFormat is not thread safe so each thread gets its own copy. This saves us from compiling the date format
+     * for every value.
+     */
+    private ThreadLocal<SimpleDateFormat> _dateFormatter = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat dateFormatter = new SimpleDateFormat(_dateFormat);
+            if (_dateTimezone != null) {
+                dateFormatter.setTimeZone(_dateTimezone);
+            }
+            return dateFormatter;
+        }
+    };
 
     /**
      * Constructor
@@ -67,6 +85,10 @@ public class DateFieldParser extends FieldParser {
         if (!StringUtils.isBlank(defaultValue)) {
             _defaultValue = dateFormatter.parse(defaultValue);
         }
+
+        // Values like "2011-01-02T03:04:05.678Z" in our standard format can be parsed without SimpleDateFormat. The
+        // time zone is part of the value so the time zone setting does not apply.
+        _isIso8601 = _dateFormat.equals(RepositoryEntryListCriteria.DATE_FORMAT);
     }
 
     /**
@@ -94,17 +116,19 @@ public class DateFieldParser extends FieldParser {
         try {
             value = preparse(value);
 
+            if (_isIso8601) {
+                long millis = Iso8601DateParser.parseMillis(value);
+                if (millis != Iso8601DateParser.INVALID) {
+                    return new Date(millis);
+                }
+            }
+
             // Simple date format does not recognise Z time zone so make it GMT
             if (value.endsWith("Z")) {
                 value = value.substring(0, value.length() - 1) + "GMT";
             }
 
-            // SimpleDateFormat is not thread safe so we have instance it everytime
-            SimpleDateFormat dateFormatter = new SimpleDateFormat(_dateFormat);
-            if (_dateTimezone != null) {
-                dateFormatter.setTimeZone(_dateTimezone);
-            }
-
+            SimpleDateFormat dateFormatter = _dateFormatter.get();
             if (!StringUtils.isBlank(value)) {
                 value = value.trim();
             }
@@ -18,7 +18,6 @@
 
 package org.chililog.server.engine.parsers;
 
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Hashtable;
 
@@ -46,6 +45,14 @@ import com.mongodb.BasicDBObject;
  * <p>
  * The fields are delimited by the pipe character (|).
  * </p>
+ * <p>
+ * Fields may be quoted by setting the <code>quote_character</code> property; e.g. <code>"field|1"|field2</code>. The
+ * character following the <code>escape_character</code> is always treated as part of the field.
+ * </p>
+ * <p>
+ * Each message is scanned once and scanning stops after the last field that is configured. Integer, long integer,
+ * double and boolean fields are parsed from the message characters without creating a string for each field.
+ * </p>
  * 
  * @author vibul
  * 
@@ -55,12 +62,23 @@ public class DelimitedEntryParser extends EntryParser {
     private static Log4JLogger _logger = Log4JLogger.getLogger(DelimitedEntryParser.class);
     private String _delimiter;
     private ArrayList<DelimitedFieldInfo> _fields = new ArrayList<DelimitedFieldInfo>();
+    private DelimitedFieldExtractor _extractor;
 
     /**
      * Delimiter repository property denotes the field delimiter character
      */
     public static final String DELIMITER_PROPERTY_NAME = "delimiter";
 
+    /**
+     * Optional repository property denoting the character used to quote fields that contain the delimiter
+     */
+    public static final String QUOTE_PROPERTY_NAME = "quote_character";
+
+    /**
+     * Optional repository property denoting the character used to escape the character following it
+     */
+    public static final String ESCAPE_PROPERTY_NAME = "escape_character";
+
     /**
      * Position field property denotes the position of this field. Position 1 is the 1st field.
      */
@@ -90,11 +108,16 @@ public class DelimitedEntryParser extends EntryParser {
             }
 
             // Parse our field value so that we don't have to keep on doing it
+            int fieldsToExtract = 0;
             for (RepositoryFieldConfigBO f : repoParserInfo.getFields()) {
                 String s = f.getProperties().get(POSITION_FIELD_PROPERTY_NAME);
                 Integer i = Integer.parseInt(s) - 1;
-                _fields.add(new DelimitedFieldInfo(i, f));
+                _fields.add(new DelimitedFieldInfo(i, f, createFieldParser(f)));
+                fieldsToExtract = Math.max(fieldsToExtract, i + 1);
             }
+
+            _extractor = new DelimitedFieldExtractor(_delimiter, properties.get(QUOTE_PROPERTY_NAME),
+                    properties.get(ESCAPE_PROPERTY_NAME), fieldsToExtract);
         } catch (Exception ex) {
             if (ex instanceof ChiliLogException) {
                 throw (ChiliLogException) ex;
@@ -139,16 +162,24 @@ public class DelimitedEntryParser extends EntryParser {
 
             BasicDBObject parsedFields = this.readPreparsedFields(preparsedFields);
 
-            String[] ss = StringUtils.split(message, _delimiter);
+            int fieldCount = _extractor.extract(message);
+            char[] buffer = _extractor.getBuffer();
             for (DelimitedFieldInfo delimitedField : _fields) {
                 String fieldName = delimitedField.getRepoFieldInfo().getDbObjectName();
-                String fieldStringValue = null;
+                int index = delimitedField.getArrayIndex();
                 Object fieldValue = null;
                 try {
-                    fieldStringValue = ss[delimitedField.getArrayIndex()];
-                    fieldValue = delimitedField.getParser().parse(fieldStringValue);
+                    if (index < 0 || index >= fieldCount) {
+                        throw new ChiliLogException(Strings.PARSER_DELIMITED_FIELD_NOT_FOUND_ERROR, index + 1,
+                                fieldCount);
+                    }
+                    fieldValue = delimitedField.getParser().parse(buffer, _extractor.getStart(index),
+                            _extractor.getLength(index));
                     parsedFields.put(fieldName, fieldValue);
+                } catch (RegexTimeoutException ex) {
+                    throw ex;
                 } catch (Exception ex) {
+                    String fieldStringValue = index < 0 ? null : _extractor.getString(index);
                     switch (this.getRepoParserInfo().getParseFieldErrorHandling()) {
                         case SkipField:
                             String msg = StringsProperties.getInstance().getString(
@@ -189,10 +220,10 @@ public class DelimitedEntryParser extends EntryParser {
         private RepositoryFieldConfigBO _repoFieldInfo;
         private FieldParser _parser;
 
-        public DelimitedFieldInfo(int arrayIndex, RepositoryFieldConfigBO repoFieldInfo) throws ParseException {
+        public DelimitedFieldInfo(int arrayIndex, RepositoryFieldConfigBO repoFieldInfo, FieldParser parser) {
             _arrayIndex = arrayIndex;
             _repoFieldInfo = repoFieldInfo;
-            _parser = FieldParserFactory.getParser(repoFieldInfo);
+            _parser = parser;
         }
 
         /**
@@ -0,0 +1,218 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+/**
+ * <p>
+ * Splits a delimited log entry into fields in a single pass over its characters.
+ * </p>
+ * <p>
+ * Fields are split in the same way as <code>StringUtils.split(message, delimiter)</code>; i.e. each character in the
+ * delimiter string is a separator and adjacent separators are treated as one. In addition:
+ * <ul>
+ * <li>If a quote character is set, a field that starts with a quote character runs until the closing quote character.
+ * Separators inside the quotes are part of the field and two quote characters in a row is one quote character. A
+ * quoted field is always counted, even if it is empty; e.g. <code>a|""|c</code> has 3 fields.</li>
+ * <li>If an escape character is set, the character following it is always part of the field.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Scanning stops after the last field that we need so characters in later fields are not looked at. Instead of
+ * creating a string for each field, the position of each field in a character buffer is recorded. The buffer and
+ * arrays are reused for the next message so instances are not thread safe.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+class DelimitedFieldExtractor {
+
+    private static final char NOT_SET = '\0';
+
+    private String _delimiter;
+    private char _singleDelimiter;
+    private char _quote;
+    private char _escape;
+    private int _fieldsToExtract;
+
+    private char[] _buffer = new char[256];
+    private int[] _starts;
+    private int[] _lengths;
+    private int _fieldCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param delimiter
+     *            Characters that separate fields
+     * @param quote
+     *            Character used to quote fields. <code>null</code> or empty if fields are not quoted.
+     * @param escape
+     *            Character used to escape the next character. <code>null</code> or empty if characters are not
+     *            escaped.
+     * @param fieldsToExtract
+     *            Number of fields to extract starting from the 1st field. Scanning stops after this number of fields.
+     */
+    DelimitedFieldExtractor(String delimiter, String quote, String escape, int fieldsToExtract) {
+        _delimiter = delimiter;
+        _singleDelimiter = delimiter.length() == 1 ? delimiter.charAt(0) : NOT_SET;
+        _quote = (quote == null || quote.length() == 0) ? NOT_SET : quote.charAt(0);
+        _escape = (escape == null || escape.length() == 0) ? NOT_SET : escape.charAt(0);
+        if (_escape == _quote) {
+            // Quote characters are escaped by doubling them
+            _escape = NOT_SET;
+        }
+        _fieldsToExtract = fieldsToExtract;
+        _starts = new int[fieldsToExtract];
+        _lengths = new int[fieldsToExtract];
+    }
+
+    /**
+     * Splits a message into fields
+     *
+     * @param message
+     *            Message to split
+     * @return Number of fields found, up to the number of fields to extract
+     */
+    int extract(String message) {
+        _fieldCount = 0;
+        if (message == null) {
+            return 0;
+        }
+
+        int length = message.length();
+        if (_buffer.length < length) {
+            _buffer = new char[Math.max(length, _buffer.length * 2)];
+        }
+        message.getChars(0, length, _buffer, 0);
+
+        char[] buffer = _buffer;
+        int i = 0;
+        while (_fieldCount < _fieldsToExtract) {
+            // Skip separators
+            while (i < length && isDelimiter(buffer[i])) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+
+            // Characters are read from i and written to end. end only falls behind i when quote or escape characters
+            // are removed.
+            int start = i;
+            int end = i;
+            if (buffer[i] == _quote && _quote != NOT_SET) {
+                i++;
+                while (i < length) {
+                    char c = buffer[i];
+                    if (c == _quote) {
+                        if (i + 1 < length && buffer[i + 1] == _quote) {
+                            buffer[end++] = c;
+                            i += 2;
+                        } else {
+                            i++;
+                            break;
+                        }
+                    } else if (c == _escape && _escape != NOT_SET && i + 1 < length) {
+                        buffer[end++] = buffer[i + 1];
+                        i += 2;
+                    } else {
+                        buffer[end++] = c;
+                        i++;
+                    }
+                }
+            }
+
+            // Unquoted characters up to the next separator
+            while (i < length) {
+                char c = buffer[i];
+                if (isDelimiter(c)) {
+                    break;
+                }
+                if (c == _escape && _escape != NOT_SET && i + 1 < length) {
+                    buffer[end++] = buffer[i + 1];
+                    i += 2;
+                } else {
+                    buffer[end++] = c;
+                    i++;
+                }
+            }
+
+            _starts[_fieldCount] = start;
+            _lengths[_fieldCount] = end - start;
+            _fieldCount++;
+        }
+        return _fieldCount;
+    }
+
+    private boolean isDelimiter(char c) {
+        if (_singleDelimiter != NOT_SET) {
+            return c == _singleDelimiter;
+        }
+        return _delimiter.indexOf(c) >= 0;
+    }
+
+    /**
+     * Returns the number of fields found by the last call to {@link #extract(String)}
+     */
+    int getFieldCount() {
+        return _fieldCount;
+    }
+
+    /**
+     * Returns the buffer holding the fields found by the last call to {@link #extract(String)}
+     */
+    char[] getBuffer() {
+        return _buffer;
+    }
+
+    /**
+     * Returns the position in the buffer of the start of a field
+     *
+     * @param index
+     *            Index of the field. 0 is the 1st field.
+     */
+    int getStart(int index) {
+        return _starts[index];
+    }
+
+    /**
+     * Returns the number of characters in a field
+     *
+     * @param index
+     *            Index of the field. 0 is the 1st field.
+     */
+    int getLength(int index) {
+        return _lengths[index];
+    }
+
+    /**
+     * Returns a field as a string
+     *
+     * @param index
+     *            Index of the field. 0 is the 1st field.
+     * @return Value of the field or <code>null</code> if the message does not have the field
+     */
+    String getString(int index) {
+        if (index >= _fieldCount) {
+            return null;
+        }
+        return new String(_buffer, _starts[index], _lengths[index]);
+    }
+}
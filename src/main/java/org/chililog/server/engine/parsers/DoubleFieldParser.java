@@ -37,6 +37,12 @@ public class DoubleFieldParser extends FieldParser {
     private Double _defaultValue = null;
     private NumberFormat _numberFormatter = null;
 
+    /**
+     * Powers of 10 that can be exactly represented as a double
+     */
+    private static final double[] POWERS_OF_TEN = new double[] { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
     /**
      * Constructor
      * 
@@ -72,6 +78,60 @@ public class DoubleFieldParser extends FieldParser {
         return parseDouble(value);
     }
 
+    /**
+     * <p>
+     * Parses a double floating point number from a character buffer.
+     * </p>
+     * <p>
+     * Plain decimal numbers with up to 15 digits (e.g. 123.45) are parsed without creating a string. The digits and
+     * the power of 10 can both be exactly represented as a double so dividing one by the other gives the same result as
+     * <code>Double.parseDouble()</code>. Other numbers are parsed as a string.
+     * </p>
+     */
+    @Override
+    public Object parse(char[] buffer, int offset, int length) throws ParseException {
+        if (_numberFormatter == null && !hasPreparsePattern()) {
+            int i = offset;
+            int end = offset + length;
+            while (i < end && buffer[i] <= ' ') {
+                i++;
+            }
+            while (end > i && buffer[end - 1] <= ' ') {
+                end--;
+            }
+
+            boolean negative = false;
+            if (i < end && buffer[i] == '-') {
+                negative = true;
+                i++;
+            }
+
+            long digits = 0;
+            int digitCount = 0;
+            int scale = -1;
+            for (; i < end; i++) {
+                char c = buffer[i];
+                if (c >= '0' && c <= '9') {
+                    digits = digits * 10 + (c - '0');
+                    digitCount++;
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                } else if (c == '.' && scale < 0) {
+                    scale = 0;
+                } else {
+                    break;
+                }
+            }
+
+            if (i == end && digitCount > 0 && digitCount <= 15) {
+                double d = (scale > 0) ? digits / POWERS_OF_TEN[scale] : digits;
+                return negative ? -d : d;
+            }
+        }
+        return parse(new String(buffer, offset, length));
+    }
+
     /**
      * <p>
      * Parse a double.
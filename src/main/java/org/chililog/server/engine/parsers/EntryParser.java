@@ -20,22 +20,26 @@ package org.chililog.server.engine.parsers;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.NullArgumentException;
 import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.AppProperties;
 import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.common.Iso8601DateParser;
+import org.chililog.server.common.StringsProperties;
 import org.chililog.server.common.TextTokenizer;
 import org.chililog.server.data.MongoJsonParser;
 import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryFieldConfigBO;
 import org.chililog.server.data.RepositoryParserConfigBO;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
 import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
 import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.chililog.server.engine.Strings;
 
 import com.mongodb.BasicDBObject;
 
@@ -44,6 +48,11 @@ import com.mongodb.BasicDBObject;
  * Parses incoming entries to extract fields and keywords
  * </p>
  * <p>
+ * Regular expressions supplied by users are run with a time limit; see {@link InterruptibleCharSequence}. If a
+ * regular expression takes too long, the entry fails to parse with a {@link Strings#PARSER_REGEX_TIMEOUT_ERROR} error
+ * so that it is moved to the dead letter queue. Timeouts are counted in {@link EntryParserMetrics}.
+ * </p>
+ * <p>
  * This code is NOT designed for multi-threaded use. It should only be used in 1 thread.
  * </p>
  */
@@ -53,16 +62,28 @@ public abstract class EntryParser {
     private long _maxKeywords = 0;
     private RepositoryParserConfigBO _repoParserInfo;
     private Exception _lastParseError = null;
+    private long _regexTimeoutMilliseconds = 0;
+    private EntryParserMetrics _metrics;
 
     private Pattern _sourcePattern = null;
     private String[] _sourceCSV = null;
     private Pattern _hostPattern = null;
     private String[] _hostCSV = null;
+    private InterruptibleCharSequence _filterText;
 
-    private SimpleDateFormat _dateFormat;
     private TextTokenizer _tokenizer;
 
-    private MongoJsonParser _inputFieldsParser = null;
+    /**
+     * Parser for pre-parsed fields. All entry parsers use the same date and long number formats for pre-parsed fields
+     * so one parser is kept per storage worker thread and reset for each entry.
+     */
+    private static final ThreadLocal<MongoJsonParser> PREPARSED_FIELDS_PARSER = new ThreadLocal<MongoJsonParser>() {
+        @Override
+        protected MongoJsonParser initialValue() {
+            return new MongoJsonParser(RepositoryEntryMqMessage.getTimestampPattern(),
+                    RepositoryEntryMqMessage.TIMESTAMP_FORMAT, RepositoryEntryMqMessage.getLongNumberPattern());
+        }
+    };
 
     /**
      * <p>
@@ -89,6 +110,12 @@ public abstract class EntryParser {
         if (repoParserInfo.getMaxKeywords() != RepositoryParserConfigBO.MAX_KEYWORDS_INHERITED) {
             _maxKeywords = repoParserInfo.getMaxKeywords();
         }
+        _regexTimeoutMilliseconds = AppProperties.getInstance().getStorageRegexTimeoutMilliseconds();
+        if (repoParserInfo.getRegexTimeoutMilliseconds() != RepositoryParserConfigBO.REGEX_TIMEOUT_INHERITED) {
+            _regexTimeoutMilliseconds = repoParserInfo.getRegexTimeoutMilliseconds();
+        }
+        _metrics = EntryParserMetrics.getInstance(_repoName, repoParserInfo.getName());
+        _filterText = new InterruptibleCharSequence(_regexTimeoutMilliseconds);
 
         // Get our regular expression ready for matching source and host
         if (_repoParserInfo.getAppliesTo() == AppliesTo.AllowFilteredCSV) {
@@ -113,9 +140,6 @@ public abstract class EntryParser {
             }
         }
 
-        // Dates for parsing timestamp
-        _dateFormat = RepositoryEntryMqMessage.getDateFormatter();
-
         // Tokenizer for keyword extraction
         _tokenizer = TextTokenizer.getInstance();
 
@@ -136,6 +160,34 @@ public abstract class EntryParser {
         return _repoParserInfo;
     }
 
+    /**
+     * Returns the maximum number of milliseconds that a regular expression may run against an entry. 0 for no limit.
+     */
+    public long getRegexTimeoutMilliseconds() {
+        return _regexTimeoutMilliseconds;
+    }
+
+    /**
+     * Returns the metrics for this parser
+     */
+    public EntryParserMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Returns the list of sources to which this parser applies if it is filtered by CSV. Null if not set.
+     */
+    String[] getSourceCSV() {
+        return _sourceCSV;
+    }
+
+    /**
+     * Returns the list of hosts to which this parser applies if it is filtered by CSV. Null if not set.
+     */
+    String[] getHostCSV() {
+        return _hostCSV;
+    }
+
     /**
      * Returns the last error that happened during parsing
      */
@@ -144,15 +196,35 @@ public abstract class EntryParser {
     }
 
     /**
-     * Sets the last error
+     * Sets the last error. If the error was caused by a regular expression timing out, the timeout is counted and the
+     * error is replaced with a {@link Strings#PARSER_REGEX_TIMEOUT_ERROR} error.
      * 
      * @param lastParseError
      *            Exception thrown during parsing
      */
     protected void setLastParseError(Exception lastParseError) {
+        if (RegexTimeoutException.isCause(lastParseError)) {
+            _metrics.recordRegexTimeout();
+            lastParseError = new ChiliLogException(lastParseError, Strings.PARSER_REGEX_TIMEOUT_ERROR,
+                    _repoParserInfo.getName(), _repoName, _regexTimeoutMilliseconds);
+        }
         _lastParseError = lastParseError;
     }
 
+    /**
+     * Creates the parser for a field. Pre-parse patterns are run with this parser's regular expression time limit.
+     * 
+     * @param repoFieldInfo
+     *            Field meta data
+     * @return Field parser
+     * @throws ParseException
+     */
+    protected FieldParser createFieldParser(RepositoryFieldConfigBO repoFieldInfo) throws ParseException {
+        FieldParser parser = FieldParserFactory.getParser(repoFieldInfo);
+        parser.setRegexTimeoutMilliseconds(_regexTimeoutMilliseconds);
+        return parser;
+    }
+
     /**
      * Checks if this parser is applicable to the specified source and host
      * 
@@ -161,6 +233,9 @@ public abstract class EntryParser {
      * @param host
      *            Computer name or IP address
      * @return True if this parser is to be used, False if not
+     * @throws RegexTimeoutException
+     *             if the source or host filter regular expression takes too long. The entry should be moved to the dead
+     *             letter queue.
      */
     public boolean isApplicable(String source, String host) {
         if (_repoParserInfo.getAppliesTo() == AppliesTo.All) {
@@ -181,11 +256,18 @@ public abstract class EntryParser {
                 }
             }
         } else if (_repoParserInfo.getAppliesTo() == AppliesTo.AllowFilteredRegularExpression) {
-            if (!StringUtils.isBlank(source) && _sourcePattern != null) {
-                return _sourcePattern.matcher(source).matches();
-            }
-            if (!StringUtils.isBlank(host) && _hostPattern != null) {
-                return _hostPattern.matcher(host).matches();
+            try {
+                if (!StringUtils.isBlank(source) && _sourcePattern != null) {
+                    return _sourcePattern.matcher(_filterText.reset(source)).matches();
+                }
+                if (!StringUtils.isBlank(host) && _hostPattern != null) {
+                    return _hostPattern.matcher(_filterText.reset(host)).matches();
+                }
+            } catch (RegexTimeoutException ex) {
+                _metrics.recordRegexTimeout();
+                String msg = StringsProperties.getInstance().getString(Strings.PARSER_FILTER_REGEX_TIMEOUT_ERROR);
+                throw new RegexTimeoutException(String.format(msg, _repoParserInfo.getName(), _repoName,
+                        _regexTimeoutMilliseconds, source, host), _regexTimeoutMilliseconds);
             }
         }
         return false;
@@ -218,14 +300,14 @@ public abstract class EntryParser {
     }
 
     /**
-     * Parses the timestamp. Assumes the format is '2011-12-31T23:01:01.123Z'.
+     * Parses the timestamp. Assumes the format is '2011-12-31T23:01:01.123Z'. See {@link Iso8601DateParser}.
      * 
      * @param timestamp
      * @return Date
      * @throws ParseException
      */
     protected Date parseTimestamp(String timestamp) throws ParseException {
-        return _dateFormat.parse(timestamp);
+        return Iso8601DateParser.parse(timestamp);
     }
 
     /**
@@ -270,15 +352,8 @@ public abstract class EntryParser {
         if (StringUtils.isBlank(fields)) {
             return new BasicDBObject();
         }
-        
-        if (_inputFieldsParser == null) {
-            Pattern datePattern = RepositoryEntryMqMessage.getTimestampPattern();
-            Pattern longNumberPattern = RepositoryEntryMqMessage.getLongNumberPattern();
-            _inputFieldsParser = new MongoJsonParser(fields, datePattern, RepositoryEntryMqMessage.TIMESTAMP_FORMAT,
-                    longNumberPattern);
-        }
 
-        return (BasicDBObject) _inputFieldsParser.parse();
+        return (BasicDBObject) PREPARSED_FIELDS_PARSER.get().reset(fields).parse();
     }
 
     /**
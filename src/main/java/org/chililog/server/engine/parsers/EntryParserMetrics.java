@@ -0,0 +1,224 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Counts the time spent extracting each field of an entry parser and the number of entries on which the parser's
+ * regular expressions timed out.
+ * </p>
+ * <p>
+ * Each storage thread has its own parser instances so metrics are kept in a registry keyed by repository and parser
+ * name. All instances of the same parser record to the same metrics.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class EntryParserMetrics {
+
+    private static ConcurrentHashMap<String, EntryParserMetrics> _registry =
+            new ConcurrentHashMap<String, EntryParserMetrics>();
+
+    private String _repoName;
+    private String _parserName;
+    private ConcurrentHashMap<String, FieldMetrics> _fieldLookup = new ConcurrentHashMap<String, FieldMetrics>();
+    private CopyOnWriteArrayList<FieldMetrics> _fields = new CopyOnWriteArrayList<FieldMetrics>();
+    private AtomicLong _regexTimeouts = new AtomicLong();
+
+    /**
+     * Returns the metrics for a parser. Metrics are created if they do not exist.
+     *
+     * @param repoName
+     *            Name of the repository
+     * @param parserName
+     *            Name of the parser
+     */
+    public static EntryParserMetrics getInstance(String repoName, String parserName) {
+        String key = repoName + '\0' + parserName;
+        EntryParserMetrics metrics = _registry.get(key);
+        if (metrics == null) {
+            _registry.putIfAbsent(key, new EntryParserMetrics(repoName, parserName));
+            metrics = _registry.get(key);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics for all parsers in a repository
+     *
+     * @param repoName
+     *            Name of the repository
+     */
+    public static List<EntryParserMetrics> getRepositoryMetrics(String repoName) {
+        ArrayList<EntryParserMetrics> list = new ArrayList<EntryParserMetrics>();
+        for (EntryParserMetrics metrics : _registry.values()) {
+            if (metrics._repoName.equals(repoName)) {
+                list.add(metrics);
+            }
+        }
+        return list;
+    }
+
+    private EntryParserMetrics(String repoName, String parserName) {
+        _repoName = repoName;
+        _parserName = parserName;
+    }
+
+    /**
+     * Returns the metrics for a field. Metrics are created if they do not exist.
+     *
+     * @param fieldName
+     *            Name of the field
+     */
+    public FieldMetrics getField(String fieldName) {
+        FieldMetrics field = _fieldLookup.get(fieldName);
+        if (field == null) {
+            synchronized (this) {
+                field = _fieldLookup.get(fieldName);
+                if (field == null) {
+                    field = new FieldMetrics(fieldName);
+                    _fields.add(field);
+                    _fieldLookup.put(fieldName, field);
+                }
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Returns the metrics for each field in the order in which they were created
+     */
+    public List<FieldMetrics> getFields() {
+        return _fields;
+    }
+
+    /**
+     * Records that a regular expression ran for longer than allowed
+     */
+    void recordRegexTimeout() {
+        _regexTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of entries on which a regular expression of this parser ran for longer than allowed
+     */
+    public long getRegexTimeouts() {
+        return _regexTimeouts.get();
+    }
+
+    /**
+     * Returns the name of the repository
+     */
+    public String getRepoName() {
+        return _repoName;
+    }
+
+    /**
+     * Returns the name of the parser
+     */
+    public String getParserName() {
+        return _parserName;
+    }
+
+    /**
+     * Metrics for one field
+     */
+    public static class FieldMetrics {
+        private String _name;
+        private AtomicLong _count = new AtomicLong();
+        private AtomicLong _nanoseconds = new AtomicLong();
+        private AtomicLong _prefilterRejects = new AtomicLong();
+        private AtomicLong _unmatched = new AtomicLong();
+
+        FieldMetrics(String name) {
+            _name = name;
+        }
+
+        /**
+         * Records the extraction of the field from an entry
+         *
+         * @param nanoseconds
+         *            Time taken to match the pattern and parse the value
+         * @param prefilterRejected
+         *            True if the entry was rejected without running the pattern
+         * @param matched
+         *            True if the pattern matched the entry
+         */
+        void record(long nanoseconds, boolean prefilterRejected, boolean matched) {
+            _count.incrementAndGet();
+            _nanoseconds.addAndGet(nanoseconds);
+            if (prefilterRejected) {
+                _prefilterRejects.incrementAndGet();
+            }
+            if (!matched) {
+                _unmatched.incrementAndGet();
+            }
+        }
+
+        /**
+         * Returns the name of the field
+         */
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * Returns the number of entries from which this field has been extracted
+         */
+        public long getCount() {
+            return _count.get();
+        }
+
+        /**
+         * Returns the total time in nanoseconds spent extracting this field
+         */
+        public long getNanoseconds() {
+            return _nanoseconds.get();
+        }
+
+        /**
+         * Returns the average time in nanoseconds spent extracting this field from an entry
+         */
+        public long getAverageNanoseconds() {
+            long count = _count.get();
+            return count == 0 ? 0 : _nanoseconds.get() / count;
+        }
+
+        /**
+         * Returns the number of entries that the prefilter rejected without running the pattern
+         */
+        public long getPrefilterRejects() {
+            return _prefilterRejects.get();
+        }
+
+        /**
+         * Returns the number of entries that the pattern did not match
+         */
+        public long getUnmatched() {
+            return _unmatched.get();
+        }
+    }
+}
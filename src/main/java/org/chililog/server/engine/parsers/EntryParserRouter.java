@@ -0,0 +1,206 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryParserConfigBO;
+import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
+
+/**
+ * <p>
+ * Selects the entry parser to use for a log entry based on the entry's source and host.
+ * </p>
+ * <p>
+ * Parsers that apply to specific sources and/or hosts are checked first in the order in which they are configured. If
+ * none apply, the parser that applies to all entries is used. If the repository does not have such a parser, the
+ * default parser is used.
+ * </p>
+ * <p>
+ * Sources and hosts tend to come from a small set of values so the parser selected for each source and host pair is
+ * kept in a bounded least recently used cache. On a cache miss, parsers filtered by CSV are looked up in a table keyed
+ * by source and host rather than checking each parser in turn. Only parsers filtered by regular expression have to be
+ * matched one by one.
+ * </p>
+ * <p>
+ * The router takes a snapshot of the repository's parser configuration when it is created. When the configuration
+ * changes, a new router must be created. This happens when the repository's storage workers are restarted.
+ * </p>
+ * <p>
+ * Like the parsers it contains, this class is NOT designed for multi-threaded use. Each thread must have its own
+ * instance.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class EntryParserRouter {
+
+    /**
+     * Maximum number of source and host pairs for which the selected parser is cached
+     */
+    static final int MAX_CACHE_SIZE = 1000;
+
+    private ArrayList<EntryParser> _filteredParsers = new ArrayList<EntryParser>();
+    private EntryParser _catchAllParser = null;
+
+    private TreeMap<String, Integer> _sourceTable = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+    private TreeMap<String, Integer> _hostTable = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+    private ArrayList<Integer> _regexParserIndexes = new ArrayList<Integer>();
+
+    private LinkedHashMap<String, EntryParser> _cache = new LinkedHashMap<String, EntryParser>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EntryParser> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Constructor that loads the parsers for a repository
+     * 
+     * @param repoInfo
+     *            Repository meta data
+     * @throws ChiliLogException
+     *             if a parser cannot be created
+     */
+    public EntryParserRouter(RepositoryConfigBO repoInfo) throws ChiliLogException {
+        if (repoInfo == null) {
+            throw new NullArgumentException("repoInfo");
+        }
+
+        for (RepositoryParserConfigBO repoParserInfo : repoInfo.getParsers()) {
+            if (repoParserInfo.getAppliesTo() == AppliesTo.All) {
+                _catchAllParser = EntryParserFactory.getParser(repoInfo, repoParserInfo);
+            } else if (repoParserInfo.getAppliesTo() != AppliesTo.None) {
+                EntryParser parser = EntryParserFactory.getParser(repoInfo, repoParserInfo);
+                int index = _filteredParsers.size();
+                _filteredParsers.add(parser);
+
+                if (repoParserInfo.getAppliesTo() == AppliesTo.AllowFilteredCSV) {
+                    addToTable(_sourceTable, parser.getSourceCSV(), index);
+                    addToTable(_hostTable, parser.getHostCSV(), index);
+                } else {
+                    _regexParserIndexes.add(index);
+                }
+            }
+        }
+
+        // If there is no catch all, then set it to the default one (that does no parsing)
+        if (_catchAllParser == null) {
+            _catchAllParser = EntryParserFactory.getDefaultParser(repoInfo);
+        }
+
+        return;
+    }
+
+    /**
+     * Adds CSV values to a dispatch table. If a value appears in more than one parser, the first parser wins.
+     */
+    private static void addToTable(TreeMap<String, Integer> table, String[] csv, int index) {
+        if (csv == null) {
+            return;
+        }
+        for (String s : csv) {
+            if (!StringUtils.isBlank(s) && !table.containsKey(s)) {
+                table.put(s, index);
+            }
+        }
+    }
+
+    /**
+     * Figure out which parser to use
+     * 
+     * @param source
+     *            Application or service that created the log entry
+     * @param host
+     *            Device or machine name or IP address that the source is running on
+     * @return Entry parser to use
+     */
+    public EntryParser getParser(String source, String host) {
+        if (_filteredParsers.isEmpty()) {
+            return _catchAllParser;
+        }
+
+        String key = (source == null ? "" : source) + '\0' + (host == null ? "" : host);
+        EntryParser parser = _cache.get(key);
+        if (parser == null) {
+            parser = findParser(source, host);
+            _cache.put(key, parser);
+        }
+        return parser;
+    }
+
+    /**
+     * Finds the first filtered parser that applies to the source and host. If none apply, the catch all parser is
+     * returned.
+     */
+    private EntryParser findParser(String source, String host) {
+        int best = Integer.MAX_VALUE;
+
+        if (!StringUtils.isBlank(source)) {
+            Integer index = _sourceTable.get(source);
+            if (index != null) {
+                best = index;
+            }
+        }
+        if (!StringUtils.isBlank(host)) {
+            Integer index = _hostTable.get(host);
+            if (index != null && index < best) {
+                best = index;
+            }
+        }
+
+        // Regular expressions are checked in order so we can stop once we pass the best CSV match
+        for (Integer index : _regexParserIndexes) {
+            if (index >= best) {
+                break;
+            }
+            if (_filteredParsers.get(index).isApplicable(source, host)) {
+                best = index;
+                break;
+            }
+        }
+
+        return best == Integer.MAX_VALUE ? _catchAllParser : _filteredParsers.get(best);
+    }
+
+    /**
+     * Removes all cached parser selections
+     */
+    public void clearCache() {
+        _cache.clear();
+    }
+
+    /**
+     * Returns the number of source and host pairs for which the selected parser is cached
+     */
+    int getCacheSize() {
+        return _cache.size();
+    }
+
+}
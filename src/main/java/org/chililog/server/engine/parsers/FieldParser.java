@@ -37,6 +37,7 @@ public abstract class FieldParser {
     private RepositoryFieldConfigBO _repoFieldInfo;
     private Pattern _preparsePattern = null;
     private int _preparsePatternGroup = 1;
+    private InterruptibleCharSequence _preparseText = new InterruptibleCharSequence(0);
 
     /**
      * Basic constructor
@@ -66,6 +67,24 @@ public abstract class FieldParser {
         return _repoFieldInfo;
     }
 
+    /**
+     * Returns true if a pre-parse pattern has been set. If so, values must be parsed as strings.
+     */
+    protected boolean hasPreparsePattern() {
+        return _preparsePattern != null;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds that the pre-parse pattern may run. If it takes longer, a
+     * {@link RegexTimeoutException} is thrown.
+     * 
+     * @param timeoutMilliseconds
+     *            Time limit. 0 for no limit.
+     */
+    void setRegexTimeoutMilliseconds(long timeoutMilliseconds) {
+        _preparseText = new InterruptibleCharSequence(timeoutMilliseconds);
+    }
+
     /**
      * Extracts the relevant part of a string for parsing
      * 
@@ -75,7 +94,7 @@ public abstract class FieldParser {
      */
     protected String preparse(String value) {
         if (_preparsePattern != null && !StringUtils.isBlank(value)) {
-            Matcher m = _preparsePattern.matcher(value);
+            Matcher m = _preparsePattern.matcher(_preparseText.reset(value));
             if (m.find()) {
                 return m.group(_preparsePatternGroup);
             }
@@ -92,4 +111,74 @@ public abstract class FieldParser {
      * @throws ParseException
      */
     public abstract Object parse(String value) throws ParseException;
+
+    /**
+     * <p>
+     * Parse a field held in a character buffer and returns a strongly typed object.
+     * </p>
+     * <p>
+     * By default, a string is created from the characters and passed to {@link #parse(String)}. Parsers override this
+     * to parse the characters directly where they can do so without changing the result.
+     * </p>
+     * 
+     * @param buffer
+     *            buffer holding the string representation of the field
+     * @param offset
+     *            start of the field in the buffer
+     * @param length
+     *            number of characters in the field
+     * @return strongly typed value of the field
+     * @throws ParseException
+     */
+    public Object parse(char[] buffer, int offset, int length) throws ParseException {
+        return parse(new String(buffer, offset, length));
+    }
+
+    /**
+     * Returned by {@link #parseDigits(char[], int, int)} if the characters are not a plain whole number
+     */
+    protected static final long NOT_DIGITS = Long.MIN_VALUE;
+
+    /**
+     * Parses a whole number made up of an optional minus sign and up to 18 digits with optional leading and trailing
+     * white space.
+     * 
+     * @param buffer
+     *            buffer holding the number
+     * @param offset
+     *            start of the number in the buffer
+     * @param length
+     *            number of characters
+     * @return value of the number or {@link #NOT_DIGITS} if the characters are not a plain whole number and should be
+     *         parsed as a string
+     */
+    protected static long parseDigits(char[] buffer, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while (i < end && buffer[i] <= ' ') {
+            i++;
+        }
+        while (end > i && buffer[end - 1] <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (i < end && buffer[i] == '-') {
+            negative = true;
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            return NOT_DIGITS;
+        }
+
+        long n = 0;
+        for (; i < end; i++) {
+            char c = buffer[i];
+            if (c < '0' || c > '9') {
+                return NOT_DIGITS;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return negative ? -n : n;
+    }
 }
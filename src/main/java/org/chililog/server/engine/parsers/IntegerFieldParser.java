@@ -72,6 +72,20 @@ public class IntegerFieldParser extends FieldParser {
         return parseInteger(value);
     }
 
+    /**
+     * Parses an integer from a character buffer. Plain numbers are parsed without creating a string.
+     */
+    @Override
+    public Object parse(char[] buffer, int offset, int length) throws ParseException {
+        if (_numberFormatter == null && !hasPreparsePattern()) {
+            long n = parseDigits(buffer, offset, length);
+            if (n != NOT_DIGITS && n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE) {
+                return (int) n;
+            }
+        }
+        return parse(new String(buffer, offset, length));
+    }
+
     /**
      * <p>
      * Parse an integer.
@@ -0,0 +1,130 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+/**
+ * <p>
+ * Puts a time limit on running a regular expression.
+ * </p>
+ * <p>
+ * {@link java.util.regex.Matcher} cannot be interrupted. However, it reads its input one character at a time through
+ * {@link CharSequence#charAt(int)}, including while backtracking. This class wraps the text to match and checks the
+ * clock every {@link #CHECK_INTERVAL} reads. If the time limit has passed, a {@link RegexTimeoutException} is thrown
+ * and it unwinds the matcher. A pattern like <code>(a+)+b</code> run against a long string of "a" is stopped this way
+ * instead of tying up a storage worker thread.
+ * </p>
+ * <p>
+ * Instances are reused for each match so they are not thread safe.
+ * </p>
+ *
+ * <pre>
+ * InterruptibleCharSequence text = new InterruptibleCharSequence(100);
+ * Matcher m = pattern.matcher(&quot;&quot;);
+ * m.reset(text.reset(message));
+ * boolean matches = m.matches();
+ * </pre>
+ *
+ * @author vibul
+ *
+ */
+class InterruptibleCharSequence implements CharSequence {
+
+    /**
+     * Number of characters read between checks of the clock
+     */
+    static final int CHECK_INTERVAL = 1024;
+
+    private long _timeoutMilliseconds;
+    private long _timeoutNanoseconds;
+    private CharSequence _text = "";
+    private long _deadline = 0;
+    private int _countdown = CHECK_INTERVAL;
+
+    /**
+     * Constructor
+     *
+     * @param timeoutMilliseconds
+     *            Maximum number of milliseconds a match may take. 0 or less for no limit.
+     */
+    InterruptibleCharSequence(long timeoutMilliseconds) {
+        _timeoutMilliseconds = timeoutMilliseconds;
+        _timeoutNanoseconds = timeoutMilliseconds * 1000000L;
+    }
+
+    /**
+     * Returns the maximum number of milliseconds a match may take. 0 or less if there is no limit.
+     */
+    long getTimeoutMilliseconds() {
+        return _timeoutMilliseconds;
+    }
+
+    /**
+     * Returns true if there is a time limit
+     */
+    boolean isLimited() {
+        return _timeoutMilliseconds > 0;
+    }
+
+    /**
+     * Starts the clock for a new match
+     *
+     * @param text
+     *            Text to match
+     * @return Text to pass to the {@link java.util.regex.Matcher}. If there is no time limit, <code>text</code> is
+     *         returned so that there is no overhead.
+     */
+    CharSequence reset(CharSequence text) {
+        if (!isLimited()) {
+            return text;
+        }
+        _text = text;
+        _countdown = CHECK_INTERVAL;
+        _deadline = System.nanoTime() + _timeoutNanoseconds;
+        return this;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--_countdown <= 0) {
+            _countdown = CHECK_INTERVAL;
+            if (System.nanoTime() - _deadline > 0) {
+                throw new RegexTimeoutException(_timeoutMilliseconds);
+            }
+        }
+        return _text.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return _text.length();
+    }
+
+    /**
+     * Used by {@link java.util.regex.Matcher#group(int)} to return matched text. It does not need to be timed.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return _text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return _text.toString();
+    }
+}
@@ -27,12 +27,14 @@ import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.StringUtils;
 import org.chililog.server.common.ChiliLogException;
 import org.chililog.server.common.Log4JLogger;
-import org.chililog.server.data.MongoJsonParser;
+import org.chililog.server.common.StringsProperties;
 import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryFieldConfigBO;
 import org.chililog.server.data.RepositoryParserConfigBO;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
 import org.chililog.server.engine.Strings;
+import org.chililog.server.engine.parsers.JsonFieldReader.FieldError;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
@@ -45,7 +47,13 @@ import com.mongodb.DBObject;
  * { "field1": 1, "field2": "abc", "field3": 123 }
  * </code>
  * <p>
- * Field definitions are not required because it is defined in the JSON format.
+ * Field definitions are not required because it is defined in the JSON format. If fields are defined, the value of a
+ * top level key with the same name as a field is parsed as the field's data type instead of guessing its type. The
+ * value is stored under the key as before. Values that cannot be parsed are handled as per the parser's field error
+ * handling setting.
+ * </p>
+ * <p>
+ * Entries are read with a {@link JsonFieldReader} that is reused for each entry.
  * </p>
  * 
  * @author vibul
@@ -58,6 +66,7 @@ public class JsonEntryParser extends EntryParser {
     private Pattern _datePattern = null;
     private String _dateFormat = null;
     private Pattern _longNumberPattern = null;
+    private JsonFieldReader _reader = null;
 
     /**
      * <p>
@@ -123,6 +132,14 @@ public class JsonEntryParser extends EntryParser {
                 _longNumberPattern = Pattern.compile(s);
             }
 
+            ArrayList<RepositoryFieldConfigBO> fields = repoParserInfo.getFields();
+            String[] fieldNames = new String[fields.size()];
+            FieldParser[] fieldParsers = new FieldParser[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                fieldNames[i] = fields.get(i).getName();
+                fieldParsers[i] = createFieldParser(fields.get(i));
+            }
+            _reader = new JsonFieldReader(fieldNames, fieldParsers, _datePattern, _dateFormat, _longNumberPattern);
         } catch (Exception ex) {
             if (ex instanceof ChiliLogException) {
                 throw (ChiliLogException) ex;
@@ -165,10 +182,11 @@ public class JsonEntryParser extends EntryParser {
             this.setLastParseError(null);
             checkParseArguments(timestamp, source, host, severity, message);
 
-            MongoJsonParser parser = new MongoJsonParser(message, _datePattern, _dateFormat, _longNumberPattern);
             DBObject fieldsDBObject = new BasicDBObject();
             try {
-                fieldsDBObject = (DBObject) parser.parse();
+                fieldsDBObject = _reader.read(message);
+            } catch (RegexTimeoutException ex) {
+                throw ex;
             } catch (Exception ex) {
                 switch (this.getRepoParserInfo().getParseFieldErrorHandling()) {
                     case SkipField:
@@ -184,6 +202,25 @@ public class JsonEntryParser extends EntryParser {
                 }
             }
 
+            for (FieldError fieldError : _reader.getFieldErrors()) {
+                Exception ex = fieldError.getError();
+                switch (this.getRepoParserInfo().getParseFieldErrorHandling()) {
+                    case SkipField:
+                        String msg = StringsProperties.getInstance().getString(Strings.PARSER_FIELD_ERROR_SKIP_FIELD);
+                        _logger.error(ex, msg, fieldError.getValue(), fieldError.getFieldName(), this.getRepoName(),
+                                ex.getMessage(), message);
+                        break;
+                    case SkipEntry:
+                        throw new ChiliLogException(ex, Strings.PARSER_FIELD_ERROR_SKIP_ENTRY, fieldError.getValue(),
+                                fieldError.getFieldName(), this.getRepoName(), ex.getMessage(), message);
+                    case SkipFieldIgnoreError:
+                        break;// Do nothing
+                    default:
+                        throw new NotImplementedException("ParseFieldErrorHandling type "
+                                + this.getRepoParserInfo().getParseFieldErrorHandling().toString());
+                }
+            }
+
             Severity sev = Severity.parse(severity);
             ArrayList<String> keywords = parseKeywords(source, host, sev, message);
 
@@ -0,0 +1,583 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.bson.BSON;
+import org.bson.types.ObjectId;
+import org.chililog.server.common.Iso8601DateParser;
+import org.chililog.server.data.MongoJsonParser;
+import org.chililog.server.data.RepositoryEntryListCriteria;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+
+/**
+ * <p>
+ * Reads a JSON log entry straight into a mongoDB {@link BasicDBObject} in a single pass.
+ * </p>
+ * <p>
+ * The value of a top level key that matches a configured field is handed to the field's {@link FieldParser} directly
+ * from the character buffer. No regular expressions are run to guess its type. Values of other keys are typed in the
+ * same way as {@link MongoJsonParser}:
+ * <ul>
+ * <li>Numbers with a decimal point or exponent are Double, numbers of 10 or more characters are Long and other numbers
+ * are Integer.</li>
+ * <li>Strings are checked against the long number and date patterns.</li>
+ * <li>Nested objects with <code>$oid</code>, <code>$date</code> or <code>$regex</code> keys are converted like
+ * {@link com.mongodb.util.JSONCallback}.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * If a configured field cannot be parsed, it is left out and the error is available from {@link #getFieldErrors()}.
+ * The caller decides what to do based on the parser's field error handling.
+ * </p>
+ * <p>
+ * Character buffers and matchers are reused for the next entry so instances are not thread safe.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+class JsonFieldReader {
+
+    private static final char END = (char) -1;
+
+    private String[] _fieldNames;
+    private FieldParser[] _fieldParsers;
+
+    private Matcher _dateMatcher = null;
+    private Matcher _longNumberMatcher = null;
+    private SimpleDateFormat _dateFormat = null;
+    private boolean _isIso8601DatePattern = false;
+    private SimpleDateFormat _mongoDateFormat = null;
+
+    private char[] _chars = new char[256];
+    private int _length = 0;
+    private int _pos = 0;
+
+    private char[] _buffer = new char[256];
+    private int _bufferLength = 0;
+
+    private ArrayList<FieldError> _fieldErrors = new ArrayList<FieldError>();
+
+    /**
+     * Constructor
+     *
+     * @param fieldNames
+     *            Top level keys that are configured fields
+     * @param fieldParsers
+     *            Parser for each key in <code>fieldNames</code>
+     * @param datePattern
+     *            Regular expression to use to test if a string is a date. Group #1 in the pattern is used. If null, no
+     *            date checking is performed.
+     * @param dateFormat
+     *            {@link SimpleDateFormat} pattern to use to parse the date. If null, no date parsing is performed.
+     * @param longNumberPattern
+     *            Regular expression to use to test if a string is a long number. Group #1 in the pattern is used. If
+     *            null, no long number matching is performed.
+     */
+    JsonFieldReader(String[] fieldNames,
+                    FieldParser[] fieldParsers,
+                    Pattern datePattern,
+                    String dateFormat,
+                    Pattern longNumberPattern) {
+        _fieldNames = fieldNames;
+        _fieldParsers = fieldParsers;
+        _dateMatcher = datePattern == null ? null : datePattern.matcher("");
+        _dateFormat = StringUtils.isBlank(dateFormat) ? null : new SimpleDateFormat(dateFormat);
+        _longNumberMatcher = longNumberPattern == null ? null : longNumberPattern.matcher("");
+        _isIso8601DatePattern = (datePattern == RepositoryEntryListCriteria.DATE_PATTERN);
+    }
+
+    /**
+     * Reads a JSON object
+     *
+     * @param json
+     *            JSON text. Must be an object.
+     * @return Keys and values of the object
+     * @throws ParseException
+     *             if <code>json</code> is not a valid JSON object
+     */
+    BasicDBObject read(String json) throws ParseException {
+        _fieldErrors.clear();
+        _length = json.length();
+        if (_chars.length < _length) {
+            _chars = new char[Math.max(_length, _chars.length * 2)];
+        }
+        json.getChars(0, _length, _chars, 0);
+        _pos = 0;
+
+        if (get() != '{') {
+            throw error();
+        }
+        // Like MongoJsonParser, text after the object is ignored
+        return readObject(true);
+    }
+
+    /**
+     * Returns the configured fields that could not be parsed by the last call to {@link #read(String)}
+     */
+    List<FieldError> getFieldErrors() {
+        return _fieldErrors;
+    }
+
+    /**
+     * Reads an object. The current character must be <code>{</code>.
+     *
+     * @param isTopLevel
+     *            True if keys should be checked against the configured fields
+     */
+    private BasicDBObject readObject(boolean isTopLevel) throws ParseException {
+        BasicDBObject o = new BasicDBObject();
+        _pos++;
+        while (get() != '}') {
+            readString();
+            int fieldIndex = isTopLevel ? findField() : -1;
+            String key = fieldIndex >= 0 ? _fieldNames[fieldIndex] : new String(_buffer, 0, _bufferLength);
+            read(':');
+
+            if (fieldIndex >= 0) {
+                readField(o, key, _fieldParsers[fieldIndex]);
+            } else {
+                o.put(key, readValue());
+            }
+
+            if (get() == ',') {
+                _pos++;
+            } else {
+                break;
+            }
+        }
+        read('}');
+        return o;
+    }
+
+    /**
+     * Reads the value of a configured field and puts it in the object. If the value cannot be parsed, it is recorded
+     * in the field errors.
+     */
+    private void readField(BasicDBObject o, String key, FieldParser parser) throws ParseException {
+        char c = get();
+        char[] source;
+        int start;
+        int length;
+        if (c == '"' || c == '\'') {
+            readString();
+            source = _buffer;
+            start = 0;
+            length = _bufferLength;
+        } else if (c == '{' || c == '[') {
+            // Structures cannot be converted to a field type
+            o.put(key, readValue());
+            return;
+        } else if (isWord("null")) {
+            readWord("null");
+            o.put(key, null);
+            return;
+        } else {
+            source = _chars;
+            start = _pos;
+            while (_pos < _length && ",}] \t\r\n".indexOf(_chars[_pos]) < 0) {
+                _pos++;
+            }
+            length = _pos - start;
+            if (length == 0) {
+                throw error();
+            }
+        }
+
+        try {
+            o.put(key, parser.parse(source, start, length));
+        } catch (RegexTimeoutException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            _fieldErrors.add(new FieldError(key, new String(source, start, length), ex));
+        }
+    }
+
+    /**
+     * Reads a value of an unknown type
+     */
+    private Object readValue() throws ParseException {
+        char c = get();
+        switch (c) {
+            case 'n':
+                readWord("null");
+                return null;
+            case 't':
+                readWord("true");
+                return Boolean.TRUE;
+            case 'f':
+                readWord("false");
+                return Boolean.FALSE;
+            case '\'':
+            case '"':
+                readString();
+                return convertString(new String(_buffer, 0, _bufferLength));
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+            case '+':
+            case '-':
+                return readNumber();
+            case '[':
+                return readArray();
+            case '{':
+                int start = _pos;
+                BasicDBObject o = readObject(false);
+                return convertSpecialObject(o, start);
+            default:
+                throw error();
+        }
+    }
+
+    /**
+     * Reads an array. The current character must be <code>[</code>.
+     */
+    private BasicDBList readArray() throws ParseException {
+        BasicDBList list = new BasicDBList();
+        _pos++;
+        char c = get();
+        while (c != ']') {
+            list.add(readValue());
+            c = get();
+            if (c == ',') {
+                _pos++;
+            } else if (c != ']') {
+                throw error();
+            }
+        }
+        _pos++;
+        return list;
+    }
+
+    /**
+     * Reads a quoted string into the buffer. The current character must be a quote.
+     */
+    private void readString() throws ParseException {
+        char quote = get();
+        if (quote != '"' && quote != '\'') {
+            throw error();
+        }
+        _pos++;
+        _bufferLength = 0;
+        char[] chars = _chars;
+        while (_pos < _length) {
+            char c = chars[_pos++];
+            if (c == quote) {
+                return;
+            }
+            if (c == '\\' && _pos < _length) {
+                c = chars[_pos++];
+                switch (c) {
+                    case 'u':
+                        if (_pos + 4 > _length) {
+                            throw error();
+                        }
+                        int codePoint = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(chars[_pos++], 16);
+                            if (digit < 0) {
+                                _pos--;
+                                throw error();
+                            }
+                            codePoint = codePoint * 16 + digit;
+                        }
+                        c = (char) codePoint;
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    default:
+                        // Other escaped characters stand for themselves
+                        break;
+                }
+            }
+            append(c);
+        }
+        throw error();
+    }
+
+    private void append(char c) {
+        if (_bufferLength == _buffer.length) {
+            char[] newBuffer = new char[_buffer.length * 2];
+            System.arraycopy(_buffer, 0, newBuffer, 0, _bufferLength);
+            _buffer = newBuffer;
+        }
+        _buffer[_bufferLength++] = c;
+    }
+
+    /**
+     * Reads a number. Same rules as {@link MongoJsonParser#parseNumber()}.
+     */
+    private Number readNumber() {
+        int start = _pos;
+        boolean isDouble = false;
+        char[] chars = _chars;
+
+        if (chars[_pos] == '-' || chars[_pos] == '+') {
+            _pos++;
+        }
+        while (_pos < _length) {
+            char c = chars[_pos];
+            if (c >= '0' && c <= '9') {
+                _pos++;
+            } else if (c == '.' || c == 'e' || c == 'E'
+                    || ((c == '-' || c == '+') && (chars[_pos - 1] == 'e' || chars[_pos - 1] == 'E'))) {
+                isDouble = true;
+                _pos++;
+            } else {
+                break;
+            }
+        }
+
+        int length = _pos - start;
+        if (isDouble) {
+            return Double.valueOf(new String(chars, start, length));
+        }
+        if (length >= 10) {
+            return Long.valueOf(new String(chars, start, length));
+        }
+
+        // Less than 10 characters always fits in an int
+        int i = start;
+        boolean negative = false;
+        if (chars[i] == '-' || chars[i] == '+') {
+            negative = chars[i] == '-';
+            i++;
+        }
+        if (i == _pos) {
+            throw new NumberFormatException("For input string: \"" + new String(chars, start, length) + "\"");
+        }
+        int n = 0;
+        for (; i < _pos; i++) {
+            n = n * 10 + (chars[i] - '0');
+        }
+        return Integer.valueOf(negative ? -n : n);
+    }
+
+    /**
+     * Applies the long number and date heuristics of {@link MongoJsonParser} to a string value
+     */
+    private Object convertString(String s) throws ParseException {
+        if (StringUtils.isBlank(s)) {
+            return s;
+        }
+
+        Object value = s;
+        if (_longNumberMatcher != null) {
+            _longNumberMatcher.reset(s);
+            if (_longNumberMatcher.matches()) {
+                try {
+                    value = Long.parseLong(_longNumberMatcher.group(1));
+                } catch (Exception ex) {
+                    throw error();
+                }
+            }
+        }
+        if (_dateFormat != null && _isIso8601DatePattern) {
+            if (Iso8601DateParser.matches(s)) {
+                long millis = Iso8601DateParser.parseMillis(s);
+                value = (millis != Iso8601DateParser.INVALID) ? new Date(millis) : parseDate(s.substring(0,
+                        s.length() - 1) + "GMT");
+            }
+        } else if (_dateFormat != null && _dateMatcher != null) {
+            _dateMatcher.reset(s);
+            if (_dateMatcher.matches()) {
+                String dateString = _dateMatcher.group(1);
+                if (dateString.endsWith("Z")) {
+                    // Simple date format does not recognise Z time zone so make it GMT
+                    dateString = dateString.substring(0, dateString.length() - 1) + "GMT";
+                }
+                value = parseDate(dateString);
+            }
+        }
+        return value;
+    }
+
+    private Date parseDate(String s) throws ParseException {
+        try {
+            return _dateFormat.parse(s);
+        } catch (ParseException ex) {
+            throw error();
+        }
+    }
+
+    /**
+     * Converts nested objects with special keys in the same way as {@link com.mongodb.util.JSONCallback}
+     */
+    private Object convertSpecialObject(BasicDBObject o, int start) throws ParseException {
+        if (o.isEmpty() || !hasSpecialKey(o)) {
+            return o;
+        }
+        try {
+            if (o.containsField("$oid")) {
+                return new ObjectId((String) o.get("$oid"));
+            }
+            if (o.containsField("$date")) {
+                if (_mongoDateFormat == null) {
+                    _mongoDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+                    _mongoDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+                }
+                return _mongoDateFormat.parse((String) o.get("$date"), new ParsePosition(0));
+            }
+            if (o.containsField("$regex")) {
+                return Pattern.compile((String) o.get("$regex"), BSON.regexFlags((String) o.get("$options")));
+            }
+        } catch (RuntimeException ex) {
+            ParseException pex = new ParseException("Invalid special object at position " + start, start);
+            pex.initCause(ex);
+            throw pex;
+        }
+        return o;
+    }
+
+    private static boolean hasSpecialKey(BasicDBObject o) {
+        for (String key : o.keySet()) {
+            if (key.length() > 0 && key.charAt(0) == '$') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the configured field whose name is in the buffer. -1 if none.
+     */
+    private int findField() {
+        for (int i = 0; i < _fieldNames.length; i++) {
+            String name = _fieldNames[i];
+            if (name.length() != _bufferLength) {
+                continue;
+            }
+            int j = 0;
+            while (j < _bufferLength && name.charAt(j) == _buffer[j]) {
+                j++;
+            }
+            if (j == _bufferLength) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skips whitespace and returns the current character without consuming it
+     */
+    private char get() {
+        while (_pos < _length && Character.isWhitespace(_chars[_pos])) {
+            _pos++;
+        }
+        return _pos < _length ? _chars[_pos] : END;
+    }
+
+    private void read(char c) throws ParseException {
+        if (get() != c) {
+            throw error();
+        }
+        _pos++;
+    }
+
+    private boolean isWord(String word) {
+        if (_pos + word.length() > _length) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (_chars[_pos + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readWord(String word) throws ParseException {
+        if (!isWord(word)) {
+            throw error();
+        }
+        _pos += word.length();
+    }
+
+    private ParseException error() {
+        String found = _pos < _length ? "'" + _chars[_pos] + "'" : "end of text";
+        return new ParseException("Invalid JSON. Unexpected " + found + " at position " + _pos + ".", _pos);
+    }
+
+    /**
+     * A configured field that could not be parsed
+     */
+    static class FieldError {
+        private String _fieldName;
+        private String _value;
+        private Exception _error;
+
+        FieldError(String fieldName, String value, Exception error) {
+            _fieldName = fieldName;
+            _value = value;
+            _error = error;
+        }
+
+        /**
+         * Returns the name of the field
+         */
+        String getFieldName() {
+            return _fieldName;
+        }
+
+        /**
+         * Returns the text that could not be parsed
+         */
+        String getValue() {
+            return _value;
+        }
+
+        /**
+         * Returns the reason the text could not be parsed
+         */
+        Exception getError() {
+            return _error;
+        }
+    }
+}
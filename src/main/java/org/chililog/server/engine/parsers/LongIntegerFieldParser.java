@@ -72,6 +72,20 @@ public class LongIntegerFieldParser extends FieldParser {
         return parseLong(value);
     }
 
+    /**
+     * Parses a long integer from a character buffer. Plain numbers are parsed without creating a string.
+     */
+    @Override
+    public Object parse(char[] buffer, int offset, int length) throws ParseException {
+        if (_numberFormatter == null && !hasPreparsePattern()) {
+            long n = parseDigits(buffer, offset, length);
+            if (n != NOT_DIGITS) {
+                return n;
+            }
+        }
+        return parse(new String(buffer, offset, length));
+    }
+
     /**
      * <p>
      * Parse a long integer.
@@ -18,8 +18,8 @@
 
 package org.chililog.server.engine.parsers;
 
-import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -35,6 +35,7 @@ import org.chililog.server.data.RepositoryConfigBO;
 import org.chililog.server.data.RepositoryParserConfigBO;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
 import org.chililog.server.engine.Strings;
+import org.chililog.server.engine.parsers.EntryParserMetrics.FieldMetrics;
 
 import com.mongodb.BasicDBObject;
 
@@ -42,6 +43,18 @@ import com.mongodb.BasicDBObject;
  * <p>
  * Parser to extract field values from free format log entries using regular expression. For example,
  * </p>
+ * <p>
+ * Each distinct pattern is matched at most once per entry. Fields with the same pattern, or with the same pattern as the
+ * entry, share the one match. Before a pattern is run, a {@link RegexPrefilter} checks that the entry contains the
+ * literal text that the pattern requires. Entries that cannot match are rejected without running the pattern.
+ * </p>
+ * <p>
+ * The time spent extracting each field is recorded in {@link EntryParserMetrics}.
+ * </p>
+ * <p>
+ * Patterns are run with the parser's regular expression time limit. If a pattern takes too long, the entry is skipped
+ * regardless of the field error handling setting so that it is moved to the dead letter queue.
+ * </p>
  * 
  * @author vibul
  * 
@@ -49,7 +62,8 @@ import com.mongodb.BasicDBObject;
 public class RegexEntryParser extends EntryParser {
 
     private static Log4JLogger _logger = Log4JLogger.getLogger(RegexEntryParser.class);
-    private Pattern _pattern;
+    private PatternMatch _entryMatch = null;
+    private ArrayList<PatternMatch> _matches = new ArrayList<PatternMatch>();
     private ArrayList<RegexFieldInfo> _fields = new ArrayList<RegexFieldInfo>();
 
     /**
@@ -86,17 +100,33 @@ public class RegexEntryParser extends EntryParser {
 
         try {
             Hashtable<String, String> properties = repoParserInfo.getProperties();
+            HashMap<String, PatternMatch> matchLookup = new HashMap<String, PatternMatch>();
             String patternString = properties.get(PATTERN_PROPERTY_NAME);
             if (!StringUtils.isBlank(patternString)) {
-                _pattern = Pattern.compile(patternString);
+                _entryMatch = new PatternMatch(patternString, getRegexTimeoutMilliseconds());
+                _matches.add(_entryMatch);
+                matchLookup.put(patternString, _entryMatch);
             }
 
             // Parse our field value so that we don't have to keep on doing it
+            EntryParserMetrics metrics = getMetrics();
             for (RepositoryFieldConfigBO f : repoParserInfo.getFields()) {
                 String fieldPatternString = f.getProperties().get(PATTERN_FIELD_PROPERTY_NAME);
                 String groupString = f.getProperties().get(GROUP_FIELD_PROPERTY_NAME);
                 Integer group = Integer.parseInt(groupString);
-                _fields.add(new RegexFieldInfo(fieldPatternString, group, f));
+
+                // Fields with the same pattern share a match
+                PatternMatch match = _entryMatch;
+                if (!StringUtils.isBlank(fieldPatternString)) {
+                    match = matchLookup.get(fieldPatternString);
+                    if (match == null) {
+                        match = new PatternMatch(fieldPatternString, getRegexTimeoutMilliseconds());
+                        _matches.add(match);
+                        matchLookup.put(fieldPatternString, match);
+                    }
+                }
+
+                _fields.add(new RegexFieldInfo(match, group, f, createFieldParser(f), metrics.getField(f.getName())));
             }
         } catch (Exception ex) {
             if (ex instanceof ChiliLogException) {
@@ -141,30 +171,27 @@ public class RegexEntryParser extends EntryParser {
             checkParseArguments(timestamp, source, host, severity, message);
 
             BasicDBObject parsedFields = this.readPreparsedFields(preparsedFields);
-            Matcher entryMatcher = null;
-            boolean entryMatches = false;
-            if (_pattern != null) {
-                entryMatcher = _pattern.matcher(message);
-                entryMatches = entryMatcher.matches();
+            for (PatternMatch match : _matches) {
+                match.reset(message);
             }
 
             for (RegexFieldInfo regexField : _fields) {
                 String fieldName = regexField.getRepoFieldInfo().getDbObjectName();
                 String fieldStringValue = null;
                 Object fieldValue = null;
+                long startTime = System.nanoTime();
+                PatternMatch match = regexField.getMatch();
+                boolean matches = false;
                 try {
-                    Matcher fieldMatcher = null;
-                    if (regexField.getPattern() != null) {
-                        fieldMatcher = regexField.getPattern().matcher(message);
-                        if (fieldMatcher.matches()) {
-                            fieldStringValue = fieldMatcher.group(regexField.getGroup());
-                        }
-                    } else if (entryMatches) {
-                        fieldStringValue = entryMatcher.group(regexField.getGroup());
+                    if (match != null && match.matches()) {
+                        matches = true;
+                        fieldStringValue = match.group(regexField.getGroup());
                     }
 
                     fieldValue = regexField.getParser().parse(fieldStringValue);
                     parsedFields.put(fieldName, fieldValue);
+                } catch (RegexTimeoutException ex) {
+                    throw ex;
                 } catch (Exception ex) {
                     switch (this.getRepoParserInfo().getParseFieldErrorHandling()) {
                         case SkipField:
@@ -183,6 +210,9 @@ public class RegexEntryParser extends EntryParser {
                                     + this.getRepoParserInfo().getParseFieldErrorHandling().toString());
 
                     }
+                } finally {
+                    regexField.getMetrics().record(System.nanoTime() - startTime,
+                            match != null && match.isPrefilterRejected(), matches);
                 }
             }
 
@@ -197,41 +227,123 @@ public class RegexEntryParser extends EntryParser {
         }
     }
 
+    /**
+     * A pattern and the result of matching it against the current entry. The pattern is only run the first time a field
+     * needs the result.
+     */
+    private static class PatternMatch {
+
+        private Matcher _matcher;
+        private RegexPrefilter _prefilter;
+        private InterruptibleCharSequence _text;
+        private String _message;
+        private boolean _evaluated = false;
+        private boolean _matches = false;
+        private boolean _prefilterRejected = false;
+
+        /**
+         * Basic constructor
+         * 
+         * @param pattern
+         *            regular expression
+         * @param timeoutMilliseconds
+         *            maximum number of milliseconds the pattern may run against an entry. 0 for no limit.
+         */
+        public PatternMatch(String pattern, long timeoutMilliseconds) {
+            _matcher = Pattern.compile(pattern).matcher("");
+            _prefilter = RegexPrefilter.compile(pattern);
+            _text = new InterruptibleCharSequence(timeoutMilliseconds);
+        }
+
+        /**
+         * Prepares to match a new entry
+         * 
+         * @param message
+         *            entry text
+         */
+        public void reset(String message) {
+            _message = message;
+            _evaluated = false;
+            _matches = false;
+            _prefilterRejected = false;
+        }
+
+        /**
+         * Returns true if the pattern matches the entry
+         * 
+         * @throws RegexTimeoutException
+         *             if the pattern runs for longer than allowed
+         */
+        public boolean matches() {
+            if (!_evaluated) {
+                _evaluated = true;
+                if (_prefilter != null && !_prefilter.mayMatch(_message)) {
+                    _prefilterRejected = true;
+                } else {
+                    _matcher.reset(_text.reset(_message));
+                    _matches = _matcher.matches();
+                }
+            }
+            return _matches;
+        }
+
+        /**
+         * Returns the text matched by a group
+         */
+        public String group(int group) {
+            return _matcher.group(group);
+        }
+
+        /**
+         * Returns true if the entry was rejected by the prefilter without running the pattern
+         */
+        public boolean isPrefilterRejected() {
+            return _prefilterRejected;
+        }
+    }
+
     /**
      * Encapsulates a regular expression field
      */
     private static class RegexFieldInfo {
 
-        public Pattern _pattern;
-        public int _group;
+        private PatternMatch _match;
+        private int _group;
         private RepositoryFieldConfigBO _repoFieldInfo;
         private FieldParser _parser;
+        private FieldMetrics _metrics;
 
         /**
          * Basic constructor
          * 
-         * @param pattern
-         *            optional field specific pattern
+         * @param match
+         *            pattern containing this field. Either the field specific pattern or the entry pattern.
          * @param group
          *            group number within the matching pattern containing the string value of this field
          * @param repoFieldInfo
          *            meta data
-         * @throws ParseException
+         * @param parser
+         *            parser for the field's value
+         * @param metrics
+         *            metrics to which the cost of extracting this field is recorded
          */
-        public RegexFieldInfo(String pattern, int group, RepositoryFieldConfigBO repoFieldInfo) throws ParseException {
-            if (!StringUtils.isBlank(pattern)) {
-                _pattern = Pattern.compile(pattern);
-            }
+        public RegexFieldInfo(PatternMatch match,
+                              int group,
+                              RepositoryFieldConfigBO repoFieldInfo,
+                              FieldParser parser,
+                              FieldMetrics metrics) {
+            _match = match;
             _group = group;
             _repoFieldInfo = repoFieldInfo;
-            _parser = FieldParserFactory.getParser(repoFieldInfo);
+            _parser = parser;
+            _metrics = metrics;
         }
 
         /**
-         * Returns the optional field specific pattern. If null, then use the repository entry pattern
+         * Returns the pattern containing this field. Null if there is no pattern.
          */
-        public Pattern getPattern() {
-            return _pattern;
+        public PatternMatch getMatch() {
+            return _match;
         }
 
         /**
@@ -255,6 +367,13 @@ public class RegexEntryParser extends EntryParser {
             return _parser;
         }
 
+        /**
+         * Returns the metrics for this field
+         */
+        public FieldMetrics getMetrics() {
+            return _metrics;
+        }
+
     }
 
 }
@@ -0,0 +1,322 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Cheap check for text that cannot match a regular expression.
+ * </p>
+ * <p>
+ * The regular expression is examined for literal text that every match must contain; e.g.
+ * <code>^\[ERROR\] ([0-9]+) user=(.*)$</code> must start with <code>[ERROR] </code> and contain <code> user=</code>.
+ * Text that does not start with the literal prefix or does not contain the longest of the other literals cannot match
+ * so there is no need to run the regular expression.
+ * </p>
+ * <p>
+ * Only literals outside groups, character classes and alternation are used. If the regular expression has inline flags
+ * (e.g. case insensitive) or quoted text, no prefilter is created.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+class RegexPrefilter {
+
+    private String _prefix;
+    private String _required;
+
+    private RegexPrefilter(String prefix, String required) {
+        _prefix = prefix;
+        _required = required;
+    }
+
+    /**
+     * Creates a prefilter for a regular expression that is to be used with {@link java.util.regex.Matcher#matches()}
+     *
+     * @param regex
+     *            Regular expression. It must have been compiled with {@link Pattern#compile(String)} without flags.
+     * @return Prefilter or <code>null</code> if the regular expression does not have any required literal text
+     */
+    static RegexPrefilter compile(String regex) {
+        if (regex == null || regex.indexOf("\\Q") >= 0 || hasInlineFlags(regex)) {
+            return null;
+        }
+
+        String prefix = null;
+        String longest = "";
+        boolean atStart = true;
+        boolean lastAtomIsLiteral = false;
+        StringBuilder run = new StringBuilder();
+
+        int n = regex.length();
+        int i = (n > 0 && regex.charAt(0) == '^') ? 1 : 0;
+        while (i < n) {
+            char c = regex.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= n) {
+                        return null;
+                    }
+                    char next = regex.charAt(i + 1);
+                    if (Character.isLetterOrDigit(next)) {
+                        if (Character.isDigit(next)) {
+                            // Back reference
+                            return null;
+                        }
+                        i = skipEscape(regex, i);
+                        lastAtomIsLiteral = false;
+                        break;
+                    }
+                    run.append(next);
+                    lastAtomIsLiteral = true;
+                    i += 2;
+                    continue;
+                case '[':
+                    i = skipClass(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    lastAtomIsLiteral = false;
+                    break;
+                case '(':
+                    i = skipGroup(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    lastAtomIsLiteral = false;
+                    break;
+                case ')':
+                case '|':
+                    return null;
+                case '.':
+                case '^':
+                case '$':
+                    i++;
+                    lastAtomIsLiteral = false;
+                    break;
+                case '*':
+                case '?':
+                case '{':
+                    // Previous character is optional
+                    if (lastAtomIsLiteral) {
+                        removeLastChar(run);
+                    }
+                    i = skipQuantifier(regex, i);
+                    lastAtomIsLiteral = false;
+                    break;
+                case '+':
+                    // Previous character is required but may be repeated
+                    i = skipQuantifier(regex, i);
+                    lastAtomIsLiteral = false;
+                    break;
+                default:
+                    run.append(c);
+                    lastAtomIsLiteral = true;
+                    i++;
+                    continue;
+            }
+
+            // End of a run of literal characters
+            if (run.length() > 0) {
+                if (atStart) {
+                    prefix = run.toString();
+                } else if (run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+            atStart = false;
+        }
+
+        if (run.length() > 0) {
+            if (atStart) {
+                prefix = run.toString();
+            } else if (run.length() > longest.length()) {
+                longest = run.toString();
+            }
+        }
+
+        if (prefix == null && longest.length() == 0) {
+            return null;
+        }
+        return new RegexPrefilter(prefix, longest.length() == 0 ? null : longest);
+    }
+
+    /**
+     * Checks if the text may match
+     *
+     * @param text
+     *            text to check
+     * @return False if the text cannot match the regular expression. True if the regular expression has to be run to
+     *         find out.
+     */
+    boolean mayMatch(String text) {
+        if (_prefix != null && !text.startsWith(_prefix)) {
+            return false;
+        }
+        return _required == null || text.indexOf(_required) >= 0;
+    }
+
+    /**
+     * Returns the literal text with which every match starts. <code>null</code> if there is none.
+     */
+    String getPrefix() {
+        return _prefix;
+    }
+
+    /**
+     * Returns the longest literal text after the prefix that every match contains. <code>null</code> if there is none.
+     */
+    String getRequired() {
+        return _required;
+    }
+
+    private static boolean hasInlineFlags(String regex) {
+        int i = regex.indexOf("(?");
+        while (i >= 0) {
+            if (i + 2 >= regex.length() || ":=!<>".indexOf(regex.charAt(i + 2)) < 0) {
+                return true;
+            }
+            i = regex.indexOf("(?", i + 2);
+        }
+        return false;
+    }
+
+    private static void removeLastChar(StringBuilder run) {
+        int length = run.length();
+        if (length >= 2 && Character.isLowSurrogate(run.charAt(length - 1))
+                && Character.isHighSurrogate(run.charAt(length - 2))) {
+            run.setLength(length - 2);
+        } else if (length >= 1) {
+            run.setLength(length - 1);
+        }
+    }
+
+    /**
+     * Skips an escape sequence like <code>\d</code>, <code>\p{Alpha}</code> or <code>\x{41}</code>
+     */
+    private static int skipEscape(String regex, int i) {
+        char c = regex.charAt(i + 1);
+        i += 2;
+        switch (c) {
+            case 'p':
+            case 'P':
+            case 'x':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    int end = regex.indexOf('}', i);
+                    return end < 0 ? regex.length() : end + 1;
+                }
+                return Math.min(regex.length(), i + (c == 'x' ? 2 : 1));
+            case 'u':
+                return Math.min(regex.length(), i + 4);
+            case 'c':
+                return Math.min(regex.length(), i + 1);
+            case 'k':
+                int end = regex.indexOf('>', i);
+                return end < 0 ? regex.length() : end + 1;
+            default:
+                return i;
+        }
+    }
+
+    /**
+     * Skips a character class. Returns -1 if the class is not closed.
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                i++;
+                // A ] at the start of a class is a literal
+                if (i < n && regex.charAt(i) == '^') {
+                    i++;
+                }
+                if (i < n && regex.charAt(i) == ']') {
+                    i++;
+                }
+                continue;
+            }
+            if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips a group including any nested groups and character classes. Returns -1 if the group is not closed.
+     */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips a quantifier including any lazy or possessive suffix
+     */
+    private static int skipQuantifier(String regex, int i) {
+        if (regex.charAt(i) == '{') {
+            int end = regex.indexOf('}', i);
+            i = end < 0 ? regex.length() : end + 1;
+        } else {
+            i++;
+        }
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+}
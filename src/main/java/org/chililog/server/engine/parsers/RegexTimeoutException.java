@@ -0,0 +1,86 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+/**
+ * <p>
+ * Thrown from inside {@link java.util.regex.Matcher} when a regular expression runs for longer than allowed by an
+ * {@link InterruptibleCharSequence}.
+ * </p>
+ * <p>
+ * It is unchecked because it has to pass through the regular expression engine.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RegexTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private long _timeoutMilliseconds;
+
+    /**
+     * Constructor
+     *
+     * @param timeoutMilliseconds
+     *            Number of milliseconds the regular expression was allowed to run
+     */
+    public RegexTimeoutException(long timeoutMilliseconds) {
+        super("Regular expression did not complete within " + timeoutMilliseconds + " milliseconds");
+        _timeoutMilliseconds = timeoutMilliseconds;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param message
+     *            Description of the regular expression that timed out
+     * @param timeoutMilliseconds
+     *            Number of milliseconds the regular expression was allowed to run
+     */
+    public RegexTimeoutException(String message, long timeoutMilliseconds) {
+        super(message);
+        _timeoutMilliseconds = timeoutMilliseconds;
+    }
+
+    /**
+     * Returns the number of milliseconds the regular expression was allowed to run
+     */
+    public long getTimeoutMilliseconds() {
+        return _timeoutMilliseconds;
+    }
+
+    /**
+     * Checks if an exception was caused by a regular expression timing out
+     *
+     * @param ex
+     *            Exception to check
+     * @return True if <code>ex</code> or one of its causes is a {@link RegexTimeoutException}
+     */
+    public static boolean isCause(Throwable ex) {
+        while (ex != null) {
+            if (ex instanceof RegexTimeoutException) {
+                return true;
+            }
+            ex = ex.getCause();
+        }
+        return false;
+    }
+}
@@ -20,6 +20,8 @@ package org.chililog.server.pubsub;
 
 import org.chililog.server.common.AppProperties;
 import org.chililog.server.pubsub.jsonhttp.JsonHttpService;
+import org.chililog.server.pubsub.syslog.SyslogService;
+import org.chililog.server.pubsub.tcp.TcpService;
 
 /**
  * <p>
@@ -81,6 +83,14 @@ public class PubSubService {
         if (appProperties.getPubSubJsonHttpEnabled()) {
             JsonHttpService.getInstance().start();
         }
+
+        if (appProperties.getPubSubTcpEnabled()) {
+            TcpService.getInstance().start();
+        }
+
+        if (appProperties.getPubSubSyslogEnabled()) {
+            SyslogService.getInstance().start();
+        }
     }
 
     /**
@@ -92,6 +102,14 @@ public class PubSubService {
         if (appProperties.getPubSubJsonHttpEnabled()) {
             JsonHttpService.getInstance().stop();
         }
+
+        if (appProperties.getPubSubTcpEnabled()) {
+            TcpService.getInstance().stop();
+        }
+
+        if (appProperties.getPubSubSyslogEnabled()) {
+            SyslogService.getInstance().stop();
+        }
     }
 
 }
@@ -32,4 +32,5 @@ public class Strings {
             + "GetPooledPublisherSessionTimeoutError";
     public static final String PUBLISHER_AUTHENTICATION_ERROR = PREFIX + "PublisherAuthenticationError";
     public static final String SUBSCRIBER_AUTHENTICATION_ERROR = PREFIX + "SubscriberAuthenticationError";
+    public static final String SYSLOG_ROUTE_ERROR = PREFIX + "SyslogRouteError";
 }
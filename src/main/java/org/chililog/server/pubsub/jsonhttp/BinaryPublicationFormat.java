@@ -0,0 +1,364 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.jsonhttp;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * <p>
+ * Compact binary format for publication requests and responses sent in web socket binary frames. It is a cheaper
+ * alternative to JSON for high volume publishers.
+ * </p>
+ * <p>
+ * Messages use the protocol buffers wire format so publishers can use any protocol buffers library to encode them. A
+ * message is a sequence of fields. Each field starts with a varint tag of <code>(field number &lt;&lt; 3) | wire
+ * type</code>. Integers are varints (wire type 0). Strings and nested messages are prefixed with their length in bytes
+ * as a varint (wire type 2). Strings are UTF-8 encoded. Unknown fields are skipped.
+ * </p>
+ * 
+ * <pre>
+ * message PublicationRequest {
+ *   string message_id = 1;
+ *   string repository_name = 2;
+ *   string username = 3;
+ *   string password = 4;        // Password or authentication token in the form "token:..."
+ *   repeated LogEntry log_entries = 5;
+ * }
+ * 
+ * message LogEntry {
+ *   uint64 timestamp = 1;       // Milliseconds since 1970-01-01T00:00:00Z
+ *   string source = 2;
+ *   string host = 3;
+ *   uint32 severity = 4;        // Severity code 0-7
+ *   string fields = 5;          // Preparsed fields in JSON format
+ *   string message = 6;
+ * }
+ * 
+ * message PublicationResponse {
+ *   string message_id = 1;
+ *   bool success = 2;
+ *   string error_message = 3;
+ *   string error_stack_trace = 4;
+ * }
+ * </pre>
+ * 
+ * @author vibul
+ * 
+ */
+public class BinaryPublicationFormat {
+
+    static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+    static final int WIRE_TYPE_VARINT = 0;
+    static final int WIRE_TYPE_FIXED64 = 1;
+    static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    static final int WIRE_TYPE_FIXED32 = 5;
+
+    static final int REQUEST_MESSAGE_ID_FIELD = 1;
+    static final int REQUEST_REPOSITORY_NAME_FIELD = 2;
+    static final int REQUEST_USERNAME_FIELD = 3;
+    static final int REQUEST_PASSWORD_FIELD = 4;
+    static final int REQUEST_LOG_ENTRIES_FIELD = 5;
+
+    static final int LOG_ENTRY_TIMESTAMP_FIELD = 1;
+    static final int LOG_ENTRY_SOURCE_FIELD = 2;
+    static final int LOG_ENTRY_HOST_FIELD = 3;
+    static final int LOG_ENTRY_SEVERITY_FIELD = 4;
+    static final int LOG_ENTRY_FIELDS_FIELD = 5;
+    static final int LOG_ENTRY_MESSAGE_FIELD = 6;
+
+    static final int RESPONSE_MESSAGE_ID_FIELD = 1;
+    static final int RESPONSE_SUCCESS_FIELD = 2;
+    static final int RESPONSE_ERROR_MESSAGE_FIELD = 3;
+    static final int RESPONSE_ERROR_STACK_TRACE_FIELD = 4;
+
+    /**
+     * Private constructor; only static methods
+     */
+    private BinaryPublicationFormat() {
+        return;
+    }
+
+    /**
+     * Returns the field number part of a tag
+     */
+    static int getFieldNumber(int tag) {
+        return tag >>> 3;
+    }
+
+    /**
+     * Returns the wire type part of a tag
+     */
+    static int getWireType(int tag) {
+        return tag & 7;
+    }
+
+    /**
+     * Reads a varint
+     * 
+     * @param buffer
+     *            Buffer to read
+     * @return Value
+     * @throws IOException
+     *             if the varint is longer than 10 bytes or the buffer ends before the varint
+     */
+    static long readVarint(ChannelBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.readable()) {
+                throw new IOException("Unexpected end of binary message reading varint");
+            }
+            byte b = buffer.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary message");
+    }
+
+    /**
+     * Reads the length prefix of a string or nested message and checks that the buffer has that many bytes
+     * 
+     * @param buffer
+     *            Buffer to read
+     * @return Length in bytes
+     * @throws IOException
+     *             if the length is longer than the remaining bytes
+     */
+    static int readLength(ChannelBuffer buffer) throws IOException {
+        long length = readVarint(buffer);
+        if (length < 0 || length > buffer.readableBytes()) {
+            throw new IOException(String.format("Length %s is longer than the %s bytes left in the binary message",
+                    length, buffer.readableBytes()));
+        }
+        return (int) length;
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string
+     * 
+     * @param buffer
+     *            Buffer to read
+     * @return String
+     * @throws IOException
+     *             if the length is longer than the remaining bytes
+     */
+    static String readString(ChannelBuffer buffer) throws IOException {
+        int length = readLength(buffer);
+        String s = buffer.toString(buffer.readerIndex(), length, UTF_8_CHARSET);
+        buffer.skipBytes(length);
+        return s;
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string after checking that the tag's wire type is for a string
+     */
+    static String readString(ChannelBuffer buffer, int tag) throws IOException {
+        checkWireType(tag, WIRE_TYPE_LENGTH_DELIMITED);
+        return readString(buffer);
+    }
+
+    /**
+     * Reads a varint after checking that the tag's wire type is for a varint
+     */
+    static long readVarint(ChannelBuffer buffer, int tag) throws IOException {
+        checkWireType(tag, WIRE_TYPE_VARINT);
+        return readVarint(buffer);
+    }
+
+    /**
+     * Throws an exception if the wire type in the tag is not the expected wire type
+     */
+    static void checkWireType(int tag, int wireType) throws IOException {
+        if (getWireType(tag) != wireType) {
+            throw new IOException(String.format("Field %s has wire type %s. Wire type %s expected.",
+                    getFieldNumber(tag), getWireType(tag), wireType));
+        }
+    }
+
+    /**
+     * Skips the value of an unknown field
+     * 
+     * @param buffer
+     *            Buffer to read
+     * @param tag
+     *            Tag of the field
+     * @throws IOException
+     *             if the wire type is not supported or the buffer is too short
+     */
+    static void skipField(ChannelBuffer buffer, int tag) throws IOException {
+        int wireType = getWireType(tag);
+        int length;
+        if (wireType == WIRE_TYPE_VARINT) {
+            readVarint(buffer);
+            return;
+        } else if (wireType == WIRE_TYPE_FIXED64) {
+            length = 8;
+        } else if (wireType == WIRE_TYPE_LENGTH_DELIMITED) {
+            length = readLength(buffer);
+        } else if (wireType == WIRE_TYPE_FIXED32) {
+            length = 4;
+        } else {
+            throw new IOException(String.format("Field %s has unsupported wire type %s", getFieldNumber(tag),
+                    wireType));
+        }
+        if (length > buffer.readableBytes()) {
+            throw new IOException("Unexpected end of binary message skipping field " + getFieldNumber(tag));
+        }
+        buffer.skipBytes(length);
+    }
+
+    /**
+     * Writes a varint
+     */
+    static void writeVarint(ChannelBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.writeByte((int) value);
+    }
+
+    /**
+     * Writes a tag
+     */
+    static void writeTag(ChannelBuffer buffer, int fieldNumber, int wireType) {
+        writeVarint(buffer, (fieldNumber << 3) | wireType);
+    }
+
+    /**
+     * Writes a varint field
+     */
+    static void writeVarintField(ChannelBuffer buffer, int fieldNumber, long value) {
+        writeTag(buffer, fieldNumber, WIRE_TYPE_VARINT);
+        writeVarint(buffer, value);
+    }
+
+    /**
+     * Writes a string field. Nothing is written if the string is null.
+     */
+    static void writeStringField(ChannelBuffer buffer, int fieldNumber, String value) {
+        if (value == null) {
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8_CHARSET);
+        writeTag(buffer, fieldNumber, WIRE_TYPE_LENGTH_DELIMITED);
+        writeVarint(buffer, bytes.length);
+        buffer.writeBytes(bytes);
+    }
+
+    /**
+     * Encodes a publication request. Provided for publishers written in Java.
+     * 
+     * @param request
+     *            Request to encode
+     * @return Buffer containing the binary request
+     * @throws ParseException
+     *             if a log entry timestamp is not in the format "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"
+     */
+    public static ChannelBuffer writeRequest(PublicationRequestAO request) throws ParseException {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        writeStringField(buffer, REQUEST_MESSAGE_ID_FIELD, request.getMessageID());
+        writeStringField(buffer, REQUEST_REPOSITORY_NAME_FIELD, request.getRepositoryName());
+        writeStringField(buffer, REQUEST_USERNAME_FIELD, request.getUsername());
+        writeStringField(buffer, REQUEST_PASSWORD_FIELD, request.getPassword());
+
+        if (request.getLogEntries() != null) {
+            ChannelBuffer entryBuffer = ChannelBuffers.dynamicBuffer();
+            for (LogEntryAO logEntry : request.getLogEntries()) {
+                entryBuffer.clear();
+                if (!StringUtils.isBlank(logEntry.getTimestamp())) {
+                    writeVarintField(entryBuffer, LOG_ENTRY_TIMESTAMP_FIELD, RepositoryEntryMqMessage
+                            .getDateFormatter().parse(logEntry.getTimestamp()).getTime());
+                }
+                writeStringField(entryBuffer, LOG_ENTRY_SOURCE_FIELD, logEntry.getSource());
+                writeStringField(entryBuffer, LOG_ENTRY_HOST_FIELD, logEntry.getHost());
+                if (!StringUtils.isBlank(logEntry.getSeverity())) {
+                    writeVarintField(entryBuffer, LOG_ENTRY_SEVERITY_FIELD, Long.parseLong(logEntry.getSeverity()));
+                }
+                writeStringField(entryBuffer, LOG_ENTRY_FIELDS_FIELD, logEntry.getFields());
+                writeStringField(entryBuffer, LOG_ENTRY_MESSAGE_FIELD, logEntry.getMessage());
+
+                writeTag(buffer, REQUEST_LOG_ENTRIES_FIELD, WIRE_TYPE_LENGTH_DELIMITED);
+                writeVarint(buffer, entryBuffer.readableBytes());
+                buffer.writeBytes(entryBuffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Encodes a publication response
+     * 
+     * @param response
+     *            Response to encode
+     * @return Buffer containing the binary response
+     */
+    public static ChannelBuffer writeResponse(PublicationResponseAO response) {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        writeStringField(buffer, RESPONSE_MESSAGE_ID_FIELD, response.getMessageID());
+        writeVarintField(buffer, RESPONSE_SUCCESS_FIELD, response.isSuccess() ? 1 : 0);
+        writeStringField(buffer, RESPONSE_ERROR_MESSAGE_FIELD, response.getErrorMessage());
+        writeStringField(buffer, RESPONSE_ERROR_STACK_TRACE_FIELD, response.getErrorStackTrace());
+        return buffer;
+    }
+
+    /**
+     * Decodes a publication response. Provided for publishers written in Java.
+     * 
+     * @param buffer
+     *            Buffer containing the binary response
+     * @return Response
+     * @throws IOException
+     *             if the response is badly formatted
+     */
+    public static PublicationResponseAO readResponse(ChannelBuffer buffer) throws IOException {
+        PublicationResponseAO response = new PublicationResponseAO();
+        response.setSuccess(false);
+        while (buffer.readable()) {
+            int tag = (int) readVarint(buffer);
+            switch (getFieldNumber(tag)) {
+                case RESPONSE_MESSAGE_ID_FIELD:
+                    response.setMessageID(readString(buffer, tag));
+                    break;
+                case RESPONSE_SUCCESS_FIELD:
+                    response.setSuccess(readVarint(buffer, tag) != 0);
+                    break;
+                case RESPONSE_ERROR_MESSAGE_FIELD:
+                    response.setErrorMessage(readString(buffer, tag));
+                    break;
+                case RESPONSE_ERROR_STACK_TRACE_FIELD:
+                    response.setErrorStackTrace(readString(buffer, tag));
+                    break;
+                default:
+                    skipField(buffer, tag);
+                    break;
+            }
+        }
+        return response;
+    }
+}
@@ -0,0 +1,188 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.jsonhttp;
+
+import static org.chililog.server.pubsub.jsonhttp.BinaryPublicationFormat.*;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>
+ * Reads a binary publication request one log entry at a time straight from the request's {@link ChannelBuffer}. See
+ * {@link BinaryPublicationFormat} for the format.
+ * </p>
+ * <p>
+ * Header fields are found by skipping over the log entries without decoding them. Log entries are then decoded one
+ * at a time as they are asked for.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class BinaryPublicationRequestReader implements PublicationReader {
+
+    private static final String[] SEVERITY_CODES = new String[] { "0", "1", "2", "3", "4", "5", "6", "7" };
+
+    private ChannelBuffer _content;
+    private ChannelBuffer _buffer = null;
+    private SimpleDateFormat _dateFormatter = null;
+
+    /**
+     * Constructor
+     * 
+     * @param content
+     *            Binary request. The buffer's reader index is not changed.
+     */
+    public BinaryPublicationRequestReader(ChannelBuffer content) {
+        _content = content;
+    }
+
+    /**
+     * Reads the request header fields. Log entries are skipped.
+     */
+    public PublicationRequestAO readHeader() throws IOException {
+        PublicationRequestAO header = new PublicationRequestAO();
+        ChannelBuffer buffer = _content.duplicate();
+        while (buffer.readable()) {
+            int tag = (int) readVarint(buffer);
+            switch (getFieldNumber(tag)) {
+                case REQUEST_MESSAGE_ID_FIELD:
+                    header.setMessageID(readString(buffer, tag));
+                    break;
+                case REQUEST_REPOSITORY_NAME_FIELD:
+                    header.setRepositoryName(readString(buffer, tag));
+                    break;
+                case REQUEST_USERNAME_FIELD:
+                    header.setUsername(readString(buffer, tag));
+                    break;
+                case REQUEST_PASSWORD_FIELD:
+                    header.setPassword(readString(buffer, tag));
+                    break;
+                default:
+                    skipField(buffer, tag);
+                    break;
+            }
+        }
+
+        _buffer = _content.duplicate();
+        return header;
+    }
+
+    /**
+     * Reads the next log entry
+     */
+    public boolean readLogEntry(LogEntryAO logEntry) throws IOException {
+        if (_buffer == null) {
+            throw new IllegalStateException("readHeader() must be called before readLogEntry()");
+        }
+
+        while (_buffer.readable()) {
+            int tag = (int) readVarint(_buffer);
+            if (getFieldNumber(tag) != REQUEST_LOG_ENTRIES_FIELD) {
+                skipField(_buffer, tag);
+                continue;
+            }
+            checkWireType(tag, WIRE_TYPE_LENGTH_DELIMITED);
+            int length = readLength(_buffer);
+            readLogEntry(_buffer.readSlice(length), logEntry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes all the log entries to check that they are well formed. The reader is then moved back to the first log
+     * entry.
+     */
+    public void validate() throws IOException {
+        LogEntryAO logEntry = new LogEntryAO();
+        while (readLogEntry(logEntry)) {
+            continue;
+        }
+        _buffer = _content.duplicate();
+    }
+
+    /**
+     * Decodes a log entry
+     * 
+     * @param entry
+     *            Buffer containing only the log entry
+     * @param logEntry
+     *            Log entry into which to decode
+     */
+    private void readLogEntry(ChannelBuffer entry, LogEntryAO logEntry) throws IOException {
+        logEntry.setTimestamp(null);
+        logEntry.setSource(null);
+        logEntry.setHost(null);
+        logEntry.setSeverity(null);
+        logEntry.setFields(null);
+        logEntry.setMessage(null);
+
+        while (entry.readable()) {
+            int tag = (int) readVarint(entry);
+            switch (getFieldNumber(tag)) {
+                case LOG_ENTRY_TIMESTAMP_FIELD:
+                    logEntry.setTimestamp(formatTimestamp(readVarint(entry, tag)));
+                    break;
+                case LOG_ENTRY_SOURCE_FIELD:
+                    logEntry.setSource(readString(entry, tag));
+                    break;
+                case LOG_ENTRY_HOST_FIELD:
+                    logEntry.setHost(readString(entry, tag));
+                    break;
+                case LOG_ENTRY_SEVERITY_FIELD:
+                    long severity = readVarint(entry, tag);
+                    logEntry.setSeverity(severity >= 0 && severity < SEVERITY_CODES.length
+                            ? SEVERITY_CODES[(int) severity] : Long.toString(severity));
+                    break;
+                case LOG_ENTRY_FIELDS_FIELD:
+                    logEntry.setFields(readString(entry, tag));
+                    break;
+                case LOG_ENTRY_MESSAGE_FIELD:
+                    logEntry.setMessage(readString(entry, tag));
+                    break;
+                default:
+                    skipField(entry, tag);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Formats milliseconds since the epoch into our standard timestamp format
+     */
+    private String formatTimestamp(long timestamp) {
+        if (_dateFormatter == null) {
+            _dateFormatter = RepositoryEntryMqMessage.getDateFormatter();
+        }
+        return _dateFormatter.format(new Date(timestamp));
+    }
+
+    /**
+     * Nothing to release for a channel buffer
+     */
+    public void close() {
+        _buffer = null;
+    }
+}
@@ -24,12 +24,12 @@ import static org.jboss.netty.handler.codec.http.HttpMethod.*;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.*;
 import static org.jboss.netty.handler.codec.http.HttpVersion.*;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.concurrent.Executor;
 
 import org.apache.commons.lang.StringUtils;
 import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.pubsub.websocket.BinaryWebSocketFrame;
 import org.chililog.server.pubsub.websocket.CloseWebSocketFrame;
 import org.chililog.server.pubsub.websocket.PingWebSocketFrame;
 import org.chililog.server.pubsub.websocket.PongWebSocketFrame;
@@ -53,7 +53,8 @@ import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.util.CharsetUtil;
 
 /**
- * Handler for JSON log entries send over HTTP request and web socket.
+ * Handler for JSON log entries send over HTTP request and web socket. Log entries can also be published over web socket
+ * in binary frames using {@link BinaryPublicationFormat}.
  * 
  * @author vibul
  */
@@ -150,16 +151,17 @@ public class JsonHttpRequestHandler extends SimpleChannelUpstreamHandler {
                 @Override
                 public void run() {
                     try {
-                        byte[] requestContent = content.array();
-                        String requestJson = bytesToString(requestContent);
                         PublicationWorker worker = new PublicationWorker(JsonHttpService.getInstance()
                                 .getMqProducerSessionPool());
                         StringBuilder responseJson = new StringBuilder();
 
-                        _logger.debug("Channel %s Publication Worker Request:\n%s", ctx.getChannel().getId(),
-                                requestJson);
+                        if (_logger.isDebugEnabled()) {
+                            _logger.debug("Channel %s Publication Worker Request:\n%s", ctx.getChannel().getId(),
+                                    content.toString(UTF_8_CHARSET));
+                        }
 
-                        boolean success = worker.process(requestJson, responseJson);
+                        // Log entries are read straight from the request content and published one at a time
+                        boolean success = worker.process(content, responseJson);
 
                         _logger.debug("Channel %s Publication Worker Response:\n%s", ctx.getChannel().getId(),
                                 responseJson);
@@ -190,22 +192,6 @@ public class JsonHttpRequestHandler extends SimpleChannelUpstreamHandler {
         return;
     }
 
-    /**
-     * Converts request bytes into a string using the default UTF-8 character set.
-     * 
-     * @param bytes
-     *            Bytes to convert
-     * @return String form the bytes. If bytes is null, null is returned.
-     * @throws UnsupportedEncodingException
-     */
-    private String bytesToString(byte[] bytes) throws UnsupportedEncodingException {
-        if (bytes == null) {
-            return null;
-        }
-
-        return new String(bytes, UTF_8_CHARSET);
-    }
-
     /**
      * <p>
      * Figure out if this is a publish or subscribe request and do it.
@@ -227,15 +213,22 @@ public class JsonHttpRequestHandler extends SimpleChannelUpstreamHandler {
             _logger.debug("PingPong");
             ctx.getChannel().write(new PongWebSocketFrame(frame.getBinaryData()));
             return;
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            handleBinaryPublication(ctx, frame.getBinaryData());
+            return;
         } else if (!(frame instanceof TextWebSocketFrame)) {
             throw new UnsupportedOperationException(String.format("%s frame types not supported", frame.getClass()
                     .getName()));
         }
 
         TextWebSocketFrame textFrame = (TextWebSocketFrame) frame;
-        final String requestJson = textFrame.getText();
+        final ChannelBuffer requestContent = textFrame.getBinaryData();
 
-        if (StringUtils.isBlank(requestJson)) {
+        // Only decode the start of the request to work out what type it is. Publication requests are read straight
+        // from the frame data.
+        final String first50Characters = requestContent.toString(requestContent.readerIndex(),
+                Math.min(requestContent.readableBytes(), 50), UTF_8_CHARSET);
+        if (StringUtils.isBlank(first50Characters)) {
             return;
         }
 
@@ -244,19 +237,21 @@ public class JsonHttpRequestHandler extends SimpleChannelUpstreamHandler {
             @Override
             public void run() {
                 try {
-                    _logger.debug("Channel %s Request JSON: %s", ctx.getChannel().getId(), requestJson);
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Channel %s Request JSON: %s", ctx.getChannel().getId(),
+                                requestContent.toString(UTF_8_CHARSET));
+                    }
 
                     String responseJson = null;
 
                     // Process according to request type
                     // We do a quick peek in the json in order to dispatch to the required worker
-                    String first50Characters = requestJson.length() > 50 ? requestJson.substring(0, 50) : requestJson;
                     if (first50Characters.indexOf("\"PublicationRequest\"") > 0) {
                         PublicationWorker worker = new PublicationWorker(JsonHttpService.getInstance()
                                 .getMqProducerSessionPool());
 
                         StringBuilder sb = new StringBuilder();
-                        worker.process(requestJson, sb);
+                        worker.process(requestContent, sb);
                         responseJson = sb.toString();
                     } else if (first50Characters.indexOf("\"SubscriptionRequest\"") > 0) {
                         // If existing subscription exists, stop it first
@@ -267,10 +262,10 @@ public class JsonHttpRequestHandler extends SimpleChannelUpstreamHandler {
                         _subscriptionWorker = new SubscriptionWorker(ctx.getChannel());
 
                         StringBuilder sb = new StringBuilder();
-                        _subscriptionWorker.process(requestJson, sb);
+                        _subscriptionWorker.process(requestContent.toString(UTF_8_CHARSET), sb);
                         responseJson = sb.toString();
                     } else {
-                        throw new UnsupportedOperationException("Unsupported request: " + requestJson);
+                        throw new UnsupportedOperationException("Unsupported request: " + first50Characters);
                     }
 
                     _logger.debug("Channel %s Response JSON: %s", ctx.getChannel().getId(), responseJson);
@@ -286,6 +281,42 @@ public class JsonHttpRequestHandler extends SimpleChannelUpstreamHandler {
 
     }
 
+    /**
+     * Binary frames can only be publication requests. See {@link BinaryPublicationFormat}. The response is returned in
+     * a binary frame.
+     * 
+     * @param ctx
+     *            Channel Handler Context
+     * @param requestContent
+     *            Binary publication request
+     */
+    private void handleBinaryPublication(final ChannelHandlerContext ctx, final ChannelBuffer requestContent) {
+        if (!requestContent.readable()) {
+            return;
+        }
+
+        _executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    PublicationWorker worker = new PublicationWorker(JsonHttpService.getInstance()
+                            .getMqProducerSessionPool());
+                    ChannelBuffer response = worker.processBinary(requestContent);
+
+                    _logger.debug("Channel %s Binary Response: %s bytes", ctx.getChannel().getId(),
+                            response.readableBytes());
+                    ctx.getChannel().write(new BinaryWebSocketFrame(response));
+
+                    return;
+                } catch (Exception exception) {
+                    _logger.debug(exception, "Error handling PubSub binary Request");
+                    ctx.getChannel().close();
+                }
+            }
+        });
+    }
+
     /**
      * Returns a HTTP response
      * 
@@ -79,7 +79,8 @@ public class LogEntryAO {
     }
 
     /**
-     * Returns a string of fields in JSON format. Only used for publications.
+     * Returns a string of fields in JSON format. For subscriptions, only set if the repository parses entries when they
+     * are published.
      */
     public String getFields() {
         return _fields;
@@ -0,0 +1,64 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.jsonhttp;
+
+import java.io.IOException;
+
+/**
+ * Reads a publication request one log entry at a time so that the whole request is never held as objects in memory
+ * 
+ * @author vibul
+ * 
+ */
+public interface PublicationReader {
+
+    /**
+     * Reads the request header fields. Log entries are not read.
+     * 
+     * @return Request with all fields except log entries
+     * @throws IOException
+     *             if the request is badly formatted
+     */
+    public PublicationRequestAO readHeader() throws IOException;
+
+    /**
+     * Reads the next log entry. {@link #readHeader()} must be called first.
+     * 
+     * @param logEntry
+     *            Log entry into which the fields are read. The same object can be passed in for every entry.
+     * @return true if a log entry was read; false if there are no more log entries
+     * @throws IOException
+     *             if the request is badly formatted
+     */
+    public boolean readLogEntry(LogEntryAO logEntry) throws IOException;
+
+    /**
+     * Reads all the log entries to check that the request is well formed without keeping them. The reader is then
+     * moved back to the first log entry. {@link #readHeader()} must be called first.
+     * 
+     * @throws IOException
+     *             if the request is badly formatted
+     */
+    public void validate() throws IOException;
+
+    /**
+     * Releases resources used by the reader
+     */
+    public void close();
+}
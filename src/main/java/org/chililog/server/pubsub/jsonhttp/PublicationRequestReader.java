@@ -0,0 +1,295 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.jsonhttp;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * <p>
+ * Reads a JSON publication request one log entry at a time straight from the request's {@link ChannelBuffer}.
+ * </p>
+ * <p>
+ * Unlike deserializing the whole request into a {@link PublicationRequestAO}, the request content is not copied into
+ * a string and only one {@link LogEntryAO} is held in memory at any time. Memory used to read a request is therefore
+ * the same no matter how many log entries it contains.
+ * </p>
+ * <p>
+ * Usage:
+ * </p>
+ * 
+ * <pre>
+ * PublicationRequestReader reader = new PublicationRequestReader(content);
+ * PublicationRequestAO request = reader.readHeader();
+ * // authenticate using request
+ * reader.validate(); // optional: check the whole request before publishing any of it
+ * LogEntryAO logEntry = new LogEntryAO();
+ * while (reader.readLogEntry(logEntry)) {
+ *     // publish logEntry
+ * }
+ * </pre>
+ * <p>
+ * The header fields (repository name, username, password, etc) are normally sent before the log entries. If not, the
+ * log entries are skipped while reading the header and then read on a second pass of the content.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class PublicationRequestReader implements PublicationReader {
+
+    private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+    private static final String MESSAGE_TYPE_FIELD_NAME = "MessageType";
+    private static final String MESSAGE_ID_FIELD_NAME = "MessageID";
+    private static final String REPOSITORY_NAME_FIELD_NAME = "RepositoryName";
+    private static final String USERNAME_FIELD_NAME = "Username";
+    private static final String PASSWORD_FIELD_NAME = "Password";
+    private static final String LOG_ENTRIES_FIELD_NAME = "LogEntries";
+
+    private static final String TIMESTAMP_FIELD_NAME = "Timestamp";
+    private static final String SOURCE_FIELD_NAME = "Source";
+    private static final String HOST_FIELD_NAME = "Host";
+    private static final String SEVERITY_FIELD_NAME = "Severity";
+    private static final String FIELDS_FIELD_NAME = "Fields";
+    private static final String MESSAGE_FIELD_NAME = "Message";
+
+    private ChannelBuffer _content;
+    private JsonReader _reader = null;
+    private PublicationRequestAO _header = null;
+    private boolean _hasLogEntries = false;
+    private boolean _inLogEntries = false;
+
+    /**
+     * Constructor
+     * 
+     * @param content
+     *            Request content in JSON format encoded in UTF-8. The buffer's reader index is not changed.
+     */
+    public PublicationRequestReader(ChannelBuffer content) {
+        _content = content;
+    }
+
+    /**
+     * Opens a new JSON reader on the content and positions it inside the top level object
+     */
+    private JsonReader open() throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ChannelBufferInputStream(_content.duplicate()),
+                UTF_8_CHARSET));
+        reader.setLenient(true);
+        reader.beginObject();
+        return reader;
+    }
+
+    /**
+     * Reads the request header fields. Log entries are not read.
+     * 
+     * @return Request with all fields except log entries
+     * @throws IOException
+     *             if the content is not valid JSON
+     */
+    public PublicationRequestAO readHeader() throws IOException {
+        _header = new PublicationRequestAO();
+        _reader = open();
+
+        _hasLogEntries = false;
+        while (_reader.hasNext()) {
+            String name = _reader.nextName();
+            if (name.equals(LOG_ENTRIES_FIELD_NAME)) {
+                if (_reader.peek() == JsonToken.NULL) {
+                    _reader.nextNull();
+                } else if (isHeaderComplete()) {
+                    // Stop here and read log entries as they are asked for
+                    _reader.beginArray();
+                    _hasLogEntries = true;
+                    _inLogEntries = true;
+                    return _header;
+                } else {
+                    // Log entries come before the header fields. Skip them and come back for them later
+                    _reader.skipValue();
+                    _hasLogEntries = true;
+                }
+            } else {
+                readHeaderField(name);
+            }
+        }
+        _reader.endObject();
+        _reader.close();
+        _reader = null;
+
+        if (_hasLogEntries) {
+            // Second pass to read the log entries
+            openLogEntries();
+        }
+        return _header;
+    }
+
+    /**
+     * Opens a new JSON reader on the content and positions it at the first log entry
+     */
+    private void openLogEntries() throws IOException {
+        _reader = open();
+        while (_reader.hasNext()) {
+            if (_reader.nextName().equals(LOG_ENTRIES_FIELD_NAME)) {
+                _reader.beginArray();
+                _inLogEntries = true;
+                break;
+            }
+            _reader.skipValue();
+        }
+    }
+
+    /**
+     * Reads all the log entries and the rest of the request to check that it is well formed. The reader is then
+     * moved back to the first log entry.
+     * 
+     * @throws IOException
+     *             if the content is not valid JSON
+     */
+    public void validate() throws IOException {
+        LogEntryAO logEntry = new LogEntryAO();
+        while (readLogEntry(logEntry)) {
+            continue;
+        }
+        if (_hasLogEntries) {
+            openLogEntries();
+        }
+    }
+
+    /**
+     * Reads the next log entry
+     * 
+     * @param logEntry
+     *            Log entry into which the fields are read. The same object can be passed in for every entry.
+     * @return true if a log entry was read; false if there are no more log entries
+     * @throws IOException
+     *             if the content is not valid JSON
+     */
+    public boolean readLogEntry(LogEntryAO logEntry) throws IOException {
+        if (_header == null) {
+            throw new IllegalStateException("readHeader() must be called before readLogEntry()");
+        }
+        if (!_inLogEntries) {
+            return false;
+        }
+        if (!_reader.hasNext()) {
+            // Finished log entries. Read any header fields after them.
+            _reader.endArray();
+            _inLogEntries = false;
+            while (_reader.hasNext()) {
+                readHeaderField(_reader.nextName());
+            }
+            _reader.endObject();
+            _reader.close();
+            _reader = null;
+            return false;
+        }
+
+        logEntry.setTimestamp(null);
+        logEntry.setSource(null);
+        logEntry.setHost(null);
+        logEntry.setSeverity(null);
+        logEntry.setFields(null);
+        logEntry.setMessage(null);
+
+        _reader.beginObject();
+        while (_reader.hasNext()) {
+            String name = _reader.nextName();
+            if (name.equals(TIMESTAMP_FIELD_NAME)) {
+                logEntry.setTimestamp(nextString());
+            } else if (name.equals(SOURCE_FIELD_NAME)) {
+                logEntry.setSource(nextString());
+            } else if (name.equals(HOST_FIELD_NAME)) {
+                logEntry.setHost(nextString());
+            } else if (name.equals(SEVERITY_FIELD_NAME)) {
+                logEntry.setSeverity(nextString());
+            } else if (name.equals(FIELDS_FIELD_NAME)) {
+                logEntry.setFields(nextString());
+            } else if (name.equals(MESSAGE_FIELD_NAME)) {
+                logEntry.setMessage(nextString());
+            } else {
+                _reader.skipValue();
+            }
+        }
+        _reader.endObject();
+        return true;
+    }
+
+    /**
+     * Reads a header field into <code>_header</code>. Unknown fields are skipped.
+     */
+    private void readHeaderField(String name) throws IOException {
+        if (name.equals(MESSAGE_TYPE_FIELD_NAME)) {
+            _header.setMessageType(nextString());
+        } else if (name.equals(MESSAGE_ID_FIELD_NAME)) {
+            _header.setMessageID(nextString());
+        } else if (name.equals(REPOSITORY_NAME_FIELD_NAME)) {
+            _header.setRepositoryName(nextString());
+        } else if (name.equals(USERNAME_FIELD_NAME)) {
+            _header.setUsername(nextString());
+        } else if (name.equals(PASSWORD_FIELD_NAME)) {
+            _header.setPassword(nextString());
+        } else {
+            _reader.skipValue();
+        }
+    }
+
+    /**
+     * Returns true if all the header fields needed to authenticate have been read
+     */
+    private boolean isHeaderComplete() {
+        return _header.getRepositoryName() != null && _header.getUsername() != null && _header.getPassword() != null;
+    }
+
+    /**
+     * Reads a string value. Numbers and booleans are returned as strings. <code>null</code> is returned for JSON null.
+     */
+    private String nextString() throws IOException {
+        JsonToken token = _reader.peek();
+        if (token == JsonToken.NULL) {
+            _reader.nextNull();
+            return null;
+        } else if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(_reader.nextBoolean());
+        }
+        return _reader.nextString();
+    }
+
+    /**
+     * Closes the underlying reader
+     */
+    public void close() {
+        try {
+            if (_reader != null) {
+                _reader.close();
+                _reader = null;
+            }
+        } catch (IOException ex) {
+            // Nothing to release for a channel buffer
+        }
+        _inLogEntries = false;
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.chililog.server.pubsub.jsonhttp;
 
+import java.nio.charset.Charset;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -31,9 +32,15 @@ import org.chililog.server.common.Log4JLogger;
 import org.chililog.server.data.MongoConnection;
 import org.chililog.server.data.RepositoryConfigBO;
 import org.chililog.server.data.RepositoryConfigController;
+import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.UserBO;
 import org.chililog.server.data.UserController;
+import org.chililog.server.engine.Repository;
 import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.chililog.server.engine.RepositoryService;
+import org.chililog.server.engine.parsers.EntryParser;
+import org.chililog.server.engine.parsers.EntryParserRouter;
+import org.chililog.server.engine.parsers.RegexTimeoutException;
 import org.chililog.server.pubsub.MqProducerSessionPool;
 import org.chililog.server.pubsub.Strings;
 import org.chililog.server.pubsub.MqProducerSessionPool.Pooled;
@@ -41,6 +48,8 @@ import org.chililog.server.workbench.workers.AuthenticationTokenAO;
 import org.hornetq.api.core.Message;
 import org.hornetq.api.core.SimpleString;
 import org.hornetq.api.core.client.ClientMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 import com.mongodb.DB;
 
@@ -51,6 +60,8 @@ public class PublicationWorker {
 
     private static Log4JLogger _logger = Log4JLogger.getLogger(PublicationWorker.class);
 
+    private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
     private MqProducerSessionPool _sessionPool;
 
     /**
@@ -79,44 +90,91 @@ public class PublicationWorker {
      * @return true if successful; false if error
      */
     public boolean process(String request, StringBuilder response) {
+        if (StringUtils.isBlank(request)) {
+            return process(ChannelBuffers.EMPTY_BUFFER, response);
+        }
+        return process(ChannelBuffers.copiedBuffer(request, UTF_8_CHARSET), response);
+    }
+
+    /**
+     * <p>
+     * Process a publishing request.
+     * </p>
+     * <p>
+     * The request is read straight from the buffer one log entry at a time. All the log entries are read once to
+     * check that the request is well formed before any of them are published, so a badly formatted request does not
+     * publish the log entries before the error.
+     * </p>
+     * 
+     * @param request
+     *            Publishing request in JSON format encoded in UTF-8
+     * @param response
+     *            Publishing response in JSON format
+     * @return true if successful; false if error
+     */
+    public boolean process(ChannelBuffer request, StringBuilder response) {
+        PublicationResponseAO responseAO = publish(new PublicationRequestReader(request), request, false);
+        JsonTranslator.getInstance().toJson(responseAO, response);
+        return responseAO.isSuccess();
+    }
+
+    /**
+     * Process a publishing request in binary format. See {@link BinaryPublicationFormat}.
+     * 
+     * @param request
+     *            Publishing request in binary format
+     * @return Publishing response in binary format
+     */
+    public ChannelBuffer processBinary(ChannelBuffer request) {
+        PublicationResponseAO responseAO = publish(new BinaryPublicationRequestReader(request), request, true);
+        return BinaryPublicationFormat.writeResponse(responseAO);
+    }
+
+    /**
+     * Authenticates and validates a request, then publishes its log entries one at a time as they are read
+     * 
+     * @param reader
+     *            Reader for the request
+     * @param request
+     *            Request content for logging errors
+     * @param isBinary
+     *            true if the request is binary; false if JSON
+     * @return Response to send back
+     */
+    private PublicationResponseAO publish(PublicationReader reader, ChannelBuffer request, boolean isBinary) {
         Pooled p = null;
         String messageId = null;
         try {
-            if (StringUtils.isBlank(request)) {
+            if (!request.readable()) {
                 throw new IllegalArgumentException("Request content is blank.");
             }
 
-            // Parse JSON
-            PublicationRequestAO requestAO = JsonTranslator.getInstance().fromJson(request, PublicationRequestAO.class);
+            // Parse header
+            PublicationRequestAO requestAO = reader.readHeader();
             messageId = requestAO.getMessageID();
 
             // Authenticate
             authenticate(requestAO);
 
+            // Check the whole request before publishing anything
+            reader.validate();
+            messageId = requestAO.getMessageID();
+
+            // Parse here if the repository wants entries parsed once on publication
+            EntryParserRouter parsers = getPublicationParsers(requestAO.getRepositoryName());
+
             // Publish
             SimpleString repoAddress = SimpleString.toSimpleString(RepositoryConfigBO.buildPubSubAddress(requestAO
                     .getRepositoryName()));
             p = _sessionPool.getPooled();
-            for (LogEntryAO logEntry : requestAO.getLogEntries()) {
-                ClientMessage message = p.session.createMessage(Message.TEXT_TYPE, false);
-                message.putStringProperty(RepositoryEntryMqMessage.TIMESTAMP, logEntry.getTimestamp());
-                message.putStringProperty(RepositoryEntryMqMessage.SOURCE, logEntry.getSource());
-                message.putStringProperty(RepositoryEntryMqMessage.HOST, logEntry.getHost());
-                message.putStringProperty(RepositoryEntryMqMessage.SEVERITY, logEntry.getSeverity());
-                if (!StringUtils.isBlank(logEntry.getFields())) {
-                    message.putStringProperty(RepositoryEntryMqMessage.FIELDS, logEntry.getFields());
-                }
-                message.getBodyBuffer().writeNullableSimpleString(SimpleString.toSimpleString(logEntry.getMessage()));
-                p.producer.send(repoAddress, message);
+            LogEntryAO logEntry = new LogEntryAO();
+            while (reader.readLogEntry(logEntry)) {
+                send(p, repoAddress, parsers, logEntry);
             }
             _sessionPool.returnPooled(p);
 
-            // Prepare response
-            PublicationResponseAO responseAO = new PublicationResponseAO(messageId);
-            JsonTranslator.getInstance().toJson(responseAO, response);
-
             // Finish
-            return true;
+            return new PublicationResponseAO(messageId);
         } catch (Exception ex) {
             if (p != null) {
                 try {
@@ -126,11 +184,77 @@ public class PublicationWorker {
                     _logger.error(ex2, "Error closing pooled connection");
                 }
             }
-            _logger.error(ex, "Error processing message: %s", request);
+            _logger.error(ex, "Error processing message: %s", isBinary ? ChannelBuffers.hexDump(request) : request
+                    .toString(UTF_8_CHARSET));
+
+            return new PublicationResponseAO(messageId, ex);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the parsers to use for parsing log entries on publication
+     * 
+     * @param repositoryName
+     *            Name of repository to which log entries are published
+     * @return Parsers for this thread. <code>null</code> if the repository is not online or does not parse entries on
+     *         publication.
+     */
+    public static EntryParserRouter getPublicationParsers(String repositoryName) {
+        Repository repo = RepositoryService.getInstance().getActiveRepository(repositoryName);
+        return repo == null ? null : repo.getPublicationParsers();
+    }
 
-            PublicationResponseAO responseAO = new PublicationResponseAO(messageId, ex);
-            JsonTranslator.getInstance().toJson(responseAO, response);
-            return false;
+    /**
+     * Sends a log entry to a repository's address
+     * 
+     * @param p
+     *            Pooled session and producer to use for sending
+     * @param repoAddress
+     *            Address of the repository
+     * @param parsers
+     *            Parsers to parse the entry before sending. <code>null</code> to send the entry as is.
+     * @param logEntry
+     *            Log entry to send
+     * @throws Exception
+     */
+    public static void send(Pooled p, SimpleString repoAddress, EntryParserRouter parsers, LogEntryAO logEntry)
+            throws Exception {
+        RepositoryEntryBO entry = parsers == null ? null : parse(parsers, logEntry);
+
+        ClientMessage message = p.session.createMessage(Message.TEXT_TYPE, false);
+        message.putStringProperty(RepositoryEntryMqMessage.TIMESTAMP, logEntry.getTimestamp());
+        message.putStringProperty(RepositoryEntryMqMessage.SOURCE, logEntry.getSource());
+        message.putStringProperty(RepositoryEntryMqMessage.HOST, logEntry.getHost());
+        message.putStringProperty(RepositoryEntryMqMessage.SEVERITY, logEntry.getSeverity());
+        if (entry == null && !StringUtils.isBlank(logEntry.getFields())) {
+            message.putStringProperty(RepositoryEntryMqMessage.FIELDS, logEntry.getFields());
+        }
+        message.getBodyBuffer().writeNullableSimpleString(SimpleString.toSimpleString(logEntry.getMessage()));
+        if (entry != null) {
+            RepositoryEntryMqMessage.writeParsedEntry(message, entry);
+        }
+        p.producer.send(repoAddress, message);
+    }
+
+    /**
+     * Parses a log entry using the repository's parsers. Entries that cannot be parsed are published as is so that the
+     * storage worker can try again and move them to the dead letter queue if they still cannot be parsed.
+     * 
+     * @param parsers
+     *            Repository parsers for this thread
+     * @param logEntry
+     *            Log entry to parse
+     * @return Parsed entry. <code>null</code> if the entry cannot be parsed.
+     */
+    static RepositoryEntryBO parse(EntryParserRouter parsers, LogEntryAO logEntry) {
+        try {
+            EntryParser parser = parsers.getParser(logEntry.getSource(), logEntry.getHost());
+            return parser.parse(logEntry.getTimestamp(), logEntry.getSource(), logEntry.getHost(),
+                    logEntry.getSeverity(), logEntry.getFields(), StringUtils.defaultString(logEntry.getMessage()));
+        } catch (RegexTimeoutException ex) {
+            return null;
         }
     }
 
@@ -25,8 +25,10 @@ import org.chililog.server.common.ChiliLogException;
 import org.chililog.server.common.JsonTranslator;
 import org.chililog.server.common.Log4JLogger;
 import org.chililog.server.data.MongoConnection;
+import org.chililog.server.data.MongoJsonSerializer;
 import org.chililog.server.data.RepositoryConfigBO;
 import org.chililog.server.data.RepositoryConfigController;
+import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.UserBO;
 import org.chililog.server.data.UserController;
 import org.chililog.server.engine.MqService;
@@ -41,6 +43,7 @@ import org.hornetq.api.core.client.MessageHandler;
 import org.jboss.netty.channel.Channel;
 
 import com.mongodb.DB;
+import com.mongodb.DBObject;
 
 /**
  * Worker to process subscription requests
@@ -241,6 +244,12 @@ public class SubscriptionWorker {
                 logEntry.setSeverity(message.getStringProperty(RepositoryEntryMqMessage.SEVERITY));
                 logEntry.setMessage(message.getBodyBuffer().readNullableSimpleString().toString());
 
+                // Pass on fields if the entry was parsed when it was published
+                if (RepositoryEntryMqMessage.isParsed(message)) {
+                    DBObject parsed = RepositoryEntryMqMessage.readParsedDocument(message, logEntry.getMessage());
+                    logEntry.setFields(MongoJsonSerializer.serialize(getFields(parsed)));
+                }
+
                 SubscriptionResponseAO responseAO = new SubscriptionResponseAO(_messageID, logEntry);
                 String responseJson = JsonTranslator.getInstance().toJson(responseAO);
 
@@ -254,5 +263,24 @@ public class SubscriptionWorker {
             }
         }
 
+        /**
+         * Removes the standard fields from a parsed entry so that only the fields extracted by the parser remain
+         * 
+         * @param parsed
+         *            Document of the parsed entry
+         * @return <code>parsed</code> with standard fields removed
+         */
+        static DBObject getFields(DBObject parsed) {
+            parsed.removeField(RepositoryEntryBO.DOCUMENT_ID_FIELD_NAME);
+            parsed.removeField(RepositoryEntryBO.TIMESTAMP_FIELD_NAME);
+            parsed.removeField(RepositoryEntryBO.SAVED_TIMESTAMP_FIELD_NAME);
+            parsed.removeField(RepositoryEntryBO.SOURCE_FIELD_NAME);
+            parsed.removeField(RepositoryEntryBO.HOST_FIELD_NAME);
+            parsed.removeField(RepositoryEntryBO.SEVERITY_FIELD_NAME);
+            parsed.removeField(RepositoryEntryBO.MESSAGE_FIELD_NAME);
+            parsed.removeField(RepositoryEntryBO.KEYWORDS_FIELD_NAME);
+            return parsed;
+        }
+
     }
 }
@@ -0,0 +1,183 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * <p>
+ * Splits a TCP stream into syslog messages as per <a href="http://tools.ietf.org/html/rfc6587">RFC 6587</a>.
+ * </p>
+ * <p>
+ * Each message can be framed in either way:
+ * </p>
+ * <ul>
+ * <li>Octet counting: <code>MSG-LEN SP SYSLOG-MSG</code>. The message is read without looking at its content so it
+ * may contain line breaks. This is the faster method and should be used for high message rates.</li>
+ * <li>Non-transparent: <code>SYSLOG-MSG LF</code>. Used by most older senders.</li>
+ * </ul>
+ * <p>
+ * A message starting with a digit is octet counted because a syslog message starts with <code>&lt;</code>. Messages
+ * longer than the maximum length are discarded and a {@link TooLongFrameException} is raised.
+ * </p>
+ * 
+ * @author vibul
+ */
+public class SyslogFrameDecoder extends FrameDecoder {
+
+    private static final int MAX_LENGTH_DIGITS = 9;
+
+    private final int _maxFrameLength;
+    private long _bytesToDiscard = 0;
+    private boolean _discardingLine = false;
+
+    /**
+     * Constructor
+     * 
+     * @param maxFrameLength
+     *            Maximum number of bytes in a message
+     */
+    public SyslogFrameDecoder(int maxFrameLength) {
+        _maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        if (!discard(buffer)) {
+            return null;
+        }
+
+        // Skip line breaks and nulls between messages
+        while (buffer.readable()) {
+            byte b = buffer.getByte(buffer.readerIndex());
+            if (b != '\n' && b != '\r' && b != 0) {
+                break;
+            }
+            buffer.skipBytes(1);
+        }
+        if (!buffer.readable()) {
+            return null;
+        }
+
+        // Octet counting
+        byte first = buffer.getByte(buffer.readerIndex());
+        if (first >= '1' && first <= '9') {
+            int start = buffer.readerIndex();
+            int end = Math.min(buffer.writerIndex(), start + MAX_LENGTH_DIGITS + 1);
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                byte b = buffer.getByte(i);
+                if (b == ' ') {
+                    if (length > _maxFrameLength) {
+                        buffer.readerIndex(i + 1);
+                        _bytesToDiscard = length;
+                        fail(ctx, length);
+                        return null;
+                    }
+                    if (buffer.writerIndex() - (i + 1) < length) {
+                        return null;
+                    }
+                    buffer.readerIndex(i + 1);
+                    return buffer.readBytes(length);
+                }
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                length = length * 10 + (b - '0');
+                if (i == end - 1 && end == buffer.writerIndex() && end - start <= MAX_LENGTH_DIGITS) {
+                    // Wait for the rest of MSG-LEN
+                    return null;
+                }
+            }
+        }
+
+        // Non-transparent framing
+        int eol = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte) '\n');
+        if (eol < 0) {
+            if (buffer.readableBytes() > _maxFrameLength) {
+                int length = buffer.readableBytes();
+                buffer.skipBytes(length);
+                _discardingLine = true;
+                fail(ctx, length);
+            }
+            return null;
+        }
+
+        int length = eol - buffer.readerIndex();
+        if (length > _maxFrameLength) {
+            buffer.readerIndex(eol + 1);
+            fail(ctx, length);
+            return null;
+        }
+        ChannelBuffer frame = buffer.readBytes(length);
+        buffer.skipBytes(1);
+        return frame;
+    }
+
+    /**
+     * Returns the last message if it does not end with a line break when the connection is closed
+     */
+    @Override
+    protected Object decodeLast(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        Object frame = decode(ctx, channel, buffer);
+        if (frame == null && buffer.readable() && !_discardingLine && _bytesToDiscard == 0) {
+            byte first = buffer.getByte(buffer.readerIndex());
+            if (first < '1' || first > '9') {
+                return buffer.readBytes(buffer.readableBytes());
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Skips the rest of a message that was too long
+     * 
+     * @return true if done; false if more bytes have to be received and discarded
+     */
+    private boolean discard(ChannelBuffer buffer) {
+        if (_bytesToDiscard > 0) {
+            int n = (int) Math.min(_bytesToDiscard, buffer.readableBytes());
+            buffer.skipBytes(n);
+            _bytesToDiscard -= n;
+            if (_bytesToDiscard > 0) {
+                return false;
+            }
+        }
+        if (_discardingLine) {
+            int eol = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte) '\n');
+            if (eol < 0) {
+                buffer.skipBytes(buffer.readableBytes());
+                return false;
+            }
+            buffer.readerIndex(eol + 1);
+            _discardingLine = false;
+        }
+        return true;
+    }
+
+    private void fail(ChannelHandlerContext ctx, long length) {
+        Channels.fireExceptionCaught(ctx.getChannel(), new TooLongFrameException("frame length exceeds "
+                + _maxFrameLength + ": " + length + " - discarded"));
+    }
+}
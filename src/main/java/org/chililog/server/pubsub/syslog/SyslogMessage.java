@@ -0,0 +1,227 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.chililog.server.data.MongoJsonSerializer;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * <p>
+ * A syslog message parsed by {@link SyslogParser}.
+ * </p>
+ * <p>
+ * Header parts that are not present in the message are <code>null</code>.
+ * </p>
+ * 
+ * @author vibul
+ */
+public class SyslogMessage {
+
+    /**
+     * Keywords for facility codes 0 to 23 as used in syslog.conf
+     */
+    public static final String[] FACILITY_NAMES = new String[] { "kern", "user", "mail", "daemon", "auth", "syslog",
+            "lpr", "news", "uucp", "cron", "authpriv", "ftp", "ntp", "security", "console", "solaris-cron", "local0",
+            "local1", "local2", "local3", "local4", "local5", "local6", "local7" };
+
+    public static final String FACILITY_FIELD_NAME = "facility";
+    public static final String PROC_ID_FIELD_NAME = "proc_id";
+    public static final String MSG_ID_FIELD_NAME = "msg_id";
+    public static final String STRUCTURED_DATA_FIELD_NAME = "structured_data";
+
+    private static final String[] SEVERITY_CODES = new String[] { "0", "1", "2", "3", "4", "5", "6", "7" };
+
+    private int _facility;
+    private Severity _severity;
+    private Date _timestamp;
+    private String _host;
+    private String _appName;
+    private String _procId;
+    private String _msgId;
+    private String _structuredData;
+    private String _message;
+
+    /**
+     * Clears all values so that this object can be reused for the next message
+     */
+    public void reset() {
+        _facility = 0;
+        _severity = null;
+        _timestamp = null;
+        _host = null;
+        _appName = null;
+        _procId = null;
+        _msgId = null;
+        _structuredData = null;
+        _message = null;
+    }
+
+    /**
+     * Returns the facility code 0 to 23
+     */
+    public int getFacility() {
+        return _facility;
+    }
+
+    public void setFacility(int facility) {
+        _facility = facility;
+    }
+
+    /**
+     * Returns the facility keyword. For example, <code>local0</code>.
+     */
+    public String getFacilityName() {
+        return FACILITY_NAMES[_facility];
+    }
+
+    /**
+     * Returns the severity
+     */
+    public Severity getSeverity() {
+        return _severity;
+    }
+
+    public void setSeverity(Severity severity) {
+        _severity = severity;
+    }
+
+    /**
+     * Returns the time at which the message was generated. If the message does not have a valid timestamp, this is the
+     * time at which the message was received.
+     */
+    public Date getTimestamp() {
+        return _timestamp;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        _timestamp = timestamp;
+    }
+
+    /**
+     * Returns the HOSTNAME of the device that generated the message. If the message does not have a HOSTNAME, this is
+     * the address from which the message was received.
+     */
+    public String getHost() {
+        return _host;
+    }
+
+    public void setHost(String host) {
+        _host = host;
+    }
+
+    /**
+     * Returns the APP-NAME (RFC 5424) or TAG (RFC 3164) of the application that generated the message
+     */
+    public String getAppName() {
+        return _appName;
+    }
+
+    public void setAppName(String appName) {
+        _appName = appName;
+    }
+
+    /**
+     * Returns the PROCID (RFC 5424) or the process id in square brackets after the TAG (RFC 3164)
+     */
+    public String getProcId() {
+        return _procId;
+    }
+
+    public void setProcId(String procId) {
+        _procId = procId;
+    }
+
+    /**
+     * Returns the MSGID (RFC 5424)
+     */
+    public String getMsgId() {
+        return _msgId;
+    }
+
+    public void setMsgId(String msgId) {
+        _msgId = msgId;
+    }
+
+    /**
+     * Returns the STRUCTURED-DATA (RFC 5424) as it appears in the message
+     */
+    public String getStructuredData() {
+        return _structuredData;
+    }
+
+    public void setStructuredData(String structuredData) {
+        _structuredData = structuredData;
+    }
+
+    /**
+     * Returns the free form message
+     */
+    public String getMessage() {
+        return _message;
+    }
+
+    public void setMessage(String message) {
+        _message = message;
+    }
+
+    /**
+     * <p>
+     * Copies this message into a log entry for publishing.
+     * </p>
+     * <p>
+     * The host and APP-NAME become the log entry's host and source. The facility, PROCID, MSGID and STRUCTURED-DATA
+     * are passed as fields so that they can be stored without having to configure a parser.
+     * </p>
+     * 
+     * @param logEntry
+     *            Log entry to fill in
+     * @param defaultSource
+     *            Source to use if the message does not have an APP-NAME
+     * @param dateFormatter
+     *            Formatter for our standard timestamp format. See
+     *            {@link org.chililog.server.engine.RepositoryEntryMqMessage#getDateFormatter()}.
+     */
+    public void toLogEntry(LogEntryAO logEntry, String defaultSource, SimpleDateFormat dateFormatter) {
+        logEntry.setTimestamp(dateFormatter.format(_timestamp));
+        logEntry.setSource(_appName == null ? defaultSource : _appName);
+        logEntry.setHost(_host);
+        logEntry.setSeverity(SEVERITY_CODES[_severity.toCode().intValue()]);
+
+        BasicDBObject fields = new BasicDBObject();
+        fields.put(FACILITY_FIELD_NAME, _facility);
+        if (_procId != null) {
+            fields.put(PROC_ID_FIELD_NAME, _procId);
+        }
+        if (_msgId != null) {
+            fields.put(MSG_ID_FIELD_NAME, _msgId);
+        }
+        if (_structuredData != null) {
+            fields.put(STRUCTURED_DATA_FIELD_NAME, _structuredData);
+        }
+        logEntry.setFields(MongoJsonSerializer.serialize(fields));
+
+        logEntry.setMessage(_message);
+    }
+}
@@ -0,0 +1,414 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+
+/**
+ * <p>
+ * Parses syslog messages in the <a href="http://tools.ietf.org/html/rfc5424">RFC 5424</a> format and the older BSD
+ * <a href="http://tools.ietf.org/html/rfc3164">RFC 3164</a> format.
+ * </p>
+ * <p>
+ * Parsing is lenient because many devices do not follow the RFCs closely. Parts of the header that cannot be found are
+ * left blank and the rest of the text is treated as the message. No regular expressions are used so that the cost of
+ * parsing is low even at high message rates.
+ * </p>
+ * <p>
+ * This class is not thread safe. Use one instance per thread.
+ * </p>
+ * 
+ * @author vibul
+ */
+public class SyslogParser {
+
+    /**
+     * PRI of messages without a PRI: user.notice as per RFC 3164 section 4.3.3
+     */
+    static final int DEFAULT_PRI = 13;
+
+    private static final int MAX_PRI = 191;
+    private static final int MAX_TAG_LENGTH = 48;
+    private static final String[] MONTHS = new String[] { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug",
+            "Sep", "Oct", "Nov", "Dec" };
+
+    /**
+     * RFC 3164 timestamps do not have a year. Timestamps more than this far in the future are assumed to be from last
+     * year; e.g. a message from 31 December received on 1 January.
+     */
+    private static final long MAX_FUTURE_MILLISECONDS = 7L * 24 * 60 * 60 * 1000;
+
+    private final GregorianCalendar _utcCalendar = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+    private final GregorianCalendar _localCalendar = new GregorianCalendar();
+    private String _text;
+    private int _pos;
+    private int _end;
+
+    /**
+     * Parses a syslog message
+     * 
+     * @param text
+     *            Text of the message. Trailing new line and null characters are ignored.
+     * @param remoteHost
+     *            Address from which the message was received. Used as the host if the message does not have a
+     *            HOSTNAME.
+     * @param msg
+     *            Message to fill in
+     * @return true if a message was parsed; false if the text is blank
+     */
+    public boolean parse(String text, String remoteHost, SyslogMessage msg) {
+        msg.reset();
+        if (StringUtils.isBlank(text)) {
+            return false;
+        }
+
+        _text = text;
+        _pos = 0;
+        _end = text.length();
+        while (_end > 0) {
+            char c = text.charAt(_end - 1);
+            if (c != '\n' && c != '\r' && c != '\0') {
+                break;
+            }
+            _end--;
+        }
+
+        Date now = new Date();
+        int pri = parsePri();
+        msg.setFacility(pri >> 3);
+        msg.setSeverity(Severity.fromCode(pri & 7));
+
+        if (_pos + 1 < _end && _text.charAt(_pos) == '1' && _text.charAt(_pos + 1) == ' ') {
+            _pos += 2;
+            parseRfc5424(msg);
+        } else {
+            parseRfc3164(msg, now);
+        }
+
+        if (msg.getTimestamp() == null) {
+            msg.setTimestamp(now);
+        }
+        if (msg.getHost() == null) {
+            msg.setHost(remoteHost);
+        }
+
+        _text = null;
+        return true;
+    }
+
+    /**
+     * Reads the PRI. For example, <code>&lt;34&gt;</code>.
+     * 
+     * @return PRI or {@link #DEFAULT_PRI} if there is no valid PRI
+     */
+    private int parsePri() {
+        if (_end < 3 || _text.charAt(0) != '<') {
+            return DEFAULT_PRI;
+        }
+
+        int pri = 0;
+        int i = 1;
+        while (i < _end && i <= 3) {
+            char c = _text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            pri = pri * 10 + (c - '0');
+            i++;
+        }
+        if (i == 1 || i >= _end || _text.charAt(i) != '>' || pri > MAX_PRI) {
+            return DEFAULT_PRI;
+        }
+
+        _pos = i + 1;
+        return pri;
+    }
+
+    /**
+     * Reads the rest of an RFC 5424 message after VERSION:
+     * <code>TIMESTAMP HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA [MSG]</code>
+     */
+    private void parseRfc5424(SyslogMessage msg) {
+        String timestamp = nextToken();
+        msg.setTimestamp(timestamp == null ? null : parseRfc3339(timestamp));
+        msg.setHost(nextToken());
+        msg.setAppName(nextToken());
+        msg.setProcId(nextToken());
+        msg.setMsgId(nextToken());
+
+        if (_pos < _end) {
+            char c = _text.charAt(_pos);
+            if (c == '-') {
+                _pos++;
+            } else if (c == '[') {
+                int start = _pos;
+                while (_pos < _end && _text.charAt(_pos) == '[') {
+                    skipSdElement();
+                }
+                msg.setStructuredData(_text.substring(start, _pos));
+            }
+            if (_pos < _end && _text.charAt(_pos) == ' ') {
+                _pos++;
+            }
+        }
+
+        // MSG may start with a UTF-8 byte order mark
+        if (_pos < _end && _text.charAt(_pos) == '\uFEFF') {
+            _pos++;
+        }
+        msg.setMessage(_text.substring(_pos, _end));
+    }
+
+    /**
+     * Moves past a SD-ELEMENT: <code>[SD-ID PARAM-NAME="PARAM-VALUE" ...]</code>. Inside PARAM-VALUE, <code>"</code>,
+     * <code>\</code> and <code>]</code> are escaped with <code>\</code>.
+     */
+    private void skipSdElement() {
+        boolean inValue = false;
+        _pos++;
+        while (_pos < _end) {
+            char c = _text.charAt(_pos++);
+            if (inValue) {
+                if (c == '\\') {
+                    _pos++;
+                } else if (c == '"') {
+                    inValue = false;
+                }
+            } else if (c == '"') {
+                inValue = true;
+            } else if (c == ']') {
+                break;
+            }
+        }
+        if (_pos > _end) {
+            _pos = _end;
+        }
+    }
+
+    /**
+     * Reads the rest of an RFC 3164 message after PRI: <code>TIMESTAMP HOSTNAME TAG[PID]: CONTENT</code>. If there is
+     * no valid TIMESTAMP, the rest of the text is the message.
+     */
+    private void parseRfc3164(SyslogMessage msg, Date now) {
+        Date timestamp = parseRfc3164Timestamp(now);
+        if (timestamp != null) {
+            msg.setTimestamp(timestamp);
+
+            // Some devices leave out the HOSTNAME so the next word is the TAG
+            int space = _text.indexOf(' ', _pos);
+            if (space > _pos && space < _end && _text.charAt(space - 1) != ':'
+                    && _text.lastIndexOf('[', space) < _pos) {
+                msg.setHost(_text.substring(_pos, space));
+                _pos = space + 1;
+            }
+
+            parseTag(msg);
+        }
+        msg.setMessage(_text.substring(_pos, _end));
+    }
+
+    /**
+     * Reads the TAG and optional process id: <code>TAG:</code> or <code>TAG[PID]:</code>
+     */
+    private void parseTag(SyslogMessage msg) {
+        int max = Math.min(_end, _pos + MAX_TAG_LENGTH);
+        for (int i = _pos; i < max; i++) {
+            char c = _text.charAt(i);
+            if (c == ' ') {
+                return;
+            } else if (c == ':') {
+                if (i == _pos) {
+                    return;
+                }
+                msg.setAppName(_text.substring(_pos, i));
+                _pos = i + 1;
+                break;
+            } else if (c == '[') {
+                int close = _text.indexOf(']', i);
+                if (i == _pos || close < 0 || close + 1 >= _end || _text.charAt(close + 1) != ':') {
+                    return;
+                }
+                msg.setAppName(_text.substring(_pos, i));
+                msg.setProcId(_text.substring(i + 1, close));
+                _pos = close + 2;
+                break;
+            }
+        }
+        if (_pos < _end && _text.charAt(_pos) == ' ') {
+            _pos++;
+        }
+    }
+
+    /**
+     * Reads a RFC 3164 timestamp: <code>Mmm dd hh:mm:ss</code>. It is in the server's time zone because the format
+     * does not have one.
+     * 
+     * @param now
+     *            Time the message was received. Used to work out the year.
+     * @return Timestamp or null if there is no valid timestamp
+     */
+    private Date parseRfc3164Timestamp(Date now) {
+        int p = _pos;
+        if (p + 15 > _end || _text.charAt(p + 3) != ' ' || _text.charAt(p + 6) != ' ' || _text.charAt(p + 9) != ':'
+                || _text.charAt(p + 12) != ':') {
+            return null;
+        }
+
+        int month = -1;
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (_text.regionMatches(p, MONTHS[i], 0, 3)) {
+                month = i;
+                break;
+            }
+        }
+        int day = _text.charAt(p + 4) == ' ' ? parseDigits(_text, p + 5, 1) : parseDigits(_text, p + 4, 2);
+        int hour = parseDigits(_text, p + 7, 2);
+        int minute = parseDigits(_text, p + 10, 2);
+        int second = parseDigits(_text, p + 13, 2);
+        if (month < 0 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0
+                || second > 60) {
+            return null;
+        }
+
+        GregorianCalendar cal = _localCalendar;
+        cal.setTime(now);
+        int year = cal.get(Calendar.YEAR);
+        cal.clear();
+        cal.set(year, month, day, hour, minute, second);
+        if (cal.getTimeInMillis() - now.getTime() > MAX_FUTURE_MILLISECONDS) {
+            cal.set(Calendar.YEAR, year - 1);
+        }
+
+        _pos = p + 15;
+        if (_pos < _end && _text.charAt(_pos) == ' ') {
+            _pos++;
+        }
+        return cal.getTime();
+    }
+
+    /**
+     * Parses a RFC 3339 timestamp as used by RFC 5424: <code>YYYY-MM-DDThh:mm:ss[.frac](Z|+hh:mm|-hh:mm)</code>.
+     * Fractions of a second beyond milliseconds are ignored.
+     * 
+     * @param s
+     *            Timestamp to parse
+     * @return Date or null if the timestamp is not valid
+     */
+    Date parseRfc3339(String s) {
+        int len = s.length();
+        if (len < 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || (s.charAt(10) != 'T' && s.charAt(10) != 't')
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return null;
+        }
+
+        int year = parseDigits(s, 0, 4);
+        int month = parseDigits(s, 5, 2);
+        int day = parseDigits(s, 8, 2);
+        int hour = parseDigits(s, 11, 2);
+        int minute = parseDigits(s, 14, 2);
+        int second = parseDigits(s, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+                || minute > 59 || second < 0 || second > 60) {
+            return null;
+        }
+
+        int i = 19;
+        int millisecond = 0;
+        if (s.charAt(i) == '.') {
+            int start = ++i;
+            while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                if (i - start < 3) {
+                    millisecond = millisecond * 10 + (s.charAt(i) - '0');
+                }
+                i++;
+            }
+            if (i == start) {
+                return null;
+            }
+            for (int n = i - start; n < 3; n++) {
+                millisecond = millisecond * 10;
+            }
+        }
+
+        int offsetMinutes = 0;
+        if (i < len && (s.charAt(i) == 'Z' || s.charAt(i) == 'z')) {
+            i++;
+        } else if (i + 6 == len && (s.charAt(i) == '+' || s.charAt(i) == '-') && s.charAt(i + 3) == ':') {
+            int offsetHour = parseDigits(s, i + 1, 2);
+            int offsetMinute = parseDigits(s, i + 4, 2);
+            if (offsetHour < 0 || offsetMinute < 0) {
+                return null;
+            }
+            offsetMinutes = (offsetHour * 60 + offsetMinute) * (s.charAt(i) == '-' ? -1 : 1);
+            i += 6;
+        }
+        if (i != len) {
+            return null;
+        }
+
+        GregorianCalendar cal = _utcCalendar;
+        cal.clear();
+        cal.set(year, month - 1, day, hour, minute, second);
+        cal.set(Calendar.MILLISECOND, millisecond);
+        return new Date(cal.getTimeInMillis() - offsetMinutes * 60000L);
+    }
+
+    /**
+     * Returns the next space delimited header part and moves past the space
+     * 
+     * @return Header part or null if it is the NILVALUE <code>-</code> or empty
+     */
+    private String nextToken() {
+        int start = _pos;
+        while (_pos < _end && _text.charAt(_pos) != ' ') {
+            _pos++;
+        }
+        int end = _pos;
+        if (_pos < _end) {
+            _pos++;
+        }
+        if (end == start || (end - start == 1 && _text.charAt(start) == '-')) {
+            return null;
+        }
+        return _text.substring(start, end);
+    }
+
+    /**
+     * Parses a fixed number of decimal digits
+     * 
+     * @return Value or -1 if any of the characters is not a digit
+     */
+    private static int parseDigits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
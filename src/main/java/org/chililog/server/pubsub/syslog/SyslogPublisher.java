@@ -0,0 +1,288 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.chililog.server.engine.parsers.EntryParserRouter;
+import org.chililog.server.pubsub.MqProducerSessionPool;
+import org.chililog.server.pubsub.MqProducerSessionPool.Pooled;
+import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
+import org.chililog.server.pubsub.jsonhttp.PublicationWorker;
+import org.hornetq.api.core.SimpleString;
+
+/**
+ * <p>
+ * Publishes syslog messages received by {@link SyslogRequestHandler} in batches.
+ * </p>
+ * <p>
+ * Netty's I/O threads only add the text of received messages to a bounded queue. Publisher threads take messages
+ * from the queue in batches, parse and route them, and send them using one pooled producer per batch. This keeps the
+ * I/O threads free to read from sockets during bursts and means that a pooled session is taken and returned once per
+ * batch rather than once per message.
+ * </p>
+ * <p>
+ * When the queue is full, messages received over UDP are dropped and counted because UDP has no flow control. TCP
+ * connections wait for space in the queue so that the sender slows down instead.
+ * </p>
+ * 
+ * @author vibul
+ */
+public class SyslogPublisher {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(SyslogPublisher.class);
+
+    /**
+     * Source of log entries for messages without an APP-NAME or TAG
+     */
+    static final String DEFAULT_SOURCE = "syslog";
+
+    private static final long POLL_TIMEOUT_MILLISECONDS = 500;
+    private static final long STOP_TIMEOUT_MILLISECONDS = 5000;
+    private static final long DROPPED_REPORT_INTERVAL_MILLISECONDS = 60000;
+
+    private final MqProducerSessionPool _sessionPool;
+    private final SyslogRouter _router;
+    private final ArrayBlockingQueue<Received> _queue;
+    private final int _batchSize;
+    private final Thread[] _threads;
+    private volatile boolean _isRunning = false;
+    private final AtomicLong _droppedCount = new AtomicLong(0);
+    private final AtomicLong _unroutedCount = new AtomicLong(0);
+    private final AtomicLong _lastDroppedReport = new AtomicLong(0);
+
+    /**
+     * Constructor
+     * 
+     * @param sessionPool
+     *            MQ Session Pool to use to get producers for writing to repository addresses
+     * @param router
+     *            Works out the repository for each message
+     * @param queueSize
+     *            Maximum number of messages waiting to be published
+     * @param batchSize
+     *            Maximum number of messages published with one pooled producer
+     * @param threadCount
+     *            Number of publisher threads
+     */
+    public SyslogPublisher(MqProducerSessionPool sessionPool,
+                           SyslogRouter router,
+                           int queueSize,
+                           int batchSize,
+                           int threadCount) {
+        _sessionPool = sessionPool;
+        _router = router;
+        _queue = new ArrayBlockingQueue<Received>(queueSize);
+        _batchSize = batchSize;
+        _threads = new Thread[threadCount];
+    }
+
+    /**
+     * Starts the publisher threads
+     */
+    public synchronized void start() {
+        _isRunning = true;
+        for (int i = 0; i < _threads.length; i++) {
+            _threads[i] = new Thread(new Worker(), "SyslogPublisher-" + i);
+            _threads[i].setDaemon(true);
+            _threads[i].start();
+        }
+    }
+
+    /**
+     * Publishes the messages waiting in the queue and stops the publisher threads
+     */
+    public synchronized void stop() {
+        _isRunning = false;
+        for (Thread thread : _threads) {
+            if (thread == null) {
+                continue;
+            }
+            try {
+                thread.join(STOP_TIMEOUT_MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        reportDropped(true);
+    }
+
+    /**
+     * Adds a message to the queue without waiting. Used for UDP.
+     * 
+     * @param text
+     *            Text of the syslog message
+     * @param remoteHost
+     *            Address from which the message was received
+     * @return true if the message was added; false if it was dropped because the queue is full
+     */
+    public boolean offer(String text, String remoteHost) {
+        if (_queue.offer(new Received(text, remoteHost))) {
+            return true;
+        }
+        _droppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Adds a message to the queue, waiting for space if the queue is full. Used for TCP.
+     * 
+     * @param text
+     *            Text of the syslog message
+     * @param remoteHost
+     *            Address from which the message was received
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void put(String text, String remoteHost) throws InterruptedException {
+        _queue.put(new Received(text, remoteHost));
+    }
+
+    /**
+     * Logs the number of messages dropped since the last report. Reports are made at most once a minute so that a
+     * flood of messages does not also flood the log.
+     * 
+     * @param force
+     *            Report now regardless of when the last report was made
+     */
+    private void reportDropped(boolean force) {
+        long now = System.currentTimeMillis();
+        long last = _lastDroppedReport.get();
+        if (!force) {
+            if (now - last < DROPPED_REPORT_INTERVAL_MILLISECONDS || !_lastDroppedReport.compareAndSet(last, now)) {
+                return;
+            }
+        }
+
+        long dropped = _droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            _logger.warn("%s syslog messages dropped because the publisher queue is full.", dropped);
+        }
+        long unrouted = _unroutedCount.getAndSet(0);
+        if (unrouted > 0) {
+            _logger.warn("%s syslog messages dropped because they do not match any route.", unrouted);
+        }
+    }
+
+    /**
+     * Text of a message as it was received
+     */
+    private static class Received {
+
+        final String text;
+        final String remoteHost;
+
+        Received(String text, String remoteHost) {
+            this.text = text;
+            this.remoteHost = remoteHost;
+        }
+    }
+
+    /**
+     * Publisher thread. Parsing objects and repository details are kept per thread so they can be reused without
+     * locking.
+     */
+    private class Worker implements Runnable {
+
+        private final ArrayList<Received> _batch = new ArrayList<Received>(_batchSize);
+        private final SyslogParser _parser = new SyslogParser();
+        private final SyslogMessage _msg = new SyslogMessage();
+        private final LogEntryAO _logEntry = new LogEntryAO();
+        private final SimpleDateFormat _dateFormatter = RepositoryEntryMqMessage.getDateFormatter();
+        private final HashMap<String, SimpleString> _addresses = new HashMap<String, SimpleString>();
+        private final HashMap<String, EntryParserRouter> _parsers = new HashMap<String, EntryParserRouter>();
+
+        public void run() {
+            while (_isRunning || !_queue.isEmpty()) {
+                try {
+                    Received received = _queue.poll(POLL_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+                    if (received == null) {
+                        continue;
+                    }
+                    _batch.add(received);
+                    _queue.drainTo(_batch, _batchSize - 1);
+                    publish();
+                } catch (InterruptedException ex) {
+                    break;
+                } finally {
+                    _batch.clear();
+                }
+                reportDropped(false);
+            }
+        }
+
+        /**
+         * Publishes the current batch using one pooled producer
+         */
+        private void publish() {
+            Pooled p = null;
+            try {
+                // Repository parsers can change when the repository is restarted so look them up once per batch
+                _parsers.clear();
+
+                p = _sessionPool.getPooled();
+                for (int i = 0; i < _batch.size(); i++) {
+                    Received received = _batch.get(i);
+                    if (!_parser.parse(received.text, received.remoteHost, _msg)) {
+                        continue;
+                    }
+
+                    String repoName = _router.route(_msg);
+                    if (repoName == null) {
+                        _unroutedCount.incrementAndGet();
+                        continue;
+                    }
+
+                    SimpleString repoAddress = _addresses.get(repoName);
+                    if (repoAddress == null) {
+                        repoAddress = SimpleString.toSimpleString(RepositoryConfigBO.buildPubSubAddress(repoName));
+                        _addresses.put(repoName, repoAddress);
+                    }
+                    EntryParserRouter parsers = _parsers.get(repoName);
+                    if (parsers == null && !_parsers.containsKey(repoName)) {
+                        parsers = PublicationWorker.getPublicationParsers(repoName);
+                        _parsers.put(repoName, parsers);
+                    }
+
+                    _msg.toLogEntry(_logEntry, DEFAULT_SOURCE, _dateFormatter);
+                    PublicationWorker.send(p, repoAddress, parsers, _logEntry);
+                }
+                _sessionPool.returnPooled(p);
+            } catch (Exception ex) {
+                if (p != null) {
+                    try {
+                        _sessionPool.addPooled();
+                        p.session.close();
+                    } catch (Exception ex2) {
+                        _logger.error(ex2, "Error closing pooled connection");
+                    }
+                }
+                _logger.error(ex, "Error publishing batch of %s syslog messages", _batch.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+
+import org.chililog.server.common.Log4JLogger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * <p>
+ * Handler for syslog messages received over UDP (one message per datagram) or TCP (framed by
+ * {@link SyslogFrameDecoder}).
+ * </p>
+ * <p>
+ * Messages are handed to the {@link SyslogPublisher} as text. Parsing and publishing is done by the publisher threads
+ * so that Netty's I/O threads can go back to reading as soon as possible. No reply is sent.
+ * </p>
+ * 
+ * @author vibul
+ */
+public class SyslogRequestHandler extends SimpleChannelUpstreamHandler {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(SyslogRequestHandler.class);
+
+    private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+    private SyslogPublisher _publisher;
+    private boolean _isUdp;
+
+    /**
+     * Constructor
+     * 
+     * @param publisher
+     *            Publisher to which messages are handed
+     * @param isUdp
+     *            True if messages are received over UDP. UDP messages are dropped if the publisher's queue is full.
+     *            For TCP, we wait for space in the queue which stops reading from the connection.
+     */
+    public SyslogRequestHandler(SyslogPublisher publisher, boolean isUdp) {
+        _publisher = publisher;
+        _isUdp = isUdp;
+    }
+
+    /**
+     * Handles a syslog message
+     */
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+        if (!buffer.readable()) {
+            return;
+        }
+
+        String text = buffer.toString(UTF_8_CHARSET);
+        String remoteHost = getRemoteHost(e.getRemoteAddress());
+        if (_isUdp) {
+            _publisher.offer(text, remoteHost);
+        } else {
+            _publisher.put(text, remoteHost);
+        }
+    }
+
+    /**
+     * Returns the address of the computer that sent the message
+     */
+    private static String getRemoteHost(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            return ((InetSocketAddress) address).getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
+    }
+
+    /**
+     * Messages that are too long are discarded. For other errors, print it and close TCP connections. The UDP channel
+     * is never closed because it is shared by all senders.
+     */
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+        if (e.getCause() instanceof TooLongFrameException) {
+            _logger.debug("Channel %s syslog message discarded: %s", ctx.getChannel().getId(),
+                    e.getCause().getMessage());
+            return;
+        }
+        try {
+            _logger.debug(e.getCause(), "Error handling syslog message");
+            if (!_isUdp) {
+                e.getChannel().close();
+            }
+        } catch (Exception ex) {
+            _logger.debug(ex, "Error closing channel in exception");
+        }
+    }
+
+    /**
+     * Add channel to channel group to disconnect when shutting down. Channel group automatically removes closed
+     * channels.
+     */
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) {
+        SyslogService.getInstance().getAllChannels().add(e.getChannel());
+    }
+}
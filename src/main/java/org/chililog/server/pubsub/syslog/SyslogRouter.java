@@ -0,0 +1,136 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.pubsub.Strings;
+
+/**
+ * <p>
+ * Works out the repository to which a syslog message is published.
+ * </p>
+ * <p>
+ * Routes are checked in order. Each route has the format <code>repository_name part regular_expression</code>
+ * where <code>part</code> is one of:
+ * </p>
+ * <ul>
+ * <li><code>host</code> - HOSTNAME or the address from which the message was received</li>
+ * <li><code>app</code> - APP-NAME or TAG</li>
+ * <li><code>facility</code> - facility keyword; e.g. <code>local0</code></li>
+ * </ul>
+ * <p>
+ * For example, <code>web_logs app ^(nginx|httpd)$</code>. The message is published to the repository of the first
+ * route where the regular expression is found in the part. If no routes match, the default repository is used.
+ * </p>
+ * 
+ * @author vibul
+ */
+public class SyslogRouter {
+
+    private final ArrayList<Route> _routes = new ArrayList<Route>();
+    private final String _defaultRepositoryName;
+
+    /**
+     * Constructor
+     * 
+     * @param routes
+     *            Routes in the format <code>repository_name part regular_expression</code>
+     * @param defaultRepositoryName
+     *            Repository to use if no routes match. <code>null</code> to drop messages that do not match.
+     * @throws ChiliLogException
+     *             if a route is not valid
+     */
+    public SyslogRouter(List<String> routes, String defaultRepositoryName) throws ChiliLogException {
+        for (String route : routes) {
+            _routes.add(new Route(route));
+        }
+        _defaultRepositoryName = StringUtils.isBlank(defaultRepositoryName) ? null : defaultRepositoryName.trim();
+    }
+
+    /**
+     * Returns the name of the repository to which the message is to be published
+     * 
+     * @param msg
+     *            Parsed syslog message
+     * @return Repository name. <code>null</code> if the message does not match any route and there is no default
+     *         repository.
+     */
+    public String route(SyslogMessage msg) {
+        for (int i = 0; i < _routes.size(); i++) {
+            Route route = _routes.get(i);
+            if (route.matches(msg)) {
+                return route.repositoryName;
+            }
+        }
+        return _defaultRepositoryName;
+    }
+
+    /**
+     * Part of the syslog message that is matched
+     */
+    static enum Part {
+        host, app, facility
+    }
+
+    /**
+     * A parsed route
+     */
+    static class Route {
+
+        final String repositoryName;
+        final Part part;
+        final Pattern pattern;
+
+        Route(String route) throws ChiliLogException {
+            String[] s = StringUtils.isBlank(route) ? new String[0] : route.trim().split("\\s+", 3);
+            if (s.length != 3) {
+                throw new ChiliLogException(Strings.SYSLOG_ROUTE_ERROR, route);
+            }
+            repositoryName = s[0];
+            try {
+                part = Part.valueOf(s[1]);
+                pattern = Pattern.compile(s[2]);
+            } catch (IllegalArgumentException ex) {
+                // PatternSyntaxException is an IllegalArgumentException
+                throw new ChiliLogException(ex, Strings.SYSLOG_ROUTE_ERROR, route);
+            }
+        }
+
+        boolean matches(SyslogMessage msg) {
+            String value;
+            switch (part) {
+            case host:
+                value = msg.getHost();
+                break;
+            case app:
+                value = msg.getAppName();
+                break;
+            default:
+                value = msg.getFacilityName();
+                break;
+            }
+            return value != null && pattern.matcher(value).find();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import static org.jboss.netty.channel.Channels.*;
+
+import org.chililog.server.common.AppProperties;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+
+/**
+ * Creates a pipeline for receiving syslog messages over UDP or TCP
+ * 
+ * @author vibul
+ * 
+ */
+public class SyslogServerPipelineFactory implements ChannelPipelineFactory {
+
+    private SyslogPublisher _publisher = null;
+    private boolean _isUdp = false;
+
+    /**
+     * Constructor
+     * 
+     * @param publisher
+     *            Publisher to which received messages are handed
+     * @param isUdp
+     *            True for a UDP pipeline; false for a TCP pipeline
+     */
+    public SyslogServerPipelineFactory(SyslogPublisher publisher, boolean isUdp) {
+        _publisher = publisher;
+        _isUdp = isUdp;
+    }
+
+    /**
+     * Creates a syslog pipeline for our server
+     */
+    public ChannelPipeline getPipeline() throws Exception {
+        // Create a default pipeline implementation.
+        ChannelPipeline pipeline = pipeline();
+
+        // Each UDP datagram is a message. TCP streams have to be split into messages.
+        if (!_isUdp) {
+            pipeline.addLast("framer", new SyslogFrameDecoder(AppProperties.getInstance()
+                    .getPubSubSyslogMaxMessageSize()));
+        }
+
+        // Handler to queue messages for publishing. There is no execution handler because the handler does not block
+        // except when waiting for space in the publisher's queue. Blocking then is what we want because it stops
+        // reading from TCP connections until the publisher catches up.
+        pipeline.addLast("handler", new SyslogRequestHandler(_publisher, _isUdp));
+
+        return pipeline;
+    }
+}
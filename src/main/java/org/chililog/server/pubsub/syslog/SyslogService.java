@@ -0,0 +1,235 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.pubsub.MqProducerSessionPool;
+import org.hornetq.api.core.TransportConfiguration;
+import org.jboss.netty.bootstrap.Bootstrap;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.ChannelGroupFuture;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+
+/**
+ * <p>
+ * The SyslogService controls the embedded Netty servers used to receive syslog messages over UDP and TCP. Messages are
+ * published to repositories chosen by {@link SyslogRouter} so that devices which only speak syslog do not need a
+ * separate relay.
+ * </p>
+ * 
+ * <pre class="example">
+ * // Start server
+ * SyslogService.getInstance().start();
+ * 
+ * // Stop server
+ * SyslogService.getInstance().stop();
+ * </pre>
+ * 
+ * <p>
+ * The UDP or TCP listener is not started if its port is 0. The pipelines are setup by
+ * {@link SyslogServerPipelineFactory}. Received messages are published in batches by {@link SyslogPublisher}.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class SyslogService {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(SyslogService.class);
+    private static final ChannelGroup _allChannels = new DefaultChannelGroup("PubSubSyslogServerManager");
+    private ChannelFactory _udpChannelFactory = null;
+    private ChannelFactory _tcpChannelFactory = null;
+    private SyslogPublisher _publisher = null;
+    private MqProducerSessionPool _mqProducerSessionPool = null;
+
+    /**
+     * Returns the singleton instance for this class
+     */
+    public static SyslogService getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * SingletonHolder is loaded on the first execution of Singleton.getInstance() or the first access to
+     * SingletonHolder.INSTANCE, not before.
+     * 
+     * See http://en.wikipedia.org/wiki/Singleton_pattern
+     */
+    private static class SingletonHolder {
+
+        public static final SyslogService INSTANCE = new SyslogService();
+    }
+
+    /**
+     * Singleton constructor
+     */
+    private SyslogService() {
+        return;
+    }
+
+    /**
+     * <p>
+     * Start the syslog servers
+     * </p>
+     * <p>
+     * If the routes are not valid, we log the error and exit because messages would be published to the wrong
+     * repositories.
+     * </p>
+     */
+    public synchronized void start() {
+        AppProperties appProperties = AppProperties.getInstance();
+
+        if (_publisher != null) {
+            _logger.info("PubSub Syslog Sever Already Started.");
+            return;
+        }
+
+        _logger.info("Starting PubSub Syslog Sever on " + appProperties.getPubSubSyslogHost() + " UDP:"
+                + appProperties.getPubSubSyslogUdpPort() + " TCP:" + appProperties.getPubSubSyslogTcpPort() + "...");
+
+        SyslogRouter router = null;
+        try {
+            router = new SyslogRouter(appProperties.getPubSubSyslogRoutes(),
+                    appProperties.getPubSubSyslogDefaultRepository());
+        } catch (Exception ex) {
+            _logger.error(ex, "Error loading syslog routes: " + ex.getMessage());
+            System.exit(1);
+        }
+
+        // One producer session per publisher thread
+        int threadCount = appProperties.getPubSubSyslogPublisherThreadPoolSize();
+        _mqProducerSessionPool = new MqProducerSessionPool(threadCount);
+        _publisher = new SyslogPublisher(_mqProducerSessionPool, router,
+                appProperties.getPubSubSyslogPublisherQueueSize(), appProperties.getPubSubSyslogPublisherBatchSize(),
+                threadCount);
+        _publisher.start();
+
+        if (appProperties.getPubSubSyslogUdpPort() > 0) {
+            _udpChannelFactory = new NioDatagramChannelFactory(Executors.newCachedThreadPool());
+            ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(_udpChannelFactory);
+
+            // A large socket receive buffer holds bursts while the I/O thread is busy
+            bootstrap.setOption("receiveBufferSize", appProperties.getPubSubSyslogUdpReceiveBufferSize());
+
+            // Netty's default of 768 bytes would truncate datagrams
+            bootstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(
+                    appProperties.getPubSubSyslogMaxMessageSize()));
+
+            bootstrap.setPipelineFactory(new SyslogServerPipelineFactory(_publisher, true));
+            bind(bootstrap, appProperties.getPubSubSyslogHost(), appProperties.getPubSubSyslogUdpPort());
+        }
+
+        if (appProperties.getPubSubSyslogTcpPort() > 0) {
+            int workerCount = appProperties.getPubSubSyslogNettyWorkerThreadPoolSize();
+            if (workerCount == 0) {
+                _tcpChannelFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                        Executors.newCachedThreadPool());
+            } else {
+                _tcpChannelFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                        Executors.newCachedThreadPool(), workerCount);
+            }
+            ServerBootstrap bootstrap = new ServerBootstrap(_tcpChannelFactory);
+            bootstrap.setOption("child.keepAlive", true);
+            bootstrap.setPipelineFactory(new SyslogServerPipelineFactory(_publisher, false));
+            bind(bootstrap, appProperties.getPubSubSyslogHost(), appProperties.getPubSubSyslogTcpPort());
+        }
+
+        _logger.info("PubSub Syslog Sever Started.");
+    }
+
+    /**
+     * Binds to each of the hosts
+     * 
+     * @param bootstrap
+     *            UDP or TCP bootstrap
+     * @param host
+     *            Comma separated list of IP addresses
+     * @param port
+     *            Port to bind to
+     */
+    private void bind(Bootstrap bootstrap, String host, int port) {
+        String[] hosts = TransportConfiguration.splitHosts(host);
+        for (String h : hosts) {
+            if (StringUtils.isBlank(h)) {
+                if (hosts.length == 1) {
+                    h = "0.0.0.0";
+                } else {
+                    continue;
+                }
+            }
+
+            SocketAddress address = h.equals("0.0.0.0") ? new InetSocketAddress(port) : new InetSocketAddress(h, port);
+            Channel channel = bootstrap instanceof ServerBootstrap ? ((ServerBootstrap) bootstrap).bind(address)
+                    : ((ConnectionlessBootstrap) bootstrap).bind(address);
+            _allChannels.add(channel);
+        }
+    }
+
+    /**
+     * Stop the syslog servers. Messages that have been received are published before returning.
+     */
+    public synchronized void stop() {
+        if (_publisher == null) {
+            return;
+        }
+
+        _logger.info("Stopping PubSub Syslog Sever ...");
+
+        ChannelGroupFuture future = _allChannels.close();
+        future.awaitUninterruptibly();
+        if (_udpChannelFactory != null) {
+            _udpChannelFactory.releaseExternalResources();
+            _udpChannelFactory = null;
+        }
+        if (_tcpChannelFactory != null) {
+            _tcpChannelFactory.releaseExternalResources();
+            _tcpChannelFactory = null;
+        }
+
+        _publisher.stop();
+        _publisher = null;
+
+        if (_mqProducerSessionPool != null) {
+            _mqProducerSessionPool.cleanup();
+            _mqProducerSessionPool = null;
+        }
+
+        _logger.info("PubSub Syslog Sever Stopped.");
+    }
+
+    /**
+     * Returns the group holding all channels so we can shutdown without hanging
+     */
+    ChannelGroup getAllChannels() {
+        return _allChannels;
+    }
+}
@@ -0,0 +1,315 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.tcp;
+
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.JsonTranslator;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.chililog.server.engine.parsers.EntryParserRouter;
+import org.chililog.server.pubsub.MqProducerSessionPool;
+import org.chililog.server.pubsub.MqProducerSessionPool.Pooled;
+import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
+import org.chililog.server.pubsub.jsonhttp.PublicationRequestAO;
+import org.chililog.server.pubsub.jsonhttp.PublicationWorker;
+import org.hornetq.api.core.SimpleString;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * <p>
+ * Handler for log entries sent one per line over a long lived TCP connection.
+ * </p>
+ * <p>
+ * The first line must be a {@link TcpSessionRequestAO} in JSON format. If the user can publish to the repository,
+ * <code>OK</code> is sent back. Otherwise <code>ERROR</code> followed by the error message is sent back and the
+ * connection is closed.
+ * </p>
+ * <p>
+ * Each following line is published to the repository as it arrives; no reply is sent. In <code>text</code> format, each
+ * line is the log message. In <code>json</code> format, each line is a {@link LogEntryAO} in JSON format. Blank lines
+ * are ignored.
+ * </p>
+ * <p>
+ * If a line cannot be published, <code>ERROR</code> followed by the error message is sent back and the connection is
+ * closed so that the publisher can reconnect and resend.
+ * </p>
+ * 
+ * @author vibul
+ */
+public class TcpRequestHandler extends SimpleChannelUpstreamHandler {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(TcpRequestHandler.class);
+
+    private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+    private static final String DEFAULT_SOURCE = "tcp";
+
+    private MqProducerSessionPool _sessionPool;
+    private String _repoName = null;
+    private SimpleString _repoAddress = null;
+    private boolean _isJsonFormat = false;
+    private String _source = null;
+    private String _host = null;
+    private String _severity = null;
+    private SimpleDateFormat _dateFormatter = null;
+    private LogEntryAO _logEntry = new LogEntryAO();
+
+    /**
+     * Constructor
+     * 
+     * @param sessionPool
+     *            MQ Session Pool to use to get producer for writing to an address
+     */
+    public TcpRequestHandler(MqProducerSessionPool sessionPool) {
+        _sessionPool = sessionPool;
+    }
+
+    /**
+     * Handles a line
+     */
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ChannelBuffer line = (ChannelBuffer) e.getMessage();
+        if (!line.readable()) {
+            return;
+        }
+
+        if (_repoAddress == null) {
+            startSession(ctx, line);
+        } else {
+            publish(ctx, line);
+        }
+    }
+
+    /**
+     * Authenticates the connection using the first line
+     * 
+     * @param ctx
+     *            Channel Handler Context
+     * @param line
+     *            Session request in JSON format
+     */
+    private void startSession(ChannelHandlerContext ctx, ChannelBuffer line) {
+        try {
+            InputStreamReader reader = new InputStreamReader(new ChannelBufferInputStream(line.duplicate()),
+                    UTF_8_CHARSET);
+            TcpSessionRequestAO sessionAO = JsonTranslator.getInstance().fromJson(reader, TcpSessionRequestAO.class);
+            if (sessionAO == null) {
+                throw new IllegalArgumentException("Session request is blank.");
+            }
+
+            if (TcpSessionRequestAO.JSON_FORMAT.equalsIgnoreCase(sessionAO.getFormat())) {
+                _isJsonFormat = true;
+            } else if (StringUtils.isBlank(sessionAO.getFormat())
+                    || TcpSessionRequestAO.TEXT_FORMAT.equalsIgnoreCase(sessionAO.getFormat())) {
+                _isJsonFormat = false;
+            } else {
+                throw new IllegalArgumentException(String.format("Format '%s' is not supported.",
+                        sessionAO.getFormat()));
+            }
+
+            PublicationRequestAO requestAO = new PublicationRequestAO();
+            requestAO.setRepositoryName(sessionAO.getRepositoryName());
+            requestAO.setUsername(sessionAO.getUsername());
+            requestAO.setPassword(StringUtils.defaultString(sessionAO.getPassword()));
+            new PublicationWorker(_sessionPool).authenticate(requestAO);
+
+            _source = StringUtils.defaultIfEmpty(sessionAO.getSource(), DEFAULT_SOURCE);
+            _host = StringUtils.defaultIfEmpty(sessionAO.getHost(), getRemoteHost(ctx));
+            _severity = StringUtils.defaultIfEmpty(sessionAO.getSeverity(),
+                    Long.toString(Severity.Information.toCode()));
+            _repoName = sessionAO.getRepositoryName();
+            _repoAddress = SimpleString.toSimpleString(RepositoryConfigBO.buildPubSubAddress(sessionAO
+                    .getRepositoryName()));
+
+            _logger.debug("Channel %s TCP session started for repository '%s'", ctx.getChannel().getId(),
+                    sessionAO.getRepositoryName());
+            ctx.getChannel().write(ChannelBuffers.copiedBuffer("OK\n", UTF_8_CHARSET));
+        } catch (Exception ex) {
+            _logger.debug(ex, "Channel %s TCP session request rejected", ctx.getChannel().getId());
+            sendErrorAndClose(ctx, ex);
+        }
+    }
+
+    /**
+     * Publishes a line to the repository
+     * 
+     * @param ctx
+     *            Channel Handler Context
+     * @param line
+     *            Log entry
+     */
+    private void publish(ChannelHandlerContext ctx, ChannelBuffer line) {
+        Pooled p = null;
+        try {
+            if (!toLogEntry(line, _logEntry)) {
+                return;
+            }
+
+            // Parsers are kept per thread and lines from a connection are not always handled by the same thread
+            EntryParserRouter parsers = PublicationWorker.getPublicationParsers(_repoName);
+
+            p = _sessionPool.getPooled();
+            PublicationWorker.send(p, _repoAddress, parsers, _logEntry);
+            _sessionPool.returnPooled(p);
+        } catch (Exception ex) {
+            if (p != null) {
+                try {
+                    _sessionPool.addPooled();
+                    p.session.close();
+                } catch (Exception ex2) {
+                    _logger.error(ex2, "Error closing pooled connection");
+                }
+            }
+            _logger.error(ex, "Error publishing TCP line: %s", line.toString(UTF_8_CHARSET));
+            sendErrorAndClose(ctx, ex);
+        }
+    }
+
+    /**
+     * Converts a line into a log entry. Fields not set in the line are set from the session request. The line is read
+     * through a duplicate so that it can still be logged if it cannot be published.
+     * 
+     * @param line
+     *            Line to convert
+     * @param logEntry
+     *            Log entry to fill in
+     * @return true if a log entry was read; false if the line is blank
+     * @throws com.google.gson.JsonParseException
+     *             if the line is not a valid JSON log entry in JSON format
+     */
+    boolean toLogEntry(ChannelBuffer line, LogEntryAO logEntry) {
+        if (_isJsonFormat) {
+            LogEntryAO jsonEntry = JsonTranslator.getInstance().fromJson(
+                    new InputStreamReader(new ChannelBufferInputStream(line.duplicate()), UTF_8_CHARSET),
+                    LogEntryAO.class);
+            if (jsonEntry == null) {
+                return false;
+            }
+            logEntry.setTimestamp(jsonEntry.getTimestamp());
+            logEntry.setSource(jsonEntry.getSource());
+            logEntry.setHost(jsonEntry.getHost());
+            logEntry.setSeverity(jsonEntry.getSeverity());
+            logEntry.setFields(jsonEntry.getFields());
+            logEntry.setMessage(jsonEntry.getMessage());
+        } else {
+            String message = line.toString(UTF_8_CHARSET);
+            if (StringUtils.isBlank(message)) {
+                return false;
+            }
+            logEntry.setTimestamp(null);
+            logEntry.setSource(null);
+            logEntry.setHost(null);
+            logEntry.setSeverity(null);
+            logEntry.setFields(null);
+            logEntry.setMessage(message);
+        }
+
+        if (StringUtils.isBlank(logEntry.getTimestamp())) {
+            if (_dateFormatter == null) {
+                _dateFormatter = RepositoryEntryMqMessage.getDateFormatter();
+            }
+            logEntry.setTimestamp(_dateFormatter.format(new Date()));
+        }
+        if (StringUtils.isBlank(logEntry.getSource())) {
+            logEntry.setSource(_source);
+        }
+        if (StringUtils.isBlank(logEntry.getHost())) {
+            logEntry.setHost(_host);
+        }
+        if (StringUtils.isBlank(logEntry.getSeverity())) {
+            logEntry.setSeverity(_severity);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the line format and defaults without authenticating. For testing.
+     */
+    void setSession(boolean isJsonFormat, String source, String host, String severity) {
+        _isJsonFormat = isJsonFormat;
+        _source = source;
+        _host = host;
+        _severity = severity;
+    }
+
+    /**
+     * Returns the address of the computer at the other end of the connection
+     */
+    private static String getRemoteHost(ChannelHandlerContext ctx) {
+        SocketAddress address = ctx.getChannel().getRemoteAddress();
+        if (address instanceof InetSocketAddress) {
+            return ((InetSocketAddress) address).getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
+    }
+
+    /**
+     * Sends an error line and closes the connection
+     */
+    private static void sendErrorAndClose(ChannelHandlerContext ctx, Exception ex) {
+        String msg = StringUtils.defaultString(ex.getMessage(), ex.getClass().getName()).replace('\n', ' ');
+        ctx.getChannel().write(ChannelBuffers.copiedBuffer("ERROR " + msg + "\n", UTF_8_CHARSET))
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Lines that are too long are discarded. For all other errors, print it and close socket.
+     */
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+        if (e.getCause() instanceof TooLongFrameException) {
+            _logger.debug("Channel %s TCP line discarded: %s", ctx.getChannel().getId(), e.getCause().getMessage());
+            return;
+        }
+        try {
+            _logger.debug(e.getCause(), "Error handling PubSub TCP Request");
+            e.getChannel().close();
+        } catch (Exception ex) {
+            _logger.debug(ex, "Error closing channel in exception");
+        }
+    }
+
+    /**
+     * Add channel to channel group to disconnect when shutting down. Channel group automatically removes closed
+     * channels.
+     */
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) {
+        TcpService.getInstance().getAllChannels().add(e.getChannel());
+    }
+}
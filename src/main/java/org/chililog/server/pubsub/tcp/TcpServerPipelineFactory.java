@@ -0,0 +1,79 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.tcp;
+
+import static org.jboss.netty.channel.Channels.*;
+
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.pubsub.MqProducerSessionPool;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+/**
+ * Creates a pipeline for TCP connections publishing log entries one per line
+ * 
+ * @author vibul
+ * 
+ */
+public class TcpServerPipelineFactory implements ChannelPipelineFactory {
+
+    private OrderedMemoryAwareThreadPoolExecutor _pipelineExecutor = null;
+    private MqProducerSessionPool _sessionPool = null;
+
+    /**
+     * Constructor
+     * 
+     * @param pipelineExecutor
+     *            ThreadPool to use for processing lines
+     * @param sessionPool
+     *            MQ Session Pool to use to get producer for writing to an address
+     */
+    public TcpServerPipelineFactory(OrderedMemoryAwareThreadPoolExecutor pipelineExecutor,
+                                    MqProducerSessionPool sessionPool) {
+        _pipelineExecutor = pipelineExecutor;
+        _sessionPool = sessionPool;
+    }
+
+    /**
+     * Creates a TCP Pipeline for our server
+     */
+    public ChannelPipeline getPipeline() throws Exception {
+        AppProperties appProperties = AppProperties.getInstance();
+
+        // Create a default pipeline implementation.
+        ChannelPipeline pipeline = pipeline();
+
+        // Split the stream into lines ending in \n or \r\n. The line ending is removed.
+        pipeline.addLast("framer", new DelimiterBasedFrameDecoder(appProperties.getPubSubTcpMaxLineLength(), true,
+                Delimiters.lineDelimiter()));
+
+        // Process lines in another thread so we don't block netty's workers while publishing. Lines from the same
+        // connection are processed in order. Reading is suspended if too many lines are waiting.
+        pipeline.addLast("pipelineExecutor", new ExecutionHandler(_pipelineExecutor));
+
+        // Handler to publish lines
+        pipeline.addLast("handler", new TcpRequestHandler(_sessionPool));
+
+        return pipeline;
+    }
+}
@@ -0,0 +1,190 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.tcp;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.AppProperties;
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.pubsub.MqProducerSessionPool;
+import org.hornetq.api.core.TransportConfiguration;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.ChannelGroupFuture;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+/**
+ * <p>
+ * The TcpService controls the embedded Netty server used to publish log entries over long lived TCP connections. It
+ * is a cheap, persistent path for log shippers that forward lines over TCP.
+ * </p>
+ * 
+ * <pre class="example">
+ * // Start server
+ * TcpService.getInstance().start();
+ * 
+ * // Stop server
+ * TcpService.getInstance().stop();
+ * </pre>
+ * 
+ * <p>
+ * The server's pipeline is setup by {@link TcpServerPipelineFactory}. Lines are handled by {@link TcpRequestHandler}.
+ * They are processed in an {@link OrderedMemoryAwareThreadPoolExecutor} so lines from the same connection are
+ * published in order and reading from busy connections is suspended rather than buffering without limit.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class TcpService {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(TcpService.class);
+    private static final ChannelGroup _allChannels = new DefaultChannelGroup("PubSubTcpServerManager");
+    private ChannelFactory _channelFactory = null;
+    private OrderedMemoryAwareThreadPoolExecutor _pipelineExecutor = null;
+    private MqProducerSessionPool _mqProducerSessionPool = null;
+
+    /**
+     * Returns the singleton instance for this class
+     */
+    public static TcpService getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * SingletonHolder is loaded on the first execution of Singleton.getInstance() or the first access to
+     * SingletonHolder.INSTANCE, not before.
+     * 
+     * See http://en.wikipedia.org/wiki/Singleton_pattern
+     */
+    private static class SingletonHolder {
+
+        public static final TcpService INSTANCE = new TcpService();
+    }
+
+    /**
+     * Singleton constructor
+     */
+    private TcpService() {
+        return;
+    }
+
+    /**
+     * Start the TCP server
+     */
+    public synchronized void start() {
+        AppProperties appProperties = AppProperties.getInstance();
+
+        if (_channelFactory != null) {
+            _logger.info("PubSub TCP Sever Already Started.");
+            return;
+        }
+
+        _logger.info("Starting PubSub TCP Sever on " + appProperties.getPubSubTcpHost() + ":"
+                + appProperties.getPubSubTcpPort() + "...");
+
+        // Create producer session pool equivalent to the number of handler threads so that each thread does not have
+        // to wait for a session
+        _mqProducerSessionPool = new MqProducerSessionPool(appProperties.getPubSubTcpNettyHandlerThreadPoolSize());
+
+        // Create channel factory
+        int workerCount = appProperties.getPubSubTcpNettyWorkerThreadPoolSize();
+        if (workerCount == 0) {
+            _channelFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                    Executors.newCachedThreadPool());
+        } else {
+            _channelFactory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                    Executors.newCachedThreadPool(), workerCount);
+        }
+
+        // Configure the server.
+        ServerBootstrap bootstrap = new ServerBootstrap(_channelFactory);
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("child.keepAlive", true);
+
+        // Setup thread pool to run our handler
+        _pipelineExecutor = new OrderedMemoryAwareThreadPoolExecutor(
+                appProperties.getPubSubTcpNettyHandlerThreadPoolSize(),
+                appProperties.getPubSubTcpNettyHandlerThreadPoolMaxChannelMemorySize(),
+                appProperties.getPubSubTcpNettyHandlerThreadPoolMaxTotalMemorySize(), 30, TimeUnit.SECONDS,
+                Executors.defaultThreadFactory());
+
+        // Set up the event pipeline factory.
+        bootstrap.setPipelineFactory(new TcpServerPipelineFactory(_pipelineExecutor, _mqProducerSessionPool));
+
+        // Bind and start to accept incoming connections.
+        String[] hosts = TransportConfiguration.splitHosts(appProperties.getPubSubTcpHost());
+        for (String h : hosts) {
+            if (StringUtils.isBlank(h)) {
+                if (hosts.length == 1) {
+                    h = "0.0.0.0";
+                } else {
+                    continue;
+                }
+            }
+
+            SocketAddress address = h.equals("0.0.0.0") ? new InetSocketAddress(appProperties.getPubSubTcpPort())
+                    : new InetSocketAddress(h, appProperties.getPubSubTcpPort());
+            Channel channel = bootstrap.bind(address);
+            _allChannels.add(channel);
+        }
+
+        _logger.info("PubSub TCP Sever Started.");
+    }
+
+    /**
+     * Stop the TCP server
+     */
+    public synchronized void stop() {
+        if (_channelFactory == null) {
+            return;
+        }
+
+        _logger.info("Stopping PubSub TCP Sever ...");
+
+        ChannelGroupFuture future = _allChannels.close();
+        future.awaitUninterruptibly();
+        _pipelineExecutor.shutdown();
+        _channelFactory.releaseExternalResources();
+        _channelFactory = null;
+        _pipelineExecutor = null;
+
+        if (_mqProducerSessionPool != null) {
+            _mqProducerSessionPool.cleanup();
+            _mqProducerSessionPool = null;
+        }
+
+        _logger.info("PubSub TCP Sever Stopped.");
+    }
+
+    /**
+     * Returns the group holding all channels so we can shutdown without hanging
+     */
+    ChannelGroup getAllChannels() {
+        return _allChannels;
+    }
+}
@@ -0,0 +1,139 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.tcp;
+
+/**
+ * <p>
+ * TCP session request JSON binding object. Sent as the first line of a TCP connection to authenticate and to say how
+ * the following lines are formatted.
+ * </p>
+ * 
+ * <pre>
+ * { "RepositoryName": "repo1", "Username": "user1", "Password": "pw", "Format": "text", "Source": "app1" }
+ * </pre>
+ * 
+ * @author vibul
+ * 
+ */
+public class TcpSessionRequestAO {
+
+    /**
+     * Each line is a log message
+     */
+    public static final String TEXT_FORMAT = "text";
+
+    /**
+     * Each line is a log entry in JSON format. See {@link org.chililog.server.pubsub.jsonhttp.LogEntryAO}.
+     */
+    public static final String JSON_FORMAT = "json";
+
+    private String _repositoryName;
+    private String _username;
+    private String _password;
+    private String _format = TEXT_FORMAT;
+    private String _source;
+    private String _host;
+    private String _severity;
+
+    /**
+     * Basic constructor
+     */
+    public TcpSessionRequestAO() {
+        return;
+    }
+
+    /**
+     * Returns the name of the repository into which the log entries will be published
+     */
+    public String getRepositoryName() {
+        return _repositoryName;
+    }
+
+    public void setRepositoryName(String repositoryName) {
+        _repositoryName = repositoryName;
+    }
+
+    /**
+     * Returns the username for authentication
+     */
+    public String getUsername() {
+        return _username;
+    }
+
+    public void setUsername(String username) {
+        _username = username;
+    }
+
+    /**
+     * Returns the password for authentication
+     */
+    public String getPassword() {
+        return _password;
+    }
+
+    public void setPassword(String password) {
+        _password = password;
+    }
+
+    /**
+     * Returns the format of the following lines: <code>text</code> (default) or <code>json</code>
+     */
+    public String getFormat() {
+        return _format;
+    }
+
+    public void setFormat(String format) {
+        _format = format;
+    }
+
+    /**
+     * Returns the source to use for log entries that do not specify one
+     */
+    public String getSource() {
+        return _source;
+    }
+
+    public void setSource(String source) {
+        _source = source;
+    }
+
+    /**
+     * Returns the host to use for log entries that do not specify one. If not set, the address of the connecting
+     * computer is used.
+     */
+    public String getHost() {
+        return _host;
+    }
+
+    public void setHost(String host) {
+        _host = host;
+    }
+
+    /**
+     * Returns the severity to use for log entries that do not specify one
+     */
+    public String getSeverity() {
+        return _severity;
+    }
+
+    public void setSeverity(String severity) {
+        _severity = severity;
+    }
+
+}
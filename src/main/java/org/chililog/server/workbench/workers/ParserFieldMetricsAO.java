@@ -0,0 +1,125 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.workbench.workers;
+
+import org.chililog.server.engine.parsers.EntryParserMetrics.FieldMetrics;
+
+/**
+ * <p>
+ * Parser Field Metrics API Object. Details the cost of extracting a field from repository entries.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class ParserFieldMetricsAO extends AO {
+
+    private String _parserName;
+    private String _fieldName;
+    private Long _count;
+    private Long _averageNanoseconds;
+    private Long _prefilterRejects;
+    private Long _unmatched;
+
+    /**
+     * Basic constructor
+     */
+    public ParserFieldMetricsAO() {
+        return;
+    }
+
+    /**
+     * Constructor that copies the metrics
+     * 
+     * @param parserName
+     *            Name of the parser
+     * @param metrics
+     *            Field metrics
+     */
+    public ParserFieldMetricsAO(String parserName, FieldMetrics metrics) {
+        _parserName = parserName;
+        _fieldName = metrics.getName();
+        _count = metrics.getCount();
+        _averageNanoseconds = metrics.getAverageNanoseconds();
+        _prefilterRejects = metrics.getPrefilterRejects();
+        _unmatched = metrics.getUnmatched();
+        return;
+    }
+
+    public String getParserName() {
+        return _parserName;
+    }
+
+    public void setParserName(String parserName) {
+        _parserName = parserName;
+    }
+
+    public String getFieldName() {
+        return _fieldName;
+    }
+
+    public void setFieldName(String fieldName) {
+        _fieldName = fieldName;
+    }
+
+    /**
+     * Returns the number of entries from which the field has been extracted
+     */
+    public Long getCount() {
+        return _count;
+    }
+
+    public void setCount(Long count) {
+        _count = count;
+    }
+
+    /**
+     * Returns the average time in nanoseconds spent extracting the field from an entry
+     */
+    public Long getAverageNanoseconds() {
+        return _averageNanoseconds;
+    }
+
+    public void setAverageNanoseconds(Long averageNanoseconds) {
+        _averageNanoseconds = averageNanoseconds;
+    }
+
+    /**
+     * Returns the number of entries rejected without running the field's pattern
+     */
+    public Long getPrefilterRejects() {
+        return _prefilterRejects;
+    }
+
+    public void setPrefilterRejects(Long prefilterRejects) {
+        _prefilterRejects = prefilterRejects;
+    }
+
+    /**
+     * Returns the number of entries that the field's pattern did not match
+     */
+    public Long getUnmatched() {
+        return _unmatched;
+    }
+
+    public void setUnmatched(Long unmatched) {
+        _unmatched = unmatched;
+    }
+
+}
@@ -0,0 +1,74 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.workbench.workers;
+
+import org.chililog.server.engine.parsers.EntryParserMetrics;
+
+/**
+ * <p>
+ * Parser Metrics API Object. Details problems a parser has had with repository entries.
+ * </p>
+ * 
+ * @author vibul
+ * 
+ */
+public class ParserMetricsAO extends AO {
+
+    private String _parserName;
+    private Long _regexTimeouts;
+
+    /**
+     * Basic constructor
+     */
+    public ParserMetricsAO() {
+        return;
+    }
+
+    /**
+     * Constructor that copies the metrics
+     * 
+     * @param metrics
+     *            Parser metrics
+     */
+    public ParserMetricsAO(EntryParserMetrics metrics) {
+        _parserName = metrics.getParserName();
+        _regexTimeouts = metrics.getRegexTimeouts();
+        return;
+    }
+
+    public String getParserName() {
+        return _parserName;
+    }
+
+    public void setParserName(String parserName) {
+        _parserName = parserName;
+    }
+
+    /**
+     * Returns the number of entries moved to the dead letter queue because a regular expression took too long
+     */
+    public Long getRegexTimeouts() {
+        return _regexTimeouts;
+    }
+
+    public void setRegexTimeouts(Long regexTimeouts) {
+        _regexTimeouts = regexTimeouts;
+    }
+
+}
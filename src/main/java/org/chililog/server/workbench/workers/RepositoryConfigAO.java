@@ -19,11 +19,14 @@
 package org.chililog.server.workbench.workers;
 
 import java.util.ArrayList;
+import java.util.Map.Entry;
 
 import org.chililog.server.common.ChiliLogException;
 import org.chililog.server.data.RepositoryConfigBO;
 import org.chililog.server.data.RepositoryParserConfigBO;
 import org.chililog.server.data.RepositoryConfigBO.MaxMemoryPolicy;
+import org.chililog.server.data.RepositoryConfigBO.Partitioning;
+import org.chililog.server.data.RepositoryConfigBO.WriteDurability;
 import org.chililog.server.data.RepositoryConfigBO.Status;
 import org.chililog.server.data.UserBO;
 
@@ -47,6 +50,17 @@ public class RepositoryConfigAO extends AO {
     private boolean _storeEntriesIndicator = false;
     private boolean _storageQueueDurableIndicator = false;
     private long _storageQueueWorkerCount = 1;
+    private long _storageQueueMaxWorkerCount = 0;
+    private long _storageQueueBatchSize = 1;
+    private long _storageQueueBatchLinger = 0;
+    private boolean _storagePipelineIndicator = false;
+    private boolean _storageTemplateIndicator = false;
+    private boolean _parseOnPublishIndicator = false;
+    private long _storageQueueWeight = 1;
+    private WriteDurability _storageWriteDurability = WriteDurability.SAFE;
+    private Partitioning _storagePartitioning = Partitioning.NONE;
+    private long _storageRetentionDays = 0;
+    private RepositoryPropertyConfigAO[] _storageRetentionDaysBySeverity = null;
     private long _storageMaxKeywords = -1;
 
     private long _maxMemory = 1024 * 1024 * 20; // 20 MB
@@ -85,6 +99,25 @@ public class RepositoryConfigAO extends AO {
         _storeEntriesIndicator = repoConfig.getStoreEntriesIndicator();
         _storageQueueDurableIndicator = repoConfig.getStorageQueueDurableIndicator();
         _storageQueueWorkerCount = repoConfig.getStorageQueueWorkerCount();
+        _storageQueueMaxWorkerCount = repoConfig.getStorageQueueMaxWorkerCount();
+        _storageQueueBatchSize = repoConfig.getStorageQueueBatchSize();
+        _storageQueueBatchLinger = repoConfig.getStorageQueueBatchLinger();
+        _storagePipelineIndicator = repoConfig.getStoragePipelineIndicator();
+        _storageTemplateIndicator = repoConfig.getStorageTemplateIndicator();
+        _parseOnPublishIndicator = repoConfig.getParseOnPublishIndicator();
+        _storageQueueWeight = repoConfig.getStorageQueueWeight();
+        _storageWriteDurability = repoConfig.getStorageWriteDurability();
+        _storagePartitioning = repoConfig.getStoragePartitioning();
+        _storageRetentionDays = repoConfig.getStorageRetentionDays();
+        if (repoConfig.getStorageRetentionDaysBySeverity().isEmpty()) {
+            _storageRetentionDaysBySeverity = null;
+        } else {
+            ArrayList<RepositoryPropertyConfigAO> retentionList = new ArrayList<RepositoryPropertyConfigAO>();
+            for (Entry<String, String> e : repoConfig.getStorageRetentionDaysBySeverity().entrySet()) {
+                retentionList.add(new RepositoryPropertyConfigAO(e.getKey(), e.getValue()));
+            }
+            _storageRetentionDaysBySeverity = retentionList.toArray(new RepositoryPropertyConfigAO[] {});
+        }
         _storageMaxKeywords = repoConfig.getStorageMaxKeywords();
 
         _maxMemory = repoConfig.getMaxMemory();
@@ -143,6 +176,22 @@ public class RepositoryConfigAO extends AO {
         repoInfo.setStoreEntriesIndicator(_storeEntriesIndicator);
         repoInfo.setStorageQueueDurableIndicator(_storageQueueDurableIndicator);
         repoInfo.setStorageQueueWorkerCount(_storageQueueWorkerCount);
+        repoInfo.setStorageQueueMaxWorkerCount(_storageQueueMaxWorkerCount);
+        repoInfo.setStorageQueueBatchSize(_storageQueueBatchSize);
+        repoInfo.setStorageQueueBatchLinger(_storageQueueBatchLinger);
+        repoInfo.setStoragePipelineIndicator(_storagePipelineIndicator);
+        repoInfo.setStorageTemplateIndicator(_storageTemplateIndicator);
+        repoInfo.setParseOnPublishIndicator(_parseOnPublishIndicator);
+        repoInfo.setStorageQueueWeight(_storageQueueWeight);
+        repoInfo.setStorageWriteDurability(_storageWriteDurability);
+        repoInfo.setStoragePartitioning(_storagePartitioning);
+        repoInfo.setStorageRetentionDays(_storageRetentionDays);
+        repoInfo.getStorageRetentionDaysBySeverity().clear();
+        if (_storageRetentionDaysBySeverity != null) {
+            for (RepositoryPropertyConfigAO retention : _storageRetentionDaysBySeverity) {
+                repoInfo.getStorageRetentionDaysBySeverity().put(retention.getKey(), retention.getValue());
+            }
+        }
         repoInfo.setStorageMaxKeywords(_storageMaxKeywords);
 
         repoInfo.setMaxMemory(_maxMemory);
@@ -234,6 +283,94 @@ public class RepositoryConfigAO extends AO {
         _storageQueueWorkerCount = storageQueueWorkerCount;
     }
 
+    public long getStorageQueueMaxWorkerCount() {
+        return _storageQueueMaxWorkerCount;
+    }
+
+    public void setStorageQueueMaxWorkerCount(long storageQueueMaxWorkerCount) {
+        _storageQueueMaxWorkerCount = storageQueueMaxWorkerCount;
+    }
+
+    public long getStorageQueueBatchSize() {
+        return _storageQueueBatchSize;
+    }
+
+    public void setStorageQueueBatchSize(long storageQueueBatchSize) {
+        _storageQueueBatchSize = storageQueueBatchSize;
+    }
+
+    public long getStorageQueueBatchLinger() {
+        return _storageQueueBatchLinger;
+    }
+
+    public void setStorageQueueBatchLinger(long storageQueueBatchLinger) {
+        _storageQueueBatchLinger = storageQueueBatchLinger;
+    }
+
+    public boolean getStoragePipelineIndicator() {
+        return _storagePipelineIndicator;
+    }
+
+    public void setStoragePipelineIndicator(boolean storagePipelineIndicator) {
+        _storagePipelineIndicator = storagePipelineIndicator;
+    }
+
+    public boolean getStorageTemplateIndicator() {
+        return _storageTemplateIndicator;
+    }
+
+    public void setStorageTemplateIndicator(boolean storageTemplateIndicator) {
+        _storageTemplateIndicator = storageTemplateIndicator;
+    }
+
+    public boolean getParseOnPublishIndicator() {
+        return _parseOnPublishIndicator;
+    }
+
+    public void setParseOnPublishIndicator(boolean parseOnPublishIndicator) {
+        _parseOnPublishIndicator = parseOnPublishIndicator;
+    }
+
+    public long getStorageQueueWeight() {
+        return _storageQueueWeight;
+    }
+
+    public void setStorageQueueWeight(long storageQueueWeight) {
+        _storageQueueWeight = storageQueueWeight;
+    }
+
+    public WriteDurability getStorageWriteDurability() {
+        return _storageWriteDurability;
+    }
+
+    public void setStorageWriteDurability(WriteDurability storageWriteDurability) {
+        _storageWriteDurability = storageWriteDurability;
+    }
+
+    public Partitioning getStoragePartitioning() {
+        return _storagePartitioning;
+    }
+
+    public void setStoragePartitioning(Partitioning storagePartitioning) {
+        _storagePartitioning = storagePartitioning;
+    }
+
+    public long getStorageRetentionDays() {
+        return _storageRetentionDays;
+    }
+
+    public void setStorageRetentionDays(long storageRetentionDays) {
+        _storageRetentionDays = storageRetentionDays;
+    }
+
+    public RepositoryPropertyConfigAO[] getStorageRetentionDaysBySeverity() {
+        return _storageRetentionDaysBySeverity;
+    }
+
+    public void setStorageRetentionDaysBySeverity(RepositoryPropertyConfigAO[] storageRetentionDaysBySeverity) {
+        _storageRetentionDaysBySeverity = storageRetentionDaysBySeverity;
+    }
+
     public long getStorageMaxKeywords() {
         return _storageMaxKeywords;
     }
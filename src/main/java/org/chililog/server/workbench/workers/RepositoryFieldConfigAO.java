@@ -39,6 +39,7 @@ public class RepositoryFieldConfigAO extends AO {
     private String _displayName;
     private String _description;
     private DataType _dataType;
+    private boolean _indexIndicator = false;
     private RepositoryPropertyConfigAO[] _properties = null;
 
     /**
@@ -59,6 +60,7 @@ public class RepositoryFieldConfigAO extends AO {
         _displayName = repoFieldConfig.getDisplayName();
         _description = repoFieldConfig.getDescription();
         _dataType = repoFieldConfig.getDataType();
+        _indexIndicator = repoFieldConfig.getIndexIndicator();
 
         if (repoFieldConfig.getProperties() == null || repoFieldConfig.getProperties().isEmpty()) {
             _properties = null;
@@ -85,6 +87,7 @@ public class RepositoryFieldConfigAO extends AO {
         repoFieldConfig.setDisplayName(_displayName);
         repoFieldConfig.setDescription(_description);
         repoFieldConfig.setDataType(_dataType);
+        repoFieldConfig.setIndexIndicator(_indexIndicator);
 
         repoFieldConfig.getProperties().clear();
         if (_properties != null && _properties.length > 0) {
@@ -128,6 +131,14 @@ public class RepositoryFieldConfigAO extends AO {
         _dataType = dataType;
     }
 
+    public boolean getIndexIndicator() {
+        return _indexIndicator;
+    }
+
+    public void setIndexIndicator(boolean indexIndicator) {
+        _indexIndicator = indexIndicator;
+    }
+
     public RepositoryPropertyConfigAO[] getProperties() {
         return _properties;
     }
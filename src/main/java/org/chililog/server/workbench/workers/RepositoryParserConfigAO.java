@@ -43,6 +43,7 @@ public class RepositoryParserConfigAO extends AO {
     private String _appliesToHostFilter;
     private String _className;
     private long _maxKeywords = -1;
+    private long _regexTimeoutMilliseconds = RepositoryParserConfigBO.REGEX_TIMEOUT_INHERITED;
     private ParseFieldErrorHandling _parseFieldErrorHandling = ParseFieldErrorHandling.SkipField;
     private RepositoryFieldConfigAO[] _fields = null;
     private RepositoryPropertyConfigAO[] _properties = null;
@@ -67,6 +68,7 @@ public class RepositoryParserConfigAO extends AO {
         _appliesToHostFilter = repoParserConfig.getAppliesToHostFilter();
         _className = repoParserConfig.getClassName();
         _maxKeywords = repoParserConfig.getMaxKeywords();
+        _regexTimeoutMilliseconds = repoParserConfig.getRegexTimeoutMilliseconds();
 
         _parseFieldErrorHandling = repoParserConfig.getParseFieldErrorHandling();
 
@@ -107,6 +109,7 @@ public class RepositoryParserConfigAO extends AO {
         repoParserConfig.setAppliesToHostFilter(_appliesToHostFilter);
         repoParserConfig.setClassName(_className);
         repoParserConfig.setMaxKeywords(_maxKeywords);
+        repoParserConfig.setRegexTimeoutMilliseconds(_regexTimeoutMilliseconds);
 
         repoParserConfig.setParseFieldErrorHandling(_parseFieldErrorHandling);
 
@@ -177,6 +180,14 @@ public class RepositoryParserConfigAO extends AO {
         _maxKeywords = maxKeywords;
     }
 
+    public long getRegexTimeoutMilliseconds() {
+        return _regexTimeoutMilliseconds;
+    }
+
+    public void setRegexTimeoutMilliseconds(long regexTimeoutMilliseconds) {
+        _regexTimeoutMilliseconds = regexTimeoutMilliseconds;
+    }
+
     public ParseFieldErrorHandling getParseFieldErrorHandling() {
         return _parseFieldErrorHandling;
     }
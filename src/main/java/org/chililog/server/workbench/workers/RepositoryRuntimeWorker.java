@@ -35,6 +35,7 @@ import org.chililog.server.data.RepositoryEntryController;
 import org.chililog.server.data.RepositoryEntryListCriteria;
 import org.chililog.server.data.UserBO;
 import org.chililog.server.data.RepositoryEntryListCriteria.QueryType;
+import org.chililog.server.data.RepositoryTemplateController;
 import org.chililog.server.engine.Repository;
 import org.chililog.server.engine.RepositoryService;
 import org.chililog.server.workbench.Strings;
@@ -58,6 +59,7 @@ import com.mongodb.DBObject;
  * <li>read all - HTTP GET /api/repositories</li>
  * <li>read one - HTTP GET /api/repositories/{id}</li>
  * <li>read entry - HTTP GET /api/repositories/{id}/entries?query_type=find</li>
+ * <li>read top templates - HTTP GET /api/repositories/{id}/entries?query_type=templates</li>
  * </p>
  * <p>
  * Runtime information refers to the current status of an instance of a repository.
@@ -79,11 +81,13 @@ public class RepositoryRuntimeWorker extends Worker {
     public static final String ENTRY_QUERY_SEVERITY_QUERYSTRING_PARAMETER_NAME = "severity";
     public static final String ENTRY_QUERY_HOST_QUERYSTRING_PARAMETER_NAME = "host";
     public static final String ENTRY_QUERY_SOURCE_QUERYSTRING_PARAMETER_NAME = "source";
+    public static final String ENTRY_QUERY_TEMPLATE_QUERYSTRING_PARAMETER_NAME = "template";
     public static final String ENTRY_QUERY_CONDITIONS_QUERYSTRING_PARAMETER_NAME = "conditions";
     public static final String ENTRY_QUERY_ORDER_BY_QUERYSTRING_PARAMETER_NAME = "order_by";
     public static final String ENTRY_QUERY_INITIAL_QUERYSTRING_PARAMETER_NAME = "initial";
     public static final String ENTRY_QUERY_REDUCE_QUERYSTRING_PARAMETER_NAME = "reduce";
     public static final String ENTRY_QUERY_FINALIZE_QUERYSTRING_PARAMETER_NAME = "finalize";
+    public static final String ENTRY_QUERY_ADDITIVE_QUERYSTRING_PARAMETER_NAME = "additive";
 
     public static final String ENTRY_QUERY_TYPE_HEADER_NAME = "X-ChiliLog-Query-Type";
     public static final String ENTRY_QUERY_FIELDS_HEADER_NAME = "X-ChiliLog-Fields";
@@ -94,11 +98,13 @@ public class RepositoryRuntimeWorker extends Worker {
     public static final String ENTRY_QUERY_SEVERITY_HEADER_NAME = "X-ChiliLog-Severity";
     public static final String ENTRY_QUERY_HOST_HEADER_NAME = "X-ChiliLog-Host";
     public static final String ENTRY_QUERY_SOURCE_HEADER_NAME = "X-ChiliLog-Source";
+    public static final String ENTRY_QUERY_TEMPLATE_HEADER_NAME = "X-ChiliLog-Template";
     public static final String ENTRY_QUERY_CONDITIONS_HEADER_NAME = "X-ChiliLog-Conditions";
     public static final String ENTRY_QUERY_ORDER_BY_HEADER_NAME = "X-ChiliLog-Order-By";
     public static final String ENTRY_QUERY_INITIAL_HEADER_NAME = "X-ChiliLog-Initial";
     public static final String ENTRY_QUERY_REDUCE_HEADER_NAME = "X-ChiliLog-Reduce";
     public static final String ENTRY_QUERY_FINALIZE_HEADER_NAME = "X-ChiliLog-Finalize";
+    public static final String ENTRY_QUERY_ADDITIVE_HEADER_NAME = "X-ChiliLog-Additive";
 
     /**
      * Constructor
@@ -285,6 +291,13 @@ public class RepositoryRuntimeWorker extends Worker {
                 } else if (queryType == QueryType.GROUP) {
                     DBObject groupObject = controller.executeGroupQuery(db, criteria);
                     MongoJsonSerializer.serialize(new BasicDBObject("group", groupObject), json);
+                } else if (queryType == QueryType.TEMPLATES) {
+                    int limit = criteria.getRecordsPerPage() == Integer.MAX_VALUE ? 0 : criteria.getRecordsPerPage();
+                    ArrayList<DBObject> list = RepositoryTemplateController.getInstance(repo.getRepoConfig())
+                            .getTopTemplates(db, limit);
+                    if (!list.isEmpty()) {
+                        MongoJsonSerializer.serialize(new BasicDBObject("templates", list), json);
+                    }
                 } else {
                     throw new OperationNotSupportedException("Unsupported query type: " + queryType.toString());
                 }
@@ -397,6 +410,12 @@ public class RepositoryRuntimeWorker extends Worker {
             criteria.setSource(s);
         }
 
+        s = this.getQueryStringOrHeaderValue(ENTRY_QUERY_TEMPLATE_QUERYSTRING_PARAMETER_NAME,
+                ENTRY_QUERY_TEMPLATE_HEADER_NAME, true);
+        if (!StringUtils.isBlank(s)) {
+            criteria.setTemplateId(Long.parseLong(s.trim()));
+        }
+
         s = this.getQueryStringOrHeaderValue(ENTRY_QUERY_CONDITIONS_QUERYSTRING_PARAMETER_NAME,
                 ENTRY_QUERY_CONDITIONS_HEADER_NAME, true);
         if (!StringUtils.isBlank(s)) {
@@ -426,6 +445,12 @@ public class RepositoryRuntimeWorker extends Worker {
             criteria.setFinalizeFunction(s);
         }
 
+        s = this.getQueryStringOrHeaderValue(ENTRY_QUERY_ADDITIVE_QUERYSTRING_PARAMETER_NAME,
+                ENTRY_QUERY_ADDITIVE_HEADER_NAME, true);
+        if (!StringUtils.isBlank(s)) {
+            criteria.setAdditiveReduce(Boolean.parseBoolean(s.trim()));
+        }
+
         return criteria;
     }
 }
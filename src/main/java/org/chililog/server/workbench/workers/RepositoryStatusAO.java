@@ -18,8 +18,15 @@
 
 package org.chililog.server.workbench.workers;
 
+import java.util.ArrayList;
+
 import org.chililog.server.data.RepositoryConfigBO.Status;
 import org.chililog.server.engine.Repository;
+import org.chililog.server.engine.RepositoryIndexBuilder;
+import org.chililog.server.engine.RepositoryIndexBuilder.BuildStatus;
+import org.chililog.server.engine.RepositoryStoragePipeline;
+import org.chililog.server.engine.parsers.EntryParserMetrics;
+import org.chililog.server.engine.parsers.EntryParserMetrics.FieldMetrics;
 
 /**
  * <p>
@@ -41,6 +48,30 @@ public class RepositoryStatusAO extends AO {
 
     private Status _status;
 
+    private Integer _storageWorkerCount;
+
+    private Integer _storageParseQueueDepth;
+
+    private Double _storageParseLatency;
+
+    private Integer _storageWriteQueueDepth;
+
+    private Double _storageWriteLatency;
+
+    private BuildStatus _indexStatus;
+
+    private Integer _indexCount;
+
+    private Integer _indexesBuilt;
+
+    private Integer _indexesFailed;
+
+    private String _indexErrorMessage;
+
+    private ParserMetricsAO[] _parserMetrics;
+
+    private ParserFieldMetricsAO[] _parserFieldMetrics;
+
     /**
      * Basic constructor
      */
@@ -60,6 +91,36 @@ public class RepositoryStatusAO extends AO {
         _name = repo.getRepoConfig().getName();
         _displayName = repo.getRepoConfig().getDisplayName();
         _status = repo.getStatus();
+
+        _storageWorkerCount = repo.getStorageWorkerCount();
+
+        RepositoryStoragePipeline pipeline = repo.getStoragePipeline();
+        if (pipeline != null) {
+            _storageParseQueueDepth = pipeline.getParseQueueDepth();
+            _storageParseLatency = pipeline.getParseLatency();
+            _storageWriteQueueDepth = pipeline.getWriteQueueDepth();
+            _storageWriteLatency = pipeline.getWriteLatency();
+        }
+
+        RepositoryIndexBuilder indexBuilder = repo.getIndexBuilder();
+        if (indexBuilder != null) {
+            _indexStatus = indexBuilder.getStatus();
+            _indexCount = indexBuilder.getIndexCount();
+            _indexesBuilt = indexBuilder.getIndexesBuilt();
+            _indexesFailed = indexBuilder.getIndexesFailed();
+            _indexErrorMessage = indexBuilder.getErrorMessage();
+        }
+
+        ArrayList<ParserMetricsAO> parserMetricsList = new ArrayList<ParserMetricsAO>();
+        ArrayList<ParserFieldMetricsAO> fieldMetrics = new ArrayList<ParserFieldMetricsAO>();
+        for (EntryParserMetrics parserMetrics : EntryParserMetrics.getRepositoryMetrics(_name)) {
+            parserMetricsList.add(new ParserMetricsAO(parserMetrics));
+            for (FieldMetrics metrics : parserMetrics.getFields()) {
+                fieldMetrics.add(new ParserFieldMetricsAO(parserMetrics.getParserName(), metrics));
+            }
+        }
+        _parserMetrics = parserMetricsList.toArray(new ParserMetricsAO[] {});
+        _parserFieldMetrics = fieldMetrics.toArray(new ParserFieldMetricsAO[] {});
     }
 
     public String getDocumentID() {
@@ -111,4 +172,141 @@ public class RepositoryStatusAO extends AO {
         _status = status;
     }
 
+    /**
+     * Returns the number of storage workers currently processing the repository's storage queue
+     */
+    public Integer getStorageWorkerCount() {
+        return _storageWorkerCount;
+    }
+
+    public void setStorageWorkerCount(Integer storageWorkerCount) {
+        _storageWorkerCount = storageWorkerCount;
+    }
+
+    /**
+     * Returns the number of parse tasks waiting in the storage pipeline. Null if the repository does not have a storage
+     * pipeline.
+     */
+    public Integer getStorageParseQueueDepth() {
+        return _storageParseQueueDepth;
+    }
+
+    public void setStorageParseQueueDepth(Integer storageParseQueueDepth) {
+        _storageParseQueueDepth = storageParseQueueDepth;
+    }
+
+    /**
+     * Returns the average time in milliseconds to parse a chunk of entries in the storage pipeline. Null if the
+     * repository does not have a storage pipeline.
+     */
+    public Double getStorageParseLatency() {
+        return _storageParseLatency;
+    }
+
+    public void setStorageParseLatency(Double storageParseLatency) {
+        _storageParseLatency = storageParseLatency;
+    }
+
+    /**
+     * Returns the number of write tasks waiting in the storage pipeline. Null if the repository does not have a storage
+     * pipeline.
+     */
+    public Integer getStorageWriteQueueDepth() {
+        return _storageWriteQueueDepth;
+    }
+
+    public void setStorageWriteQueueDepth(Integer storageWriteQueueDepth) {
+        _storageWriteQueueDepth = storageWriteQueueDepth;
+    }
+
+    /**
+     * Returns the average time in milliseconds to write a batch of entries in the storage pipeline. Null if the
+     * repository does not have a storage pipeline.
+     */
+    public Double getStorageWriteLatency() {
+        return _storageWriteLatency;
+    }
+
+    public void setStorageWriteLatency(Double storageWriteLatency) {
+        _storageWriteLatency = storageWriteLatency;
+    }
+
+    /**
+     * Returns the progress of building the repository's indexes. Null if the repository has not been brought online.
+     */
+    public BuildStatus getIndexStatus() {
+        return _indexStatus;
+    }
+
+    public void setIndexStatus(BuildStatus indexStatus) {
+        _indexStatus = indexStatus;
+    }
+
+    /**
+     * Returns the number of indexes to build over all of the repository's collections. Null if the repository has not
+     * been brought online.
+     */
+    public Integer getIndexCount() {
+        return _indexCount;
+    }
+
+    public void setIndexCount(Integer indexCount) {
+        _indexCount = indexCount;
+    }
+
+    /**
+     * Returns the number of indexes that have been built. Null if the repository has not been brought online.
+     */
+    public Integer getIndexesBuilt() {
+        return _indexesBuilt;
+    }
+
+    public void setIndexesBuilt(Integer indexesBuilt) {
+        _indexesBuilt = indexesBuilt;
+    }
+
+    /**
+     * Returns the number of indexes that could not be built. Null if the repository has not been brought online.
+     */
+    public Integer getIndexesFailed() {
+        return _indexesFailed;
+    }
+
+    public void setIndexesFailed(Integer indexesFailed) {
+        _indexesFailed = indexesFailed;
+    }
+
+    /**
+     * Returns the reason why the index build failed. Null if it has not failed.
+     */
+    public String getIndexErrorMessage() {
+        return _indexErrorMessage;
+    }
+
+    public void setIndexErrorMessage(String indexErrorMessage) {
+        _indexErrorMessage = indexErrorMessage;
+    }
+
+    /**
+     * Returns problems each parser has had with the repository's entries
+     */
+    public ParserMetricsAO[] getParserMetrics() {
+        return _parserMetrics;
+    }
+
+    public void setParserMetrics(ParserMetricsAO[] parserMetrics) {
+        _parserMetrics = parserMetrics;
+    }
+
+    /**
+     * Returns the cost of extracting each field from the repository's entries
+     */
+    public ParserFieldMetricsAO[] getParserFieldMetrics() {
+        return _parserFieldMetrics;
+    }
+
+    public void setParserFieldMetrics(ParserFieldMetricsAO[] parserFieldMetrics) {
+        _parserFieldMetrics = parserFieldMetrics;
+    }
+
 }
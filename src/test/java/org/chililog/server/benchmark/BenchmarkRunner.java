@@ -0,0 +1,208 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.chililog.server.common.Log4JLogger;
+
+/**
+ * <p>
+ * Runs micro benchmarks of the ingest hot paths. Each operation is run repeatedly on the calling thread for a warm up
+ * period so that the JIT compiler can do its work, and then for a number of measured iterations.
+ * </p>
+ * <p>
+ * For each iteration, we report throughput and the number of bytes allocated per operation. Allocation is measured
+ * using the HotSpot thread allocation counter; it is reported as -1 if the JVM does not support it.
+ * </p>
+ * <p>
+ * Benchmarks are excluded from the normal test run. To run them:
+ * </p>
+ *
+ * <pre>
+ * mvn test -Dtest=*Benchmark
+ * mvn test -Dtest=EntryParserBenchmark -Dbenchmark.warmup=5000 -Dbenchmark.iterations=10
+ * </pre>
+ * <p>
+ * No database or message queue is needed; except for {@link RepositoryWriteBenchmark} which needs mongoDB.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class BenchmarkRunner {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(BenchmarkRunner.class);
+
+    /**
+     * Milliseconds to run an operation before measuring. Override with <code>-Dbenchmark.warmup</code>.
+     */
+    public static final long WARMUP_MILLISECONDS = Long.getLong("benchmark.warmup", 2000);
+
+    /**
+     * Milliseconds for each measured iteration. Override with <code>-Dbenchmark.measure</code>.
+     */
+    public static final long MEASURE_MILLISECONDS = Long.getLong("benchmark.measure", 1000);
+
+    /**
+     * Number of measured iterations. Override with <code>-Dbenchmark.iterations</code>.
+     */
+    public static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+
+    /**
+     * Number of operations between checks of the clock
+     */
+    private static final int OPERATIONS_PER_CHECK = 256;
+
+    /**
+     * Results are added to this so that the JIT compiler cannot remove the work being measured
+     */
+    private static volatile long _sink = 0;
+
+    /**
+     * Operation to benchmark
+     */
+    public static interface Operation {
+        /**
+         * Runs the operation once
+         *
+         * @param i
+         *            Sequence number of this run. Use it to pick the next item from a corpus.
+         * @return Any value derived from the result of the operation so that the work cannot be optimized away
+         * @throws Exception
+         */
+        long run(int i) throws Exception;
+    }
+
+    /**
+     * Benchmarks an operation and logs the results
+     *
+     * @param name
+     *            Name of the benchmark
+     * @param operation
+     *            Operation to benchmark
+     * @return Results of the best iteration
+     * @throws Exception
+     *             if the operation fails
+     */
+    public static Result run(String name, Operation operation) throws Exception {
+        runFor(operation, WARMUP_MILLISECONDS);
+
+        Result best = null;
+        for (int i = 1; i <= ITERATIONS; i++) {
+            Result result = runFor(operation, MEASURE_MILLISECONDS);
+            _logger.info("%s iteration %s: %s", name, i, result);
+            if (best == null || result.getOperationsPerSecond() > best.getOperationsPerSecond()) {
+                best = result;
+            }
+        }
+
+        _logger.info("%s best: %s", name, best);
+        return best;
+    }
+
+    /**
+     * Runs the operation for the specified time
+     */
+    private static Result runFor(Operation operation, long milliseconds) throws Exception {
+        long sink = 0;
+        int count = 0;
+        long allocatedStart = getAllocatedBytes();
+        long start = System.nanoTime();
+        long end = start + milliseconds * 1000000L;
+        long now;
+        do {
+            for (int i = 0; i < OPERATIONS_PER_CHECK; i++) {
+                sink += operation.run(count++);
+            }
+            now = System.nanoTime();
+        } while (now < end);
+        long allocatedEnd = getAllocatedBytes();
+
+        _sink += sink;
+        long allocated = (allocatedStart < 0 || allocatedEnd < 0) ? -1 : allocatedEnd - allocatedStart;
+        return new Result(count, now - start, allocated);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread. -1 if not supported.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+        if (!hotspotBean.isThreadAllocatedMemorySupported() || !hotspotBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Results of one iteration
+     */
+    public static class Result {
+        private long _operations;
+        private long _nanoseconds;
+        private long _allocatedBytes;
+
+        Result(long operations, long nanoseconds, long allocatedBytes) {
+            _operations = operations;
+            _nanoseconds = nanoseconds;
+            _allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * Returns the number of operations per second
+         */
+        public double getOperationsPerSecond() {
+            return _operations * 1000000000.0 / _nanoseconds;
+        }
+
+        /**
+         * Returns the average number of nanoseconds per operation
+         */
+        public double getNanosecondsPerOperation() {
+            return (double) _nanoseconds / _operations;
+        }
+
+        /**
+         * Returns the average number of bytes allocated per operation. -1 if not supported.
+         */
+        public double getBytesPerOperation() {
+            return _allocatedBytes < 0 ? -1 : (double) _allocatedBytes / _operations;
+        }
+
+        /**
+         * Returns the number of megabytes allocated per second. -1 if not supported.
+         */
+        public double getAllocatedMegabytesPerSecond() {
+            return _allocatedBytes < 0 ? -1 : _allocatedBytes * 1000000000.0 / _nanoseconds / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,.0f ops/s, %,.1f ns/op, %,.1f B/op, %,.1f MB/s allocated",
+                    getOperationsPerSecond(), getNanosecondsPerOperation(), getBytesPerOperation(),
+                    getAllocatedMegabytesPerSecond());
+        }
+    }
+}
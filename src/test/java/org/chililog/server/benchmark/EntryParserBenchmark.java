@@ -0,0 +1,168 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import static org.junit.Assert.*;
+
+import org.chililog.server.benchmark.BenchmarkRunner.Operation;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryBO;
+import org.chililog.server.data.RepositoryFieldConfigBO;
+import org.chililog.server.data.RepositoryParserConfigBO;
+import org.chililog.server.data.RepositoryFieldConfigBO.DataType;
+import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
+import org.chililog.server.data.RepositoryParserConfigBO.ParseFieldErrorHandling;
+import org.chililog.server.engine.parsers.DefaultEntryParser;
+import org.chililog.server.engine.parsers.DelimitedEntryParser;
+import org.chililog.server.engine.parsers.EntryParser;
+import org.chililog.server.engine.parsers.JsonEntryParser;
+import org.chililog.server.engine.parsers.RegexEntryParser;
+import org.junit.Test;
+
+/**
+ * Benchmark parsing log entries with each type of entry parser
+ *
+ * @author vibul
+ *
+ */
+public class EntryParserBenchmark {
+
+    private static RepositoryConfigBO newRepoInfo(RepositoryParserConfigBO repoParserInfo) {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("benchmark");
+        repoInfo.setDisplayName("Benchmark");
+        repoInfo.getParsers().add(repoParserInfo);
+        return repoInfo;
+    }
+
+    private static RepositoryParserConfigBO newRepoParserInfo(Class<? extends EntryParser> parserClass) {
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName("parser1");
+        repoParserInfo.setAppliesTo(AppliesTo.All);
+        repoParserInfo.setClassName(parserClass.getName());
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipField);
+        return repoParserInfo;
+    }
+
+    private static void addField(RepositoryParserConfigBO repoParserInfo,
+                                 String name,
+                                 DataType dataType,
+                                 String propertyName,
+                                 String propertyValue) {
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName(name);
+        repoFieldInfo.setDataType(dataType);
+        if (propertyName != null) {
+            repoFieldInfo.getProperties().put(propertyName, propertyValue);
+        }
+        repoParserInfo.getFields().add(repoFieldInfo);
+    }
+
+    /**
+     * Parses each entry of the corpus in turn
+     */
+    private static void run(String name, final EntryParser parser, final String[] messages, final String fields)
+            throws Exception {
+        LogCorpus corpus = new LogCorpus(2);
+        final String[] timestamps = corpus.getTimestamps();
+        final String[] hosts = corpus.getHosts();
+        final String[] severities = corpus.getSeverities();
+
+        for (int i = 0; i < LogCorpus.SIZE; i++) {
+            assertNotNull(messages[i], parser.parse(timestamps[i], "app", hosts[i], severities[i], fields,
+                    messages[i]));
+        }
+
+        BenchmarkRunner.run(name, new Operation() {
+            public long run(int i) throws Exception {
+                int n = i & (LogCorpus.SIZE - 1);
+                RepositoryEntryBO entry = parser.parse(timestamps[n], "app", hosts[n], severities[n], fields,
+                        messages[n]);
+                return entry.getKeywords().size();
+            }
+        });
+    }
+
+    @Test
+    public void testDefault() throws Exception {
+        RepositoryParserConfigBO repoParserInfo = newRepoParserInfo(DefaultEntryParser.class);
+        DefaultEntryParser parser = new DefaultEntryParser(newRepoInfo(repoParserInfo), repoParserInfo);
+
+        run("DefaultEntryParser", parser, new LogCorpus(1).getMessages(), null);
+    }
+
+    @Test
+    public void testDefaultWithPreparsedFields() throws Exception {
+        RepositoryParserConfigBO repoParserInfo = newRepoParserInfo(DefaultEntryParser.class);
+        DefaultEntryParser parser = new DefaultEntryParser(newRepoInfo(repoParserInfo), repoParserInfo);
+
+        run("DefaultEntryParser with preparsed fields", parser, new LogCorpus(1).getMessages(),
+                "{ \"user\": \"jim\", \"status\": 200, \"bytes\": \"NumberLong(3000000001)\" }");
+    }
+
+    @Test
+    public void testDelimited() throws Exception {
+        RepositoryParserConfigBO repoParserInfo = newRepoParserInfo(DelimitedEntryParser.class);
+        repoParserInfo.getProperties().put(DelimitedEntryParser.DELIMITER_PROPERTY_NAME, LogCorpus.DELIMITER);
+        String position = DelimitedEntryParser.POSITION_FIELD_PROPERTY_NAME;
+        addField(repoParserInfo, "user", DataType.String, position, "1");
+        addField(repoParserInfo, "status", DataType.Integer, position, "2");
+        addField(repoParserInfo, "bytes", DataType.Long, position, "3");
+        addField(repoParserInfo, "elapsed", DataType.Double, position, "4");
+        addField(repoParserInfo, "time", DataType.Date, position, "5");
+        repoParserInfo.getFields().get(4).getProperties()
+                .put(RepositoryFieldConfigBO.DATE_FORMAT_PROPERTY_NAME, LogCorpus.DELIMITED_DATE_FORMAT);
+        addField(repoParserInfo, "cached", DataType.Boolean, position, "6");
+        addField(repoParserInfo, "path", DataType.String, position, "7");
+        DelimitedEntryParser parser = new DelimitedEntryParser(newRepoInfo(repoParserInfo), repoParserInfo);
+
+        run("DelimitedEntryParser", parser, new LogCorpus(1).getDelimitedEntries(), null);
+    }
+
+    @Test
+    public void testRegex() throws Exception {
+        RepositoryParserConfigBO repoParserInfo = newRepoParserInfo(RegexEntryParser.class);
+        repoParserInfo.getProperties().put(RegexEntryParser.PATTERN_PROPERTY_NAME, LogCorpus.ACCESS_LOG_PATTERN);
+        String group = RegexEntryParser.GROUP_FIELD_PROPERTY_NAME;
+        addField(repoParserInfo, "ip", DataType.String, group, "1");
+        addField(repoParserInfo, "method", DataType.String, group, "3");
+        addField(repoParserInfo, "path", DataType.String, group, "4");
+        addField(repoParserInfo, "status", DataType.Integer, group, "5");
+        addField(repoParserInfo, "bytes", DataType.Long, group, "6");
+        addField(repoParserInfo, "agent", DataType.String, group, "7");
+        RegexEntryParser parser = new RegexEntryParser(newRepoInfo(repoParserInfo), repoParserInfo);
+
+        run("RegexEntryParser", parser, new LogCorpus(1).getAccessLogEntries(), null);
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        RepositoryParserConfigBO repoParserInfo = newRepoParserInfo(JsonEntryParser.class);
+        repoParserInfo.getProperties().put(JsonEntryParser.DATE_PATTERN_PROPERTY_NAME,
+                "^([0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}Z)$");
+        repoParserInfo.getProperties().put(JsonEntryParser.DATE_FORMAT_PROPERTY_NAME, "yyyy-MM-dd'T'HH:mm:ssZ");
+        repoParserInfo.getProperties().put(JsonEntryParser.LONG_NUMBER_PATTERN_PROPERTY_NAME,
+                "^NumberLong\\(([0-9]+)\\)$");
+        addField(repoParserInfo, "status", DataType.Integer, null, null);
+        addField(repoParserInfo, "elapsed_ms", DataType.Integer, null, null);
+        JsonEntryParser parser = new JsonEntryParser(newRepoInfo(repoParserInfo), repoParserInfo);
+
+        run("JsonEntryParser", parser, new LogCorpus(1).getJsonEntries(), null);
+    }
+}
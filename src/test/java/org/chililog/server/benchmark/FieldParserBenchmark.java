@@ -0,0 +1,114 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import static org.junit.Assert.*;
+
+import org.chililog.server.benchmark.BenchmarkRunner.Operation;
+import org.chililog.server.data.RepositoryFieldConfigBO;
+import org.chililog.server.data.RepositoryFieldConfigBO.DataType;
+import org.chililog.server.engine.parsers.FieldParser;
+import org.chililog.server.engine.parsers.FieldParserFactory;
+import org.junit.Test;
+
+/**
+ * Benchmark converting field values with each type of field parser
+ *
+ * @author vibul
+ *
+ */
+public class FieldParserBenchmark {
+
+    private static FieldParser newParser(DataType dataType, String propertyName, String propertyValue)
+            throws Exception {
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("field1");
+        repoFieldInfo.setDataType(dataType);
+        if (propertyName != null) {
+            repoFieldInfo.getProperties().put(propertyName, propertyValue);
+        }
+        return FieldParserFactory.getParser(repoFieldInfo);
+    }
+
+    /**
+     * Returns one field of each delimited entry in the corpus
+     */
+    private static String[] getValues(int position) {
+        String[] entries = new LogCorpus(3).getDelimitedEntries();
+        String[] values = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            values[i] = entries[i].split("\\" + LogCorpus.DELIMITER)[position];
+        }
+        return values;
+    }
+
+    /**
+     * Parses each value in turn
+     */
+    private static void run(String name, final FieldParser parser, final String[] values) throws Exception {
+        for (String value : values) {
+            assertNotNull(value, parser.parse(value));
+        }
+
+        BenchmarkRunner.run(name, new Operation() {
+            public long run(int i) throws Exception {
+                return parser.parse(values[i & (LogCorpus.SIZE - 1)]).hashCode();
+            }
+        });
+    }
+
+    @Test
+    public void testString() throws Exception {
+        run("StringFieldParser", newParser(DataType.String, null, null), getValues(6));
+    }
+
+    @Test
+    public void testInteger() throws Exception {
+        run("IntegerFieldParser", newParser(DataType.Integer, null, null), getValues(1));
+    }
+
+    @Test
+    public void testIntegerWithNumberFormat() throws Exception {
+        run("IntegerFieldParser with number format",
+                newParser(DataType.Integer, RepositoryFieldConfigBO.NUMBER_FORMAT_PROPERTY_NAME, "#,###"),
+                getValues(1));
+    }
+
+    @Test
+    public void testLong() throws Exception {
+        run("LongIntegerFieldParser", newParser(DataType.Long, null, null), getValues(2));
+    }
+
+    @Test
+    public void testDouble() throws Exception {
+        run("DoubleFieldParser", newParser(DataType.Double, null, null), getValues(3));
+    }
+
+    @Test
+    public void testDate() throws Exception {
+        run("DateFieldParser",
+                newParser(DataType.Date, RepositoryFieldConfigBO.DATE_FORMAT_PROPERTY_NAME,
+                        LogCorpus.DELIMITED_DATE_FORMAT), getValues(4));
+    }
+
+    @Test
+    public void testBoolean() throws Exception {
+        run("BooleanFieldParser", newParser(DataType.Boolean, null, null), getValues(5));
+    }
+}
@@ -0,0 +1,229 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Synthetic log entries for benchmarks. The same seed always produces the same entries so that results can be
+ * compared between runs.
+ * </p>
+ * <p>
+ * Entries are modelled on what we typically receive: application log messages, pipe delimited records, Apache access
+ * log lines and JSON documents.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class LogCorpus {
+
+    /**
+     * Number of entries in each corpus. Big enough to defeat branch prediction on a single entry but small enough to
+     * stay in cache.
+     */
+    public static final int SIZE = 1024;
+
+    /**
+     * Format of delimited timestamps
+     */
+    public static final String DELIMITED_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * Delimiter of delimited entries
+     */
+    public static final String DELIMITER = "|";
+
+    /**
+     * Regular expression to parse Apache access log entries. Groups are: host, time, method, path, status, bytes,
+     * user agent.
+     */
+    public static final String ACCESS_LOG_PATTERN = "^([0-9\\.]+) - - \\[([^\\]]+)\\] \"([A-Z]+) ([^ ]+) HTTP/1\\.1\" "
+            + "([0-9]{3}) ([0-9]+) \"([^\"]*)\"$";
+
+    private static final String[] USERS = new String[] { "jim", "alice", "bob", "mary", "svc_batch", "admin" };
+    private static final String[] PATHS = new String[] { "/api/v1/orders", "/api/v1/orders/search", "/login",
+            "/static/js/app.js", "/api/v1/customers", "/health" };
+    private static final String[] METHODS = new String[] { "GET", "GET", "GET", "POST", "PUT", "DELETE" };
+    private static final String[] AGENTS = new String[] { "Mozilla/5.0 (Windows NT 6.1; WOW64) Firefox/7.0.1",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_7_2) Safari/534.51.22", "curl/7.21.6", "Java/1.6.0_26" };
+    private static final String[] LOGGERS = new String[] { "com.example.OrderService", "com.example.web.Login",
+            "org.hibernate.SQL", "com.example.jobs.Nightly" };
+    private static final String[] SEVERITIES = new String[] { "0", "1", "2", "3", "4", "5", "6", "7", "Emergency",
+            "Error", "warning", "INFORMATION", "debug" };
+
+    private Random _random;
+    private long _startTime = 1316867683000L; // 2011-09-24T12:34:43Z
+
+    /**
+     * Constructor
+     *
+     * @param seed
+     *            Seed for the random number generator
+     */
+    public LogCorpus(long seed) {
+        _random = new Random(seed);
+    }
+
+    /**
+     * Returns free text application log messages
+     */
+    public String[] getMessages() {
+        String[] list = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            switch (_random.nextInt(5)) {
+                case 0:
+                    list[i] = String.format("User %s logged in from %s using session %08x", pick(USERS), ip(),
+                            _random.nextInt());
+                    break;
+                case 1:
+                    list[i] = String.format("Order %s created for customer %s with %s items totalling $%.2f",
+                            100000 + _random.nextInt(900000), 1000 + _random.nextInt(9000), 1 + _random.nextInt(20),
+                            _random.nextDouble() * 1000);
+                    break;
+                case 2:
+                    list[i] = String.format("Slow query took %sms: select * from orders where customer_id = %s "
+                            + "and status in ('NEW', 'PAID') order by created desc", 500 + _random.nextInt(5000),
+                            _random.nextInt(10000));
+                    break;
+                case 3:
+                    list[i] = String.format("Connection to db%s.example.com:5432 failed after %s retries. "
+                            + "java.net.ConnectException: Connection refused", _random.nextInt(4), _random.nextInt(5));
+                    break;
+                default:
+                    list[i] = String.format("GET %s completed with status %s in %s ms", pick(PATHS),
+                            status(), _random.nextInt(2000));
+                    break;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns pipe delimited entries. Fields are: user (String), status (Integer), bytes (Long), elapsed seconds
+     * (Double), time (Date), cached (Boolean), path (String).
+     */
+    public String[] getDelimitedEntries() {
+        SimpleDateFormat sf = newDateFormat(DELIMITED_DATE_FORMAT);
+        String[] list = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            list[i] = String.format("%s|%s|%s|%.3f|%s|%s|%s", pick(USERS), status(), bytes(),
+                    _random.nextDouble() * 3, sf.format(timestamp()), _random.nextBoolean(), pick(PATHS));
+        }
+        return list;
+    }
+
+    /**
+     * Returns Apache access log entries that match {@link #ACCESS_LOG_PATTERN}
+     */
+    public String[] getAccessLogEntries() {
+        SimpleDateFormat sf = newDateFormat("dd/MMM/yyyy:HH:mm:ss Z");
+        String[] list = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            list[i] = String.format("%s - - [%s] \"%s %s HTTP/1.1\" %s %s \"%s\"", ip(), sf.format(timestamp()),
+                    pick(METHODS), pick(PATHS), status(), _random.nextInt(100000), pick(AGENTS));
+        }
+        return list;
+    }
+
+    /**
+     * Returns JSON entries. Fields are: ts (Date), level, logger, thread, user, status (Integer), elapsed_ms
+     * (Integer), bytes (Long), path, msg and a nested request object.
+     */
+    public String[] getJsonEntries() {
+        SimpleDateFormat sf = newDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        String[] list = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            list[i] = String.format("{ \"ts\": \"%s\", \"level\": \"INFO\", \"logger\": \"%s\", "
+                    + "\"thread\": \"pool-1-thread-%s\", \"user\": \"%s\", \"status\": %s, \"elapsed_ms\": %s, "
+                    + "\"bytes\": %s, \"path\": \"%s\", \"msg\": \"Request \\\"%s\\\" completed\", "
+                    + "\"request\": { \"method\": \"%s\", \"ip\": \"%s\", \"tags\": [\"a\", \"b\"] } }",
+                    sf.format(timestamp()), pick(LOGGERS), _random.nextInt(16), pick(USERS), status(),
+                    _random.nextInt(2000), bytes(), pick(PATHS), pick(PATHS), pick(METHODS), ip());
+        }
+        return list;
+    }
+
+    /**
+     * Returns timestamps in our standard format; e.g. "2011-09-24T12:34:43.123Z"
+     */
+    public String[] getTimestamps() {
+        SimpleDateFormat sf = newDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        String[] list = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            list[i] = sf.format(timestamp());
+        }
+        return list;
+    }
+
+    /**
+     * Returns severity codes and descriptions as they are published
+     */
+    public String[] getSeverities() {
+        String[] list = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            list[i] = pick(SEVERITIES);
+        }
+        return list;
+    }
+
+    /**
+     * Returns host names and IP addresses
+     */
+    public String[] getHosts() {
+        String[] list = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            list[i] = _random.nextBoolean() ? String.format("web%02d.example.com", _random.nextInt(20)) : ip();
+        }
+        return list;
+    }
+
+    private String pick(String[] values) {
+        return values[_random.nextInt(values.length)];
+    }
+
+    private String ip() {
+        return String.format("10.%s.%s.%s", _random.nextInt(256), _random.nextInt(256), 1 + _random.nextInt(254));
+    }
+
+    private int status() {
+        int r = _random.nextInt(100);
+        return r < 85 ? 200 : (r < 92 ? 304 : (r < 97 ? 404 : 500));
+    }
+
+    private long bytes() {
+        // Some values do not fit in an int
+        return _random.nextInt(10) == 0 ? 3000000000L + _random.nextInt(1000000) : _random.nextInt(100000);
+    }
+
+    private Date timestamp() {
+        _startTime += _random.nextInt(1000);
+        return new Date(_startTime);
+    }
+
+    private static SimpleDateFormat newDateFormat(String format) {
+        SimpleDateFormat sf = new SimpleDateFormat(format);
+        sf.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return sf;
+    }
+}
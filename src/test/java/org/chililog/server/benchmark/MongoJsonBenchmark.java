@@ -0,0 +1,83 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import java.util.regex.Pattern;
+
+import org.chililog.server.benchmark.BenchmarkRunner.Operation;
+import org.chililog.server.data.MongoJsonParser;
+import org.chililog.server.data.MongoJsonSerializer;
+import org.junit.Test;
+
+import com.mongodb.DBObject;
+
+/**
+ * Benchmark reading and writing JSON with our mongoDB JSON parser and serializer
+ *
+ * @author vibul
+ *
+ */
+public class MongoJsonBenchmark {
+
+    private static final Pattern DATE_PATTERN = Pattern
+            .compile("^([0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}Z)$");
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+    private static final Pattern LONG_NUMBER_PATTERN = Pattern.compile("^NumberLong\\(([0-9]+)\\)$");
+
+    @Test
+    public void testParse() throws Exception {
+        final String[] entries = new LogCorpus(4).getJsonEntries();
+
+        BenchmarkRunner.run("MongoJsonParser", new Operation() {
+            public long run(int i) throws Exception {
+                MongoJsonParser parser = new MongoJsonParser(entries[i & (LogCorpus.SIZE - 1)], DATE_PATTERN,
+                        DATE_FORMAT, LONG_NUMBER_PATTERN);
+                return ((DBObject) parser.parse()).keySet().size();
+            }
+        });
+    }
+
+    @Test
+    public void testParseReset() throws Exception {
+        final String[] entries = new LogCorpus(4).getJsonEntries();
+        final MongoJsonParser parser = new MongoJsonParser(DATE_PATTERN, DATE_FORMAT, LONG_NUMBER_PATTERN);
+
+        BenchmarkRunner.run("MongoJsonParser reset", new Operation() {
+            public long run(int i) throws Exception {
+                return ((DBObject) parser.reset(entries[i & (LogCorpus.SIZE - 1)]).parse()).keySet().size();
+            }
+        });
+    }
+
+    @Test
+    public void testSerialize() throws Exception {
+        String[] entries = new LogCorpus(4).getJsonEntries();
+        final DBObject[] objects = new DBObject[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            objects[i] = (DBObject) new MongoJsonParser(entries[i], DATE_PATTERN, DATE_FORMAT, LONG_NUMBER_PATTERN)
+                    .parse();
+        }
+
+        BenchmarkRunner.run("MongoJsonSerializer", new Operation() {
+            public long run(int i) throws Exception {
+                return MongoJsonSerializer.serialize(objects[i & (LogCorpus.SIZE - 1)]).length();
+            }
+        });
+    }
+}
@@ -0,0 +1,78 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.chililog.server.benchmark.BenchmarkRunner.Operation;
+import org.chililog.server.common.TextTokenizer;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryBO;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * Benchmark building repository entries
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryEntryBenchmark {
+
+    @Test
+    public void testSeverityParse() throws Exception {
+        final String[] severities = new LogCorpus(5).getSeverities();
+
+        BenchmarkRunner.run("Severity.parse", new Operation() {
+            public long run(int i) throws Exception {
+                return Severity.parse(severities[i & (LogCorpus.SIZE - 1)]).ordinal();
+            }
+        });
+    }
+
+    @Test
+    public void testToDBObject() throws Exception {
+        LogCorpus corpus = new LogCorpus(5);
+        final String[] messages = corpus.getMessages();
+        final String[] hosts = corpus.getHosts();
+        final Severity[] severities = new Severity[LogCorpus.SIZE];
+        final ArrayList<ArrayList<String>> keywords = new ArrayList<ArrayList<String>>();
+        String[] severityText = corpus.getSeverities();
+        for (int i = 0; i < LogCorpus.SIZE; i++) {
+            severities[i] = Severity.parse(severityText[i]);
+            keywords.add(TextTokenizer.getInstance().tokenize(messages[i], RepositoryConfigBO.UNLIMITED_MAX_KEYWORDS));
+        }
+        final Date timestamp = new Date();
+
+        BenchmarkRunner.run("RepositoryEntryBO.toDBObject", new Operation() {
+            public long run(int i) throws Exception {
+                int n = i & (LogCorpus.SIZE - 1);
+                BasicDBObject fields = new BasicDBObject();
+                fields.put("status", 200);
+                fields.put("bytes", 3000000000L + n);
+                RepositoryEntryBO entry = new RepositoryEntryBO(timestamp, "app", hosts[n], severities[n],
+                        keywords.get(n), messages[n], fields);
+                return entry.toDBObject().keySet().size();
+            }
+        });
+    }
+}
@@ -0,0 +1,93 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.chililog.server.benchmark.BenchmarkRunner.Operation;
+import org.chililog.server.data.MongoConnection;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryConfigBO.WriteDurability;
+import org.chililog.server.data.RepositoryEntryBO;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.data.RepositoryEntryController;
+import org.junit.Test;
+
+import com.mongodb.DB;
+
+/**
+ * <p>
+ * Benchmark batch inserts of repository entries at each write durability level. Each operation inserts one batch.
+ * </p>
+ * <p>
+ * Unlike the other benchmarks, this needs mongoDB. With <code>NONE</code> and <code>NORMAL</code>, the time measured
+ * is the time taken to send the batch; not the time taken for the server to apply it.
+ * </p>
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryWriteBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Test
+    public void testInsert() throws Exception {
+        LogCorpus corpus = new LogCorpus(5);
+        final String[] messages = corpus.getMessages();
+        final String[] hosts = corpus.getHosts();
+        final DB db = MongoConnection.getInstance().getConnection();
+
+        for (WriteDurability durability : WriteDurability.values()) {
+            RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+            repoInfo.setName("write_benchmark");
+            repoInfo.setStorageWriteDurability(durability);
+            final RepositoryEntryController controller = RepositoryEntryController.getInstance(repoInfo);
+            db.getCollection(repoInfo.getMongoDBCollectionName()).drop();
+
+            db.requestStart();
+            try {
+                BenchmarkRunner.run("RepositoryEntryController.insert " + durability, new Operation() {
+                    public long run(int i) throws Exception {
+                        ArrayList<RepositoryEntryBO> entries = new ArrayList<RepositoryEntryBO>(BATCH_SIZE);
+                        for (int j = 0; j < BATCH_SIZE; j++) {
+                            int n = (i * BATCH_SIZE + j) & (LogCorpus.SIZE - 1);
+                            RepositoryEntryBO entry = new RepositoryEntryBO();
+                            entry.setTimestamp(new Date());
+                            entry.setSavedTimestamp(new Date());
+                            entry.setSource("app");
+                            entry.setHost(hosts[n]);
+                            entry.setSeverity(Severity.Information);
+                            entry.setMessage(messages[n]);
+                            entries.add(entry);
+                        }
+                        controller.insert(db, entries);
+                        return entries.size();
+                    }
+                });
+                db.getLastError();
+            } finally {
+                db.requestDone();
+            }
+
+            db.getCollection(repoInfo.getMongoDBCollectionName()).drop();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.benchmark;
+
+import static org.junit.Assert.*;
+
+import org.chililog.server.benchmark.BenchmarkRunner.Operation;
+import org.chililog.server.common.TextTokenizer;
+import org.chililog.server.data.RepositoryConfigBO;
+import org.junit.Test;
+
+/**
+ * Benchmark extracting keywords from messages
+ *
+ * @author vibul
+ *
+ */
+public class TextTokenizerBenchmark {
+
+    @Test
+    public void testTokenize() throws Exception {
+        final String[] messages = new LogCorpus(1).getMessages();
+        final TextTokenizer tokenizer = TextTokenizer.getInstance();
+        assertFalse(tokenizer.tokenize(messages[0], RepositoryConfigBO.UNLIMITED_MAX_KEYWORDS).isEmpty());
+
+        BenchmarkRunner.run("TextTokenizer.tokenize", new Operation() {
+            public long run(int i) throws Exception {
+                return tokenizer.tokenize(messages[i & (LogCorpus.SIZE - 1)], RepositoryConfigBO.UNLIMITED_MAX_KEYWORDS)
+                        .size();
+            }
+        });
+    }
+
+    @Test
+    public void testTokenizeMaxKeywords() throws Exception {
+        final String[] messages = new LogCorpus(1).getMessages();
+        final TextTokenizer tokenizer = TextTokenizer.getInstance();
+
+        BenchmarkRunner.run("TextTokenizer.tokenize max 5 keywords", new Operation() {
+            public long run(int i) throws Exception {
+                return tokenizer.tokenize(messages[i & (LogCorpus.SIZE - 1)], 5).size();
+            }
+        });
+    }
+}
@@ -21,6 +21,7 @@ package org.chililog.server.common;
 import static org.junit.Assert.*;
 
 import java.net.UnknownHostException;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -128,6 +129,39 @@ public class AppPropertiesTest {
         assertEquals(3000, AppProperties.getInstance().getMqRedeliveryDelayMilliseconds());
     }
 
+    @Test
+    public void testStorageAsyncEnabled() throws UnknownHostException {
+        assertFalse(AppProperties.getInstance().getStorageAsyncEnabled());
+    }
+
+    @Test
+    public void testStorageAsyncThreadPoolSize() throws UnknownHostException {
+        assertEquals(Runtime.getRuntime().availableProcessors() * 2, AppProperties.getInstance()
+                .getStorageAsyncThreadPoolSize());
+    }
+
+    @Test
+    public void testStorageAutoscaleIntervalSeconds() throws UnknownHostException {
+        assertEquals(10, AppProperties.getInstance().getStorageAutoscaleIntervalSeconds());
+    }
+
+    @Test
+    public void testStorageAutoscaleBacklogThreshold() throws UnknownHostException {
+        assertEquals(1000, AppProperties.getInstance().getStorageAutoscaleBacklogThreshold());
+    }
+
+    @Test
+    public void testStorageRetention() throws UnknownHostException {
+        assertEquals(60, AppProperties.getInstance().getStorageRetentionIntervalMinutes());
+        assertEquals(1000, AppProperties.getInstance().getStorageRetentionBatchSize());
+        assertEquals(5000, AppProperties.getInstance().getStorageRetentionMaxDeletesPerSecond());
+    }
+
+    @Test
+    public void testStorageRegexTimeout() throws UnknownHostException {
+        assertEquals(1000, AppProperties.getInstance().getStorageRegexTimeoutMilliseconds());
+    }
+
     @Test
     public void testPubSubCoreProtocolEnabled() throws UnknownHostException {
         assertTrue(AppProperties.getInstance().getPubSubCoreProtocolEnabled());
@@ -200,6 +234,85 @@ public class AppPropertiesTest {
                 .contains(AppProperties.PUB_SUB_JSON_HTTP_KEY_STORE_KEY_PASSWORD));
     }
 
+    @Test
+    public void testPubSubTcpEnabled() throws UnknownHostException {
+        assertTrue(AppProperties.getInstance().getPubSubTcpEnabled());
+    }
+
+    @Test
+    public void testPubSubTcpHost() throws UnknownHostException {
+        String s = AppProperties.getInstance().getPubSubTcpHost();
+        assertEquals("localhost", s);
+        assertTrue(AppProperties.getInstance().toString().contains(AppProperties.PUB_SUB_TCP_HOST));
+    }
+
+    @Test
+    public void testPubSubTcpPort() throws UnknownHostException {
+        int s = AppProperties.getInstance().getPubSubTcpPort();
+        assertEquals(61616, s);
+        assertTrue(AppProperties.getInstance().toString().contains(AppProperties.PUB_SUB_TCP_PORT));
+    }
+
+    @Test
+    public void testPubSubTcpNettyThreadPools() throws UnknownHostException {
+        assertEquals(0, AppProperties.getInstance().getPubSubTcpNettyWorkerThreadPoolSize());
+        assertEquals(16, AppProperties.getInstance().getPubSubTcpNettyHandlerThreadPoolSize());
+        assertEquals(1048576, AppProperties.getInstance().getPubSubTcpNettyHandlerThreadPoolMaxChannelMemorySize());
+        assertEquals(16777216, AppProperties.getInstance().getPubSubTcpNettyHandlerThreadPoolMaxTotalMemorySize());
+        assertTrue(AppProperties.getInstance().toString()
+                .contains(AppProperties.PUB_SUB_TCP_NETTY_HANDLER_THREAD_POOL_MAX_TOTAL_MEMORY_SIZE));
+    }
+
+    @Test
+    public void testPubSubTcpMaxLineLength() throws UnknownHostException {
+        int s = AppProperties.getInstance().getPubSubTcpMaxLineLength();
+        assertEquals(65536, s);
+        assertTrue(AppProperties.getInstance().toString().contains(AppProperties.PUB_SUB_TCP_MAX_LINE_LENGTH));
+    }
+
+    @Test
+    public void testPubSubSyslogEnabled() throws UnknownHostException {
+        assertFalse(AppProperties.getInstance().getPubSubSyslogEnabled());
+    }
+
+    @Test
+    public void testPubSubSyslogHost() throws UnknownHostException {
+        String s = AppProperties.getInstance().getPubSubSyslogHost();
+        assertEquals("localhost", s);
+        assertTrue(AppProperties.getInstance().toString().contains(AppProperties.PUB_SUB_SYSLOG_HOST));
+    }
+
+    @Test
+    public void testPubSubSyslogPorts() throws UnknownHostException {
+        assertEquals(5514, AppProperties.getInstance().getPubSubSyslogUdpPort());
+        assertEquals(5515, AppProperties.getInstance().getPubSubSyslogTcpPort());
+        assertEquals(4194304, AppProperties.getInstance().getPubSubSyslogUdpReceiveBufferSize());
+        assertEquals(65536, AppProperties.getInstance().getPubSubSyslogMaxMessageSize());
+        assertTrue(AppProperties.getInstance().toString().contains(AppProperties.PUB_SUB_SYSLOG_UDP_PORT));
+    }
+
+    @Test
+    public void testPubSubSyslogPublisher() throws UnknownHostException {
+        assertEquals(0, AppProperties.getInstance().getPubSubSyslogNettyWorkerThreadPoolSize());
+        assertEquals(2, AppProperties.getInstance().getPubSubSyslogPublisherThreadPoolSize());
+        assertEquals(65536, AppProperties.getInstance().getPubSubSyslogPublisherQueueSize());
+        assertEquals(500, AppProperties.getInstance().getPubSubSyslogPublisherBatchSize());
+        assertTrue(AppProperties.getInstance().toString()
+                .contains(AppProperties.PUB_SUB_SYSLOG_PUBLISHER_BATCH_SIZE));
+    }
+
+    @Test
+    public void testPubSubSyslogRoutes() throws UnknownHostException {
+        assertEquals("syslog", AppProperties.getInstance().getPubSubSyslogDefaultRepository());
+
+        List<String> routes = AppProperties.getInstance().getPubSubSyslogRoutes();
+        assertEquals(3, routes.size());
+        assertEquals("web_logs app ^(nginx|httpd)$", routes.get(0));
+        assertEquals("auth_logs facility ^(auth|authpriv)$", routes.get(1));
+        assertEquals("db_logs host ^db[0-9]+", routes.get(2));
+        assertTrue(AppProperties.getInstance().toString().contains(AppProperties.PUB_SUB_SYSLOG_ROUTES));
+    }
+
     @Test
     public void testWorkbenchEnabled() throws UnknownHostException {
         assertTrue(AppProperties.getInstance().getWorkbenchEnabled());
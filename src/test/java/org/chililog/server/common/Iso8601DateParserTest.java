@@ -0,0 +1,150 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.common;
+
+import static org.junit.Assert.*;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.chililog.server.data.RepositoryEntryListCriteria;
+import org.junit.Test;
+
+/**
+ * Test Iso8601DateParser
+ *
+ * @author vibul
+ *
+ */
+public class Iso8601DateParserTest {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(Iso8601DateParserTest.class);
+
+    private static SimpleDateFormat newDateFormat() {
+        SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        sf.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return sf;
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(Iso8601DateParser.matches("2011-09-24T12:34:43.123Z"));
+
+        assertFalse(Iso8601DateParser.matches(null));
+        assertFalse(Iso8601DateParser.matches(""));
+        assertFalse(Iso8601DateParser.matches("2011-09-24T12:34:43.123"));
+        assertFalse(Iso8601DateParser.matches("2011-09-24T12:34:43.123Z "));
+        assertFalse(Iso8601DateParser.matches("2011-09-24 12:34:43.123Z"));
+        assertFalse(Iso8601DateParser.matches("2011-9-24T12:34:43.1234Z"));
+        assertFalse(Iso8601DateParser.matches("2011-09-24T12:34:4a.123Z"));
+
+        // Same as the regular expression we used to use
+        String[] values = new String[] { "2011-09-24T12:34:43.123Z", "2011-09-24T12:34:43.123+", "x011-09-24T12:34:43.123Z",
+                "2011/09/24T12:34:43.123Z", "2011-09-24T12:34:43,123Z" };
+        for (String value : values) {
+            assertEquals(value, RepositoryEntryListCriteria.DATE_PATTERN.matcher(value).matches(),
+                    Iso8601DateParser.matches(value));
+        }
+    }
+
+    @Test
+    public void testSameAsSimpleDateFormat() throws ParseException {
+        SimpleDateFormat sf = newDateFormat();
+        String[] values = new String[] { "1970-01-01T00:00:00.000Z", "1969-12-31T23:59:59.999Z",
+                "2000-02-29T12:00:00.000Z", "2011-12-31T23:01:01.123Z", "2100-03-01T00:00:00.001Z",
+                "1583-01-01T00:00:00.000Z", "9999-12-31T23:59:59.999Z" };
+        for (String value : values) {
+            assertEquals(value, sf.parse(value).getTime(), Iso8601DateParser.parseMillis(value));
+            assertEquals(value, sf.parse(value), Iso8601DateParser.parse(value));
+        }
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            String value = sf.format(new Date(Math.abs(random.nextLong()) % 253402300799999L));
+            assertEquals(value, sf.parse(value).getTime(), Iso8601DateParser.parseMillis(value));
+        }
+    }
+
+    @Test
+    public void testOutOfRange() throws ParseException {
+        // Leniently parsed by SimpleDateFormat like before
+        String[] values = new String[] { "2011-13-01T00:00:00.000Z", "2011-02-29T00:00:00.000Z",
+                "2011-01-01T24:00:00.000Z", "2011-01-01T00:60:00.000Z", "2011-01-01T00:00:60.000Z",
+                "1582-10-01T00:00:00.000Z" };
+        SimpleDateFormat sf = newDateFormat();
+        for (String value : values) {
+            assertEquals(value, Iso8601DateParser.INVALID, Iso8601DateParser.parseMillis(value));
+            assertEquals(value, sf.parse(value), Iso8601DateParser.parse(value));
+        }
+
+        try {
+            Iso8601DateParser.parse("not a date");
+            fail();
+        } catch (ParseException ex) {
+            // expected
+        }
+        try {
+            Iso8601DateParser.parse(null);
+            fail();
+        } catch (ParseException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Compare the speed of parsing with SimpleDateFormat
+     */
+    @Test
+    public void testSpeed() throws ParseException {
+        final int count = 200000;
+        String[] values = new String[1000];
+        SimpleDateFormat sf = newDateFormat();
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sf.format(new Date(1300000000000L + random.nextInt(Integer.MAX_VALUE)));
+        }
+
+        // Warm up
+        long checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += sf.parse(values[i % values.length]).getTime();
+            checksum -= Iso8601DateParser.parseMillis(values[i % values.length]);
+        }
+        assertEquals(0, checksum);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            checksum += sf.parse(values[i % values.length]).getTime();
+        }
+        long slowNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            checksum -= Iso8601DateParser.parseMillis(values[i % values.length]);
+        }
+        long fastNanos = Math.max(1, System.nanoTime() - start);
+        assertEquals(0, checksum);
+
+        _logger.info("Parsed %s timestamps. SimpleDateFormat: %s ns/op. Iso8601DateParser: %s ns/op. %s times faster.",
+                count, slowNanos / count, fastNanos / count, slowNanos / fastNanos);
+    }
+}
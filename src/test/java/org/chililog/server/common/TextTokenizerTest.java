@@ -22,10 +22,12 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -304,6 +306,175 @@ public class TextTokenizerTest {
 
     }
 
+    /**
+     * Check that reusing the analyzer and looking up duplicates by char slices gives the same keywords as creating a
+     * new analyzer and hashmap for each message
+     */
+    @Test
+    public void testSameAsHashMapLookup() throws IOException {
+        String[] texts = new String[] {
+                "Hello, I am Jim.",
+                "email@address.com and email2@address.com, sent to EMAIL@ADDRESS.COM",
+                "com.chililog.server.common.ChiliLogExceptionTest.testWrapping(ChiliLogExceptionTest.java:63)",
+                "[Wed Oct 11 14:32:52 2000] [error] [client 127.0.0.1] client denied by server configuration",
+                "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif HTTP/1.0\" 200 2326",
+                "a.b..c@@d a.b.c 1.2.3 x_y.z",
+                "the the the the" };
+        for (String text : texts) {
+            for (long max : new long[] { -1, 1, 2, 5, 200 }) {
+                assertEquals(text, legacyTokenize(text, max), TextTokenizer.getInstance().tokenize(text, max));
+            }
+        }
+
+        // Lots of keywords so that the duplicate lookup has to grow
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 2000; j++) {
+                sb.append("word").append(random.nextInt(500)).append(random.nextBoolean() ? ".part " : "@host.com ");
+            }
+            String text = sb.toString();
+            assertEquals(legacyTokenize(text, -1), TextTokenizer.getInstance().tokenize(text, -1));
+            assertEquals(legacyTokenize(text, 300), TextTokenizer.getInstance().tokenize(text, 300));
+        }
+
+        assertEquals(0, TextTokenizer.getInstance().tokenize("", -1).size());
+        assertEquals(0, TextTokenizer.getInstance().tokenize(null, -1).size());
+        assertEquals(0, TextTokenizer.getInstance().tokenize("Hello, I am Jim.", 0).size());
+    }
+
+    @Test
+    public void testKeywordSet() {
+        TextTokenizer.KeywordSet set = new TextTokenizer.KeywordSet();
+        char[] buffer = "abcabc".toCharArray();
+        assertTrue(set.add(buffer, 0, 3));
+        assertFalse(set.add(buffer, 3, 3));
+        assertTrue(set.add(buffer, 1, 3));
+        assertTrue(set.add(buffer, 0, 0));
+        assertFalse(set.add(buffer, 6, 0));
+        assertEquals(3, set.size());
+
+        for (int i = 0; i < 10000; i++) {
+            char[] keyword = ("k" + i).toCharArray();
+            assertTrue(set.add(keyword, 0, keyword.length));
+        }
+        for (int i = 0; i < 10000; i++) {
+            char[] keyword = ("k" + i).toCharArray();
+            assertFalse(set.add(keyword, 0, keyword.length));
+        }
+        assertEquals(10003, set.size());
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertTrue(set.add(buffer, 0, 3));
+    }
+
+    /**
+     * Compare the memory allocated per message before and after reusing the analyzer
+     */
+    @Test
+    public void testBenchmarkAllocation() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            _logger.info("Thread allocated memory not supported. Allocation benchmark skipped.");
+            return;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        String text = "2011-03-26 15:32:22,376 [main] ERROR com.chililog.server.common.ChiliLogExceptionTest - "
+                + "com.chililog.server.common.ChiliLogException: Test12 sent to admin@chililog.org from 127.0.0.1";
+        final int count = 10000;
+
+        // Warm up
+        for (int i = 0; i < count; i++) {
+            legacyTokenize(text, -1);
+            TextTokenizer.getInstance().tokenize(text, -1);
+        }
+
+        long startBytes = sunBean.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            legacyTokenize(text, -1);
+        }
+        long legacyNanos = System.nanoTime() - startTime;
+        long legacyBytes = sunBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+        startBytes = sunBean.getThreadAllocatedBytes(threadId);
+        startTime = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            TextTokenizer.getInstance().tokenize(text, -1);
+        }
+        long reusedNanos = System.nanoTime() - startTime;
+        long reusedBytes = sunBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+        _logger.info("Tokenized %s messages. New analyzer per message: %s bytes/msg %s ns/msg. "
+                + "Reused analyzer: %s bytes/msg %s ns/msg.", count, legacyBytes / count, legacyNanos / count,
+                reusedBytes / count, reusedNanos / count);
+        assertTrue(reusedBytes < legacyBytes);
+    }
+
+    /**
+     * How <code>TextTokenizer</code> used to tokenize; i.e. a new analyzer and hashmap for every message. Used to check
+     * results and for benchmarking.
+     */
+    private List<String> legacyTokenize(String text, long maxKeywords) throws IOException {
+        ArrayList<String> tokens = new ArrayList<String>();
+
+        if (StringUtils.isEmpty(text) || maxKeywords == 0) {
+            return tokens;
+        }
+
+        Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_30);
+        HashMap<String, String> lookup = new HashMap<String, String>();
+        TokenStream stream = analyzer.tokenStream("field", new StringReader(text));
+
+        StringBuilder sb = new StringBuilder();
+        TermAttribute termAttribute = stream.getAttribute(TermAttribute.class);
+        while (stream.incrementToken()) {
+            char[] termBuffer = termAttribute.termBuffer();
+            int length = termAttribute.termLength();
+
+            boolean doSplit = !Character.isDigit(termBuffer[0]);
+            for (int j = 0; doSplit && j < length; j++) {
+                char c = termBuffer[j];
+                if (!Character.isLetterOrDigit(c) && c != '.' && c != '@') {
+                    doSplit = false;
+                }
+            }
+
+            ArrayList<String> parts = new ArrayList<String>();
+            if (doSplit) {
+                sb.setLength(0);
+                for (int i = 0; i < length; i++) {
+                    char c = termBuffer[i];
+                    if (c == '.' || c == '@') {
+                        parts.add(sb.toString());
+                        sb.setLength(0);
+                    } else {
+                        sb.append(c);
+                    }
+                }
+                parts.add(sb.toString());
+            } else {
+                parts.add(termAttribute.term());
+            }
+
+            for (String token : parts) {
+                if (!StringUtils.isBlank(token) && !lookup.containsKey(token)) {
+                    tokens.add(token);
+                    lookup.put(token, null);
+                    if (maxKeywords > 0 && tokens.size() >= maxKeywords) {
+                        return tokens;
+                    }
+                }
+            }
+        }
+
+        return tokens;
+    }
+
     /**
      * Used for benchmarking ... basic tokenizing without regular expression
      * 
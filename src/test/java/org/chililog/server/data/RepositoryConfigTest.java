@@ -36,6 +36,9 @@ import org.chililog.server.data.RepositoryParserConfigBO;
 import org.chililog.server.data.Strings;
 import org.chililog.server.data.RepositoryFieldConfigBO.DataType;
 import org.chililog.server.data.RepositoryConfigBO.MaxMemoryPolicy;
+import org.chililog.server.data.RepositoryConfigBO.Partitioning;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.data.RepositoryConfigBO.WriteDurability;
 import org.chililog.server.data.RepositoryConfigBO.Status;
 import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
 import org.chililog.server.data.RepositoryParserConfigBO.ParseFieldErrorHandling;
@@ -108,12 +111,19 @@ public class RepositoryConfigTest {
         repoConfig.setMaxMemoryPolicy(MaxMemoryPolicy.BLOCK);
         repoConfig.setPageSize(2);
         repoConfig.setPageCountCache(1);
+        repoConfig.setStorageWriteDurability(WriteDurability.JOURNAL_SAFE);
+        repoConfig.setStoragePartitioning(Partitioning.HOURLY);
+        repoConfig.setStorageRetentionDays(30);
+        repoConfig.setStorageRetentionDays(Severity.Debug, 2);
+        repoConfig.setStorageTemplateIndicator(true);
+        repoConfig.setParseOnPublishIndicator(true);
 
         RepositoryParserConfigBO repoParserConfig = new RepositoryParserConfigBO();
         repoParserConfig.setName("parser1");
         repoParserConfig.setAppliesTo(AppliesTo.All);
         repoParserConfig.setClassName(DelimitedEntryParser.class.getName());
         repoParserConfig.setMaxKeywords(1L);
+        repoParserConfig.setRegexTimeoutMilliseconds(250L);
         repoParserConfig.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipEntry);
         repoParserConfig.getProperties().put("key1", "value11");
         repoParserConfig.getProperties().put("key2", "value12");
@@ -165,6 +175,14 @@ public class RepositoryConfigTest {
         assertEquals(MaxMemoryPolicy.BLOCK, repoConfig2.getMaxMemoryPolicy());
         assertEquals(2, repoConfig2.getPageSize());
         assertEquals(1, repoConfig2.getPageCountCache());
+        assertEquals(WriteDurability.JOURNAL_SAFE, repoConfig2.getStorageWriteDurability());
+        assertEquals(Partitioning.HOURLY, repoConfig2.getStoragePartitioning());
+        assertEquals(30, repoConfig2.getStorageRetentionDays());
+        assertEquals(2, repoConfig2.getStorageRetentionDays(Severity.Debug));
+        assertEquals(30, repoConfig2.getStorageRetentionDays(Severity.Error));
+        assertEquals(true, repoConfig2.getStorageTemplateIndicator());
+        assertEquals(true, repoConfig2.getParseOnPublishIndicator());
+        assertEquals("repo_repo_info_test1_templates", repoConfig2.getMongoDBTemplateCollectionName());
         assertEquals(1, repoConfig2.getParsers().size());
 
         RepositoryParserConfigBO repoParserConfig2 = repoConfig2.getParsers().get(0);
@@ -172,6 +190,7 @@ public class RepositoryConfigTest {
         assertEquals(AppliesTo.All, repoParserConfig2.getAppliesTo());
         assertEquals(DelimitedEntryParser.class.getName(), repoParserConfig2.getClassName());
         assertEquals(1L, repoParserConfig2.getMaxKeywords());
+        assertEquals(250L, repoParserConfig2.getRegexTimeoutMilliseconds());
         assertEquals(ParseFieldErrorHandling.SkipEntry, repoParserConfig2.getParseFieldErrorHandling());
 
         Hashtable<String, String> ht2 = repoParserConfig2.getProperties();
@@ -227,6 +246,7 @@ public class RepositoryConfigTest {
 
         repoParserConfig.setClassName("com.chililog.server.data.DeclimitedRepositoryParserX");
         repoParserConfig.setMaxKeywords(2);
+        repoParserConfig.setRegexTimeoutMilliseconds(RepositoryParserConfigBO.REGEX_TIMEOUT_UNLIMITED);
         repoParserConfig.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipFieldIgnoreError);
         repoParserConfig.getProperties().put("key1", "value11x");
         repoParserConfig.getProperties().put("key4", "value14x");
@@ -266,6 +286,7 @@ public class RepositoryConfigTest {
         assertEquals(AppliesTo.All, repoParserConfig2.getAppliesTo());
         assertEquals("com.chililog.server.data.DeclimitedRepositoryParserX", repoParserConfig2.getClassName());
         assertEquals(2L, repoParserConfig2.getMaxKeywords());
+        assertEquals(RepositoryParserConfigBO.REGEX_TIMEOUT_UNLIMITED, repoParserConfig2.getRegexTimeoutMilliseconds());
         assertEquals(ParseFieldErrorHandling.SkipFieldIgnoreError, repoParserConfig2.getParseFieldErrorHandling());
 
         ht2 = repoParserConfig2.getProperties();
@@ -20,20 +20,29 @@ package org.chililog.server.data;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
+import org.bson.types.ObjectId;
 import org.chililog.server.common.ChiliLogException;
 import org.chililog.server.data.MongoConnection;
 import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.RepositoryEntryController;
 import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryConfigBO.Partitioning;
+import org.chililog.server.data.RepositoryConfigBO.WriteDurability;
+import org.chililog.server.data.RepositoryEntryListCriteria.KeywordUsage;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 
 /**
  * Test RepositoryEntryBO and RepositoryEntryController
@@ -126,6 +135,357 @@ public class RepsitoryEntryTest {
         RepositoryEntryController.getInstance(_repoInfo).remove(_db, entry);
     }
 
+    /**
+     * Inserts entries and waits for the server to apply them. getLastError() only waits for writes made on the same
+     * connection so the insert and getLastError() must be in the same request.
+     */
+    private static void insertAndWait(RepositoryEntryController controller, List<RepositoryEntryBO> entries)
+            throws ChiliLogException {
+        _db.requestStart();
+        try {
+            controller.insert(_db, entries);
+            _db.getLastError();
+        } finally {
+            _db.requestDone();
+        }
+    }
+
+    /**
+     * All entries should be written at each write durability level. Throughput is measured by
+     * RepositoryWriteBenchmark.
+     */
+    @Test
+    public void testWriteDurability() throws ChiliLogException {
+        final int batchCount = 3;
+        final int batchSize = 100;
+
+        for (WriteDurability durability : WriteDurability.values()) {
+            RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+            repoInfo.setName("entry_test");
+            repoInfo.setStorageWriteDurability(durability);
+            RepositoryEntryController controller = RepositoryEntryController.getInstance(repoInfo);
+
+            DBCollection coll = _db.getCollection(repoInfo.getMongoDBCollectionName());
+            coll.drop();
+
+            for (int i = 0; i < batchCount; i++) {
+                ArrayList<RepositoryEntryBO> entries = new ArrayList<RepositoryEntryBO>(batchSize);
+                for (int j = 0; j < batchSize; j++) {
+                    RepositoryEntryBO entry = new RepositoryEntryBO();
+                    entry.setTimestamp(new Date());
+                    entry.setSavedTimestamp(new Date());
+                    entry.setSource("log1");
+                    entry.setHost("localhost");
+                    entry.setSeverity(Severity.Information);
+                    entry.setMessage("message " + i + " " + j);
+                    entries.add(entry);
+                }
+                insertAndWait(controller, entries);
+            }
+            assertEquals(durability.toString(), batchCount * batchSize, coll.count());
+        }
+    }
+
+    @Test
+    public void testPartitionNames() throws ChiliLogException {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("partition_test");
+        Date ts = new Date(1792195200000L + 5 * 3600000L); // 2026-10-17 05:00 UTC
+
+        assertEquals("repo_partition_test", repoInfo.getMongoDBCollectionName(ts));
+
+        repoInfo.setStoragePartitioning(Partitioning.DAILY);
+        assertEquals("repo_partition_test_20261017", repoInfo.getMongoDBCollectionName(ts));
+        RepositoryEntryController controller = RepositoryEntryController.getInstance(repoInfo);
+        assertEquals(1792195200000L, controller.getPartitionStart("repo_partition_test_20261017").getTime());
+        assertNull(controller.getPartitionStart("repo_partition_test"));
+        assertNull(controller.getPartitionStart("repo_partition_test_2026101705"));
+        assertNull(controller.getPartitionStart("repo_partition_test_2026x017"));
+        assertNull(controller.getPartitionStart("repo_partition_test_20261399"));
+
+        repoInfo.setStoragePartitioning(Partitioning.HOURLY);
+        assertEquals("repo_partition_test_2026101705", repoInfo.getMongoDBCollectionName(ts));
+        controller = RepositoryEntryController.getInstance(repoInfo);
+        assertEquals(ts.getTime(), controller.getPartitionStart("repo_partition_test_2026101705").getTime());
+        assertNull(controller.getPartitionStart("repo_partition_test_20261017"));
+    }
+
+    @Test
+    public void testPartitionedQueries() throws Exception {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("partition_test");
+        repoInfo.setStoragePartitioning(Partitioning.HOURLY);
+        RepositoryEntryController controller = RepositoryEntryController.getInstance(repoInfo);
+        for (DBCollection coll : controller.getDBCollections(_db, null, null)) {
+            controller.dropPartition(coll);
+        }
+
+        // 10 entries an hour for 3 hours
+        long start = 1792195200000L;
+        ArrayList<RepositoryEntryBO> entries = new ArrayList<RepositoryEntryBO>();
+        for (int i = 0; i < 30; i++) {
+            RepositoryEntryBO entry = new RepositoryEntryBO();
+            entry.setTimestamp(new Date(start + i * 360000L));
+            entry.setSavedTimestamp(new Date());
+            entry.setSource("log" + (i % 2));
+            entry.setHost("localhost");
+            entry.setSeverity(Severity.Information);
+            entry.setMessage("message " + i);
+            entries.add(entry);
+        }
+        insertAndWait(controller, entries);
+
+        assertEquals(3, controller.getDBCollections(_db, null, null).size());
+        assertEquals(1, controller.getDBCollections(_db, new Date(start + 3600000L), new Date(start + 3600000L))
+                .size());
+
+        // Count is pruned by time range
+        RepositoryEntryListCriteria criteria = new RepositoryEntryListCriteria();
+        assertEquals(30, controller.executeCountQuery(_db, criteria));
+        criteria.setFrom(new Date(start + 3600000L));
+        assertEquals(20, controller.executeCountQuery(_db, criteria));
+        criteria.setTo(new Date(start + 3600000L + 360000L));
+        assertEquals(2, controller.executeCountQuery(_db, criteria));
+
+        // Paging across partitions in timestamp order
+        criteria = new RepositoryEntryListCriteria();
+        criteria.setOrderBy("{ \"ts\" : -1 }");
+        criteria.setRecordsPerPage(7);
+        criteria.setStartPage(2);
+        criteria.setDoPageCount(true);
+        List<DBObject> list = controller.executeFindQuery(_db, criteria);
+        assertEquals(7, list.size());
+        assertEquals("message 22", list.get(0).get(RepositoryEntryBO.MESSAGE_FIELD_NAME));
+        assertEquals("message 16", list.get(6).get(RepositoryEntryBO.MESSAGE_FIELD_NAME));
+        assertEquals(5, criteria.getPageCount());
+
+        // Paging across partitions in some other order
+        criteria = new RepositoryEntryListCriteria();
+        criteria.setOrderBy("{ \"source\" : 1, \"ts\" : 1 }");
+        criteria.setRecordsPerPage(10);
+        criteria.setStartPage(2);
+        list = controller.executeFindQuery(_db, criteria);
+        assertEquals(10, list.size());
+        assertEquals("message 20", list.get(0).get(RepositoryEntryBO.MESSAGE_FIELD_NAME));
+        assertEquals("message 1", list.get(5).get(RepositoryEntryBO.MESSAGE_FIELD_NAME));
+
+        // Distinct values are merged
+        criteria = new RepositoryEntryListCriteria();
+        criteria.setFields("{ \"source\" : 1 }");
+        assertEquals(2, controller.executeDistinctQuery(_db, criteria).size());
+
+        // Group queries across partitions must be additive
+        criteria = new RepositoryEntryListCriteria();
+        criteria.setFields("{ \"source\" : 1 }");
+        criteria.setInitial("{ \"count\" : 0 }");
+        criteria.setReduceFunction("function(entry, agg) { agg.count++; }");
+        try {
+            controller.executeGroupQuery(_db, criteria);
+            fail();
+        } catch (ChiliLogException ex) {
+            assertEquals(Strings.REPO_ENTRY_PARTITIONED_GROUP_ERROR, ex.getErrorCode());
+        }
+        criteria.setAdditiveReduce(true);
+        List<?> groups = (List<?>) controller.executeGroupQuery(_db, criteria);
+        assertEquals(2, groups.size());
+        assertEquals(15, ((Number) ((DBObject) groups.get(0)).get("count")).intValue());
+        assertEquals(15, ((Number) ((DBObject) groups.get(1)).get("count")).intValue());
+
+        // No partitions in the time range
+        criteria = new RepositoryEntryListCriteria();
+        criteria.setFrom(new Date(start + 24 * 3600000L));
+        criteria.setTo(new Date(start + 25 * 3600000L));
+        criteria.setDoPageCount(true);
+        assertEquals(0, controller.getDBCollections(_db, criteria.getFrom(), criteria.getTo()).size());
+        assertTrue(controller.executeFindQuery(_db, criteria).isEmpty());
+        assertEquals(0, criteria.getPageCount());
+        assertEquals(0, controller.executeCountQuery(_db, criteria));
+        criteria.setFields("{ \"source\" : 1 }");
+        assertTrue(controller.executeDistinctQuery(_db, criteria).isEmpty());
+        criteria.setInitial("{ \"count\" : 0 }");
+        criteria.setReduceFunction("function(entry, agg) { agg.count++; }");
+        assertTrue(((List<?>) controller.executeGroupQuery(_db, criteria)).isEmpty());
+
+        // Entries can be found in any partition
+        ObjectId id = (ObjectId) list.get(5).get(BO.DOCUMENT_ID_FIELD_NAME);
+        RepositoryEntryBO entry = controller.get(_db, id);
+        assertEquals("message 1", entry.getMessage());
+
+        for (DBCollection coll : controller.getDBCollections(_db, null, null)) {
+            controller.dropPartition(coll);
+        }
+    }
+
+    @Test
+    public void testTemplates() throws Exception {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("template_test");
+        repoInfo.setStorageTemplateIndicator(true);
+        RepositoryEntryController controller = RepositoryEntryController.getInstance(repoInfo);
+        RepositoryTemplateController templateController = RepositoryTemplateController.getInstance(repoInfo);
+        _db.getCollection(repoInfo.getMongoDBCollectionName()).drop();
+        _db.getCollection(repoInfo.getMongoDBTemplateCollectionName()).drop();
+        assertTrue(controller.getIndexes().containsKey("template_id_ts_index"));
+
+        // Template id is only stored if set
+        ArrayList<RepositoryEntryBO> entries = new ArrayList<RepositoryEntryBO>();
+        for (int i = 0; i < 10; i++) {
+            RepositoryEntryBO entry = new RepositoryEntryBO();
+            entry.setTimestamp(new Date());
+            entry.setSavedTimestamp(new Date());
+            entry.setSource("log1");
+            entry.setHost("localhost");
+            entry.setSeverity(Severity.Information);
+            entry.setMessage("user " + i + " logged in");
+            if (i < 7) {
+                entry.setTemplateId(2L);
+            }
+            entries.add(entry);
+        }
+        insertAndWait(controller, entries);
+
+        RepositoryEntryListCriteria criteria = new RepositoryEntryListCriteria();
+        criteria.setTemplateId(2L);
+        assertEquals(7, controller.executeCountQuery(_db, criteria));
+
+        criteria.setOrderBy("{ \"message\" : 1 }");
+        List<DBObject> list = controller.executeFindQuery(_db, criteria);
+        RepositoryEntryBO entry = new RepositoryEntryBO(list.get(1));
+        assertEquals(Long.valueOf(2), entry.getTemplateId());
+
+        entry = controller.get(_db, entries.get(9).getDocumentID());
+        assertNull(entry.getTemplateId());
+        assertFalse(entry.toDBObject().containsField(RepositoryEntryBO.TEMPLATE_ID_FIELD_NAME));
+
+        // Counts are added and most common templates are returned first
+        templateController.saveVersion(_db, 1, 1, "a <*>", Arrays.asList(new String[] { "a" }));
+        templateController.saveVersion(_db, 2, 1, "user bob logged <*>", Arrays.asList(new String[] { "user", "bob",
+                "logged" }));
+        templateController.saveVersion(_db, 2, 2, "user <*> logged <*>", Arrays.asList(new String[] { "user",
+                "logged" }));
+        Date ts = new Date();
+        templateController.increment(_db, 1, 5, ts);
+        templateController.increment(_db, 2, 3, ts);
+        templateController.increment(_db, 2, 4, ts);
+        List<DBObject> templates = templateController.getTopTemplates(_db, 0);
+        assertEquals(2, templates.size());
+        assertEquals(2L, ((Number) templates.get(0).get(RepositoryTemplateController.ID_FIELD_NAME)).longValue());
+        assertEquals(7L, ((Number) templates.get(0).get(RepositoryTemplateController.COUNT_FIELD_NAME)).longValue());
+        assertEquals("user <*> logged <*>", templates.get(0).get(RepositoryTemplateController.TEMPLATE_FIELD_NAME));
+        assertEquals(2L, ((Number) templates.get(0).get(RepositoryTemplateController.VERSION_FIELD_NAME)).longValue());
+        assertFalse(templates.get(0).containsField(RepositoryTemplateController.VERSIONS_FIELD_NAME));
+        assertEquals(1, templateController.getTopTemplates(_db, 1).size());
+
+        // Entries stored as variables are rebuilt against the template version they were mined against
+        _db.getCollection(repoInfo.getMongoDBCollectionName()).drop();
+        entries.clear();
+        for (int i = 0; i < 3; i++) {
+            RepositoryEntryBO e = new RepositoryEntryBO();
+            e.setTimestamp(new Date());
+            e.setSavedTimestamp(new Date());
+            e.setSource("log1");
+            e.setHost("localhost");
+            e.setSeverity(Severity.Information);
+            e.setTemplateId(2L);
+            if (i == 0) {
+                e.setTemplateVersion(1L);
+                e.setTemplateVariables(new ArrayList<String>(Arrays.asList(new String[] { "in" })));
+                e.setKeywords(new ArrayList<String>(Arrays.asList(new String[] { "in" })));
+            } else {
+                e.setTemplateVersion(2L);
+                e.setTemplateVariables(new ArrayList<String>(Arrays.asList(new String[] { "tom" + i, "out" })));
+                e.setKeywords(new ArrayList<String>(Arrays.asList(new String[] { "tom" + i, "out" })));
+            }
+            entries.add(e);
+        }
+        insertAndWait(controller, entries);
+
+        DBObject stored = _db.getCollection(repoInfo.getMongoDBCollectionName()).findOne(
+                new BasicDBObject(BO.DOCUMENT_ID_FIELD_NAME, entries.get(0).getDocumentID()));
+        assertFalse(stored.containsField(RepositoryEntryBO.MESSAGE_FIELD_NAME));
+
+        entry = controller.get(_db, entries.get(0).getDocumentID());
+        assertEquals("user bob logged in", entry.getMessage());
+        entry = controller.get(_db, entries.get(1).getDocumentID());
+        assertEquals("user tom1 logged out", entry.getMessage());
+
+        // Keywords of the template's constant tokens only match the versions that have them
+        criteria = new RepositoryEntryListCriteria();
+        criteria.setKeywords("bob");
+        list = controller.executeFindQuery(_db, criteria);
+        assertEquals(1, list.size());
+        assertEquals("user bob logged in", list.get(0).get(RepositoryEntryBO.MESSAGE_FIELD_NAME));
+
+        criteria.setKeywords("logged");
+        assertEquals(3, controller.executeCountQuery(_db, criteria));
+
+        criteria.setKeywords("logged tom2");
+        criteria.setKeywordUsage(KeywordUsage.All);
+        assertEquals(1, controller.executeCountQuery(_db, criteria));
+
+        criteria.setKeywords("bob tom2");
+        criteria.setKeywordUsage(KeywordUsage.Any);
+        assertEquals(2, controller.executeCountQuery(_db, criteria));
+
+        // Template fields are only read to rebuild the message
+        criteria.setKeywords(null);
+        criteria.setFields("{ \"message\" : 1 }");
+        list = controller.executeFindQuery(_db, criteria);
+        assertEquals(3, list.size());
+        for (DBObject o : list) {
+            assertTrue(((String) o.get(RepositoryEntryBO.MESSAGE_FIELD_NAME)).startsWith("user "));
+            assertFalse(o.containsField(RepositoryEntryBO.TEMPLATE_VARIABLES_FIELD_NAME));
+        }
+
+        _db.getCollection(repoInfo.getMongoDBCollectionName()).drop();
+        _db.getCollection(repoInfo.getMongoDBTemplateCollectionName()).drop();
+    }
+
+    @Test
+    public void testRemoveBefore() throws ChiliLogException {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("retention_test");
+        RepositoryEntryController controller = RepositoryEntryController.getInstance(repoInfo);
+        DBCollection coll = _db.getCollection(repoInfo.getMongoDBCollectionName());
+        coll.drop();
+
+        // 10 debug and 10 error entries a minute apart
+        long start = System.currentTimeMillis() - 3600000L;
+        ArrayList<RepositoryEntryBO> entries = new ArrayList<RepositoryEntryBO>();
+        for (int i = 0; i < 20; i++) {
+            RepositoryEntryBO entry = new RepositoryEntryBO();
+            entry.setTimestamp(new Date(start + i * 60000L));
+            entry.setSavedTimestamp(new Date());
+            entry.setSource("log1");
+            entry.setHost("localhost");
+            entry.setSeverity(i % 2 == 0 ? Severity.Debug : Severity.Error);
+            entry.setMessage("message " + i);
+            entries.add(entry);
+        }
+        insertAndWait(controller, entries);
+        controller.ensureTimestampIndex(coll);
+
+        // Remove debug entries in the first 10 minutes in batches of 2
+        Date before = new Date(start + 10 * 60000L);
+        List<Severity> debug = new ArrayList<Severity>();
+        debug.add(Severity.Debug);
+        assertEquals(2, controller.removeBefore(coll, before, debug, 2));
+        assertEquals(2, controller.removeBefore(coll, before, debug, 2));
+        assertEquals(1, controller.removeBefore(coll, before, debug, 2));
+        assertEquals(0, controller.removeBefore(coll, before, debug, 2));
+        assertEquals(15, coll.count());
+
+        // Remove everything in the first 10 minutes
+        List<Severity> all = new ArrayList<Severity>();
+        for (Severity severity : Severity.values()) {
+            all.add(severity);
+        }
+        assertEquals(5, controller.removeBefore(coll, before, all, 100));
+        assertEquals(10, coll.count());
+
+        coll.drop();
+    }
+
     @Test
     public void testSeverity() throws ChiliLogException {
         // Invalid parse values must default to info
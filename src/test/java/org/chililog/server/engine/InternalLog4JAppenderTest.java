@@ -83,6 +83,7 @@ public class InternalLog4JAppenderTest {
                 Thread.currentThread().getName(), null, null, null, null);
 
         appender.append(event);
+        appender.flush();
 
         // Check if entry is there
         DBCollection coll = _db.getCollection(InternalLog4JAppender.MONGODB_COLLECTION_NAME);
@@ -113,9 +114,12 @@ public class InternalLog4JAppenderTest {
         String msg = "debug message";
 
         Logger logger = Logger.getLogger(InternalLog4JAppenderTest.class);
-        logger.addAppender(new InternalLog4JAppender());
+        InternalLog4JAppender appender = new InternalLog4JAppender();
+        logger.addAppender(appender);
         logger.setLevel(Level.DEBUG);
         logger.debug(msg);
+        logger.removeAppender(appender);
+        appender.close();
 
         // Check if entry is there
         DBCollection coll = _db.getCollection(InternalLog4JAppender.MONGODB_COLLECTION_NAME);
@@ -140,9 +144,11 @@ public class InternalLog4JAppenderTest {
     public void testNull() throws ChiliLogException, InterruptedException {
         // Have to put in unique logger name otherwise we duplicate adding appenders
         Logger logger = Logger.getLogger(InternalLog4JAppenderTest.class.getName() + "_TestNull");
-        logger.addAppender(new InternalLog4JAppender());
+        InternalLog4JAppender appender = new InternalLog4JAppender();
+        logger.addAppender(appender);
         logger.setLevel(Level.DEBUG);
         logger.debug(null);
+        appender.flush();
 
         // Check if entry is there
         DBCollection coll = _db.getCollection(InternalLog4JAppender.MONGODB_COLLECTION_NAME);
@@ -151,4 +157,35 @@ public class InternalLog4JAppenderTest {
         return;
 
     }
+
+    /**
+     * Test that events are dropped rather than blocking when the buffer is full
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOverflow() throws Exception {
+        InternalLog4JAppender appender = new InternalLog4JAppender();
+        appender.setBufferSize(4);
+        appender.setBatchSize(100);
+        appender.setFlushInterval(60000);
+
+        // Give the background thread time to start waiting
+        Thread.sleep(50);
+
+        Logger logger = Logger.getLogger(InternalLog4JAppenderTest.class);
+        for (int i = 0; i < 10; i++) {
+            appender.append(new LoggingEvent("com.chililog.server.engine", logger, System.currentTimeMillis(),
+                    Level.ERROR, "error message " + i, Thread.currentThread().getName(), null, null, null, null));
+        }
+        appender.close();
+
+        // 4 events plus the warning about the 6 dropped events
+        DBCollection coll = _db.getCollection(InternalLog4JAppender.MONGODB_COLLECTION_NAME);
+        assertEquals(5, coll.find().count());
+        assertEquals(1, coll.find(new BasicDBObject(RepositoryEntryBO.SEVERITY_FIELD_NAME, Severity.Warning.toCode()))
+                .count());
+
+        return;
+    }
 }
@@ -0,0 +1,166 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.chililog.server.engine.InternalLog4JBuffer.OverflowPolicy;
+import org.junit.Test;
+
+/**
+ * Test the buffer used by our internal log4j appender
+ * 
+ * @author vibul
+ * 
+ */
+public class InternalLog4JBufferTest {
+
+    private static final Logger _logger = Logger.getLogger(InternalLog4JBufferTest.class);
+
+    private static LoggingEvent newEvent(Level level, String msg) {
+        return new LoggingEvent("com.chililog.server.engine", _logger, System.currentTimeMillis(), level, msg, null);
+    }
+
+    @Test
+    public void testOfferAndDrain() {
+        InternalLog4JBuffer buffer = new InternalLog4JBuffer(10, OverflowPolicy.DropDebugFirst);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.offer(newEvent(Level.INFO, "message " + i)));
+        }
+        assertEquals(5, buffer.size());
+
+        ArrayList<LoggingEvent> list = new ArrayList<LoggingEvent>();
+        assertEquals(3, buffer.drainTo(list, 3));
+        assertEquals(2, buffer.size());
+        assertEquals("message 0", list.get(0).getMessage());
+        assertEquals("message 2", list.get(2).getMessage());
+
+        assertEquals(2, buffer.drainTo(list, 3));
+        assertEquals(0, buffer.size());
+        assertEquals(5, list.size());
+        assertEquals("message 4", list.get(4).getMessage());
+
+        assertEquals(0, buffer.drainTo(list, 3));
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testDropDebugFirst() {
+        InternalLog4JBuffer buffer = new InternalLog4JBuffer(8, OverflowPolicy.DropDebugFirst);
+
+        // Debug is dropped at 3/4 full
+        for (int i = 0; i < 8; i++) {
+            boolean added = buffer.offer(newEvent(Level.DEBUG, "debug " + i));
+            assertEquals(i < 6, added);
+        }
+        assertEquals(6, buffer.size());
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(2, buffer.getDroppedDebugCount());
+
+        // Other levels can use the rest of the buffer
+        assertTrue(buffer.offer(newEvent(Level.ERROR, "error 1")));
+        assertTrue(buffer.offer(newEvent(Level.WARN, "warn 1")));
+        assertFalse(buffer.offer(newEvent(Level.FATAL, "fatal 1")));
+        assertFalse(buffer.offer(newEvent(Level.TRACE, "trace 1")));
+        assertEquals(8, buffer.size());
+        assertEquals(4, buffer.getDroppedCount());
+        assertEquals(3, buffer.getDroppedDebugCount());
+    }
+
+    @Test
+    public void testDropNewest() {
+        InternalLog4JBuffer buffer = new InternalLog4JBuffer(8, OverflowPolicy.DropNewest);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(buffer.offer(newEvent(Level.DEBUG, "debug " + i)));
+        }
+        assertFalse(buffer.offer(newEvent(Level.DEBUG, "debug 8")));
+        assertFalse(buffer.offer(newEvent(Level.ERROR, "error 1")));
+        assertEquals(8, buffer.size());
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(1, buffer.getDroppedDebugCount());
+
+        // Room again after draining
+        buffer.drainTo(new ArrayList<LoggingEvent>(), 1);
+        assertTrue(buffer.offer(newEvent(Level.ERROR, "error 2")));
+    }
+
+    @Test
+    public void testDropWriteFailures() {
+        InternalLog4JBuffer buffer = new InternalLog4JBuffer(10, OverflowPolicy.DropNewest);
+        assertTrue(buffer.offer(newEvent(Level.DEBUG, "debug 1")));
+        assertTrue(buffer.offer(newEvent(Level.ERROR, "error 1")));
+        assertTrue(buffer.offer(newEvent(Level.ERROR, "error 2")));
+
+        // Events that could not be written are counted as dropped
+        ArrayList<LoggingEvent> list = new ArrayList<LoggingEvent>();
+        buffer.drainTo(list, 10);
+        buffer.drop(list);
+        assertEquals(0, buffer.size());
+        assertEquals(3, buffer.getDroppedCount());
+        assertEquals(1, buffer.getDroppedDebugCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCapacity() {
+        new InternalLog4JBuffer(0, OverflowPolicy.DropNewest);
+    }
+
+    @Test
+    public void testConcurrentOffers() throws Exception {
+        final int threadCount = 4;
+        final int eventsPerThread = 5000;
+        final InternalLog4JBuffer buffer = new InternalLog4JBuffer(10000, OverflowPolicy.DropNewest);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int j = 0; j < eventsPerThread; j++) {
+                        buffer.offer(newEvent(Level.INFO, "message " + j));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Never goes over capacity and every event is either in the buffer or counted as dropped
+        assertEquals(10000, buffer.size());
+        assertEquals(threadCount * eventsPerThread - 10000, buffer.getDroppedCount());
+
+        ArrayList<LoggingEvent> list = new ArrayList<LoggingEvent>();
+        assertEquals(10000, buffer.drainTo(list, Integer.MAX_VALUE));
+        assertEquals(0, buffer.size());
+    }
+}
@@ -0,0 +1,116 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryBO;
+import org.chililog.server.data.RepositoryParserConfigBO;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
+import org.chililog.server.data.RepositoryParserConfigBO.ParseFieldErrorHandling;
+import org.chililog.server.engine.parsers.DefaultEntryParser;
+import org.hornetq.api.core.Message;
+import org.hornetq.api.core.SimpleString;
+import org.hornetq.api.core.client.ClientMessage;
+import org.hornetq.core.client.impl.ClientMessageImpl;
+import org.junit.Test;
+
+import com.mongodb.DBObject;
+
+/**
+ * Test writing and reading parsed entries to and from messages
+ *
+ * @author vibul
+ *
+ */
+public class RepositoryEntryMqMessageTest {
+
+    private static RepositoryEntryBO parse(String fields, String message) throws Exception {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("mq_message_test");
+
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName("parser1");
+        repoParserInfo.setAppliesTo(AppliesTo.All);
+        repoParserInfo.setClassName(DefaultEntryParser.class.getName());
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipEntry);
+        repoInfo.getParsers().add(repoParserInfo);
+
+        DefaultEntryParser p = new DefaultEntryParser(repoInfo, repoParserInfo);
+        RepositoryEntryBO entry = p.parse("2010-11-29T19:41:46.123Z", "log1", "127.0.0.1",
+                Severity.Error.toString(), fields, message);
+        assertNotNull(entry);
+        return entry;
+    }
+
+    private static ClientMessage newMessage(String text) {
+        ClientMessage message = new ClientMessageImpl(Message.TEXT_TYPE, false, 0, System.currentTimeMillis(),
+                (byte) 4, 1024);
+        message.getBodyBuffer().writeNullableSimpleString(SimpleString.toSimpleString(text));
+        return message;
+    }
+
+    @Test
+    public void testParsedEntry() throws Exception {
+        RepositoryEntryBO entry = parse("{ \"status\": 200, \"user\": \"jim\", \"nested\": { \"a\": [1, 2] } }",
+                "hello world");
+
+        ClientMessage message = newMessage(entry.getMessage());
+        RepositoryEntryMqMessage.writeParsedEntry(message, entry);
+        assertTrue(RepositoryEntryMqMessage.isParsed(message));
+
+        // The message text is not sent twice and is left in the entry
+        assertEquals("hello world", entry.getMessage());
+        assertEquals("hello world", entry.toDBObject().get(RepositoryEntryBO.MESSAGE_FIELD_NAME));
+
+        // Consumers that do not know about parsed entries can still read the text
+        message.getBodyBuffer().resetReaderIndex();
+        String text = message.getBodyBuffer().readNullableSimpleString().toString();
+        assertEquals("hello world", text);
+
+        RepositoryEntryBO entry2 = RepositoryEntryMqMessage.readParsedEntry(message, text);
+        assertEquals(entry.getTimestamp(), entry2.getTimestamp());
+        assertEquals("log1", entry2.getSource());
+        assertEquals("127.0.0.1", entry2.getHost());
+        assertEquals(Severity.Error, entry2.getSeverity());
+        assertEquals("hello world", entry2.getMessage());
+        assertEquals(entry.getKeywords(), entry2.getKeywords());
+        assertNotNull(entry2.getSavedTimestamp());
+        assertFalse(entry2.isExistingRecord());
+
+        DBObject dbObject = entry2.toDBObject();
+        assertEquals(200, dbObject.get("status"));
+        assertEquals("jim", dbObject.get("user"));
+        assertEquals(2, ((List<?>) ((DBObject) dbObject.get("nested")).get("a")).size());
+        assertEquals(0, message.getBodyBuffer().readableBytes());
+    }
+
+    @Test
+    public void testNotParsed() throws Exception {
+        ClientMessage message = newMessage("hello");
+        assertFalse(RepositoryEntryMqMessage.isParsed(message));
+
+        message.putBooleanProperty(RepositoryEntryMqMessage.PARSED, false);
+        assertFalse(RepositoryEntryMqMessage.isParsed(message));
+    }
+}
@@ -0,0 +1,51 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * Tests the matching of existing indexes
+ */
+public class RepositoryIndexBuilderTest {
+
+    private static BasicDBObject keys(Object... nameValues) {
+        BasicDBObject keys = new BasicDBObject();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            keys.put((String) nameValues[i], nameValues[i + 1]);
+        }
+        return keys;
+    }
+
+    @Test
+    public void testIsSameKeys() {
+        assertTrue(RepositoryIndexBuilder.isSameKeys(keys("ts", 1), keys("ts", 1)));
+        assertTrue(RepositoryIndexBuilder.isSameKeys(keys("ts", 1.0), keys("ts", 1)));
+        assertTrue(RepositoryIndexBuilder.isSameKeys(keys("keywords", 1, "ts", 1), keys("keywords", 1.0, "ts", 1L)));
+
+        assertFalse(RepositoryIndexBuilder.isSameKeys(keys("ts", -1), keys("ts", 1)));
+        assertFalse(RepositoryIndexBuilder.isSameKeys(keys("ts", 1, "severity", 1), keys("ts", 1)));
+        assertFalse(RepositoryIndexBuilder.isSameKeys(keys("ts", 1, "severity", 1), keys("severity", 1, "ts", 1)));
+        assertFalse(RepositoryIndexBuilder.isSameKeys(keys("message", "text"), keys("message", 1)));
+    }
+}
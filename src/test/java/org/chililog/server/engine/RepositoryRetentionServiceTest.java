@@ -0,0 +1,80 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.junit.Test;
+
+/**
+ * Tests the rules used to remove expired repository entries
+ */
+public class RepositoryRetentionServiceTest {
+
+    @Test
+    public void testKeepForever() {
+        RepositoryConfigBO repoConfig = new RepositoryConfigBO();
+        assertTrue(RepositoryRetentionService.getRetentionRules(repoConfig).isEmpty());
+
+        repoConfig.setStorageRetentionDays(Severity.Debug, 0);
+        assertTrue(RepositoryRetentionService.getRetentionRules(repoConfig).isEmpty());
+    }
+
+    @Test
+    public void testSeverityRules() {
+        RepositoryConfigBO repoConfig = new RepositoryConfigBO();
+        repoConfig.setStorageRetentionDays(30);
+        repoConfig.setStorageRetentionDays(Severity.Debug, 2);
+        repoConfig.setStorageRetentionDays(Severity.Error, 90);
+        repoConfig.setStorageRetentionDays(Severity.Emergency, 0);
+
+        assertEquals(2, repoConfig.getStorageRetentionDays(Severity.Debug));
+        assertEquals(30, repoConfig.getStorageRetentionDays(Severity.Information));
+
+        TreeMap<Long, ArrayList<Severity>> rules = RepositoryRetentionService.getRetentionRules(repoConfig);
+        assertEquals(4, rules.size());
+        assertEquals(0L, (long) rules.firstKey());
+        assertEquals(90L, (long) rules.lastKey());
+        assertEquals(1, rules.get(0L).size());
+        assertEquals(Severity.Emergency, rules.get(0L).get(0));
+        assertEquals(Severity.Debug, rules.get(2L).get(0));
+        assertEquals(5, rules.get(30L).size());
+        assertEquals(Severity.Error, rules.get(90L).get(0));
+    }
+
+    @Test
+    public void testRateLimiter() {
+        RepositoryRetentionService.RateLimiter limiter = new RepositoryRetentionService.RateLimiter(0);
+        assertEquals(0, limiter.acquire(1000000));
+
+        limiter = new RepositoryRetentionService.RateLimiter(1000);
+        long start = System.currentTimeMillis();
+        limiter.acquire(100);
+        limiter.acquire(100);
+        limiter.acquire(100);
+        assertTrue(System.currentTimeMillis() - start >= 250);
+        assertTrue(limiter.getWait(start) >= 250);
+        assertEquals(0, limiter.getWait(start + 1000));
+    }
+}
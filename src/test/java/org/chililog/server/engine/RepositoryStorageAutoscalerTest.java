@@ -0,0 +1,80 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests the decisions made by the storage worker autoscaler
+ */
+public class RepositoryStorageAutoscalerTest {
+
+    @Test
+    public void testFirstSample() {
+        RepositoryStorageAutoscaler.Sample sample = new RepositoryStorageAutoscaler.Sample();
+
+        // No decision until we have something to compare with
+        assertEquals(0, sample.update(100000, 100000, 0, 1000));
+        assertEquals(100000, sample.getMessageCount());
+    }
+
+    @Test
+    public void testScaleUp() {
+        RepositoryStorageAutoscaler.Sample sample = new RepositoryStorageAutoscaler.Sample();
+        sample.update(5000, 5000, 0, 1000);
+
+        // Backlog growing
+        assertEquals(1, sample.update(8000, 10000, 10000, 1000));
+
+        // Backlog shrinking but too slowly
+        assertEquals(1, sample.update(7000, 12000, 20000, 1000));
+
+        // Backlog shrinking fast enough
+        assertEquals(0, sample.update(4000, 12000, 30000, 1000));
+
+        // Nothing consumed
+        assertEquals(1, sample.update(4000, 12000, 40000, 1000));
+
+        // Backlog below threshold
+        assertEquals(0, sample.update(900, 12000, 50000, 1000));
+        assertEquals(0, sample.update(950, 12050, 60000, 1000));
+    }
+
+    @Test
+    public void testScaleDown() {
+        RepositoryStorageAutoscaler.Sample sample = new RepositoryStorageAutoscaler.Sample();
+        sample.update(10, 10, 0, 1000);
+
+        for (int i = 1; i < RepositoryStorageAutoscaler.IDLE_SAMPLES; i++) {
+            assertEquals(0, sample.update(0, 10, i * 10000, 1000));
+        }
+        assertEquals(-1, sample.update(0, 10, 100000, 1000));
+
+        // Idle count is reset after scaling down
+        assertEquals(0, sample.update(0, 10, 110000, 1000));
+
+        // Idle count is reset by messages arriving
+        sample.update(5, 15, 120000, 1000);
+        for (int i = 1; i < RepositoryStorageAutoscaler.IDLE_SAMPLES; i++) {
+            assertEquals(0, sample.update(0, 15, 120000 + i * 10000, 1000));
+        }
+    }
+}
@@ -0,0 +1,217 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.chililog.server.data.RepositoryConfigBO;
+import org.hornetq.api.core.client.ClientMessage;
+import org.hornetq.api.core.client.MessageHandler;
+import org.hornetq.core.client.impl.ClientMessageImpl;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the sharing of storage threads between repositories
+ */
+public class RepositoryStorageSchedulerTest {
+
+    @After
+    public void cleanup() {
+        RepositoryStorageScheduler.getInstance().stop();
+        RepositoryStorageScheduler.getInstance().setThreadCount(0);
+    }
+
+    private static Repository newRepository(String name, long weight) {
+        RepositoryConfigBO repoConfig = new RepositoryConfigBO();
+        repoConfig.setName(name);
+        repoConfig.setStorageQueueWeight(weight);
+        repoConfig.setStorageQueueBatchSize(10);
+        repoConfig.setStorageQueueBatchLinger(0);
+        return new Repository(repoConfig);
+    }
+
+    @Test
+    public void testRunAll() throws Exception {
+        Repository repo = newRepository("scheduler_test1", 1);
+        final CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 100; i++) {
+            RepositoryStorageScheduler.getInstance().schedule(repo, new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            }, 0);
+            RepositoryStorageScheduler.getInstance().schedule(repo, new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            }, 10);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, RepositoryStorageScheduler.getInstance().getQueuedTaskCount());
+    }
+
+    /**
+     * Repositories should share a storage thread in proportion to their weights; not their number of consumers
+     */
+    @Test
+    public void testFairness() throws Exception {
+        RepositoryStorageScheduler.getInstance().setThreadCount(1);
+
+        Repository hotRepo = newRepository("scheduler_test_hot", 3);
+        Repository coldRepo = newRepository("scheduler_test_cold", 1);
+        CountingSession hotSession = new CountingSession("hot", hotRepo);
+        CountingSession coldSession = new CountingSession("cold", coldRepo);
+
+        RepositoryStorageConsumer[] consumers = new RepositoryStorageConsumer[] {
+                new RepositoryStorageConsumer("hot", hotRepo, hotSession),
+                new RepositoryStorageConsumer("cold1", coldRepo, coldSession),
+                new RepositoryStorageConsumer("cold2", coldRepo, coldSession) };
+        Feeder[] feeders = new Feeder[consumers.length];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i].start();
+            feeders[i] = new Feeder(consumers[i]);
+            feeders[i].start();
+        }
+
+        try {
+            // Wait for the backlogs to build up
+            Thread.sleep(500);
+            assertTrue(hotSession.batches.get() > 0);
+            assertTrue(coldSession.batches.get() > 0);
+
+            int hotStart = hotSession.batches.get();
+            int coldStart = coldSession.batches.get();
+            Thread.sleep(1000);
+            int hotBatches = hotSession.batches.get() - hotStart;
+            int coldBatches = coldSession.batches.get() - coldStart;
+
+            // Expect 3:1. Cold has twice as many consumers but it must not get more than its weight.
+            assertTrue(coldBatches > 0);
+            assertTrue(String.format("hot=%s cold=%s", hotBatches, coldBatches), hotBatches > coldBatches * 2);
+        } finally {
+            for (int i = 0; i < consumers.length; i++) {
+                feeders[i].stopFeeding();
+                consumers[i].stop();
+            }
+        }
+    }
+
+    /**
+     * A consumer's delayed task is discarded when the scheduler is stopped. The consumer should schedule again once
+     * the scheduler has been restarted.
+     */
+    @Test
+    public void testRestart() throws Exception {
+        Repository repo = newRepository("scheduler_test_restart", 1);
+        repo.getRepoConfig().setStorageQueueBatchLinger(200);
+        CountingSession session = new CountingSession("restart", repo);
+        RepositoryStorageConsumer consumer = new RepositoryStorageConsumer("restart", repo, session);
+        consumer.start();
+
+        try {
+            // Not a full batch so it lingers
+            consumer.onMessage(new ClientMessageImpl());
+            RepositoryStorageScheduler.getInstance().stop();
+
+            consumer.onMessage(new ClientMessageImpl());
+            for (int i = 0; i < 50 && session.messages.get() < 2; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(2, session.messages.get());
+        } finally {
+            consumer.stop();
+        }
+    }
+
+    /**
+     * Counts batches instead of writing them
+     */
+    private static class CountingSession extends RepositoryStorageSession {
+        AtomicInteger batches = new AtomicInteger(0);
+        AtomicInteger messages = new AtomicInteger(0);
+
+        CountingSession(String name, Repository repo) throws Exception {
+            super(name, repo);
+        }
+
+        @Override
+        void open(MessageHandler handler) {
+        }
+
+        @Override
+        boolean isStopped() {
+            return false;
+        }
+
+        @Override
+        boolean processBatch(List<ClientMessage> batch) {
+            batches.incrementAndGet();
+            messages.addAndGet(batch.size());
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+
+        @Override
+        void restart() {
+        }
+
+        @Override
+        void stop() {
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+    /**
+     * Delivers messages to a consumer as fast as it will take them
+     */
+    private static class Feeder extends Thread {
+        private RepositoryStorageConsumer _consumer;
+        private volatile boolean _isFeeding = true;
+
+        Feeder(RepositoryStorageConsumer consumer) {
+            _consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            while (_isFeeding) {
+                _consumer.onMessage(new ClientMessageImpl());
+            }
+        }
+
+        void stopFeeding() throws InterruptedException {
+            _isFeeding = false;
+            join();
+        }
+    }
+}
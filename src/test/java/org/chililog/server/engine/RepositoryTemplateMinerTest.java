@@ -0,0 +1,250 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryEntryBO;
+import org.chililog.server.data.RepositoryTemplateController;
+import org.chililog.server.engine.RepositoryTemplateMiner.TemplateVersion;
+import org.junit.Test;
+
+/**
+ * Tests the grouping of messages into templates
+ */
+public class RepositoryTemplateMinerTest {
+
+    private static RepositoryTemplateMiner newMiner() {
+        RepositoryConfigBO repoConfig = new RepositoryConfigBO();
+        repoConfig.setName("template_test");
+        return new RepositoryTemplateMiner(repoConfig);
+    }
+
+    private static RepositoryEntryBO mine(RepositoryTemplateMiner miner, String message) {
+        RepositoryEntryBO entry = new RepositoryEntryBO();
+        entry.setMessage(message);
+        miner.mine(entry);
+        return entry;
+    }
+
+    private static ArrayList<String> getVariables(RepositoryTemplateMiner miner, String message) {
+        ArrayList<String> variables = new ArrayList<String>();
+        miner.mine(RepositoryTemplateMiner.tokenize(message), variables);
+        return variables;
+    }
+
+    @Test
+    public void testTokenize() {
+        assertEquals(Arrays.asList("a", "bb", "c"), RepositoryTemplateMiner.tokenize("  a \tbb\n c  "));
+        assertEquals(Arrays.asList("abc"), RepositoryTemplateMiner.tokenize("abc"));
+        assertTrue(RepositoryTemplateMiner.tokenize("").isEmpty());
+        assertTrue(RepositoryTemplateMiner.tokenize("   ").isEmpty());
+        assertTrue(RepositoryTemplateMiner.tokenize(null).isEmpty());
+    }
+
+    @Test
+    public void testMine() {
+        RepositoryTemplateMiner miner = newMiner();
+
+        RepositoryEntryBO e1 = mine(miner, "User 12 logged in from 10.0.0.1");
+        assertNotNull(e1.getTemplateId());
+        assertEquals("User 12 logged in from 10.0.0.1", miner.getTemplate(e1.getTemplateId()));
+
+        // Variable parts become wildcards
+        RepositoryEntryBO e2 = mine(miner, "User 34 logged in from 10.0.0.2");
+        assertEquals(e1.getTemplateId(), e2.getTemplateId());
+        assertEquals("User <*> logged in from <*>", miner.getTemplate(e1.getTemplateId()));
+
+        RepositoryEntryBO e3 = mine(miner, "User 56 logged in from 10.0.0.3");
+        assertEquals(e1.getTemplateId(), e3.getTemplateId());
+        assertEquals(Arrays.asList("56", "10.0.0.3"), getVariables(miner, "User 56 logged in from 10.0.0.3"));
+
+        // Different number of tokens
+        RepositoryEntryBO e4 = mine(miner, "User 56 logged out");
+        assertFalse(e1.getTemplateId().equals(e4.getTemplateId()));
+
+        // Same number of tokens but not similar enough
+        RepositoryEntryBO e5 = mine(miner, "User 78 failed to log on");
+        assertFalse(e1.getTemplateId().equals(e5.getTemplateId()));
+        assertEquals("User 78 failed to log on", miner.getTemplate(e5.getTemplateId()));
+
+        // Leading tokens without digits are used to look up templates
+        RepositoryEntryBO e6 = mine(miner, "Disk sda full");
+        RepositoryEntryBO e7 = mine(miner, "Memory sda full");
+        assertFalse(e6.getTemplateId().equals(e7.getTemplateId()));
+
+        // Empty messages have their own template
+        RepositoryEntryBO e8 = mine(miner, "");
+        RepositoryEntryBO e9 = mine(miner, "  ");
+        assertEquals(e8.getTemplateId(), e9.getTemplateId());
+        assertEquals("", miner.getTemplate(e8.getTemplateId()));
+
+        assertEquals(6, miner.getTemplateCount());
+        assertNull(miner.getTemplate(999));
+    }
+
+    @Test
+    public void testLiteralWildcard() {
+        RepositoryTemplateMiner miner = newMiner();
+
+        // A token that looks like a wildcard is treated as one
+        RepositoryEntryBO e1 = mine(miner, "Got items <*>");
+        RepositoryEntryBO e2 = mine(miner, "Got items many");
+        assertEquals(e1.getTemplateId(), e2.getTemplateId());
+        assertEquals(Arrays.asList("many"), getVariables(miner, "Got items many"));
+    }
+
+    /**
+     * Messages of different shapes are mined in parallel. Each shape should still end up with exactly one template.
+     */
+    @Test
+    public void testParallel() throws Exception {
+        final RepositoryTemplateMiner miner = newMiner();
+        final int shapes = 20;
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        int shape = (i + seed) % shapes;
+                        mine(miner, "job" + (char) ('a' + shape) + " run " + (i * 31 + seed) + " took 5 ms");
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(shapes, miner.getTemplateCount());
+        RepositoryEntryBO entry = mine(miner, "jobc run 42 took 5 ms");
+        assertEquals("jobc run <*> took 5 ms", miner.getTemplate(entry.getTemplateId()));
+    }
+
+    @Test
+    public void testManyLeadingTokens() {
+        RepositoryTemplateMiner miner = newMiner();
+
+        // Once a node has too many branches, new tokens share the wildcard branch
+        for (int i = 0; i < RepositoryTemplateMiner.MAX_CHILDREN + 10; i++) {
+            mine(miner, "host" + (char) ('a' + i % 26) + (char) ('a' + i / 26) + " started ok");
+        }
+        RepositoryEntryBO e1 = mine(miner, "hostzz started ok");
+        RepositoryEntryBO e2 = mine(miner, "hostyy started ok");
+        assertEquals(e1.getTemplateId(), e2.getTemplateId());
+        assertEquals("<*> started ok", miner.getTemplate(e1.getTemplateId()));
+        assertEquals(RepositoryTemplateMiner.MAX_CHILDREN + 1, miner.getTemplateCount());
+    }
+
+    @Test
+    public void testIsNormalized() {
+        assertTrue(RepositoryTemplateMiner.isNormalized("a bb c"));
+        assertTrue(RepositoryTemplateMiner.isNormalized("abc"));
+        assertTrue(RepositoryTemplateMiner.isNormalized(""));
+        assertFalse(RepositoryTemplateMiner.isNormalized(" a"));
+        assertFalse(RepositoryTemplateMiner.isNormalized("a "));
+        assertFalse(RepositoryTemplateMiner.isNormalized("a  b"));
+        assertFalse(RepositoryTemplateMiner.isNormalized("a\tb"));
+        assertFalse(RepositoryTemplateMiner.isNormalized("a\nb"));
+        assertFalse(RepositoryTemplateMiner.isNormalized(null));
+    }
+
+    @Test
+    public void testVersions() {
+        RepositoryTemplateMiner miner = newMiner();
+
+        TemplateVersion v1 = miner.mine(RepositoryTemplateMiner.tokenize("Job 1 started on host1"), null);
+        assertEquals(1, v1.getVersion());
+        assertEquals("Job 1 started on host1", v1.getText());
+
+        // Each change to the template is a new version
+        ArrayList<String> variables = new ArrayList<String>();
+        TemplateVersion v2 = miner.mine(RepositoryTemplateMiner.tokenize("Job 2 started on host1"), variables);
+        assertEquals(v1.getId(), v2.getId());
+        assertEquals(2, v2.getVersion());
+        assertEquals("Job <*> started on host1", v2.getText());
+        assertEquals(Arrays.asList("2"), variables);
+
+        // Earlier versions do not change
+        assertEquals("Job 1 started on host1", v1.getText());
+
+        variables.clear();
+        TemplateVersion v3 = miner.mine(RepositoryTemplateMiner.tokenize("Job 3 started on host2"), variables);
+        assertEquals(3, v3.getVersion());
+        assertEquals(Arrays.asList("3", "host2"), variables);
+
+        // Matching without a change keeps the version
+        assertSame(v3, miner.mine(RepositoryTemplateMiner.tokenize("Job 4 started on host3"), null));
+
+        // Variables line up with the version they were mined against
+        assertEquals("Job 2 started on host1", RepositoryTemplateController.buildMessage(v2.getText(),
+                Arrays.asList("2")));
+        assertEquals("Job 3 started on host2", RepositoryTemplateController.buildMessage(v3.getText(),
+                Arrays.asList("3", "host2")));
+    }
+
+    @Test
+    public void testVariables() {
+        RepositoryTemplateMiner miner = newMiner();
+        mine(miner, "Order 100 shipped to Sydney");
+
+        // Entries keep the keywords of their variables plus source, host and severity
+        RepositoryEntryBO entry = new RepositoryEntryBO();
+        entry.setMessage("Order 200 shipped to Melbourne");
+        entry.setKeywords(new ArrayList<String>(Arrays.asList("order", "200", "shipped", "melbourne", "s=log1",
+                "h=localhost", "v=6")));
+        miner.mine(entry);
+        assertNotNull(entry.getTemplateId());
+        assertEquals(Long.valueOf(2), entry.getTemplateVersion());
+        assertEquals(Arrays.asList("200", "Melbourne"), entry.getTemplateVariables());
+        assertEquals(Arrays.asList("200", "melbourne", "s=log1", "h=localhost", "v=6"), entry.getKeywords());
+        assertEquals("Order 200 shipped to Melbourne", RepositoryTemplateController.buildMessage(
+                miner.getTemplate(entry.getTemplateId()), entry.getTemplateVariables()));
+
+        // Messages that cannot be rebuilt keep their message and keywords
+        entry = new RepositoryEntryBO();
+        entry.setMessage("Order 300  shipped to Perth");
+        entry.setKeywords(new ArrayList<String>(Arrays.asList("order", "300", "shipped", "perth")));
+        miner.mine(entry);
+        assertNotNull(entry.getTemplateId());
+        assertNull(entry.getTemplateVersion());
+        assertNull(entry.getTemplateVariables());
+        assertEquals(4, entry.getKeywords().size());
+    }
+
+    @Test
+    public void testCount() {
+        RepositoryTemplateMiner miner = newMiner();
+
+        ArrayList<RepositoryEntryBO> entries = new ArrayList<RepositoryEntryBO>();
+        entries.add(mine(miner, "Connection 1 closed"));
+        entries.add(mine(miner, "Connection 2 closed"));
+        entries.add(new RepositoryEntryBO());
+
+        // Entries without templates are ignored
+        miner.count(entries);
+        assertEquals(1, miner.getTemplateCount());
+    }
+}
@@ -19,6 +19,7 @@
 package org.chililog.server.engine;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.regex.Pattern;
 
@@ -35,8 +36,10 @@ import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
 import org.chililog.server.data.RepositoryParserConfigBO.ParseFieldErrorHandling;
 import org.chililog.server.engine.MqService;
 import org.chililog.server.engine.Repository;
+import org.chililog.server.engine.RepositoryIndexBuilder;
 import org.chililog.server.engine.RepositoryService;
 import org.chililog.server.engine.RepositoryStorageWorker;
+import org.chililog.server.engine.RepositoryIndexBuilder.BuildStatus;
 import org.chililog.server.engine.parsers.DelimitedEntryParser;
 import org.hornetq.api.core.HornetQException;
 import org.hornetq.api.core.Message;
@@ -236,6 +239,259 @@ public class RepositoryTest {
         MqService.getInstance().stop();
     }
 
+    @Test
+    public void testBatchInsert() throws Exception {
+        SimpleDateFormat sf = RepositoryEntryMqMessage.getDateFormatter();
+
+        // Start with batching turned on
+        _repoConfig.setStorageQueueBatchSize(100);
+        _repoConfig.setStorageQueueBatchLinger(200);
+        MqService.getInstance().start();
+        Repository repo = new Repository(_repoConfig);
+        repo.bringOnline();
+        assertEquals(Status.ONLINE, repo.getStatus());
+
+        // Write 1,000 repository entries. Every 100th entry cannot be parsed because field2 is not an integer.
+        ClientSession producerSession = MqService.getInstance().getTransactionalClientSession(PUBLISHER_USERNAME,
+                PUBLISHER_PASSWORD);
+
+        String queueAddress = _repoConfig.getPubSubAddress();
+        ClientProducer producer = producerSession.createProducer(queueAddress);
+
+        for (int i = 1; i <= 1000; i++) {
+            ClientMessage message = producerSession.createMessage(Message.TEXT_TYPE, false);
+            message.putStringProperty(RepositoryEntryMqMessage.TIMESTAMP, sf.format(new Date()));
+            message.putStringProperty(RepositoryEntryMqMessage.SOURCE, "RepositoryTest");
+            message.putStringProperty(RepositoryEntryMqMessage.HOST, "localhost");
+            message.putStringProperty(RepositoryEntryMqMessage.SEVERITY, "3");
+            String entry1 = "line" + i + (i % 100 == 0 ? "|x" : "|2") + "|3|4.4|2001-5-5 5:5:5|True";
+            message.getBodyBuffer().writeNullableSimpleString(SimpleString.toSimpleString(entry1));
+            producer.send(message);
+        }
+        producerSession.commit();
+
+        // Wait for threads to process
+        Thread.sleep(5000);
+
+        // Make sure that we've processed all the messages
+        QueueControl qc = MqService.getInstance().getQueueControl(repo.getRepoConfig().getPubSubAddress(),
+                repo.getRepoConfig().getStorageQueueName());
+        assertEquals(0, qc.getMessageCount());
+
+        // Make sure the good ones are in the database
+        DBCollection coll = _db.getCollection(MONGODB_COLLECTION_NAME);
+        assertEquals(990, coll.find().count());
+
+        // Stop
+        repo.takeOffline();
+        assertEquals(Status.OFFLINE, repo.getStatus());
+        MqService.getInstance().stop();
+
+        // Reset batching
+        _repoConfig.setStorageQueueBatchSize(1);
+        _repoConfig.setStorageQueueBatchLinger(0);
+    }
+
+    @Test
+    public void testStoragePipeline() throws Exception {
+        SimpleDateFormat sf = RepositoryEntryMqMessage.getDateFormatter();
+
+        // Start with the storage pipeline turned on
+        _repoConfig.setStorageQueueBatchSize(100);
+        _repoConfig.setStorageQueueBatchLinger(200);
+        _repoConfig.setStoragePipelineIndicator(true);
+        MqService.getInstance().start();
+        Repository repo = new Repository(_repoConfig);
+        repo.bringOnline();
+        assertEquals(Status.ONLINE, repo.getStatus());
+        assertNotNull(repo.getStoragePipeline());
+
+        // Write 1,000 repository entries. Every 100th entry cannot be parsed because field2 is not an integer.
+        ClientSession producerSession = MqService.getInstance().getTransactionalClientSession(PUBLISHER_USERNAME,
+                PUBLISHER_PASSWORD);
+
+        String queueAddress = _repoConfig.getPubSubAddress();
+        ClientProducer producer = producerSession.createProducer(queueAddress);
+
+        for (int i = 1; i <= 1000; i++) {
+            ClientMessage message = producerSession.createMessage(Message.TEXT_TYPE, false);
+            message.putStringProperty(RepositoryEntryMqMessage.TIMESTAMP, sf.format(new Date()));
+            message.putStringProperty(RepositoryEntryMqMessage.SOURCE, "RepositoryTest");
+            message.putStringProperty(RepositoryEntryMqMessage.HOST, "localhost");
+            message.putStringProperty(RepositoryEntryMqMessage.SEVERITY, "3");
+            String entry1 = "line" + i + (i % 100 == 0 ? "|x" : "|2") + "|3|4.4|2001-5-5 5:5:5|True";
+            message.getBodyBuffer().writeNullableSimpleString(SimpleString.toSimpleString(entry1));
+            producer.send(message);
+        }
+        producerSession.commit();
+
+        // Wait for threads to process
+        Thread.sleep(5000);
+
+        // Make sure that we've processed all the messages
+        QueueControl qc = MqService.getInstance().getQueueControl(repo.getRepoConfig().getPubSubAddress(),
+                repo.getRepoConfig().getStorageQueueName());
+        assertEquals(0, qc.getMessageCount());
+
+        // Make sure the good ones are in the database
+        DBCollection coll = _db.getCollection(MONGODB_COLLECTION_NAME);
+        assertEquals(990, coll.find().count());
+        assertTrue(repo.getStoragePipeline().getParseLatency() > 0);
+        assertTrue(repo.getStoragePipeline().getWriteLatency() > 0);
+
+        // Stop
+        repo.takeOffline();
+        assertEquals(Status.OFFLINE, repo.getStatus());
+        assertNull(repo.getStoragePipeline());
+        MqService.getInstance().stop();
+
+        // Reset
+        _repoConfig.setStorageQueueBatchSize(1);
+        _repoConfig.setStorageQueueBatchLinger(0);
+        _repoConfig.setStoragePipelineIndicator(false);
+    }
+
+    @Test
+    public void testStorageConsumer() throws Exception {
+        SimpleDateFormat sf = RepositoryEntryMqMessage.getDateFormatter();
+
+        // Start without storage workers so that our consumers get all the messages
+        _repoConfig.setStorageQueueWorkerCount(0);
+        _repoConfig.setStorageQueueBatchSize(50);
+        _repoConfig.setStorageQueueBatchLinger(100);
+        MqService.getInstance().start();
+        Repository repo = new Repository(_repoConfig);
+        repo.bringOnline();
+        assertEquals(Status.ONLINE, repo.getStatus());
+        assertEquals(0, repo.getStorageWorkers().size());
+
+        ArrayList<RepositoryStorageConsumer> consumers = new ArrayList<RepositoryStorageConsumer>();
+        for (int i = 1; i <= 3; i++) {
+            RepositoryStorageConsumer consumer = new RepositoryStorageConsumer("RepositoryTest Consumer #" + i, repo);
+            consumer.start();
+            assertTrue(consumer.isRunning());
+            consumers.add(consumer);
+        }
+
+        // Write 1,000 repository entries
+        ClientSession producerSession = MqService.getInstance().getTransactionalClientSession(PUBLISHER_USERNAME,
+                PUBLISHER_PASSWORD);
+
+        String queueAddress = _repoConfig.getPubSubAddress();
+        ClientProducer producer = producerSession.createProducer(queueAddress);
+
+        for (int i = 1; i <= 1000; i++) {
+            ClientMessage message = producerSession.createMessage(Message.TEXT_TYPE, false);
+            message.putStringProperty(RepositoryEntryMqMessage.TIMESTAMP, sf.format(new Date()));
+            message.putStringProperty(RepositoryEntryMqMessage.SOURCE, "RepositoryTest");
+            message.putStringProperty(RepositoryEntryMqMessage.HOST, "localhost");
+            message.putStringProperty(RepositoryEntryMqMessage.SEVERITY, "3");
+            String entry1 = "line" + i + "|2|3|4.4|2001-5-5 5:5:5|True";
+            message.getBodyBuffer().writeNullableSimpleString(SimpleString.toSimpleString(entry1));
+            producer.send(message);
+        }
+        producerSession.commit();
+
+        // Wait for the scheduler to process
+        Thread.sleep(5000);
+
+        // Make sure that we've processed all the messages
+        QueueControl qc = MqService.getInstance().getQueueControl(repo.getRepoConfig().getPubSubAddress(),
+                repo.getRepoConfig().getStorageQueueName());
+        assertEquals(0, qc.getMessageCount());
+
+        DBCollection coll = _db.getCollection(MONGODB_COLLECTION_NAME);
+        assertEquals(1000, coll.find().count());
+
+        // Stop
+        for (RepositoryStorageConsumer consumer : consumers) {
+            consumer.stop();
+            assertFalse(consumer.isRunning());
+        }
+        repo.takeOffline();
+        assertEquals(Status.OFFLINE, repo.getStatus());
+        RepositoryStorageScheduler.getInstance().stop();
+        MqService.getInstance().stop();
+
+        // Reset
+        _repoConfig.setStorageQueueWorkerCount(2);
+        _repoConfig.setStorageQueueBatchSize(1);
+        _repoConfig.setStorageQueueBatchLinger(0);
+    }
+
+    @Test
+    public void testAddRemoveStorageWorkers() throws Exception {
+        _repoConfig.setStorageQueueWorkerCount(1);
+        _repoConfig.setStorageQueueMaxWorkerCount(3);
+        MqService.getInstance().start();
+        Repository repo = new Repository(_repoConfig);
+        repo.bringOnline();
+        assertEquals(1, repo.getStorageWorkerCount());
+
+        // Cannot go above maximum
+        assertTrue(repo.addStorageWorker());
+        assertTrue(repo.addStorageWorker());
+        assertFalse(repo.addStorageWorker());
+        assertEquals(3, repo.getStorageWorkerCount());
+
+        // Cannot go below minimum
+        assertTrue(repo.removeStorageWorker());
+        assertTrue(repo.removeStorageWorker());
+        assertFalse(repo.removeStorageWorker());
+        assertEquals(1, repo.getStorageWorkerCount());
+
+        // Cannot add when not online
+        repo.takeOffline();
+        assertFalse(repo.addStorageWorker());
+        assertEquals(0, repo.getStorageWorkerCount());
+        MqService.getInstance().stop();
+
+        // Reset
+        _repoConfig.setStorageQueueWorkerCount(2);
+        _repoConfig.setStorageQueueMaxWorkerCount(0);
+    }
+
+    @Test
+    public void testIndexes() throws Exception {
+        RepositoryFieldConfigBO field1 = _repoConfig.getParsers().get(0).getFields().get(0);
+        field1.setIndexIndicator(true);
+        MqService.getInstance().start();
+
+        // An operator has already indexed the timestamp under mongoDB's default name
+        _db.getCollection(MONGODB_COLLECTION_NAME).ensureIndex(new BasicDBObject("ts", 1));
+
+        Repository repo = new Repository(_repoConfig);
+        assertNull(repo.getIndexBuilder());
+        repo.bringOnline();
+
+        // Indexes are built in the background
+        RepositoryIndexBuilder indexBuilder = repo.getIndexBuilder();
+        for (int i = 0; i < 100 && indexBuilder.getStatus() != BuildStatus.COMPLETE; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(BuildStatus.COMPLETE, indexBuilder.getStatus());
+        assertEquals(4, indexBuilder.getIndexCount());
+        assertEquals(4, indexBuilder.getIndexesBuilt());
+        assertEquals(0, indexBuilder.getIndexesFailed());
+        assertNull(indexBuilder.getErrorMessage());
+
+        ArrayList<String> names = new ArrayList<String>();
+        for (DBObject index : _db.getCollection(MONGODB_COLLECTION_NAME).getIndexInfo()) {
+            names.add((String) index.get("name"));
+        }
+        assertTrue(names.contains("ts_1"));
+        assertFalse(names.contains("ts_index"));
+        assertTrue(names.contains("ts_severity_index"));
+        assertTrue(names.contains("keyword_ts_index"));
+        assertTrue(names.contains("fld_field1_ts_index"));
+
+        repo.takeOffline();
+        MqService.getInstance().stop();
+
+        // Reset
+        field1.setIndexIndicator(false);
+    }
+
     @Test
     public void testUpdateRepositoryConfig() throws Exception {
         SimpleDateFormat sf = RepositoryEntryMqMessage.getDateFormatter();
@@ -193,4 +193,49 @@ public class DefaultEntryParserTest {
         // Should only be 1 entry
         assertEquals(1, coll.find().count());
     }
+
+    @Test
+    public void testPreparsedFieldsForEachEntry() throws ChiliLogException {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("default_test");
+        repoInfo.setDisplayName("Default Test 1");
+
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName("parser1");
+        repoParserInfo.setAppliesTo(AppliesTo.All);
+        repoParserInfo.setClassName(DefaultEntryParser.class.getName());
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipEntry);
+        repoInfo.getParsers().add(repoParserInfo);
+
+        DefaultEntryParser p = new DefaultEntryParser(repoInfo, repoParserInfo);
+
+        // Each entry gets its own fields
+        RepositoryEntryBO entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Critical.toString(),
+                "{ \"fld_field1\": 1, \"fld_field2\": \"abc\" }", "hello");
+        assertNotNull(entry);
+        DBObject dbObject = entry.toDBObject();
+        assertEquals(1, dbObject.get("fld_field1"));
+        assertEquals("abc", dbObject.get("fld_field2"));
+
+        entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Critical.toString(),
+                "{ \"fld_field1\": 2 }", "hello");
+        assertNotNull(entry);
+        dbObject = entry.toDBObject();
+        assertEquals(2, dbObject.get("fld_field1"));
+        assertFalse(dbObject.containsField("fld_field2"));
+
+        // Invalid fields skip the entry but do not affect the next one
+        entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Critical.toString(),
+                "{ \"fld_field1\": { \"a\": [1, ", "hello");
+        assertNull(entry);
+        assertNotNull(p.getLastParseError());
+
+        entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Critical.toString(),
+                "{ \"fld_field3\": true }", "hello");
+        assertNotNull(entry);
+        dbObject = entry.toDBObject();
+        assertEquals(true, dbObject.get("fld_field3"));
+        assertFalse(dbObject.containsField("fld_field1"));
+        assertFalse(dbObject.containsField("a"));
+    }
 }
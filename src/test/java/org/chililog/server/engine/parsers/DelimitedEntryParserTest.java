@@ -247,4 +247,48 @@ public class DelimitedEntryParserTest {
         assertNotNull(p.getLastParseError());
     }
 
+    @Test
+    public void testQuotedFields() throws ChiliLogException, ParseException {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("junit_test");
+        repoInfo.setDisplayName("JUnit Test 1");
+
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName("parser1");
+        repoParserInfo.setAppliesTo(AppliesTo.All);
+        repoParserInfo.setClassName(DelimitedEntryParser.class.getName());
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipEntry);
+        repoParserInfo.getProperties().put(DelimitedEntryParser.DELIMITER_PROPERTY_NAME, ",");
+        repoParserInfo.getProperties().put(DelimitedEntryParser.QUOTE_PROPERTY_NAME, "\"");
+        repoParserInfo.getProperties().put(DelimitedEntryParser.ESCAPE_PROPERTY_NAME, "\\");
+        repoInfo.getParsers().add(repoParserInfo);
+
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("field1");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.String);
+        repoFieldInfo.getProperties().put(DelimitedEntryParser.POSITION_FIELD_PROPERTY_NAME, "2");
+        repoParserInfo.getFields().add(repoFieldInfo);
+
+        repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("field2");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.Integer);
+        repoFieldInfo.getProperties().put(DelimitedEntryParser.POSITION_FIELD_PROPERTY_NAME, "4");
+        repoParserInfo.getFields().add(repoFieldInfo);
+
+        DelimitedEntryParser p = new DelimitedEntryParser(repoInfo, repoParserInfo);
+
+        RepositoryEntryBO entry = p.parse("2001-5-5T01:02:03.001Z", "log1", "127.0.0.1", Severity.Critical.toString(),
+                null, "a,\"GET /index.html?x=1,2 \"\"q\"\"\",c\\,d,200,not,parsed,\"unclosed");
+        assertNotNull(entry);
+        DBObject dbObject = entry.toDBObject();
+        assertEquals("GET /index.html?x=1,2 \"q\"", dbObject.get("fld_field1"));
+        assertEquals(200, dbObject.get("fld_field2"));
+
+        // Missing field
+        entry = p.parse("2001-5-5T01:02:03.001Z", "log1", "127.0.0.1", Severity.Critical.toString(), null,
+                "a,\"b,c,200\"");
+        assertNull(entry);
+        assertNotNull(p.getLastParseError());
+    }
+
 }
@@ -0,0 +1,156 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.Log4JLogger;
+import org.junit.Test;
+
+/**
+ * Test splitting delimited log entries
+ *
+ * @author vibul
+ *
+ */
+public class DelimitedFieldExtractorTest {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(DelimitedFieldExtractorTest.class);
+
+    private static List<String> extractAll(DelimitedFieldExtractor extractor, String message) {
+        ArrayList<String> fields = new ArrayList<String>();
+        int count = extractor.extract(message);
+        assertEquals(count, extractor.getFieldCount());
+        for (int i = 0; i < count; i++) {
+            fields.add(extractor.getString(i));
+        }
+        return fields;
+    }
+
+    @Test
+    public void testSameAsStringUtilsSplit() {
+        String[] messages = new String[] { "a|b|c", "|a||b|||c|", "a", "", "|||", "line1|2|3|4.4|2001-5-5 5:5:5|True",
+                " a | b ", "a\"|\"b" };
+        for (String delimiter : new String[] { "|", ",;" }) {
+            DelimitedFieldExtractor extractor = new DelimitedFieldExtractor(delimiter, null, null, 100);
+            for (String message : messages) {
+                message = message.replace('|', delimiter.charAt(delimiter.length() - 1));
+                assertEquals(message, Arrays.asList(StringUtils.split(message, delimiter)), extractAll(extractor,
+                        message));
+            }
+        }
+
+        Random random = new Random(1);
+        DelimitedFieldExtractor extractor = new DelimitedFieldExtractor("|,", null, null, 1000);
+        char[] chars = "ab |,\"\\".toCharArray();
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(100);
+            for (int j = 0; j < length; j++) {
+                sb.append(chars[random.nextInt(chars.length)]);
+            }
+            String message = sb.toString();
+            assertEquals(message, Arrays.asList(StringUtils.split(message, "|,")), extractAll(extractor, message));
+        }
+
+        assertEquals(0, extractor.extract(null));
+    }
+
+    @Test
+    public void testStopAfterLastField() {
+        DelimitedFieldExtractor extractor = new DelimitedFieldExtractor("|", null, null, 2);
+        assertEquals(2, extractor.extract("a|b|c|d"));
+        assertEquals("a", extractor.getString(0));
+        assertEquals("b", extractor.getString(1));
+
+        assertEquals(1, extractor.extract("a"));
+        assertNull(extractor.getString(1));
+    }
+
+    @Test
+    public void testQuotes() {
+        DelimitedFieldExtractor extractor = new DelimitedFieldExtractor(",", "\"", null, 100);
+        assertEquals(Arrays.asList("a", "b,c", "d"), extractAll(extractor, "a,\"b,c\",d"));
+        assertEquals(Arrays.asList("a", "", "d"), extractAll(extractor, "a,\"\",d"));
+        assertEquals(Arrays.asList("say \"hi\"", "x"), extractAll(extractor, "\"say \"\"hi\"\"\",x"));
+        assertEquals(Arrays.asList("ab\"c\"", "x"), extractAll(extractor, "ab\"c\",x"));
+        assertEquals(Arrays.asList("quotedtail", "x"), extractAll(extractor, "\"quoted\"tail,x"));
+        assertEquals(Arrays.asList("a", "unclosed,x"), extractAll(extractor, "a,\"unclosed,x"));
+
+        // Quote and escape the same is the same as no escape
+        extractor = new DelimitedFieldExtractor(",", "\"", "\"", 100);
+        assertEquals(Arrays.asList("say \"hi\"", "x"), extractAll(extractor, "\"say \"\"hi\"\"\",x"));
+    }
+
+    @Test
+    public void testEscape() {
+        DelimitedFieldExtractor extractor = new DelimitedFieldExtractor(",", "'", "\\", 100);
+        assertEquals(Arrays.asList("a,b", "c"), extractAll(extractor, "a\\,b,c"));
+        assertEquals(Arrays.asList("it's", "c"), extractAll(extractor, "'it\\'s',c"));
+        assertEquals(Arrays.asList("a\\", "b"), extractAll(extractor, "a\\\\,b"));
+        assertEquals(Arrays.asList("a\\"), extractAll(extractor, "a\\"));
+    }
+
+    /**
+     * Compare the speed of getting 3 fields out of a 40 field line with StringUtils.split()
+     */
+    @Test
+    public void testSpeed() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sb.append("field").append(i).append("value,");
+        }
+        String message = sb.toString();
+        final int count = 100000;
+        DelimitedFieldExtractor extractor = new DelimitedFieldExtractor(",", "\"", null, 5);
+
+        // Warm up
+        long checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += StringUtils.split(message, ",")[4].length();
+            extractor.extract(message);
+            checksum -= extractor.getLength(4);
+        }
+        assertEquals(0, checksum);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            String[] ss = StringUtils.split(message, ",");
+            checksum += ss[0].length() + ss[2].length() + ss[4].length();
+        }
+        long splitNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            extractor.extract(message);
+            checksum -= extractor.getLength(0) + extractor.getLength(2) + extractor.getLength(4);
+        }
+        long extractNanos = Math.max(1, System.nanoTime() - start);
+        assertEquals(0, checksum);
+
+        _logger.info("Extracted 3 of 40 fields %s times. StringUtils.split: %s ns/op. DelimitedFieldExtractor: "
+                + "%s ns/op.", count, splitNanos / count, extractNanos / count);
+    }
+}
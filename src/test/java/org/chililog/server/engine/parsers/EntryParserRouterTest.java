@@ -0,0 +1,136 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import static org.junit.Assert.*;
+
+import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryParserConfigBO;
+import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
+import org.junit.Test;
+
+/**
+ * Test selection of parsers by source and host
+ *
+ * @author vibul
+ *
+ */
+public class EntryParserRouterTest {
+
+    private static RepositoryParserConfigBO addParser(RepositoryConfigBO repoInfo,
+                                                      String name,
+                                                      AppliesTo appliesTo,
+                                                      String sourceFilter,
+                                                      String hostFilter) {
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName(name);
+        repoParserInfo.setAppliesTo(appliesTo);
+        repoParserInfo.setAppliesToSourceFilter(sourceFilter);
+        repoParserInfo.setAppliesToHostFilter(hostFilter);
+        repoParserInfo.setClassName(DefaultEntryParser.class.getName());
+        repoInfo.getParsers().add(repoParserInfo);
+        return repoParserInfo;
+    }
+
+    private static RepositoryConfigBO newRepoInfo() {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("junit_test");
+        repoInfo.setDisplayName("JUnit Test 1");
+
+        addParser(repoInfo, "regex1", AppliesTo.AllowFilteredRegularExpression, "^web.*$", null);
+        addParser(repoInfo, "csv1", AppliesTo.AllowFilteredCSV, "App1, svc", "host1");
+        addParser(repoInfo, "regex2", AppliesTo.AllowFilteredRegularExpression, null, "^db[0-9]+$");
+        addParser(repoInfo, "csv2", AppliesTo.AllowFilteredCSV, "web2,app2", "host2,db1");
+        addParser(repoInfo, "none", AppliesTo.None, "app3", null);
+        addParser(repoInfo, "all", AppliesTo.All, null, null);
+        return repoInfo;
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        EntryParserRouter router = new EntryParserRouter(newRepoInfo());
+
+        assertEquals("regex1", router.getParser("webserver", "host1").getRepoParserInfo().getName());
+        assertEquals("regex1", router.getParser("web2", "host2").getRepoParserInfo().getName());
+        assertEquals("csv1", router.getParser("app1", "unknown").getRepoParserInfo().getName());
+        assertEquals("csv1", router.getParser("SVC", null).getRepoParserInfo().getName());
+        assertEquals("csv1", router.getParser("unknown", "HOST1").getRepoParserInfo().getName());
+        assertEquals("regex2", router.getParser(null, "db1").getRepoParserInfo().getName());
+        assertEquals("csv2", router.getParser("app2", "host9").getRepoParserInfo().getName());
+        assertEquals("csv2", router.getParser("", "host2").getRepoParserInfo().getName());
+        assertEquals("all", router.getParser("app3", "host3").getRepoParserInfo().getName());
+        assertEquals("all", router.getParser(null, null).getRepoParserInfo().getName());
+
+        // Cached results are the same
+        assertEquals("csv1", router.getParser("app1", "unknown").getRepoParserInfo().getName());
+        assertEquals("all", router.getParser("app3", "host3").getRepoParserInfo().getName());
+    }
+
+    /**
+     * Routing should give the same result as checking each parser in turn
+     */
+    @Test
+    public void testSameAsLinearScan() throws Exception {
+        RepositoryConfigBO repoInfo = newRepoInfo();
+        EntryParserRouter router = new EntryParserRouter(repoInfo);
+
+        String[] sources = new String[] { null, "", "web", "webserver", "WEB2", "app1", "svc", "app2", "app3", "x" };
+        String[] hosts = new String[] { null, "", "host1", "Host2", "db1", "db22", "dbx", "y" };
+        for (String source : sources) {
+            for (String host : hosts) {
+                String expected = "all";
+                for (RepositoryParserConfigBO repoParserInfo : repoInfo.getParsers()) {
+                    if (repoParserInfo.getAppliesTo() == AppliesTo.AllowFilteredCSV
+                            || repoParserInfo.getAppliesTo() == AppliesTo.AllowFilteredRegularExpression) {
+                        EntryParser p = EntryParserFactory.getParser(repoInfo, repoParserInfo);
+                        if (p.isApplicable(source, host)) {
+                            expected = repoParserInfo.getName();
+                            break;
+                        }
+                    }
+                }
+                assertEquals(source + "/" + host, expected, router.getParser(source, host).getRepoParserInfo()
+                        .getName());
+            }
+        }
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        EntryParserRouter router = new EntryParserRouter(newRepoInfo());
+
+        for (int i = 0; i < EntryParserRouter.MAX_CACHE_SIZE * 2; i++) {
+            assertEquals("all", router.getParser("source" + i, "server" + i).getRepoParserInfo().getName());
+        }
+        assertEquals(EntryParserRouter.MAX_CACHE_SIZE, router.getCacheSize());
+
+        router.clearCache();
+        assertEquals(0, router.getCacheSize());
+    }
+
+    @Test
+    public void testNoFilteredParsers() throws Exception {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("junit_test");
+        EntryParserRouter router = new EntryParserRouter(repoInfo);
+
+        assertTrue(router.getParser("source", "host") instanceof DefaultEntryParser);
+        assertEquals(0, router.getCacheSize());
+    }
+}
@@ -24,6 +24,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.text.ParseException;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
@@ -493,6 +494,31 @@ public class FieldParserTest {
         assertEquals(d, p.parse("xxxxx"));
     }
 
+    @Test
+    public void testParseDateIso8601() throws Exception {
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("field1");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.Date);
+        repoFieldInfo.getProperties().put(RepositoryFieldConfigBO.DATE_FORMAT_PROPERTY_NAME,
+                "yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+        DateFieldParser p = new DateFieldParser(repoFieldInfo);
+
+        GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(2011, 0, 2, 3, 4, 5);
+        cal.set(Calendar.MILLISECOND, 678);
+        assertEquals(cal.getTime(), p.parse("2011-01-02T03:04:05.678Z"));
+        assertEquals(cal.getTime(), p.parse("2011-01-02T13:04:05.678+1000"));
+
+        try {
+            p.parse("2011-01-02");
+            fail();
+        } catch (Exception ex) {
+            assertEquals(ParseException.class, ex.getClass());
+        }
+    }
+
     @Test
     public void testParseDateFormatTimezone() throws Exception {
         RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
@@ -522,6 +548,54 @@ public class FieldParserTest {
         assertEquals(d, p.parse("2011-01-02 03:04:05,123"));
     }
 
+    /**
+     * Parsing a field in a character buffer must give the same result as parsing it as a string
+     */
+    @Test
+    public void testParseCharRange() throws Exception {
+        String[] values = new String[] { "123", " 123 ", "-123", "+123", "0", "-0", "00012", "2147483647",
+                "2147483648", "-2147483648", "-2147483649", "9223372036854775807", "9223372036854775808",
+                "-9223372036854775808", "123456789012345678", "1234567890123456789", "123.45", "-0.5", ".5", "5.",
+                "1.2.3", "1e10", "0.000000000000000000001", "0.1234567890123456789", "3.14159265358979",
+                "123456789012345", "1234567890123456", "NaN", "abc", "", " ", "-", ".", "true", "True", "TRUE",
+                "tRuE", " true", "truex", "false", "t" };
+
+        RepositoryFieldConfigBO.DataType[] dataTypes = new RepositoryFieldConfigBO.DataType[] {
+                RepositoryFieldConfigBO.DataType.Integer, RepositoryFieldConfigBO.DataType.Long,
+                RepositoryFieldConfigBO.DataType.Double, RepositoryFieldConfigBO.DataType.Boolean,
+                RepositoryFieldConfigBO.DataType.String };
+
+        for (RepositoryFieldConfigBO.DataType dataType : dataTypes) {
+            for (int withDefault = 0; withDefault < 2; withDefault++) {
+                RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+                repoFieldInfo.setName("field1");
+                repoFieldInfo.setDataType(dataType);
+                if (withDefault == 1) {
+                    repoFieldInfo.getProperties().put(RepositoryFieldConfigBO.DEFAULT_VALUE_PROPERTY_NAME,
+                            dataType == RepositoryFieldConfigBO.DataType.Boolean ? "true" : "1");
+                }
+                FieldParser p = FieldParserFactory.getParser(repoFieldInfo);
+
+                for (String value : values) {
+                    char[] buffer = ("xx" + value + "yy").toCharArray();
+                    Object expected;
+                    try {
+                        expected = p.parse(value);
+                    } catch (Exception ex) {
+                        expected = ex.getClass();
+                    }
+                    Object actual;
+                    try {
+                        actual = p.parse(buffer, 2, value.length());
+                    } catch (Exception ex) {
+                        actual = ex.getClass();
+                    }
+                    assertEquals(dataType + " '" + value + "'", expected, actual);
+                }
+            }
+        }
+    }
+
     @Test
     public void testPreParsingExamples() {
         // Strip white spaces
@@ -0,0 +1,107 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import static org.junit.Assert.*;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.common.Log4JLogger;
+import org.junit.Test;
+
+/**
+ * Test InterruptibleCharSequence
+ *
+ * @author vibul
+ *
+ */
+public class InterruptibleCharSequenceTest {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(InterruptibleCharSequenceTest.class);
+
+    @Test
+    public void testMatches() {
+        InterruptibleCharSequence text = new InterruptibleCharSequence(1000);
+        assertTrue(text.isLimited());
+        assertEquals(1000, text.getTimeoutMilliseconds());
+
+        Matcher m = Pattern.compile("^([0-9]+) user=(.*)$").matcher("");
+        m.reset(text.reset("123 user=bob"));
+        assertTrue(m.matches());
+        assertEquals("123", m.group(1));
+        assertEquals("bob", m.group(2));
+
+        // Reused for the next match
+        m.reset(text.reset("abc user=bob"));
+        assertFalse(m.matches());
+        assertEquals("abc user=bob", text.toString());
+        assertEquals(12, text.length());
+
+        // Long text that matches in time
+        String longText = StringUtils.repeat("x", 100000);
+        m = Pattern.compile("x+").matcher("");
+        m.reset(text.reset(longText));
+        assertTrue(m.matches());
+    }
+
+    @Test
+    public void testUnlimited() {
+        InterruptibleCharSequence text = new InterruptibleCharSequence(0);
+        assertFalse(text.isLimited());
+
+        // No wrapping when there is no limit
+        String s = "abc";
+        assertSame(s, text.reset(s));
+    }
+
+    /**
+     * Catastrophic backtracking is stopped shortly after the time limit
+     */
+    @Test
+    public void testTimeout() {
+        String evilText = StringUtils.repeat("a", 40) + "!";
+        Matcher m = Pattern.compile("(a+)+b").matcher("");
+        InterruptibleCharSequence text = new InterruptibleCharSequence(100);
+
+        long start = System.nanoTime();
+        try {
+            m.reset(text.reset(evilText));
+            m.matches();
+            fail();
+        } catch (RegexTimeoutException ex) {
+            assertEquals(100, ex.getTimeoutMilliseconds());
+            assertTrue(RegexTimeoutException.isCause(new ChiliLogException(ex, "x")));
+        }
+        long elapsedMilliseconds = (System.nanoTime() - start) / 1000000;
+        _logger.info("Catastrophic pattern stopped after %s milliseconds with a limit of 100 milliseconds",
+                elapsedMilliseconds);
+        assertTrue(elapsedMilliseconds < 1000);
+
+        // Clock restarts for each match
+        m = Pattern.compile("a+").matcher("");
+        m.reset(text.reset(evilText.substring(0, 40)));
+        assertTrue(m.matches());
+
+        assertFalse(RegexTimeoutException.isCause(new Exception()));
+        assertFalse(RegexTimeoutException.isCause(null));
+    }
+}
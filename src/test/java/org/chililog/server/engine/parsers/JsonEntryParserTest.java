@@ -31,10 +31,12 @@ import org.chililog.server.data.MongoConnection;
 import org.chililog.server.data.RepositoryEntryBO;
 import org.chililog.server.data.RepositoryEntryController;
 import org.chililog.server.data.RepositoryConfigBO;
+import org.chililog.server.data.RepositoryFieldConfigBO;
 import org.chililog.server.data.RepositoryParserConfigBO;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
 import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
 import org.chililog.server.data.RepositoryParserConfigBO.ParseFieldErrorHandling;
+import org.chililog.server.engine.Strings;
 import org.chililog.server.engine.parsers.JsonEntryParser;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -172,4 +174,48 @@ public class JsonEntryParserTest {
         assertNotNull(p.getLastParseError());
     }
 
+    @Test
+    public void testFields() throws ChiliLogException {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("json_test");
+        repoInfo.setDisplayName("Json Test 3");
+
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName("parser1");
+        repoParserInfo.setAppliesTo(AppliesTo.All);
+        repoParserInfo.setClassName(JsonEntryParser.class.getName());
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipEntry);
+        repoInfo.getParsers().add(repoParserInfo);
+
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("status");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.Integer);
+        repoParserInfo.getFields().add(repoFieldInfo);
+
+        // Configured fields are parsed as their data type and stored under the same key
+        JsonEntryParser p = new JsonEntryParser(repoInfo, repoParserInfo);
+        RepositoryEntryBO entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Error.toString(),
+                null, "{ \"status\": \"200\", \"other\": \"200\" }");
+        assertNotNull(entry);
+        DBObject dbObject = entry.toDBObject();
+        assertEquals(200, dbObject.get("status"));
+        assertEquals("200", dbObject.get("other"));
+
+        // Field error skips the entry
+        entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Error.toString(), null,
+                "{ \"status\": \"abc\", \"other\": \"200\" }");
+        assertNull(entry);
+        assertEquals(Strings.PARSER_FIELD_ERROR_SKIP_ENTRY, ((ChiliLogException) p.getLastParseError()).getErrorCode());
+
+        // Field error skips the field
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipField);
+        p = new JsonEntryParser(repoInfo, repoParserInfo);
+        entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Error.toString(), null,
+                "{ \"status\": \"abc\", \"other\": \"200\" }");
+        assertNotNull(entry);
+        dbObject = entry.toDBObject();
+        assertFalse(dbObject.containsField("status"));
+        assertEquals("200", dbObject.get("other"));
+    }
+
 }
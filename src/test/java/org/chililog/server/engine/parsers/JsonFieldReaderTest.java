@@ -0,0 +1,226 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import static org.junit.Assert.*;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.chililog.server.common.Log4JLogger;
+import org.chililog.server.data.MongoJsonParser;
+import org.chililog.server.data.RepositoryFieldConfigBO;
+import org.chililog.server.data.RepositoryFieldConfigBO.DataType;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Test JsonFieldReader
+ *
+ * @author vibul
+ *
+ */
+public class JsonFieldReaderTest {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(JsonFieldReaderTest.class);
+
+    private static final Pattern DATE_PATTERN = Pattern
+            .compile("^([0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}Z)$");
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+    private static final Pattern LONG_NUMBER_PATTERN = Pattern.compile("^NumberLong\\(([0-9]+)\\)$");
+
+    private static final String[] SAMPLES = new String[] {
+            "{}",
+            "{ \"a\": 1, \"b\": -2, \"c\": +3, \"d\": 8888888888, \"e\": -123456789, \"f\": 5.5, \"g\": 1e3 }",
+            "{ \"a\": 1.5E-3, \"b\": 0, \"c\": 123456789 }",
+            "{ \"a\": \"abc\", \"b\": true, \"c\": false, \"d\": null, \"e\": \"\" , \"f\": \"  \"}",
+            "{ 'a': 'single quotes', \"b\": \"it's\" }",
+            "{ \"a\": \"line\\nbreak\\ttab\\\\slash\\\"quote\\/\\u0041\\u00e9\" }",
+            "{ \"a\": \"NumberLong(888)\", \"b\": \"2010-11-29T19:41:46Z\", \"c\": \"2010-11-29T19:41:46\" }",
+            "{ \"a\": { \"b\": { \"c\": [1, \"two\", 3.0, [], {}] } }, \"d\": [] }",
+            "{ \"a\": { \"$oid\": \"4d2d2c9d0b2f2a0e2c000001\" }, \"b\": { \"$oidx\": 1 } }",
+            "{ \"a\": 1, \"b\": 2, }",
+            "{\"a\":1}  trailing text is ignored",
+            "  {\n\t\"a\" :\r\n 1 \n}  " };
+
+    private static JsonFieldReader newReader(String[] fieldNames, FieldParser[] fieldParsers) {
+        return new JsonFieldReader(fieldNames, fieldParsers, DATE_PATTERN, DATE_FORMAT, LONG_NUMBER_PATTERN);
+    }
+
+    private static FieldParser newFieldParser(String name, DataType dataType) throws ParseException {
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName(name);
+        repoFieldInfo.setDataType(dataType);
+        return FieldParserFactory.getParser(repoFieldInfo);
+    }
+
+    @Test
+    public void testSameAsMongoJsonParser() throws ParseException {
+        JsonFieldReader reader = newReader(new String[] {}, new FieldParser[] {});
+        for (String json : SAMPLES) {
+            MongoJsonParser parser = new MongoJsonParser(json, DATE_PATTERN, DATE_FORMAT, LONG_NUMBER_PATTERN);
+            DBObject expected = (DBObject) parser.parse();
+            BasicDBObject actual = reader.read(json);
+            assertEquals(json, expected, actual);
+            assertEquals(json, expected.toString(), actual.toString());
+            assertTrue(reader.getFieldErrors().isEmpty());
+        }
+
+        // Without date sniffing
+        String json = "{ \"a\": { \"$date\": \"2010-11-29T19:41:46Z\" }, \"b\": \"2010-11-29T19:41:46Z\" }";
+        JsonFieldReader plainReader = new JsonFieldReader(new String[] {}, new FieldParser[] {}, null, null, null);
+        BasicDBObject o = plainReader.read(json);
+        assertEquals(new MongoJsonParser(json).parse(), o);
+        assertTrue(o.get("a") instanceof Date);
+        assertEquals("2010-11-29T19:41:46Z", o.get("b"));
+
+        // Types
+        o = reader.read(SAMPLES[1]);
+        assertEquals(Integer.valueOf(1), o.get("a"));
+        assertEquals(Integer.valueOf(3), o.get("c"));
+        assertEquals(Long.valueOf(8888888888L), o.get("d"));
+        assertEquals(Long.valueOf(-123456789L), o.get("e"));
+        assertEquals(Double.valueOf(1000), o.get("g"));
+
+        o = reader.read(SAMPLES[6]);
+        assertEquals(Long.valueOf(888), o.get("a"));
+        assertTrue(o.get("b") instanceof Date);
+        assertEquals("2010-11-29T19:41:46", o.get("c"));
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] values = new String[] { "xxx", "", "[1, 2]", "{", "{ \"a\" }", "{ \"a\": }", "{ \"a\": 1 \"b\": 2 }",
+                "{ \"a\": \"unterminated }", "{ \"a\": tru }", "{ \"a\": [1 2] }", "{ \"a\": \"\\u00zz\" }",
+                "{ a: 1 }" };
+        JsonFieldReader reader = newReader(new String[] {}, new FieldParser[] {});
+        for (String json : values) {
+            try {
+                reader.read(json);
+                fail(json);
+            } catch (ParseException ex) {
+                // expected
+            }
+        }
+
+        // Same as before
+        try {
+            reader.read("{ \"a\": 1.2.3 }");
+            fail();
+        } catch (Exception ex) {
+            assertTrue(ex instanceof NumberFormatException);
+        }
+    }
+
+    @Test
+    public void testKnownFields() throws ParseException {
+        String[] fieldNames = new String[] { "status", "code", "elapsed", "ok", "when" };
+        FieldParser[] fieldParsers = new FieldParser[] { newFieldParser("status", DataType.Integer),
+                newFieldParser("code", DataType.String), newFieldParser("elapsed", DataType.Long),
+                newFieldParser("ok", DataType.Boolean), newFieldParser("when", DataType.String) };
+        JsonFieldReader reader = newReader(fieldNames, fieldParsers);
+
+        BasicDBObject o = reader.read("{ \"status\": \"200\", \"code\": 404, \"elapsed\": 12, \"ok\": \"true\", "
+                + "\"when\": \"2010-11-29T19:41:46Z\", \"other\": \"2010-11-29T19:41:46Z\", "
+                + "\"nested\": { \"status\": \"200\" } }");
+        assertEquals(Integer.valueOf(200), o.get("status"));
+        assertEquals("404", o.get("code"));
+        assertEquals(Long.valueOf(12), o.get("elapsed"));
+        assertEquals(Boolean.TRUE, o.get("ok"));
+
+        // Known string field is not sniffed for dates but unknown fields still are
+        assertEquals("2010-11-29T19:41:46Z", o.get("when"));
+        assertTrue(o.get("other") instanceof Date);
+
+        // Only top level keys are fields
+        assertEquals("200", ((DBObject) o.get("nested")).get("status"));
+        assertTrue(reader.getFieldErrors().isEmpty());
+
+        // Null and structures are kept as is
+        o = reader.read("{ \"status\": null, \"code\": [1, 2], \"elapsed\": { \"a\": 1 } }");
+        assertTrue(o.containsField("status"));
+        assertNull(o.get("status"));
+        assertEquals(2, ((List<?>) o.get("code")).size());
+        assertEquals(1, ((DBObject) o.get("elapsed")).get("a"));
+    }
+
+    @Test
+    public void testFieldErrors() throws ParseException {
+        JsonFieldReader reader = newReader(new String[] { "status" },
+                new FieldParser[] { newFieldParser("status", DataType.Integer) });
+
+        BasicDBObject o = reader.read("{ \"status\": \"abc\", \"other\": 1 }");
+        assertFalse(o.containsField("status"));
+        assertEquals(1, o.get("other"));
+        assertEquals(1, reader.getFieldErrors().size());
+        assertEquals("status", reader.getFieldErrors().get(0).getFieldName());
+        assertEquals("abc", reader.getFieldErrors().get(0).getValue());
+        assertNotNull(reader.getFieldErrors().get(0).getError());
+
+        // Errors are cleared for the next entry
+        o = reader.read("{ \"status\": 1 }");
+        assertEquals(1, o.get("status"));
+        assertTrue(reader.getFieldErrors().isEmpty());
+    }
+
+    /**
+     * Compare the speed of reading a typical JSON log entry with MongoJsonParser
+     */
+    @Test
+    public void testSpeed() throws ParseException {
+        final int count = 100000;
+        String json = "{ \"ts\": \"2011-09-24T12:34:43Z\", \"level\": \"INFO\", \"logger\": \"com.example.Service\", "
+                + "\"thread\": \"pool-1-thread-3\", \"user\": \"jim\", \"status\": 200, \"elapsed_ms\": 35, "
+                + "\"bytes\": 12345678901, \"path\": \"/api/v1/orders\", \"msg\": \"Order created\" }";
+        JsonFieldReader reader = newReader(
+                new String[] { "status", "elapsed_ms" },
+                new FieldParser[] { newFieldParser("status", DataType.Integer),
+                        newFieldParser("elapsed_ms", DataType.Integer) });
+
+        // Warm up
+        int checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += ((DBObject) new MongoJsonParser(json, DATE_PATTERN, DATE_FORMAT, LONG_NUMBER_PATTERN).parse())
+                    .keySet().size();
+            checksum -= reader.read(json).keySet().size();
+        }
+        assertEquals(0, checksum);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            checksum += ((DBObject) new MongoJsonParser(json, DATE_PATTERN, DATE_FORMAT, LONG_NUMBER_PATTERN).parse())
+                    .keySet().size();
+        }
+        long slowNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            checksum -= reader.read(json).keySet().size();
+        }
+        long fastNanos = Math.max(1, System.nanoTime() - start);
+        assertEquals(0, checksum);
+
+        _logger.info("Read %s JSON entries. MongoJsonParser: %s ns/op. JsonFieldReader: %s ns/op.", count, slowNanos
+                / count, fastNanos / count);
+    }
+}
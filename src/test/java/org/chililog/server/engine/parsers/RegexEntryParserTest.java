@@ -25,8 +25,11 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.TimeZone;
 
+import org.apache.commons.lang.StringUtils;
+
 import org.chililog.server.common.ChiliLogException;
 import org.chililog.server.data.MongoConnection;
 import org.chililog.server.data.RepositoryEntryBO;
@@ -37,7 +40,9 @@ import org.chililog.server.data.RepositoryParserConfigBO;
 import org.chililog.server.data.RepositoryEntryBO.Severity;
 import org.chililog.server.data.RepositoryParserConfigBO.AppliesTo;
 import org.chililog.server.data.RepositoryParserConfigBO.ParseFieldErrorHandling;
+import org.chililog.server.engine.Strings;
 import org.chililog.server.engine.parsers.RegexEntryParser;
+import org.chililog.server.engine.parsers.EntryParserMetrics.FieldMetrics;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -249,4 +254,126 @@ public class RegexEntryParserTest {
         assertNotNull(p.getLastParseError());
     }
 
+    @Test
+    public void testFieldPatterns() throws ChiliLogException, ParseException {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("regex_test");
+        repoInfo.setDisplayName("JUnit Test 1");
+
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName("field_patterns");
+        repoParserInfo.setAppliesTo(AppliesTo.All);
+        repoParserInfo.setClassName(RegexEntryParser.class.getName());
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipField);
+        repoInfo.getParsers().add(repoParserInfo);
+
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("user");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.String);
+        repoFieldInfo.getProperties().put(RegexEntryParser.PATTERN_FIELD_PROPERTY_NAME,
+                "^\\[LOGIN\\] user=([a-z]+) ms=([0-9]+)$");
+        repoFieldInfo.getProperties().put(RegexEntryParser.GROUP_FIELD_PROPERTY_NAME, "1");
+        repoParserInfo.getFields().add(repoFieldInfo);
+
+        repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("ms");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.Integer);
+        repoFieldInfo.getProperties().put(RegexEntryParser.PATTERN_FIELD_PROPERTY_NAME,
+                "^\\[LOGIN\\] user=([a-z]+) ms=([0-9]+)$");
+        repoFieldInfo.getProperties().put(RegexEntryParser.GROUP_FIELD_PROPERTY_NAME, "2");
+        repoParserInfo.getFields().add(repoFieldInfo);
+
+        repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("code");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.Integer);
+        repoFieldInfo.getProperties().put(RegexEntryParser.PATTERN_FIELD_PROPERTY_NAME, ".* code=([0-9]+)");
+        repoFieldInfo.getProperties().put(RegexEntryParser.GROUP_FIELD_PROPERTY_NAME, "1");
+        repoParserInfo.getFields().add(repoFieldInfo);
+
+        RegexEntryParser p = new RegexEntryParser(repoInfo, repoParserInfo);
+
+        RepositoryEntryBO entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Error.toString(),
+                null, "[LOGIN] user=jim ms=123");
+        assertNotNull(entry);
+        DBObject dbObject = entry.toDBObject();
+        assertEquals("jim", dbObject.get("fld_user"));
+        assertEquals(123, dbObject.get("fld_ms"));
+        assertFalse(dbObject.containsField("fld_code"));
+
+        entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Error.toString(), null,
+                "[LOGOUT] user=jim code=200");
+        assertNotNull(entry);
+        dbObject = entry.toDBObject();
+        assertNull(dbObject.get("fld_user"));
+        assertFalse(dbObject.containsField("fld_ms"));
+        assertEquals(200, dbObject.get("fld_code"));
+
+        // Each field's cost is recorded
+        List<FieldMetrics> metrics = EntryParserMetrics.getInstance("regex_test", "field_patterns").getFields();
+        assertEquals(3, metrics.size());
+        assertEquals("user", metrics.get(0).getName());
+        assertEquals(2, metrics.get(0).getCount());
+        assertEquals(1, metrics.get(0).getPrefilterRejects());
+        assertEquals(1, metrics.get(0).getUnmatched());
+        assertEquals(1, metrics.get(1).getPrefilterRejects());
+        assertEquals("code", metrics.get(2).getName());
+        assertEquals(1, metrics.get(2).getPrefilterRejects());
+        assertEquals(1, metrics.get(2).getUnmatched());
+    }
+
+    @Test
+    public void testRegexTimeout() throws ChiliLogException, ParseException {
+        RepositoryConfigBO repoInfo = new RepositoryConfigBO();
+        repoInfo.setName("regex_test");
+        repoInfo.setDisplayName("JUnit Test 1");
+
+        RepositoryParserConfigBO repoParserInfo = new RepositoryParserConfigBO();
+        repoParserInfo.setName("regex_timeout");
+        repoParserInfo.setAppliesTo(AppliesTo.AllowFilteredRegularExpression);
+        repoParserInfo.setAppliesToSourceFilter("(a+)+b");
+        repoParserInfo.setClassName(RegexEntryParser.class.getName());
+        repoParserInfo.setParseFieldErrorHandling(ParseFieldErrorHandling.SkipFieldIgnoreError);
+        repoParserInfo.setRegexTimeoutMilliseconds(50);
+        repoParserInfo.getProperties().put(RegexEntryParser.PATTERN_PROPERTY_NAME, "(a+)+b");
+        repoInfo.getParsers().add(repoParserInfo);
+
+        RepositoryFieldConfigBO repoFieldInfo = new RepositoryFieldConfigBO();
+        repoFieldInfo.setName("a");
+        repoFieldInfo.setDataType(RepositoryFieldConfigBO.DataType.String);
+        repoFieldInfo.getProperties().put(RegexEntryParser.GROUP_FIELD_PROPERTY_NAME, "1");
+        repoParserInfo.getFields().add(repoFieldInfo);
+
+        RegexEntryParser p = new RegexEntryParser(repoInfo, repoParserInfo);
+        assertEquals(50, p.getRegexTimeoutMilliseconds());
+        EntryParserMetrics metrics = EntryParserMetrics.getInstance("regex_test", "regex_timeout");
+        long timeouts = metrics.getRegexTimeouts();
+
+        // Matches in time
+        RepositoryEntryBO entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Error.toString(),
+                null, "aaab");
+        assertNotNull(entry);
+        assertEquals("aaa", entry.toDBObject().get("fld_a"));
+        assertTrue(p.isApplicable("aab", "127.0.0.1"));
+
+        // Catastrophic backtracking skips the entry even though field errors are ignored. The text contains "b" so
+        // that it gets past the prefilter.
+        String evilText = StringUtils.repeat("a", 40) + "!b";
+        entry = p.parse("2010-11-29T19:41:46.0Z", "log1", "127.0.0.1", Severity.Error.toString(), null, evilText);
+        assertNull(entry);
+        assertTrue(p.getLastParseError() instanceof ChiliLogException);
+        assertEquals(Strings.PARSER_REGEX_TIMEOUT_ERROR, ((ChiliLogException) p.getLastParseError()).getErrorCode());
+        assertTrue(RegexTimeoutException.isCause(p.getLastParseError()));
+        assertEquals(timeouts + 1, metrics.getRegexTimeouts());
+
+        // Source filter
+        try {
+            p.isApplicable(evilText, "127.0.0.1");
+            fail();
+        } catch (RegexTimeoutException ex) {
+            assertEquals(50, ex.getTimeoutMilliseconds());
+            assertTrue(ex.getMessage().contains("regex_timeout"));
+        }
+        assertEquals(timeouts + 2, metrics.getRegexTimeouts());
+    }
+
 }
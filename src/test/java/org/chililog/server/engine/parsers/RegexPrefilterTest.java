@@ -0,0 +1,146 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.engine.parsers;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.chililog.server.common.Log4JLogger;
+import org.junit.Test;
+
+/**
+ * Test finding the literal text required by regular expressions
+ *
+ * @author vibul
+ *
+ */
+public class RegexPrefilterTest {
+
+    private static Log4JLogger _logger = Log4JLogger.getLogger(RegexPrefilterTest.class);
+
+    @Test
+    public void testLiterals() {
+        RegexPrefilter f = RegexPrefilter.compile("^\\[ERROR\\] ([0-9]+) user=(.*)$");
+        assertEquals("[ERROR] ", f.getPrefix());
+        assertEquals(" user=", f.getRequired());
+
+        f = RegexPrefilter.compile("GET /index.html");
+        assertEquals("GET /index", f.getPrefix());
+        assertEquals("html", f.getRequired());
+
+        f = RegexPrefilter.compile("GET .*");
+        assertEquals("GET ", f.getPrefix());
+        assertNull(f.getRequired());
+
+        f = RegexPrefilter.compile("abc?d+e*fghij");
+        assertEquals("ab", f.getPrefix());
+        assertEquals("fghij", f.getRequired());
+
+        f = RegexPrefilter.compile("[a-z]+ code=\\d{3}");
+        assertNull(f.getPrefix());
+        assertEquals(" code=", f.getRequired());
+
+        f = RegexPrefilter.compile("\\p{Alpha}+ \\x{41}{2}xyz\\u0041");
+        assertNull(f.getPrefix());
+        assertEquals("xyz", f.getRequired());
+
+        f = RegexPrefilter.compile("(a|b)[]x]zz(?:c(d)[(])?yy");
+        assertEquals("zz", f.getRequired());
+
+        // Nothing required
+        assertNull(RegexPrefilter.compile(".*"));
+        assertNull(RegexPrefilter.compile("a|b"));
+        assertNull(RegexPrefilter.compile("(?i)error"));
+        assertNull(RegexPrefilter.compile("\\Qa.b\\E"));
+        assertNull(RegexPrefilter.compile("(a)\\1"));
+        assertNull(RegexPrefilter.compile("a?b*c{0,2}"));
+    }
+
+    /**
+     * The prefilter must never reject text that the regular expression matches
+     */
+    @Test
+    public void testNeverRejectsMatches() {
+        String[] regexes = new String[] { "^\\[ERROR\\] ([0-9]+) user=(.*)$", "ab+c", "a?b*c{0,2}d", "x.y\\.z",
+                "(ab|cd)ef", "[ab]+cd", "abc??d", "ab{1,3}c", "a+?b", "a\\sb", "\\Aab", "^ab$", "(?:ab)+c",
+                "a[b-d]*e", "\\d+-\\d+", "ab(?=c)c", "ab(?!x).", "a\\b b", "\\(a\\)" };
+        Random random = new Random(1);
+        char[] chars = "abcdefxyz.[]()0123456789-ERRO user= ".toCharArray();
+        for (String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex);
+            RegexPrefilter f = RegexPrefilter.compile(regex);
+            if (f == null) {
+                continue;
+            }
+            for (int i = 0; i < 20000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(12);
+                for (int j = 0; j < length; j++) {
+                    sb.append(chars[random.nextInt(chars.length)]);
+                }
+                String text = sb.toString();
+                if (pattern.matcher(text).matches()) {
+                    assertTrue(regex + " " + text, f.mayMatch(text));
+                }
+            }
+        }
+
+        String[] matches = new String[] { "[ERROR] 12 user=jim", "abbbc", "ccd", "x!y.z", "cdef", "babcd", "abd",
+                "abbbc", "aaab", "a b", "ab", "ab", "abababc", "abbde", "12-34", "abc", "abz", "a b", "(a)" };
+        assertEquals(regexes.length, matches.length);
+        for (int i = 0; i < regexes.length; i++) {
+            assertTrue(regexes[i] + " " + matches[i], Pattern.compile(regexes[i]).matcher(matches[i]).matches());
+            RegexPrefilter f = RegexPrefilter.compile(regexes[i]);
+            assertTrue(regexes[i] + " " + matches[i], f == null || f.mayMatch(matches[i]));
+        }
+    }
+
+    /**
+     * Compare the time to reject a line with the time to run the regular expression
+     */
+    @Test
+    public void testSpeed() {
+        String regex = "^([0-9]{4}-[0-9]{2}-[0-9]{2} [0-9:,]+) \\[([^\\]]+)\\] ERROR ([a-zA-Z0-9\\.]+) - (.*)$";
+        String line = "2011-03-26 15:32:22,376 [main] INFO com.chililog.server.common.ChiliLogExceptionTest - "
+                + "com.chililog.server.common.ChiliLogException: Test12";
+        Pattern pattern = Pattern.compile(regex);
+        RegexPrefilter f = RegexPrefilter.compile(regex);
+        assertFalse(f.mayMatch(line));
+        final int count = 100000;
+
+        int matched = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            matched += pattern.matcher(line).matches() ? 1 : 0;
+        }
+        long regexNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            matched += f.mayMatch(line) ? 1 : 0;
+        }
+        long prefilterNanos = Math.max(1, System.nanoTime() - start);
+        assertEquals(0, matched);
+
+        _logger.info("Rejected %s lines. Regular expression: %s ns/op. Prefilter: %s ns/op.", count, regexNanos
+                / count, prefilterNanos / count);
+    }
+}
@@ -0,0 +1,200 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.chililog.server.pubsub.jsonhttp.BinaryPublicationFormat;
+import org.chililog.server.pubsub.jsonhttp.BinaryPublicationRequestReader;
+import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
+import org.chililog.server.pubsub.jsonhttp.PublicationRequestAO;
+import org.chililog.server.pubsub.jsonhttp.PublicationResponseAO;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * Test the binary publication format
+ * 
+ * @author vibul
+ * 
+ */
+public class BinaryPublicationFormatTest {
+
+    private static PublicationRequestAO newRequest(int entryCount) {
+        PublicationRequestAO request = new PublicationRequestAO();
+        request.setMessageID("123");
+        request.setRepositoryName("junit_test");
+        request.setUsername("user1");
+        request.setPassword("token:abc");
+        LogEntryAO[] logEntries = new LogEntryAO[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            LogEntryAO logEntry = new LogEntryAO();
+            logEntry.setTimestamp("2011-01-01T00:00:0" + i + ".123Z");
+            logEntry.setSource("junit");
+            logEntry.setHost("localhost");
+            logEntry.setSeverity(Integer.toString(i));
+            logEntry.setMessage("message \u00e9\u4e2d " + i);
+            logEntries[i] = logEntry;
+        }
+        request.setLogEntries(logEntries);
+        return request;
+    }
+
+    @Test
+    public void testRequest() throws Exception {
+        PublicationRequestAO request = newRequest(3);
+        request.getLogEntries()[1].setFields("{ \"a\": 1 }");
+        request.getLogEntries()[2].setSource(null);
+        ChannelBuffer content = BinaryPublicationFormat.writeRequest(request);
+        int readerIndex = content.readerIndex();
+
+        BinaryPublicationRequestReader reader = new BinaryPublicationRequestReader(content);
+        PublicationRequestAO header = reader.readHeader();
+        assertEquals("123", header.getMessageID());
+        assertEquals("junit_test", header.getRepositoryName());
+        assertEquals("user1", header.getUsername());
+        assertEquals("token:abc", header.getPassword());
+        assertNull(header.getLogEntries());
+
+        LogEntryAO logEntry = new LogEntryAO();
+        for (int i = 0; i < 3; i++) {
+            LogEntryAO expected = request.getLogEntries()[i];
+            assertTrue(reader.readLogEntry(logEntry));
+            assertEquals(expected.getTimestamp(), logEntry.getTimestamp());
+            assertEquals(expected.getSource(), logEntry.getSource());
+            assertEquals("localhost", logEntry.getHost());
+            assertEquals(expected.getSeverity(), logEntry.getSeverity());
+            assertEquals(expected.getFields(), logEntry.getFields());
+            assertEquals(expected.getMessage(), logEntry.getMessage());
+        }
+        assertFalse(reader.readLogEntry(logEntry));
+        reader.close();
+
+        // Buffer is not consumed
+        assertEquals(readerIndex, content.readerIndex());
+    }
+
+    @Test
+    public void testHeaderAfterLogEntriesAndUnknownFields() throws Exception {
+        // Log entries first, then header, with unknown fields of each wire type in between
+        PublicationRequestAO entriesOnly = newRequest(2);
+        entriesOnly.setMessageID(null);
+        entriesOnly.setRepositoryName(null);
+        entriesOnly.setUsername(null);
+        entriesOnly.setPassword(null);
+        PublicationRequestAO header = new PublicationRequestAO();
+        header.setMessageID("456");
+        header.setRepositoryName("junit_test");
+        header.setUsername("user1");
+        header.setPassword("pw");
+
+        ChannelBuffer content = ChannelBuffers.dynamicBuffer();
+        content.writeBytes(BinaryPublicationFormat.writeRequest(entriesOnly));
+        content.writeByte((10 << 3) | 0); // varint
+        content.writeByte(0x96);
+        content.writeByte(0x01);
+        content.writeByte((11 << 3) | 1); // fixed64
+        content.writeLong(1);
+        content.writeByte((12 << 3) | 5); // fixed32
+        content.writeInt(1);
+        content.writeByte((13 << 3) | 2); // length delimited
+        content.writeByte(2);
+        content.writeShort(1);
+        content.writeBytes(BinaryPublicationFormat.writeRequest(header));
+
+        BinaryPublicationRequestReader reader = new BinaryPublicationRequestReader(content);
+        PublicationRequestAO readHeader = reader.readHeader();
+        assertEquals("456", readHeader.getMessageID());
+        assertEquals("pw", readHeader.getPassword());
+
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("message \u00e9\u4e2d 0", logEntry.getMessage());
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("message \u00e9\u4e2d 1", logEntry.getMessage());
+        assertFalse(reader.readLogEntry(logEntry));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        ChannelBuffer content = BinaryPublicationFormat.writeRequest(newRequest(2));
+        content.writerIndex(content.writerIndex() - 3);
+
+        BinaryPublicationRequestReader reader = new BinaryPublicationRequestReader(content);
+        try {
+            reader.readHeader();
+            fail("IOException expected");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        ChannelBuffer content = BinaryPublicationFormat.writeRequest(newRequest(2));
+
+        // Log entries can be read after validating
+        BinaryPublicationRequestReader reader = new BinaryPublicationRequestReader(content);
+        reader.readHeader();
+        reader.validate();
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("message \u00e9\u4e2d 0", logEntry.getMessage());
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("message \u00e9\u4e2d 1", logEntry.getMessage());
+        assertFalse(reader.readLogEntry(logEntry));
+
+        // Bad field inside the last log entry is found before any log entry is handed out
+        content = ChannelBuffers.dynamicBuffer();
+        content.writeBytes(BinaryPublicationFormat.writeRequest(newRequest(2)));
+        content.writeByte((5 << 3) | 2); // log entry of 2 bytes
+        content.writeByte(2);
+        content.writeByte((6 << 3) | 2); // message of 10 bytes but there are none
+        content.writeByte(10);
+
+        reader = new BinaryPublicationRequestReader(content);
+        reader.readHeader();
+        try {
+            reader.validate();
+            fail("IOException expected");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        PublicationResponseAO response = BinaryPublicationFormat.readResponse(BinaryPublicationFormat
+                .writeResponse(new PublicationResponseAO("123")));
+        assertEquals("123", response.getMessageID());
+        assertTrue(response.isSuccess());
+        assertNull(response.getErrorMessage());
+        assertNull(response.getErrorStackTrace());
+
+        response = BinaryPublicationFormat.readResponse(BinaryPublicationFormat.writeResponse(new PublicationResponseAO(
+                "456", new IllegalArgumentException("bad"))));
+        assertEquals("456", response.getMessageID());
+        assertFalse(response.isSuccess());
+        assertEquals("bad", response.getErrorMessage());
+        assertTrue(response.getErrorStackTrace().contains("IllegalArgumentException"));
+    }
+}
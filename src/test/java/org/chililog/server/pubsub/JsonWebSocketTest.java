@@ -38,15 +38,18 @@ import org.chililog.server.data.UserBO;
 import org.chililog.server.data.UserController;
 import org.chililog.server.engine.MqService;
 import org.chililog.server.engine.RepositoryService;
+import org.chililog.server.pubsub.jsonhttp.BinaryPublicationFormat;
 import org.chililog.server.pubsub.jsonhttp.JsonHttpService;
 import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
 import org.chililog.server.pubsub.jsonhttp.PublicationRequestAO;
 import org.chililog.server.pubsub.jsonhttp.PublicationResponseAO;
 import org.chililog.server.pubsub.jsonhttp.SubscriptionRequestAO;
 import org.chililog.server.pubsub.jsonhttp.SubscriptionResponseAO;
+import org.chililog.server.pubsub.websocket.BinaryWebSocketFrame;
 import org.chililog.server.pubsub.websocket.TextWebSocketFrame;
 import org.chililog.server.pubsub.websocket.WebSocketFrame;
 import org.chililog.server.pubsub.websocket.WebSocketSpecificationVersion;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -346,6 +349,73 @@ public class JsonWebSocketTest {
 
     }
 
+    @Test
+    public void testPublishBinaryLogEntries() throws Exception {
+        PublishCallbackHandler callbackHandler = new PublishCallbackHandler();
+        WebSocketClientFactory factory = new WebSocketClientFactory();
+
+        WebSocketClient client = factory.newClient(new URI("ws://localhost:61615/websocket"), _wsVersion,
+                callbackHandler);
+
+        // Connect
+        client.connect().awaitUninterruptibly();
+        Thread.sleep(500);
+        assertTrue(callbackHandler.connected);
+
+        // Publish
+        PublicationRequestAO request = new PublicationRequestAO();
+        request.setMessageID("testPublishBinaryLogEntries");
+        request.setUsername("JsonWsTestUser_Publisher");
+        request.setPassword("222");
+        request.setRepositoryName(REPOSITORY_NAME);
+        LogEntryAO[] logEntries = new LogEntryAO[10];
+        for (int i = 0; i < logEntries.length; i++) {
+            LogEntryAO logEntry = new LogEntryAO();
+            logEntry.setTimestamp("2011-01-01T00:00:00.000Z");
+            logEntry.setSource("junit");
+            logEntry.setHost("localhost");
+            logEntry.setSeverity("4");
+            logEntry.setFields("{ \"fld_field1\": 1 }");
+            logEntry.setMessage("test binary message " + i);
+            logEntries[i] = logEntry;
+        }
+        request.setLogEntries(logEntries);
+        client.send(new BinaryWebSocketFrame(BinaryPublicationFormat.writeRequest(request)));
+
+        // Wait for it to be processed
+        Thread.sleep(1000);
+
+        // Check response
+        assertNotNull(callbackHandler.binaryMessageReceived);
+        PublicationResponseAO response = BinaryPublicationFormat.readResponse(callbackHandler.binaryMessageReceived);
+        assertEquals("testPublishBinaryLogEntries", response.getMessageID());
+        assertTrue(response.isSuccess());
+        assertNull(response.getErrorMessage());
+
+        // Bad password
+        callbackHandler.binaryMessageReceived = null;
+        request.setPassword("bad");
+        client.send(new BinaryWebSocketFrame(BinaryPublicationFormat.writeRequest(request)));
+        Thread.sleep(1000);
+        assertNotNull(callbackHandler.binaryMessageReceived);
+        response = BinaryPublicationFormat.readResponse(callbackHandler.binaryMessageReceived);
+        assertEquals("testPublishBinaryLogEntries", response.getMessageID());
+        assertFalse(response.isSuccess());
+        assertNotNull(response.getErrorMessage());
+
+        client.disconnect();
+
+        // Check database
+        DBCollection coll = _db.getCollection(MONGODB_COLLECTION_NAME);
+        assertEquals(10, coll.find().count());
+
+        DBObject dbObject = coll.findOne();
+        assertEquals("junit", dbObject.get(RepositoryEntryBO.SOURCE_FIELD_NAME));
+        assertEquals("localhost", dbObject.get(RepositoryEntryBO.HOST_FIELD_NAME));
+        assertEquals(4L, dbObject.get(RepositoryEntryBO.SEVERITY_FIELD_NAME));
+        assertEquals(1, dbObject.get("fld_field1"));
+    }
+
     @Test
     public void testPublishSubsequentLogEntries() throws Exception {
         PublishCallbackHandler callbackHandler = new PublishCallbackHandler();
@@ -1044,6 +1114,7 @@ public class JsonWebSocketTest {
 
         public boolean connected = false;
         public String messageReceived = null;
+        public ChannelBuffer binaryMessageReceived = null;
 
         public PublishCallbackHandler() {
             return;
@@ -1063,6 +1134,11 @@ public class JsonWebSocketTest {
 
         @Override
         public void onMessage(WebSocketClient client, WebSocketFrame frame) {
+            if (frame instanceof BinaryWebSocketFrame) {
+                _logger.debug("Publish WebSocket Received Binary Message");
+                binaryMessageReceived = frame.getBinaryData();
+                return;
+            }
             TextWebSocketFrame textFrame = (TextWebSocketFrame) frame;
             _logger.debug("Publish WebSocket Received Message:" + textFrame.getText());
             messageReceived = textFrame.getText();
@@ -0,0 +1,217 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.chililog.server.common.JsonTranslator;
+import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
+import org.chililog.server.pubsub.jsonhttp.PublicationRequestAO;
+import org.chililog.server.pubsub.jsonhttp.PublicationRequestReader;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * Test reading publication requests one log entry at a time
+ * 
+ * @author vibul
+ * 
+ */
+public class PublicationRequestReaderTest {
+
+    private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+    private static ChannelBuffer toBuffer(String json) {
+        return ChannelBuffers.copiedBuffer(json, UTF_8_CHARSET);
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        PublicationRequestAO request = new PublicationRequestAO();
+        request.setMessageID("123");
+        request.setRepositoryName("junit_test");
+        request.setUsername("user1");
+        request.setPassword("pw1");
+        LogEntryAO[] logEntries = new LogEntryAO[3];
+        for (int i = 0; i < logEntries.length; i++) {
+            LogEntryAO logEntry = new LogEntryAO();
+            logEntry.setTimestamp("2011-01-01T00:00:0" + i + ".000Z");
+            logEntry.setSource("junit");
+            logEntry.setHost("localhost");
+            logEntry.setSeverity(Integer.toString(i));
+            logEntry.setMessage("message \u00e9\u4e2d " + i);
+            logEntries[i] = logEntry;
+        }
+        logEntries[1].setFields("{ \"a\": 1 }");
+        ChannelBuffer content = toBuffer(JsonTranslator.getInstance().toJson(request).replace("}", ",")
+                + "\"LogEntries\":" + JsonTranslator.getInstance().toJson(logEntries) + "}");
+        int readerIndex = content.readerIndex();
+
+        PublicationRequestReader reader = new PublicationRequestReader(content);
+        PublicationRequestAO header = reader.readHeader();
+        assertEquals("PublicationRequest", header.getMessageType());
+        assertEquals("123", header.getMessageID());
+        assertEquals("junit_test", header.getRepositoryName());
+        assertEquals("user1", header.getUsername());
+        assertEquals("pw1", header.getPassword());
+        assertNull(header.getLogEntries());
+
+        LogEntryAO logEntry = new LogEntryAO();
+        for (int i = 0; i < logEntries.length; i++) {
+            assertTrue(reader.readLogEntry(logEntry));
+            assertEquals(logEntries[i].getTimestamp(), logEntry.getTimestamp());
+            assertEquals("junit", logEntry.getSource());
+            assertEquals("localhost", logEntry.getHost());
+            assertEquals(Integer.toString(i), logEntry.getSeverity());
+            assertEquals(logEntries[i].getFields(), logEntry.getFields());
+            assertEquals(logEntries[i].getMessage(), logEntry.getMessage());
+        }
+        assertFalse(reader.readLogEntry(logEntry));
+        assertFalse(reader.readLogEntry(logEntry));
+        reader.close();
+
+        // Buffer is not consumed
+        assertEquals(readerIndex, content.readerIndex());
+    }
+
+    @Test
+    public void testHeaderAfterLogEntries() throws Exception {
+        String json = "{ \"LogEntries\": [ { \"Message\": \"m1\", \"Unknown\": { \"x\": [1, 2] } }, "
+                + "{ \"Message\": \"m2\", \"Severity\": 3 } ], \"RepositoryName\": \"junit_test\", "
+                + "\"Username\": \"user1\", \"Password\": \"pw1\", \"MessageID\": \"456\" }";
+
+        PublicationRequestReader reader = new PublicationRequestReader(toBuffer(json));
+        PublicationRequestAO header = reader.readHeader();
+        assertEquals("junit_test", header.getRepositoryName());
+        assertEquals("user1", header.getUsername());
+        assertEquals("pw1", header.getPassword());
+        assertEquals("456", header.getMessageID());
+
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("m1", logEntry.getMessage());
+        assertNull(logEntry.getSeverity());
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("m2", logEntry.getMessage());
+        assertEquals("3", logEntry.getSeverity());
+        assertFalse(reader.readLogEntry(logEntry));
+    }
+
+    @Test
+    public void testMessageIDAfterLogEntries() throws Exception {
+        String json = "{ \"RepositoryName\": \"junit_test\", \"Username\": \"user1\", \"Password\": \"pw1\", "
+                + "\"LogEntries\": [ { \"Message\": \"m1\" } ], \"MessageID\": \"789\" }";
+
+        PublicationRequestReader reader = new PublicationRequestReader(toBuffer(json));
+        PublicationRequestAO header = reader.readHeader();
+        assertEquals("", header.getMessageID());
+
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(reader.readLogEntry(logEntry));
+        assertFalse(reader.readLogEntry(logEntry));
+        assertEquals("789", header.getMessageID());
+    }
+
+    @Test
+    public void testNoLogEntries() throws Exception {
+        String json = "{ \"RepositoryName\": \"junit_test\", \"Username\": \"user1\", \"Password\": \"pw1\", "
+                + "\"LogEntries\": null }";
+
+        PublicationRequestReader reader = new PublicationRequestReader(toBuffer(json));
+        assertEquals("junit_test", reader.readHeader().getRepositoryName());
+        assertFalse(reader.readLogEntry(new LogEntryAO()));
+    }
+
+    @Test
+    public void testBadJson() throws Exception {
+        String json = "{ \"RepositoryName\": \"junit_test\", \"Username\": \"user1\", \"Password\": \"pw1\", "
+                + "\"LogEntries\": [ { \"Message\": \"m1\" }, { \"Message\": ";
+
+        PublicationRequestReader reader = new PublicationRequestReader(toBuffer(json));
+        reader.readHeader();
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(reader.readLogEntry(logEntry));
+        try {
+            reader.readLogEntry(logEntry);
+            fail("IOException expected");
+        } catch (IOException ex) {
+            // expected
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        String json = "{ \"LogEntries\": [ { \"Message\": \"m1\" }, { \"Message\": \"m2\" } ], "
+                + "\"RepositoryName\": \"junit_test\", \"Username\": \"user1\", \"Password\": \"pw1\" }";
+
+        // Log entries can be read after validating
+        PublicationRequestReader reader = new PublicationRequestReader(toBuffer(json));
+        reader.readHeader();
+        reader.validate();
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("m1", logEntry.getMessage());
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("m2", logEntry.getMessage());
+        assertFalse(reader.readLogEntry(logEntry));
+        reader.close();
+
+        // Header before log entries and message ID after
+        json = "{ \"RepositoryName\": \"junit_test\", \"Username\": \"user1\", \"Password\": \"pw1\", "
+                + "\"LogEntries\": [ { \"Message\": \"m1\" } ], \"MessageID\": \"789\" }";
+        reader = new PublicationRequestReader(toBuffer(json));
+        PublicationRequestAO header = reader.readHeader();
+        reader.validate();
+        assertEquals("789", header.getMessageID());
+        assertTrue(reader.readLogEntry(logEntry));
+        assertEquals("m1", logEntry.getMessage());
+        assertFalse(reader.readLogEntry(logEntry));
+        reader.close();
+
+        // No log entries
+        json = "{ \"RepositoryName\": \"junit_test\", \"Username\": \"user1\", \"Password\": \"pw1\" }";
+        reader = new PublicationRequestReader(toBuffer(json));
+        reader.readHeader();
+        reader.validate();
+        assertFalse(reader.readLogEntry(logEntry));
+        reader.close();
+    }
+
+    @Test
+    public void testValidateBadJson() throws Exception {
+        String json = "{ \"RepositoryName\": \"junit_test\", \"Username\": \"user1\", \"Password\": \"pw1\", "
+                + "\"LogEntries\": [ { \"Message\": \"m1\" }, { \"Message\": ";
+
+        // Error is found before any log entry is handed out
+        PublicationRequestReader reader = new PublicationRequestReader(toBuffer(json));
+        reader.readHeader();
+        try {
+            reader.validate();
+            fail("IOException expected");
+        } catch (IOException ex) {
+            // expected
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,128 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.junit.Test;
+
+/**
+ * Test splitting TCP streams into syslog messages
+ * 
+ * @author vibul
+ * 
+ */
+public class SyslogFrameDecoderTest {
+
+    private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+    private static ChannelBuffer toBuffer(String s) {
+        return ChannelBuffers.copiedBuffer(s, UTF_8_CHARSET);
+    }
+
+    private static String poll(DecoderEmbedder<ChannelBuffer> decoder) {
+        ChannelBuffer frame = decoder.poll();
+        return frame == null ? null : frame.toString(UTF_8_CHARSET);
+    }
+
+    private static void assertTooLong(DecoderEmbedder<ChannelBuffer> decoder, String s) {
+        try {
+            decoder.offer(toBuffer(s));
+            fail("Exception expected");
+        } catch (CodecEmbedderException ex) {
+            assertTrue(ex.getCause() instanceof TooLongFrameException);
+        }
+    }
+
+    @Test
+    public void testOctetCounting() throws Exception {
+        DecoderEmbedder<ChannelBuffer> decoder = new DecoderEmbedder<ChannelBuffer>(new SyslogFrameDecoder(100));
+
+        // Messages may contain line breaks and be split over many reads
+        decoder.offer(toBuffer("11 <13>line 1\n11 <13>li"));
+        decoder.offer(toBuffer("ne\n 2"));
+        decoder.offer(toBuffer("1"));
+        decoder.offer(toBuffer("0 <13>line 3"));
+        decoder.finish();
+
+        assertEquals("<13>line 1\n", poll(decoder));
+        assertEquals("<13>line\n 2", poll(decoder));
+        assertEquals("<13>line 3", poll(decoder));
+        assertNull(poll(decoder));
+    }
+
+    @Test
+    public void testNonTransparent() throws Exception {
+        DecoderEmbedder<ChannelBuffer> decoder = new DecoderEmbedder<ChannelBuffer>(new SyslogFrameDecoder(100));
+
+        decoder.offer(toBuffer("<13>line 1\n<13>line 2\r\n\n<13>li"));
+        decoder.offer(toBuffer("ne 3\n<13>line 4"));
+        decoder.finish();
+
+        assertEquals("<13>line 1", poll(decoder));
+        assertEquals("<13>line 2\r", poll(decoder));
+        assertEquals("<13>line 3", poll(decoder));
+        assertEquals("<13>line 4", poll(decoder));
+        assertNull(poll(decoder));
+    }
+
+    @Test
+    public void testMixed() throws Exception {
+        DecoderEmbedder<ChannelBuffer> decoder = new DecoderEmbedder<ChannelBuffer>(new SyslogFrameDecoder(100));
+
+        decoder.offer(toBuffer("<13>line 1\n10 <13>line 2<13>line 3\n"));
+        decoder.offer(toBuffer("1a <13>line 4\n"));
+        decoder.finish();
+
+        assertEquals("<13>line 1", poll(decoder));
+        assertEquals("<13>line 2", poll(decoder));
+        assertEquals("<13>line 3", poll(decoder));
+        assertEquals("1a <13>line 4", poll(decoder));
+        assertNull(poll(decoder));
+    }
+
+    @Test
+    public void testTooLong() throws Exception {
+        DecoderEmbedder<ChannelBuffer> decoder = new DecoderEmbedder<ChannelBuffer>(new SyslogFrameDecoder(10));
+
+        // Octet counted message is skipped even if it is received over many reads
+        assertTooLong(decoder, "15 ");
+        decoder.offer(toBuffer("<13>line 1 too"));
+        decoder.offer(toBuffer("!8 <13>line"));
+        assertEquals("<13>line", poll(decoder));
+
+        // Line is skipped up to the next line break
+        assertTooLong(decoder, "<13>line 2 is too");
+        decoder.offer(toBuffer(" long\n<13>line\n"));
+        assertEquals("<13>line", poll(decoder));
+
+        assertTooLong(decoder, "<13>line 3 is too long\n");
+        decoder.offer(toBuffer("<13>line\n"));
+        decoder.finish();
+        assertEquals("<13>line", poll(decoder));
+        assertNull(poll(decoder));
+    }
+}
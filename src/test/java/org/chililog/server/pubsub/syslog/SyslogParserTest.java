@@ -0,0 +1,258 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.chililog.server.data.RepositoryEntryBO.Severity;
+import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
+import org.junit.Test;
+
+/**
+ * Test parsing RFC 5424 and RFC 3164 syslog messages
+ * 
+ * @author vibul
+ * 
+ */
+public class SyslogParserTest {
+
+    private static final String REMOTE_HOST = "10.1.1.1";
+
+    private static String format(Date d) {
+        return RepositoryEntryMqMessage.getDateFormatter().format(d);
+    }
+
+    @Test
+    public void testRfc5424() throws Exception {
+        SyslogParser parser = new SyslogParser();
+        SyslogMessage msg = new SyslogMessage();
+
+        // Example 1 from RFC 5424
+        assertTrue(parser.parse("<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - \uFEFF'su root' "
+                + "failed for lonvick on /dev/pts/8\n", REMOTE_HOST, msg));
+        assertEquals(4, msg.getFacility());
+        assertEquals("auth", msg.getFacilityName());
+        assertEquals(Severity.Critical, msg.getSeverity());
+        assertEquals("2003-10-11T22:14:15.003Z", format(msg.getTimestamp()));
+        assertEquals("mymachine.example.com", msg.getHost());
+        assertEquals("su", msg.getAppName());
+        assertNull(msg.getProcId());
+        assertEquals("ID47", msg.getMsgId());
+        assertNull(msg.getStructuredData());
+        assertEquals("'su root' failed for lonvick on /dev/pts/8", msg.getMessage());
+
+        // Example 2 from RFC 5424
+        assertTrue(parser.parse("<165>1 2003-08-24T05:14:15.000003-07:00 192.0.2.1 myproc 8710 - - %% It's time to "
+                + "make the do-nuts.", REMOTE_HOST, msg));
+        assertEquals(20, msg.getFacility());
+        assertEquals("local4", msg.getFacilityName());
+        assertEquals(Severity.Notice, msg.getSeverity());
+        assertEquals("2003-08-24T12:14:15.000Z", format(msg.getTimestamp()));
+        assertEquals("192.0.2.1", msg.getHost());
+        assertEquals("myproc", msg.getAppName());
+        assertEquals("8710", msg.getProcId());
+        assertNull(msg.getMsgId());
+        assertEquals("%% It's time to make the do-nuts.", msg.getMessage());
+
+        // Example 3 from RFC 5424
+        assertTrue(parser.parse("<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 "
+                + "[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] \uFEFFAn application "
+                + "event log entry...", REMOTE_HOST, msg));
+        assertEquals("evntslog", msg.getAppName());
+        assertEquals("[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"]",
+                msg.getStructuredData());
+        assertEquals("An application event log entry...", msg.getMessage());
+
+        // Example 4 from RFC 5424 with an escaped ] and no MSG
+        assertTrue(parser.parse("<165>1 2003-10-11T22:14:15+10:00 mymachine.example.com evntslog - ID47 "
+                + "[exampleSDID@32473 iut=\"3\" note=\"a \\] b\"][examplePriority@32473 class=\"high\"]",
+                REMOTE_HOST, msg));
+        assertEquals("2003-10-11T12:14:15.000Z", format(msg.getTimestamp()));
+        assertEquals("[exampleSDID@32473 iut=\"3\" note=\"a \\] b\"][examplePriority@32473 class=\"high\"]",
+                msg.getStructuredData());
+        assertEquals("", msg.getMessage());
+
+        // All NILVALUEs
+        Date before = new Date();
+        assertTrue(parser.parse("<0>1 - - - - - -", REMOTE_HOST, msg));
+        assertEquals(0, msg.getFacility());
+        assertEquals(Severity.Emergency, msg.getSeverity());
+        assertFalse(msg.getTimestamp().before(before));
+        assertEquals(REMOTE_HOST, msg.getHost());
+        assertNull(msg.getAppName());
+        assertEquals("", msg.getMessage());
+    }
+
+    @Test
+    public void testRfc3339() throws Exception {
+        SyslogParser parser = new SyslogParser();
+
+        assertEquals("1985-04-12T23:20:50.520Z", format(parser.parseRfc3339("1985-04-12T23:20:50.52Z")));
+        assertEquals("1996-12-20T00:39:57.000Z", format(parser.parseRfc3339("1996-12-19T16:39:57-08:00")));
+        assertEquals("2003-10-11T22:14:15.003Z", format(parser.parseRfc3339("2003-10-11t22:14:15.003456789z")));
+
+        assertNull(parser.parseRfc3339("2003-10-11T22:14:15"));
+        assertNull(parser.parseRfc3339("2003-10-11T22:14:15."));
+        assertNull(parser.parseRfc3339("2003-10-11 22:14:15Z"));
+        assertNull(parser.parseRfc3339("2003-13-11T22:14:15Z"));
+        assertNull(parser.parseRfc3339("2003-10-11T22:14:15+1000"));
+        assertNull(parser.parseRfc3339("2003-10-11T22:14:15.003Zabc"));
+    }
+
+    @Test
+    public void testRfc3164() throws Exception {
+        SyslogParser parser = new SyslogParser();
+        SyslogMessage msg = new SyslogMessage();
+
+        // Example from RFC 3164
+        assertTrue(parser.parse("<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8",
+                REMOTE_HOST, msg));
+        assertEquals(4, msg.getFacility());
+        assertEquals(Severity.Critical, msg.getSeverity());
+        GregorianCalendar cal = new GregorianCalendar();
+        cal.setTime(msg.getTimestamp());
+        assertEquals(Calendar.OCTOBER, cal.get(Calendar.MONTH));
+        assertEquals(11, cal.get(Calendar.DAY_OF_MONTH));
+        assertEquals(22, cal.get(Calendar.HOUR_OF_DAY));
+        assertEquals(14, cal.get(Calendar.MINUTE));
+        assertEquals(15, cal.get(Calendar.SECOND));
+        assertEquals("mymachine", msg.getHost());
+        assertEquals("su", msg.getAppName());
+        assertNull(msg.getProcId());
+        assertEquals("'su root' failed for lonvick on /dev/pts/8", msg.getMessage());
+
+        // Space padded day and process id
+        assertTrue(parser.parse("<86>Feb  5 17:32:18 10.0.0.99 sshd[1234]: Accepted password for root\r\n",
+                REMOTE_HOST, msg));
+        assertEquals(10, msg.getFacility());
+        assertEquals(Severity.Information, msg.getSeverity());
+        cal.setTime(msg.getTimestamp());
+        assertEquals(Calendar.FEBRUARY, cal.get(Calendar.MONTH));
+        assertEquals(5, cal.get(Calendar.DAY_OF_MONTH));
+        assertEquals("10.0.0.99", msg.getHost());
+        assertEquals("sshd", msg.getAppName());
+        assertEquals("1234", msg.getProcId());
+        assertEquals("Accepted password for root", msg.getMessage());
+
+        // No HOSTNAME
+        assertTrue(parser.parse("<13>Feb 05 17:32:18 sshd[1234]: Accepted", REMOTE_HOST, msg));
+        assertEquals(REMOTE_HOST, msg.getHost());
+        assertEquals("sshd", msg.getAppName());
+        assertEquals("1234", msg.getProcId());
+        assertEquals("Accepted", msg.getMessage());
+
+        // No TAG
+        assertTrue(parser.parse("<13>Feb 05 17:32:18 myhost some message: with colon", REMOTE_HOST, msg));
+        assertEquals("myhost", msg.getHost());
+        assertNull(msg.getAppName());
+        assertEquals("some message: with colon", msg.getMessage());
+
+        // No TIMESTAMP so everything after PRI is the message
+        Date before = new Date();
+        assertTrue(parser.parse("<13>myhost su: hello", REMOTE_HOST, msg));
+        assertFalse(msg.getTimestamp().before(before));
+        assertEquals(REMOTE_HOST, msg.getHost());
+        assertNull(msg.getAppName());
+        assertEquals("myhost su: hello", msg.getMessage());
+    }
+
+    @Test
+    public void testRfc3164Year() throws Exception {
+        SyslogParser parser = new SyslogParser();
+        SyslogMessage msg = new SyslogMessage();
+        String[] months = new String[] { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov",
+                "Dec" };
+
+        // A timestamp a month from now must be from last year
+        GregorianCalendar cal = new GregorianCalendar();
+        cal.add(Calendar.DAY_OF_MONTH, 30);
+        String text = String.format("<13>%s %2d %02d:%02d:%02d host app: msg", months[cal.get(Calendar.MONTH)],
+                cal.get(Calendar.DAY_OF_MONTH), cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE),
+                cal.get(Calendar.SECOND));
+        assertTrue(parser.parse(text, REMOTE_HOST, msg));
+
+        GregorianCalendar parsed = new GregorianCalendar();
+        parsed.setTime(msg.getTimestamp());
+        assertEquals(cal.get(Calendar.YEAR) - 1, parsed.get(Calendar.YEAR));
+        assertEquals(cal.get(Calendar.MONTH), parsed.get(Calendar.MONTH));
+        assertEquals(cal.get(Calendar.DAY_OF_MONTH), parsed.get(Calendar.DAY_OF_MONTH));
+
+        // A timestamp a minute ago is from this year
+        cal = new GregorianCalendar();
+        cal.add(Calendar.MINUTE, -1);
+        text = String.format("<13>%s %2d %02d:%02d:%02d host app: msg", months[cal.get(Calendar.MONTH)],
+                cal.get(Calendar.DAY_OF_MONTH), cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE),
+                cal.get(Calendar.SECOND));
+        assertTrue(parser.parse(text, REMOTE_HOST, msg));
+        parsed.setTime(msg.getTimestamp());
+        assertEquals(cal.get(Calendar.YEAR), parsed.get(Calendar.YEAR));
+    }
+
+    @Test
+    public void testNoPri() throws Exception {
+        SyslogParser parser = new SyslogParser();
+        SyslogMessage msg = new SyslogMessage();
+
+        assertTrue(parser.parse("hello world\n", REMOTE_HOST, msg));
+        assertEquals(1, msg.getFacility());
+        assertEquals(Severity.Notice, msg.getSeverity());
+        assertEquals(REMOTE_HOST, msg.getHost());
+        assertEquals("hello world", msg.getMessage());
+
+        assertTrue(parser.parse("<192>hello", REMOTE_HOST, msg));
+        assertEquals(Severity.Notice, msg.getSeverity());
+        assertEquals("<192>hello", msg.getMessage());
+
+        assertTrue(parser.parse("<>hello", REMOTE_HOST, msg));
+        assertEquals("<>hello", msg.getMessage());
+
+        assertFalse(parser.parse("", REMOTE_HOST, msg));
+        assertFalse(parser.parse(" \r\n", REMOTE_HOST, msg));
+    }
+
+    @Test
+    public void testToLogEntry() throws Exception {
+        SyslogParser parser = new SyslogParser();
+        SyslogMessage msg = new SyslogMessage();
+        LogEntryAO logEntry = new LogEntryAO();
+
+        assertTrue(parser.parse("<165>1 2003-10-11T22:14:15.003Z host1 app1 8710 ID47 [id@1 a=\"1\"] hello",
+                REMOTE_HOST, msg));
+        msg.toLogEntry(logEntry, "syslog", RepositoryEntryMqMessage.getDateFormatter());
+        assertEquals("2003-10-11T22:14:15.003Z", logEntry.getTimestamp());
+        assertEquals("app1", logEntry.getSource());
+        assertEquals("host1", logEntry.getHost());
+        assertEquals("5", logEntry.getSeverity());
+        assertEquals("{ \"facility\" : 20 , \"proc_id\" : \"8710\" , \"msg_id\" : \"ID47\" , "
+                + "\"structured_data\" : \"[id@1 a=\\\"1\\\"]\"}", logEntry.getFields());
+        assertEquals("hello", logEntry.getMessage());
+
+        assertTrue(parser.parse("<11>hello", REMOTE_HOST, msg));
+        msg.toLogEntry(logEntry, "syslog", RepositoryEntryMqMessage.getDateFormatter());
+        assertEquals("syslog", logEntry.getSource());
+        assertEquals(REMOTE_HOST, logEntry.getHost());
+        assertEquals("3", logEntry.getSeverity());
+        assertEquals("{ \"facility\" : 1}", logEntry.getFields());
+    }
+}
@@ -0,0 +1,78 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.syslog;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.chililog.server.common.ChiliLogException;
+import org.chililog.server.pubsub.Strings;
+import org.junit.Test;
+
+/**
+ * Test routing syslog messages to repositories
+ * 
+ * @author vibul
+ * 
+ */
+public class SyslogRouterTest {
+
+    private static SyslogMessage newMessage(String host, String appName, int facility) {
+        SyslogMessage msg = new SyslogMessage();
+        msg.setHost(host);
+        msg.setAppName(appName);
+        msg.setFacility(facility);
+        return msg;
+    }
+
+    @Test
+    public void testRoute() throws Exception {
+        SyslogRouter router = new SyslogRouter(Arrays.asList("web_logs app ^(nginx|httpd)$",
+                "auth_logs facility ^(auth|authpriv)$", " db_logs   host ^db[0-9]+ "), "syslog");
+
+        assertEquals("web_logs", router.route(newMessage("db1", "nginx", 4)));
+        assertEquals("auth_logs", router.route(newMessage("db1", "sshd", 4)));
+        assertEquals("auth_logs", router.route(newMessage("web1", null, 10)));
+        assertEquals("db_logs", router.route(newMessage("db1", "mysqld", 3)));
+        assertEquals("syslog", router.route(newMessage("web1", "nginx2", 3)));
+        assertEquals("syslog", router.route(newMessage(null, null, 3)));
+
+        router = new SyslogRouter(Arrays.asList("web_logs app nginx"), " ");
+        assertEquals("web_logs", router.route(newMessage("web1", "my-nginx", 3)));
+        assertNull(router.route(newMessage("web1", "sshd", 3)));
+
+        router = new SyslogRouter(new ArrayList<String>(), null);
+        assertNull(router.route(newMessage("web1", "sshd", 3)));
+    }
+
+    @Test
+    public void testBadRoute() throws Exception {
+        String[] routes = new String[] { "web_logs app", "web_logs hostname ^web", "web_logs app ^(nginx", "" };
+        for (String route : routes) {
+            try {
+                new SyslogRouter(Arrays.asList(route), null);
+                fail("Exception expected: " + route);
+            } catch (ChiliLogException ex) {
+                assertEquals(Strings.SYSLOG_ROUTE_ERROR, ex.getErrorCode());
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+//
+// Copyright 2010 Cinch Logic Pty Ltd.
+//
+// http://www.chililog.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package org.chililog.server.pubsub.tcp;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+import org.chililog.server.engine.RepositoryEntryMqMessage;
+import org.chililog.server.pubsub.jsonhttp.LogEntryAO;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.junit.Test;
+
+/**
+ * Test converting TCP lines into log entries
+ * 
+ * @author vibul
+ * 
+ */
+public class TcpRequestHandlerTest {
+
+    private static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
+
+    private static ChannelBuffer toBuffer(String s) {
+        return ChannelBuffers.copiedBuffer(s, UTF_8_CHARSET);
+    }
+
+    @Test
+    public void testText() throws Exception {
+        TcpRequestHandler handler = new TcpRequestHandler(null);
+        handler.setSession(false, "app1", "host1", "6");
+
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(handler.toLogEntry(toBuffer("line 1 \u00e9"), logEntry));
+        assertEquals("line 1 \u00e9", logEntry.getMessage());
+        assertEquals("app1", logEntry.getSource());
+        assertEquals("host1", logEntry.getHost());
+        assertEquals("6", logEntry.getSeverity());
+        assertNull(logEntry.getFields());
+        Pattern timestampPattern = RepositoryEntryMqMessage.getTimestampPattern();
+        assertTrue(logEntry.getTimestamp(), timestampPattern.matcher(logEntry.getTimestamp()).matches());
+
+        assertFalse(handler.toLogEntry(toBuffer("  "), logEntry));
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        TcpRequestHandler handler = new TcpRequestHandler(null);
+        handler.setSession(true, "app1", "host1", "6");
+
+        LogEntryAO logEntry = new LogEntryAO();
+        assertTrue(handler.toLogEntry(toBuffer("{ \"Timestamp\": \"2011-01-01T00:00:00.000Z\", \"Host\": \"host2\", "
+                + "\"Severity\": \"3\", \"Fields\": \"{ \\\"a\\\": 1 }\", \"Message\": \"json 1\" }"), logEntry));
+        assertEquals("2011-01-01T00:00:00.000Z", logEntry.getTimestamp());
+        assertEquals("app1", logEntry.getSource());
+        assertEquals("host2", logEntry.getHost());
+        assertEquals("3", logEntry.getSeverity());
+        assertEquals("{ \"a\": 1 }", logEntry.getFields());
+        assertEquals("json 1", logEntry.getMessage());
+
+        // Defaults replace values from the previous line
+        assertTrue(handler.toLogEntry(toBuffer("{ \"Message\": \"json 2\" }"), logEntry));
+        assertEquals("host1", logEntry.getHost());
+        assertEquals("6", logEntry.getSeverity());
+        assertNull(logEntry.getFields());
+        assertEquals("json 2", logEntry.getMessage());
+
+        // The line is not consumed so it can be logged if it is bad
+        ChannelBuffer bad = toBuffer("{ \"Message\": ");
+        try {
+            handler.toLogEntry(bad, logEntry);
+            fail("Exception expected");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        assertEquals("{ \"Message\": ", bad.toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testFraming() throws Exception {
+        DecoderEmbedder<ChannelBuffer> decoder = new DecoderEmbedder<ChannelBuffer>(new DelimiterBasedFrameDecoder(
+                10, true, Delimiters.lineDelimiter()));
+        decoder.offer(toBuffer("line 1\nline 2\r\nli"));
+        decoder.offer(toBuffer("ne 3\n"));
+        assertEquals("line 1", decoder.poll().toString(UTF_8_CHARSET));
+        assertEquals("line 2", decoder.poll().toString(UTF_8_CHARSET));
+        assertEquals("line 3", decoder.poll().toString(UTF_8_CHARSET));
+
+        // Over long lines are discarded and the handler ignores the exception
+        try {
+            decoder.offer(toBuffer("this line is too long\n"));
+            fail("Exception expected");
+        } catch (CodecEmbedderException ex) {
+            assertTrue(ex.getCause() instanceof TooLongFrameException);
+        }
+
+        decoder.offer(toBuffer("line 4\n"));
+        decoder.finish();
+        assertEquals("line 4", decoder.poll().toString(UTF_8_CHARSET));
+        assertNull(decoder.poll());
+    }
+}